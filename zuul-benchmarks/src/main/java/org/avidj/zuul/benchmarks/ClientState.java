@@ -0,0 +1,86 @@
+package org.avidj.zuul.benchmarks;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The state of one benchmark thread: its own session, a private lock path, a batch of private lock
+ * paths for multi locks, the path shared by all threads, and a private path below the shared one.
+ */
+@State(Scope.Thread)
+public class ClientState {
+  private static final AtomicInteger SESSIONS = new AtomicInteger();
+
+  /** The number of paths locked at once by multi lock benchmarks. */
+  @Param({ "8" })
+  public int batch;
+
+  String session;
+  List<String> own;
+  List<String> shared;
+  List<String> belowShared;
+  List<List<String>> ownBatch;
+  List<String> held;
+
+  @Setup
+  public void setUp(LockManagerState state) {
+    session = "session-" + SESSIONS.incrementAndGet();
+    own = state.path(session);
+    shared = state.path("shared");
+    belowShared = new ArrayList<>(shared);
+    belowShared.add(session);
+    ownBatch = new ArrayList<>(batch);
+    for ( int i = 0; i < batch; i++ ) {
+      final List<String> path = new ArrayList<>(own);
+      path.add("item-" + i);
+      ownBatch.add(path);
+    }
+    held = new ArrayList<>(own);
+    held.add("held");
+    synchronized ( state ) {
+      state.populate(own);
+      state.populate(shared);
+    }
+  }
+
+  /** Hold a read lock on {@link #held} so that benchmarks can reenter it. */
+  @Setup(Level.Iteration)
+  public void holdLock(LockManagerState state) {
+    state.lm.lock(session, held, LockType.READ, LockScope.SHALLOW);
+  }
+
+  @TearDown(Level.Iteration)
+  public void releaseLocks(LockManagerState state) {
+    state.lm.release(session);
+  }
+}
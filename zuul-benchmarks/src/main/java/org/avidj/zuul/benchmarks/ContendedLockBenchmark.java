@@ -0,0 +1,78 @@
+package org.avidj.zuul.benchmarks;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of lock operations where all threads lock the same path. Run with {@code -t} to
+ * override the number of threads and with {@code -prof gc} to report allocation rates. Run with
+ * {@code -p engine=default,combining,single-writer} to compare lock coupling, flat combining and
+ * the single-writer lock manager.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ContendedLockBenchmark {
+
+  @Benchmark
+  public boolean sharedReadLock(LockManagerState state, ClientState client) {
+    final LockManager lm = state.lm;
+    lm.lock(client.session, client.shared, LockType.READ, LockScope.SHALLOW);
+    return lm.release(client.session, client.shared);
+  }
+
+  @Benchmark
+  public boolean sharedDeepReadLock(LockManagerState state, ClientState client) {
+    final LockManager lm = state.lm;
+    lm.lock(client.session, client.shared, LockType.READ, LockScope.DEEP);
+    return lm.release(client.session, client.shared);
+  }
+
+  @Benchmark
+  public boolean conflictingWriteLock(LockManagerState state, ClientState client) {
+    final LockManager lm = state.lm;
+    return lm.lock(client.session, client.shared, LockType.WRITE, LockScope.SHALLOW)
+        && lm.release(client.session, client.shared);
+  }
+
+  @Benchmark
+  public boolean nestedWriteLockBelowSharedPrefix(LockManagerState state, ClientState client) {
+    final LockManager lm = state.lm;
+    lm.lock(client.session, client.belowShared, LockType.WRITE, LockScope.SHALLOW);
+    return lm.release(client.session, client.belowShared);
+  }
+}
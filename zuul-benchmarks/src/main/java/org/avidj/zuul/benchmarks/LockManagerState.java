@@ -0,0 +1,161 @@
+package org.avidj.zuul.benchmarks;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.avidj.zuul.core.AsyncLockListener;
+import org.avidj.zuul.core.DefaultEmbeddedLockManager;
+import org.avidj.zuul.core.FlatCombiner;
+import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+import org.avidj.zuul.core.SingleWriterLockManager;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lock manager shared by all benchmark threads. To simulate wide nodes, a background session holds
+ * read locks on {@code fanOut - 1} siblings of every node on the benchmarked paths.
+ */
+@State(Scope.Benchmark)
+public class LockManagerState {
+  static final String BACKGROUND_SESSION = "background";
+
+  /** The number of components of the benchmarked lock paths. */
+  @Param({ "1", "4", "16" })
+  public int depth;
+
+  /** The number of children of each node on the benchmarked lock paths. */
+  @Param({ "1", "1000" })
+  public int fanOut;
+
+  /** 
+   * The lock listener to register: {@code none}, a no-op {@code sync} listener, or a no-op listener
+   * behind an {@code async} listener. Only {@code none} by default, use {@code -p listener=...}.
+   */
+  @Param({ "none" })
+  public String listener;
+
+  /**
+   * The lock manager to benchmark: the {@code default} lock coupling one, the same with flat 
+   * {@code combining}, or the {@code single-writer} one. Only {@code default} by default, use 
+   * {@code -p engine=...}.
+   */
+  @Param({ "default" })
+  public String engine;
+
+  LockManager lm;
+  private final Set<List<String>> populated = new HashSet<>();
+  private AsyncLockListener async;
+  private SingleWriterLockManager singleWriter;
+
+  @Setup
+  public void setUp() {
+    switch ( engine ) {
+      case "default":
+      case "combining":
+        break;
+      case "single-writer":
+        if ( !"none".equals(listener) ) {
+          throw new IllegalArgumentException("listeners are not supported by " + engine);
+        }
+        singleWriter = new SingleWriterLockManager();
+        singleWriter.setSessionTimeout(TimeUnit.HOURS.toMillis(1));
+        this.lm = singleWriter;
+        return;
+      default:
+        throw new IllegalArgumentException("unknown engine: " + engine);
+    }
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    lm.setSessionTimeout(TimeUnit.HOURS.toMillis(1));
+    if ( "combining".equals(engine) ) {
+      lm.setFlatCombiner(new FlatCombiner(64));
+    }
+    switch ( listener ) {
+      case "none":
+        break;
+      case "sync":
+        lm.addListener(event -> { });
+        break;
+      case "async":
+        async = new AsyncLockListener(event -> { });
+        lm.addListener(async);
+        break;
+      default:
+        throw new IllegalArgumentException("unknown listener: " + listener);
+    }
+    this.lm = lm;
+  }
+
+  @TearDown
+  public void tearDown() {
+    if ( async != null ) {
+      async.close();
+      async = null;
+    }
+    if ( singleWriter != null ) {
+      singleWriter.close();
+      singleWriter = null;
+    }
+  }
+
+  /**
+   * Create the given path and populate siblings of all of its nodes, so that every node on the
+   * path has about {@link #fanOut} children.
+   * @param path the path to populate
+   */
+  void populate(List<String> path) {
+    for ( int i = 0, n = path.size(); i < n; i++ ) {
+      final List<String> parent = path.subList(0, i);
+      if ( !populated.add(new ArrayList<>(parent)) ) {
+        continue;
+      }
+      for ( int c = 0; c < fanOut - 1; c++ ) {
+        final List<String> sibling = new ArrayList<>(parent);
+        sibling.add("sibling-" + c);
+        lm.lock(BACKGROUND_SESSION, sibling, LockType.READ, LockScope.SHALLOW);
+      }
+    }
+  }
+
+  /**
+   * Create a path of the configured depth below the given prefix.
+   * @param prefix the first component of the path
+   * @return an unmodifiable lock path of length {@link #depth}
+   */
+  List<String> path(String prefix) {
+    final List<String> path = new ArrayList<>(depth);
+    path.add(prefix);
+    for ( int i = 1; i < depth; i++ ) {
+      path.add("level-" + i);
+    }
+    return Collections.unmodifiableList(path);
+  }
+}
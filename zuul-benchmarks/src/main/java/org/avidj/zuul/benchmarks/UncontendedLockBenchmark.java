@@ -0,0 +1,103 @@
+package org.avidj.zuul.benchmarks;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of lock operations where each thread locks paths below its own prefix, so that threads
+ * only share the root node. Run with {@code -t} to set the number of threads and with 
+ * {@code -prof gc} to report allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UncontendedLockBenchmark {
+
+  @Benchmark
+  public boolean readLockRelease(LockManagerState state, ClientState client) {
+    final LockManager lm = state.lm;
+    lm.lock(client.session, client.own, LockType.READ, LockScope.SHALLOW);
+    return lm.release(client.session, client.own);
+  }
+
+  @Benchmark
+  public boolean writeLockRelease(LockManagerState state, ClientState client) {
+    final LockManager lm = state.lm;
+    lm.lock(client.session, client.own, LockType.WRITE, LockScope.SHALLOW);
+    return lm.release(client.session, client.own);
+  }
+
+  @Benchmark
+  public boolean deepWriteLockRelease(LockManagerState state, ClientState client) {
+    final LockManager lm = state.lm;
+    lm.lock(client.session, client.ownBatch.get(0), LockType.WRITE, LockScope.DEEP);
+    return lm.release(client.session, client.ownBatch.get(0));
+  }
+
+  @Benchmark
+  public boolean reenter(LockManagerState state, ClientState client) {
+    final LockManager lm = state.lm;
+    lm.lock(client.session, client.held, LockType.READ, LockScope.SHALLOW);
+    return lm.release(client.session, client.held);
+  }
+
+  @Benchmark
+  public boolean upgrade(LockManagerState state, ClientState client) {
+    final LockManager lm = state.lm;
+    lm.lock(client.session, client.own, LockType.READ, LockScope.SHALLOW);
+    lm.lock(client.session, client.own, LockType.WRITE, LockScope.SHALLOW);
+    lm.release(client.session, client.own);
+    return lm.release(client.session, client.own);
+  }
+
+  @Benchmark
+  public int multiLock(LockManagerState state, ClientState client) {
+    final LockManager lm = state.lm;
+    lm.multiLock(client.session, client.ownBatch, LockType.WRITE, LockScope.SHALLOW);
+    return lm.release(client.session, client.ownBatch);
+  }
+
+  @Benchmark
+  public void releaseSession(LockManagerState state, ClientState client) {
+    final LockManager lm = state.lm;
+    lm.multiLock(client.session, client.ownBatch, LockType.WRITE, LockScope.SHALLOW);
+    lm.release(client.session);
+  }
+
+  @Benchmark
+  public void heartbeat(LockManagerState state, ClientState client) {
+    state.lm.heartbeat(client.session);
+  }
+}
@@ -0,0 +1,94 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.zuul.client.AutoCloseableLock;
+import org.avidj.zuul.client.AutoCloseableLockManager;
+import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A lock target issuing all operations through {@link AutoCloseableLockManager}s, one per session.
+ * This includes the bookkeeping overhead of the auto closeable locks in the measurements.
+ */
+public final class AutoCloseableLockTarget implements LockTarget {
+  private final LockManager lm;
+  private final Map<String, Map<List<String>, Deque<AutoCloseableLock>>> held = 
+      new ConcurrentHashMap<>();
+
+  /**
+   * Create a new lock target.
+   * @param lm the lock manager backing the auto closeable locks
+   */
+  public AutoCloseableLockTarget(LockManager lm) {
+    Preconditions.checkNotNull(lm);
+    this.lm = lm;
+  }
+
+  @Override
+  public boolean lock(String session, List<String> path, LockType type, LockScope scope) {
+    final AutoCloseableLock lock = new AutoCloseableLockManager(session, lm).lock(path, type, scope);
+    if ( !lock.isReadLocked() ) {
+      return false;
+    }
+    final Deque<AutoCloseableLock> locks = held
+        .computeIfAbsent(session, s -> new ConcurrentHashMap<>())
+        .computeIfAbsent(path, p -> new ArrayDeque<>());
+    synchronized ( locks ) {
+      locks.push(lock);
+    }
+    return true;
+  }
+
+  @Override
+  public boolean release(String session, List<String> path) {
+    final Map<List<String>, Deque<AutoCloseableLock>> paths = held.get(session);
+    final Deque<AutoCloseableLock> locks = ( paths == null ) ? null : paths.get(path);
+    if ( locks == null ) {
+      return false;
+    }
+    final AutoCloseableLock lock;
+    synchronized ( locks ) {
+      lock = locks.poll();
+    }
+    if ( lock == null ) {
+      return false;
+    }
+    lock.close();
+    return true;
+  }
+
+  @Override
+  public void release(String session) {
+    held.remove(session);
+    lm.release(session);
+  }
+}
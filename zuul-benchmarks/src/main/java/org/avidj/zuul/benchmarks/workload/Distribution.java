@@ -0,0 +1,97 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+
+/**
+ * A distribution of non-negative long values, e.g., hold times or path depths. Distributions are
+ * immutable, all randomness comes from the given random number generator, so that a workload is 
+ * reproducible given its seed.
+ */
+public interface Distribution {
+
+  /**
+   * Returns the next sample of this distribution.
+   * @param random the source of randomness
+   * @return the next value
+   */
+  long next(Random random);
+
+  /**
+   * Returns a distribution that always yields the given value.
+   * @param value the value
+   * @return the constant distribution
+   */
+  static Distribution constant(long value) {
+    Preconditions.checkArgument(value >= 0, "value must not be negative: %s", value);
+    return random -> value;
+  }
+
+  /**
+   * Returns a distribution that yields uniformly distributed values in the given range.
+   * @param min the smallest value (inclusive)
+   * @param max the largest value (inclusive)
+   * @return the uniform distribution
+   */
+  static Distribution uniform(long min, long max) {
+    Preconditions.checkArgument(0 <= min && min <= max, "invalid range: [%s, %s]", min, max);
+    final long range = max - min + 1;
+    return random -> min + (long)( random.nextDouble() * range );
+  }
+
+  /**
+   * Returns an exponential distribution with the given mean, e.g., for hold times and 
+   * inter-arrival times of a Poisson process.
+   * @param mean the mean value
+   * @return the exponential distribution
+   */
+  static Distribution exponential(double mean) {
+    Preconditions.checkArgument(mean >= 0, "mean must not be negative: %s", mean);
+    return random -> (long)( -mean * Math.log(1 - random.nextDouble()) );
+  }
+
+  /**
+   * Parse a distribution from a string of the forms {@code <value>}, {@code uniform:<min>:<max>} or 
+   * {@code exp:<mean>}.
+   * @param spec the string to parse
+   * @return the distribution described by the given string
+   * @throws IllegalArgumentException if the string does not describe a distribution
+   */
+  static Distribution parse(String spec) throws IllegalArgumentException {
+    final String[] parts = spec.split(":");
+    try {
+      if ( parts.length == 1 ) {
+        return constant(Long.parseLong(parts[0]));
+      } else if ( parts.length == 3 && "uniform".equals(parts[0]) ) {
+        return uniform(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+      } else if ( parts.length == 2 && "exp".equals(parts[0]) ) {
+        return exponential(Double.parseDouble(parts[1]));
+      }
+    } catch ( NumberFormatException e ) {
+      throw new IllegalArgumentException("not a distribution: " + spec, e);
+    }
+    throw new IllegalArgumentException("not a distribution: " + spec);
+  }
+}
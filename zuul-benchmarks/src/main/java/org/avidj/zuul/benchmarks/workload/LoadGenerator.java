@@ -0,0 +1,187 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.zuul.benchmarks.workload.WorkloadReport.Operation;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An open-loop load generator for lock managers. Lock requests arrive as a Poisson process with the
+ * configured rate, no matter how fast previous requests complete. The schedule of requests is 
+ * computed upfront by a single dispatcher thread from a seeded random number generator and the 
+ * requests are handed to a pool of workers. The latency of each request is measured from its 
+ * scheduled start, so the time a request spends waiting for a worker, because the lock manager 
+ * stalls, is accounted for (i.e., there is no coordinated omission). Granted locks are released 
+ * after a random hold time, again measured against the scheduled release time.
+ */
+public final class LoadGenerator {
+  private static final Logger LOG = LoggerFactory.getLogger(LoadGenerator.class);
+  private final WorkloadSpec spec;
+  private final LockTarget target;
+
+  /**
+   * Create a new load generator.
+   * @param spec the workload to generate
+   * @param target the lock manager to run the workload against
+   */
+  public LoadGenerator(WorkloadSpec spec, LockTarget target) {
+    Preconditions.checkNotNull(spec);
+    Preconditions.checkNotNull(target);
+    this.spec = spec;
+    this.target = target;
+  }
+
+  /**
+   * Run the workload. This method blocks for the configured duration. Releases scheduled after the 
+   * end of the run are dropped and all remaining sessions are ended before this method returns.
+   * @return the report of the run
+   * @throws InterruptedException if interrupted while waiting for outstanding requests
+   */
+  public WorkloadReport run() throws InterruptedException {
+    final WorkloadReport report = new WorkloadReport();
+    final Random random = new Random(spec.seed);
+    final PathGenerator paths = new PathGenerator(spec.depth, spec.fanOut, spec.skew);
+    final Distribution arrivals = Distribution.exponential(1e9 / spec.rate);
+    final String[] sessions = new String[spec.sessions];
+    int generation = 0;
+    for ( int i = 0; i < sessions.length; i++ ) {
+      sessions[i] = session(i, generation);
+    }
+    final ExecutorService workers = Executors.newFixedThreadPool(spec.workers);
+    final ScheduledExecutorService releases = Executors.newSingleThreadScheduledExecutor();
+
+    LOG.info("running workload: {}", spec);
+    final long start = System.nanoTime();
+    final long end = start + spec.durationNanos;
+    long nextExpiry = ( spec.expiryIntervalNanos > 0 ) ? start + spec.expiryIntervalNanos : end;
+    long scheduled = start + arrivals.next(random);
+    while ( scheduled < end ) {
+      if ( nextExpiry <= scheduled ) {
+        generation++;
+        for ( int i = 0; i < spec.expiryBurst; i++ ) {
+          final int slot = random.nextInt(sessions.length);
+          final String expired = sessions[slot];
+          sessions[slot] = session(slot, generation);
+          final long expiry = nextExpiry;
+          awaitAndSubmit(workers, expiry, () -> expire(report, expired, expiry));
+        }
+        nextExpiry += spec.expiryIntervalNanos;
+        continue;
+      }
+      final String session = sessions[random.nextInt(sessions.length)];
+      final List<String> path = paths.next(random);
+      final LockType type = ( random.nextDouble() < spec.readRatio(scheduled - start) ) 
+          ? LockType.READ : LockType.WRITE;
+      final LockScope scope = ( random.nextDouble() < spec.deepRatio ) 
+          ? LockScope.DEEP : LockScope.SHALLOW;
+      final long holdNanos = TimeUnit.MICROSECONDS.toNanos(( scope == LockScope.DEEP ) 
+          ? spec.deepHoldMicros.next(random) 
+          : spec.shallowHoldMicros.next(random));
+      final long lockAt = scheduled;
+      awaitAndSubmit(workers, lockAt, () -> {
+        if ( lock(report, session, path, type, scope, lockAt) ) {
+          final long releaseAt = System.nanoTime() + holdNanos;
+          try {
+            releases.schedule(
+                () -> workers.execute(() -> release(report, session, path, releaseAt)), 
+                holdNanos, TimeUnit.NANOSECONDS);
+          } catch ( RejectedExecutionException e ) {
+            // the run is over, the lock is released with its session
+          }
+        }
+      });
+      scheduled += arrivals.next(random);
+    }
+
+    releases.shutdownNow();
+    workers.shutdown();
+    workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    report.elapsed(System.nanoTime() - start);
+    for ( String session : sessions ) {
+      target.release(session);
+    }
+    return report;
+  }
+
+  private boolean lock(WorkloadReport report, String session, List<String> path, LockType type, 
+      LockScope scope, long scheduled) {
+    final Operation op = Operation.of(type, scope);
+    try {
+      final boolean success = target.lock(session, path, type, scope);
+      report.record(op, System.nanoTime() - scheduled, success);
+      return success;
+    } catch ( RuntimeException e ) {
+      LOG.debug("lock failed", e);
+      report.error(op);
+      return false;
+    }
+  }
+
+  private void release(WorkloadReport report, String session, List<String> path, long scheduled) {
+    try {
+      final boolean success = target.release(session, path);
+      report.record(Operation.RELEASE, System.nanoTime() - scheduled, success);
+    } catch ( RuntimeException e ) {
+      LOG.debug("release failed", e);
+      report.error(Operation.RELEASE);
+    }
+  }
+
+  private void expire(WorkloadReport report, String session, long scheduled) {
+    try {
+      target.release(session);
+      report.record(Operation.EXPIRE, System.nanoTime() - scheduled, true);
+    } catch ( RuntimeException e ) {
+      LOG.debug("expiry failed", e);
+      report.error(Operation.EXPIRE);
+    }
+  }
+
+  // wait for the scheduled time, then hand the task to the workers; when the dispatcher is late, it
+  // submits immediately, the delay is part of the measured latency
+  static void awaitAndSubmit(Executor workers, long scheduled, Runnable task) {
+    long delay;
+    while ( ( delay = scheduled - System.nanoTime() ) > 0 ) {
+      LockSupport.parkNanos(delay);
+    }
+    workers.execute(task);
+  }
+
+  private static String session(int slot, int generation) {
+    return "load-" + slot + "-" + generation;
+  }
+}
@@ -0,0 +1,87 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+
+import java.util.List;
+
+/**
+ * The lock operations issued by the {@link LoadGenerator}. This abstracts over the different client
+ * APIs a workload can be run against. Implementations must be thread-safe.
+ */
+public interface LockTarget {
+
+  /**
+   * Try to obtain a lock.
+   * @param session the session requesting the lock
+   * @param path the path to lock
+   * @param type the type of lock
+   * @param scope the scope of the lock
+   * @return {@code true}, iff the lock was granted
+   */
+  boolean lock(String session, List<String> path, LockType type, LockScope scope);
+
+  /**
+   * Release one lock previously obtained by {@link #lock(String, List, LockType, LockScope)}.
+   * @param session the session holding the lock
+   * @param path the locked path
+   * @return {@code true}, iff the lock was released
+   */
+  boolean release(String session, List<String> path);
+
+  /**
+   * End the given session, releasing all its locks.
+   * @param session the session to end
+   */
+  void release(String session);
+
+  /**
+   * Returns a target issuing all operations directly against the given lock manager, which may be
+   * an embedded lock manager or a remote client.
+   * @param lm the lock manager
+   * @return a lock target backed by the given lock manager
+   */
+  static LockTarget of(LockManager lm) {
+    Preconditions.checkNotNull(lm);
+    return new LockTarget() {
+      @Override
+      public boolean lock(String session, List<String> path, LockType type, LockScope scope) {
+        return lm.lock(session, path, type, scope);
+      }
+
+      @Override
+      public boolean release(String session, List<String> path) {
+        return lm.release(session, path);
+      }
+
+      @Override
+      public void release(String session) {
+        lm.release(session);
+      }
+    };
+  }
+}
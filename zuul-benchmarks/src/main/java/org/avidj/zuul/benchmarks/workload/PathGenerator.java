@@ -0,0 +1,65 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates lock paths of random depth, where the component at each level is drawn from a Zipf 
+ * distribution over {@code fanOut} names. Hence, a few prefixes are hot, while the tail of the
+ * distribution yields a large number of rarely locked paths.
+ */
+public final class PathGenerator {
+  private final Distribution depth;
+  private final ZipfDistribution component;
+
+  /**
+   * Create a new path generator.
+   * @param depth the distribution of path lengths, values below 1 yield paths of length 1
+   * @param fanOut the number of distinct names on each level
+   * @param skew the Zipf exponent of the names on each level
+   */
+  public PathGenerator(Distribution depth, int fanOut, double skew) {
+    Preconditions.checkNotNull(depth);
+    this.depth = depth;
+    this.component = new ZipfDistribution(fanOut, skew);
+  }
+
+  /**
+   * Returns the next path.
+   * @param random the source of randomness
+   * @return an unmodifiable lock path
+   */
+  public List<String> next(Random random) {
+    final int length = (int)Math.max(1, depth.next(random));
+    final List<String> path = new ArrayList<>(length);
+    for ( int i = 0; i < length; i++ ) {
+      path.add("n" + component.next(random));
+    }
+    return Collections.unmodifiableList(path);
+  }
+}
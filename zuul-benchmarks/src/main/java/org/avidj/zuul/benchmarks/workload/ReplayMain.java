@@ -0,0 +1,81 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.avidj.zuul.client.ZuulRestClient;
+import org.avidj.zuul.core.DefaultEmbeddedLockManager;
+import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.trace.TraceReader;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Replays a recorded lock trace from the command line and prints its report. Without {@code --url}
+ * the trace is replayed against an embedded lock manager.
+ */
+public class ReplayMain {
+
+  /**
+   * Replay a trace.
+   * @param args the command line arguments, see {@code --help}
+   * @throws IOException if the trace cannot be read
+   * @throws InterruptedException if interrupted while replaying the trace
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    final Options options = new Options()
+        .addOption("h", "help", false, "print this message")
+        .addOption("u", "url", true, "the url of a zuul service, defaults to an embedded one")
+        .addOption("x", "speed-up", true, "factor by which to accelerate the replay")
+        .addOption("w", "workers", true, "number of worker threads");
+    final CommandLine cl;
+    try {
+      cl = new GnuParser().parse(options, args);
+    } catch ( ParseException e ) {
+      System.err.println(e.getMessage());
+      new HelpFormatter().printHelp("ReplayMain [options] <trace>", options);
+      System.exit(1);
+      return;
+    }
+    if ( cl.hasOption("help") || cl.getArgs().length != 1 ) {
+      new HelpFormatter().printHelp("ReplayMain [options] <trace>", options);
+      return;
+    }
+
+    final LockManager lm = cl.hasOption("url") 
+        ? new ZuulRestClient(cl.getOptionValue("url")) 
+        : new DefaultEmbeddedLockManager();
+    final TraceReplayer replayer = new TraceReplayer(lm, 
+        Double.parseDouble(cl.getOptionValue("speed-up", "1")),
+        Integer.parseInt(cl.getOptionValue("workers", "16")));
+    try ( TraceReader trace = new TraceReader(new FileInputStream(cl.getArgs()[0])) ) {
+      replayer.replay(trace).print(System.out);
+    }
+    System.out.printf("%d calls diverged from the trace%n", replayer.divergent());
+    System.exit(0);
+  }
+}
@@ -0,0 +1,249 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.avidj.zuul.benchmarks.workload.WorkloadReport.Operation;
+import org.avidj.zuul.rs.ZuulInitializer;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.servlet.WebappContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An end-to-end benchmark of the REST service. It boots the Zuul web application in an in-process
+ * Grizzly server, unless the url of a running service is given, and drives it with concurrent 
+ * clients over keep-alive connections. Each client repeatedly locks a path of its own, queries 
+ * the locks of its session, releases the lock and pings its session, so that the measurements 
+ * cover the HTTP layer, the controller and serialization rather than lock conflicts.
+ * 
+ * <p>By default, clients issue requests back to back to measure the maximum throughput. When a 
+ * rate is given, each client issues requests on a fixed schedule and latencies are measured from 
+ * the scheduled start, which yields realistic tail latencies (i.e., there is no coordinated
+ * omission).
+ */
+public class RestBenchmark {
+  private static final Logger LOG = LoggerFactory.getLogger(RestBenchmark.class);
+  private final String url;
+  private final int clients;
+  private final double rate;
+  private final int paths;
+  private final long durationNanos;
+
+  /**
+   * Create a new REST benchmark.
+   * @param url the base url of the service, ending with a slash
+   * @param clients the number of concurrent clients, each with its own session and connection
+   * @param rate the number of requests per second of each client, or 0 for back to back requests
+   * @param paths the number of distinct paths locked by each client
+   * @param durationMillis the duration of the run in milliseconds
+   */
+  public RestBenchmark(String url, int clients, double rate, int paths, long durationMillis) {
+    Preconditions.checkArgument(url.endsWith("/"), "url must end with a slash: %s", url);
+    Preconditions.checkArgument(clients > 0, "clients must be positive: %s", clients);
+    Preconditions.checkArgument(rate >= 0, "rate must not be negative: %s", rate);
+    Preconditions.checkArgument(paths > 0, "paths must be positive: %s", paths);
+    Preconditions.checkArgument(durationMillis > 0, "invalid duration: %s", durationMillis);
+    this.url = url;
+    this.clients = clients;
+    this.rate = rate;
+    this.paths = paths;
+    this.durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+  }
+
+  /**
+   * Run the benchmark. This method blocks for the configured duration.
+   * @return the report of the run
+   * @throws InterruptedException if interrupted while waiting for the clients
+   */
+  public WorkloadReport run() throws InterruptedException {
+    final WorkloadReport report = new WorkloadReport();
+    final PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+    connections.setMaxTotal(clients);
+    connections.setDefaultMaxPerRoute(clients);
+    try ( CloseableHttpClient http = HttpClients.custom().setConnectionManager(connections).build() ) {
+      final long start = System.nanoTime();
+      final long end = start + durationNanos;
+      final List<Thread> threads = new ArrayList<>(clients);
+      for ( int i = 0; i < clients; i++ ) {
+        final String session = "rest-" + i;
+        final Thread thread = new Thread(() -> client(http, report, session, start, end), session);
+        threads.add(thread);
+        thread.start();
+      }
+      for ( Thread thread : threads ) {
+        thread.join();
+      }
+      report.elapsed(System.nanoTime() - start);
+    } catch ( IOException e ) {
+      LOG.warn("cannot close http client", e);
+    }
+    return report;
+  }
+
+  private void client(
+      CloseableHttpClient http, WorkloadReport report, String session, long start, long end) {
+    final long interval = ( rate > 0 ) ? (long)( 1e9 / rate ) : 0;
+    final String lock = url + "s/" + session + "/bench/" + session + "/";
+    long scheduled = start;
+    for ( long i = 0; ; i++ ) {
+      final String path = lock + ( i % paths );
+      scheduled = request(http, report, Operation.WRITE_SHALLOW, new HttpPut(path + "?t=w&s=s"), 
+          scheduled, interval, end);
+      scheduled = request(http, report, Operation.INFO, new HttpGet(url + "s/" + session + "/"), 
+          scheduled, interval, end);
+      scheduled = request(http, report, Operation.RELEASE, new HttpDelete(path), 
+          scheduled, interval, end);
+      scheduled = request(http, report, Operation.HEARTBEAT, new HttpGet(url + "p/" + session), 
+          scheduled, interval, end);
+      if ( scheduled >= end ) {
+        return;
+      }
+    }
+  }
+
+  // issue the request at the scheduled time or, without a rate, immediately; returns the next
+  // scheduled time, or end if the run is over
+  private static long request(CloseableHttpClient http, WorkloadReport report, Operation op, 
+      HttpUriRequest request, long scheduled, long interval, long end) {
+    if ( scheduled >= end ) {
+      return end;
+    }
+    long start = System.nanoTime();
+    if ( interval > 0 ) {
+      long delay;
+      while ( ( delay = scheduled - ( start = System.nanoTime() ) ) > 0 ) {
+        LockSupport.parkNanos(delay);
+      }
+      start = scheduled;
+    }
+    try ( CloseableHttpResponse response = http.execute(request) ) {
+      final int status = response.getStatusLine().getStatusCode();
+      EntityUtils.consume(response.getEntity());
+      if ( status >= 500 ) {
+        report.error(op);
+      } else {
+        report.record(op, System.nanoTime() - start, status < 300);
+      }
+    } catch ( IOException e ) {
+      LOG.debug("request failed: {}", request, e);
+      report.error(op);
+    }
+    final long now = System.nanoTime();
+    return ( interval > 0 ) ? scheduled + interval : ( now < end ? now : end );
+  }
+
+  /**
+   * Start the Zuul web application in an in-process Grizzly server.
+   * @param port the port to listen on
+   * @return the running server
+   * @throws IOException if the server cannot be started
+   */
+  public static HttpServer startServer(int port) throws IOException {
+    final HttpServer server = HttpServer.createSimpleServer(null, "localhost", port);
+    final WebappContext context = new WebappContext("zuul", "");
+    new ZuulInitializer().onStartup(context);
+    context.deploy(server);
+    server.start();
+    return server;
+  }
+
+  /**
+   * Run the REST benchmark.
+   * @param args the command line arguments, see {@code --help}
+   * @throws IOException if the server cannot be started
+   * @throws InterruptedException if interrupted while running the benchmark
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    final Options options = new Options()
+        .addOption("h", "help", false, "print this message")
+        .addOption("u", "url", true, "the url of a zuul service, defaults to an in-process one")
+        .addOption("p", "port", true, "the port of the in-process service")
+        .addOption("c", "clients", true, "number of concurrent clients")
+        .addOption("r", "rate", true, "requests per second of each client, default back to back")
+        .addOption(null, "paths", true, "number of distinct paths locked by each client")
+        .addOption("d", "duration", true, "duration of the run in ms")
+        .addOption(null, "warm-up", true, "duration of an unreported warm-up run in ms")
+        .addOption(null, "virtual-threads", false, 
+            "serve each request of the in-process service on a virtual thread (Java 21)");
+    final CommandLine cl;
+    try {
+      cl = new GnuParser().parse(options, args);
+    } catch ( ParseException e ) {
+      System.err.println(e.getMessage());
+      new HelpFormatter().printHelp("RestBenchmark", options);
+      System.exit(1);
+      return;
+    }
+    if ( cl.hasOption("help") ) {
+      new HelpFormatter().printHelp("RestBenchmark", options);
+      return;
+    }
+
+    HttpServer server = null;
+    String url = cl.getOptionValue("url");
+    if ( url == null ) {
+      final int port = Integer.parseInt(cl.getOptionValue("port", "8090"));
+      if ( cl.hasOption("virtual-threads") ) {
+        System.setProperty("zuul.virtualThreads", "true");
+      }
+      server = startServer(port);
+      url = "http://localhost:" + port + "/";
+    } else if ( !url.endsWith("/") ) {
+      url += "/";
+    }
+    final int clients = Integer.parseInt(cl.getOptionValue("clients", "64"));
+    final double rate = Double.parseDouble(cl.getOptionValue("rate", "0"));
+    final int paths = Integer.parseInt(cl.getOptionValue("paths", "16"));
+    final long warmUp = Long.parseLong(cl.getOptionValue("warm-up", "5000"));
+    if ( warmUp > 0 ) {
+      new RestBenchmark(url, clients, rate, paths, warmUp).run();
+    }
+    new RestBenchmark(url, clients, rate, paths, 
+        Long.parseLong(cl.getOptionValue("duration", "20000"))).run().print(System.out);
+    if ( server != null ) {
+      server.shutdownNow();
+    }
+    System.exit(0);
+  }
+}
@@ -0,0 +1,188 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.zuul.benchmarks.workload.WorkloadReport.Operation;
+import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.trace.TraceEvent;
+import org.avidj.zuul.core.trace.TraceReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Re-issues a recorded trace (see {@link org.avidj.zuul.core.trace.RecordingLockManager}) against a
+ * lock manager. Like the {@link LoadGenerator}, the replay is open-loop: Each call is issued at its
+ * recorded start time, divided by the speed-up, and its latency is measured from that time. The 
+ * calls of one session are issued in trace order by the same worker, calls of different sessions 
+ * run concurrently. Calls whose outcome differs from the recorded one are counted as divergent.
+ */
+public final class TraceReplayer {
+  private static final Logger LOG = LoggerFactory.getLogger(TraceReplayer.class);
+  private final LockManager lm;
+  private final double speedUp;
+  private final int workers;
+  private final LongAdder divergent = new LongAdder();
+
+  /**
+   * Create a new replayer.
+   * @param lm the lock manager to replay the trace against
+   * @param speedUp the factor by which to accelerate the replay, 1 for the original rate
+   * @param workers the number of threads issuing calls
+   */
+  public TraceReplayer(LockManager lm, double speedUp, int workers) {
+    Preconditions.checkNotNull(lm);
+    Preconditions.checkArgument(speedUp > 0, "speed-up must be positive: %s", speedUp);
+    Preconditions.checkArgument(workers > 0, "workers must be positive: %s", workers);
+    this.lm = lm;
+    this.speedUp = speedUp;
+    this.workers = workers;
+  }
+
+  /**
+   * Replay the given trace. This method blocks until all calls have been issued and completed.
+   * @param trace the trace to replay
+   * @return the report of the replay
+   * @throws IOException if the trace cannot be read
+   * @throws InterruptedException if interrupted while waiting for outstanding calls
+   */
+  public WorkloadReport replay(TraceReader trace) throws IOException, InterruptedException {
+    final WorkloadReport report = new WorkloadReport();
+    final ExecutorService[] lanes = new ExecutorService[workers];
+    for ( int i = 0; i < lanes.length; i++ ) {
+      lanes[i] = Executors.newSingleThreadExecutor();
+    }
+    final long start = System.nanoTime();
+    try {
+      TraceEvent event;
+      while ( ( event = trace.read() ) != null ) {
+        final TraceEvent e = event;
+        final long scheduled = start + (long)( e.startNanos / speedUp );
+        final ExecutorService lane = lanes[( e.session.hashCode() & 0x7fffffff ) % lanes.length];
+        LoadGenerator.awaitAndSubmit(lane, scheduled, () -> issue(report, e, scheduled));
+      }
+    } finally {
+      for ( ExecutorService lane : lanes ) {
+        lane.shutdown();
+      }
+      for ( ExecutorService lane : lanes ) {
+        lane.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      }
+    }
+    report.elapsed(System.nanoTime() - start);
+    return report;
+  }
+
+  /**
+   * Returns the number of calls whose outcome differed from the recorded outcome.
+   * @return the number of divergent calls
+   */
+  public long divergent() {
+    return divergent.sum();
+  }
+
+  private void issue(WorkloadReport report, TraceEvent event, long scheduled) {
+    final Operation op;
+    int result = 1;
+    boolean hasOutcome = true;
+    try {
+      switch ( event.op ) {
+        case LOCK:
+          op = Operation.of(event.type, event.scope);
+          result = toInt(( event.argument > 0 )
+              ? lm.lock(event.session, event.path(), event.type, event.scope, event.argument)
+              : lm.lock(event.session, event.path(), event.type, event.scope));
+          break;
+        case MULTI_LOCK:
+          op = Operation.MULTI_LOCK;
+          result = toInt(lm.multiLock(event.session, event.paths, event.type, event.scope));
+          break;
+        case MIXED_MULTI_LOCK:
+          op = Operation.MULTI_LOCK;
+          result = toInt(lm.multiLock(event.session, event.requests()));
+          break;
+        case RELEASE:
+          op = Operation.RELEASE;
+          result = toInt(lm.release(event.session, event.path()));
+          break;
+        case RELEASE_PATHS:
+          op = Operation.RELEASE;
+          result = lm.release(event.session, event.paths);
+          break;
+        case END_SESSION:
+          op = Operation.EXPIRE;
+          hasOutcome = false;
+          lm.release(event.session);
+          break;
+        case HEARTBEAT:
+          op = Operation.HEARTBEAT;
+          hasOutcome = false;
+          lm.heartbeat(event.session);
+          break;
+        case UP_SCOPE:
+          op = Operation.SCOPE;
+          result = toInt(lm.upScope(event.session, event.path(), event.type));
+          break;
+        case DOWN_SCOPE:
+          op = Operation.SCOPE;
+          result = toInt(lm.downScope(event.session, event.path(), event.type, event.scope));
+          break;
+        case UPGRADE:
+          op = Operation.CONVERT;
+          result = toInt(lm.upgrade(event.session, event.path()));
+          break;
+        case DOWNGRADE:
+          op = Operation.CONVERT;
+          result = toInt(lm.downgrade(event.session, event.path()));
+          break;
+        case LEASE:
+          op = Operation.LEASE;
+          result = toInt(lm.lease(event.session, event.path()));
+          break;
+        case SESSION_TIMEOUT:
+          lm.setSessionTimeout(event.session, event.argument);
+          return;
+        default:
+          throw new IllegalStateException("unknown operation: " + event.op);
+      }
+    } catch ( RuntimeException e ) {
+      LOG.debug("replay of {} failed", event, e);
+      divergent.increment();
+      return;
+    }
+    report.record(op, System.nanoTime() - scheduled, result > 0);
+    if ( hasOutcome && result != event.result ) {
+      divergent.increment();
+    }
+  }
+
+  private static int toInt(boolean success) {
+    return success ? 1 : 0;
+  }
+}
@@ -0,0 +1,194 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.avidj.util.LatencyHistogram;
+import org.avidj.util.VirtualThreads;
+import org.avidj.zuul.core.DefaultEmbeddedLockManager;
+import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.LockScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the cost of many concurrently blocked lock requests. A holder deep write locks a prefix,
+ * then each waiter tries to write lock a path of its own below that prefix and, when rejected, 
+ * blocks on a watch of the prefix until the holder releases it. The benchmark reports the time
+ * until all waiters are blocked, the heap used per blocked waiter, and the latency from the release
+ * until each waiter has obtained its lock.
+ *
+ * <p>Waiters run on virtual threads if the JVM supports them (Java 21 and later). They block by
+ * parking only, so blocked waiters do not pin carrier threads. With {@code --platform} or on older
+ * JVMs, each waiter runs on a platform thread, whose stack is not part of the reported heap.
+ */
+public class WaiterBenchmark {
+  private static final Logger LOG = LoggerFactory.getLogger(WaiterBenchmark.class);
+  private static final List<String> PREFIX = Arrays.asList("waiters");
+  private final LockManager lm;
+  private final int waiters;
+  private final boolean virtual;
+  private volatile long released;
+
+  /**
+   * Create a new waiter benchmark.
+   * @param lm the lock manager to block on
+   * @param waiters the number of concurrently blocked waiters
+   * @param virtual whether to run the waiters on virtual threads
+   */
+  public WaiterBenchmark(LockManager lm, int waiters, boolean virtual) {
+    this.lm = lm;
+    this.waiters = waiters;
+    this.virtual = virtual;
+  }
+
+  /**
+   * Run the benchmark once.
+   * @param report whether to print the results
+   * @throws InterruptedException if interrupted while waiting for the waiters
+   */
+  public void run(boolean report) throws InterruptedException {
+    final AtomicInteger blocked = new AtomicInteger();
+    final CountDownLatch granted = new CountDownLatch(waiters);
+    final LatencyHistogram latencies = new LatencyHistogram();
+    if ( !lm.writeLock("holder", PREFIX, LockScope.DEEP) ) {
+      throw new IllegalStateException("cannot lock " + PREFIX);
+    }
+
+    final long heapBefore = usedHeap();
+    final long start = System.nanoTime();
+    final ExecutorService executor = virtual 
+        ? VirtualThreads.newThreadPerTaskExecutor() 
+        : Executors.newCachedThreadPool();
+    for ( int i = 0; i < waiters; i++ ) {
+      final String session = "waiter-" + i;
+      final List<String> path = Arrays.asList(PREFIX.get(0), Integer.toString(i));
+      executor.execute(() -> {
+        // a waiter may be woken up and block again, it is counted as blocked once
+        boolean counted = false;
+        while ( !lm.writeLock(session, path, LockScope.SHALLOW) ) {
+          final CompletableFuture<List<String>> watch = lm.watch(PREFIX, LockScope.SHALLOW);
+          // the lock may have been released before the watch was registered
+          if ( lm.writeLock(session, path, LockScope.SHALLOW) ) {
+            watch.cancel(false);
+            break;
+          }
+          if ( !counted ) {
+            blocked.incrementAndGet();
+            counted = true;
+          }
+          watch.join();
+        }
+        latencies.record(System.nanoTime() - released);
+        granted.countDown();
+      });
+    }
+    while ( blocked.get() < waiters ) {
+      Thread.sleep(10);
+    }
+    final long blockedNanos = System.nanoTime() - start;
+    final long heapBlocked = usedHeap();
+
+    released = System.nanoTime();
+    lm.release("holder", PREFIX);
+    granted.await();
+    final long grantedNanos = System.nanoTime() - released;
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+    for ( int i = 0; i < waiters; i++ ) {
+      lm.release("waiter-" + i);
+    }
+    lm.release("holder");
+    if ( !report ) {
+      return;
+    }
+
+    System.out.printf("%d waiters on %s threads%n", waiters, virtual ? "virtual" : "platform");
+    System.out.printf("  all blocked after   %8.1f ms%n", blockedNanos / 1e6);
+    System.out.printf("  heap per waiter     %8d bytes%n", ( heapBlocked - heapBefore ) / waiters);
+    System.out.printf("  all granted after   %8.1f ms%n", grantedNanos / 1e6);
+    System.out.printf("  grant latency p50   %8.1f ms%n", latencies.percentile(50) / 1e6);
+    System.out.printf("  grant latency p99   %8.1f ms%n", latencies.percentile(99) / 1e6);
+    System.out.printf("  grant latency max   %8.1f ms%n", latencies.max() / 1e6);
+  }
+
+  private static long usedHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    for ( int i = 0; i < 3; i++ ) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Run the waiter benchmark against an embedded lock manager.
+   * @param args the command line arguments, see {@code --help}
+   * @throws InterruptedException if interrupted while running the benchmark
+   */
+  public static void main(String[] args) throws InterruptedException {
+    final Options options = new Options()
+        .addOption("h", "help", false, "print this message")
+        .addOption("n", "waiters", true, 
+            "number of blocked waiters, default 100000 on virtual and 1000 on platform threads")
+        .addOption(null, "platform", false, "run the waiters on platform threads")
+        .addOption(null, "warm-up", true, "number of unreported warm-up runs");
+    final CommandLine cl;
+    try {
+      cl = new GnuParser().parse(options, args);
+    } catch ( ParseException e ) {
+      System.err.println(e.getMessage());
+      new HelpFormatter().printHelp("WaiterBenchmark", options);
+      System.exit(1);
+      return;
+    }
+    if ( cl.hasOption("help") ) {
+      new HelpFormatter().printHelp("WaiterBenchmark", options);
+      return;
+    }
+
+    final boolean virtual = !cl.hasOption("platform") && VirtualThreads.isAvailable();
+    if ( !virtual && !cl.hasOption("platform") ) {
+      LOG.warn("Virtual threads are not supported by this JVM, using platform threads");
+    }
+    final int waiters = Integer.parseInt(
+        cl.getOptionValue("waiters", virtual ? "100000" : "1000"));
+    final LockManager lm = new DefaultEmbeddedLockManager();
+    for ( int i = Integer.parseInt(cl.getOptionValue("warm-up", "1")); i > 0; i-- ) {
+      new WaiterBenchmark(lm, waiters, virtual).run(false);
+    }
+    new WaiterBenchmark(lm, waiters, virtual).run(true);
+    System.exit(0);
+  }
+}
@@ -0,0 +1,139 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.avidj.util.SpaceSaving;
+import org.avidj.util.Strings;
+import org.avidj.zuul.client.ZuulRestClient;
+import org.avidj.zuul.core.ContentionProfiler;
+import org.avidj.zuul.core.DefaultEmbeddedLockManager;
+import org.avidj.zuul.core.LockManager;
+
+import java.util.List;
+
+/**
+ * Runs a synthetic workload from the command line and prints its report. Without {@code --url} the
+ * workload runs against an embedded lock manager.
+ */
+public class WorkloadMain {
+
+  /**
+   * Run a workload.
+   * @param args the command line arguments, see {@code --help}
+   * @throws InterruptedException if interrupted while running the workload
+   */
+  public static void main(String[] args) throws InterruptedException {
+    final Options options = new Options()
+        .addOption("h", "help", false, "print this message")
+        .addOption("u", "url", true, "the url of a zuul service, defaults to an embedded one")
+        .addOption("a", "auto-closeable", false, "issue locks through auto closeable locks")
+        .addOption("r", "rate", true, "lock requests per second")
+        .addOption("d", "duration", true, "duration of the run in ms")
+        .addOption("s", "sessions", true, "number of concurrent sessions")
+        .addOption("w", "workers", true, "number of worker threads")
+        .addOption(null, "depth", true, "distribution of path lengths, e.g., uniform:1:4")
+        .addOption(null, "fan-out", true, "number of distinct names per level")
+        .addOption(null, "skew", true, "Zipf exponent of the names per level")
+        .addOption(null, "read-ratios", true, "comma separated read ratios of successive phases")
+        .addOption(null, "phase", true, "length of a phase in ms")
+        .addOption(null, "deep-ratio", true, "ratio of deep locks")
+        .addOption(null, "shallow-hold", true, "hold times of shallow locks in us, e.g., exp:1000")
+        .addOption(null, "deep-hold", true, "hold times of deep locks in us")
+        .addOption(null, "expiry-interval", true, "time between session expiry bursts in ms")
+        .addOption(null, "expiry-burst", true, "number of sessions expiring in each burst")
+        .addOption(null, "seed", true, "seed of the random number generator")
+        .addOption(null, "profile", true, "print the given number of most contended paths");
+    final CommandLine cl;
+    try {
+      cl = new GnuParser().parse(options, args);
+    } catch ( ParseException e ) {
+      System.err.println(e.getMessage());
+      new HelpFormatter().printHelp("WorkloadMain", options);
+      System.exit(1);
+      return;
+    }
+    if ( cl.hasOption("help") ) {
+      new HelpFormatter().printHelp("WorkloadMain", options);
+      return;
+    }
+
+    final WorkloadSpec spec = new WorkloadSpec()
+        .rate(Double.parseDouble(cl.getOptionValue("rate", "1000")))
+        .duration(Long.parseLong(cl.getOptionValue("duration", "10000")))
+        .sessions(Integer.parseInt(cl.getOptionValue("sessions", "100")))
+        .workers(Integer.parseInt(cl.getOptionValue("workers", "16")))
+        .paths(Distribution.parse(cl.getOptionValue("depth", "uniform:1:4")),
+            Integer.parseInt(cl.getOptionValue("fan-out", "100")),
+            Double.parseDouble(cl.getOptionValue("skew", "1")))
+        .readRatios(Long.parseLong(cl.getOptionValue("phase", "10000")), 
+            parseRatios(cl.getOptionValue("read-ratios", "0.9")))
+        .deepRatio(Double.parseDouble(cl.getOptionValue("deep-ratio", "0.1")))
+        .holdTimes(Distribution.parse(cl.getOptionValue("shallow-hold", "exp:1000")),
+            Distribution.parse(cl.getOptionValue("deep-hold", "exp:50000")))
+        .expiries(Long.parseLong(cl.getOptionValue("expiry-interval", "0")),
+            Integer.parseInt(cl.getOptionValue("expiry-burst", "0")))
+        .seed(Long.parseLong(cl.getOptionValue("seed", "42")));
+
+    final LockManager lm = cl.hasOption("url") 
+        ? new ZuulRestClient(cl.getOptionValue("url")) 
+        : new DefaultEmbeddedLockManager();
+    final ContentionProfiler profiler = 
+        ( cl.hasOption("profile") && lm instanceof DefaultEmbeddedLockManager ) 
+        ? new ContentionProfiler(1000) : null;
+    if ( profiler != null ) {
+      ( (DefaultEmbeddedLockManager)lm ).setContentionProfiler(profiler);
+    }
+    final LockTarget target = cl.hasOption("auto-closeable") 
+        ? new AutoCloseableLockTarget(lm) 
+        : LockTarget.of(lm);
+    new LoadGenerator(spec, target).run().print(System.out);
+    if ( profiler != null ) {
+      final int limit = Integer.parseInt(cl.getOptionValue("profile"));
+      print("mutex waits (ms)", profiler.getMutexWaits(limit), 1e6);
+      print("conflicts", profiler.getConflicts(limit), 1);
+    }
+    System.exit(0);
+  }
+
+  private static void print(
+      String title, List<SpaceSaving.Entry<List<String>>> hottest, double unit) {
+    System.out.println();
+    System.out.println(title);
+    for ( SpaceSaving.Entry<List<String>> entry : hottest ) {
+      System.out.printf("%12.1f  /%s%n", entry.weight / unit, Strings.join("/", entry.key));
+    }
+  }
+
+  private static double[] parseRatios(String ratios) {
+    final String[] parts = ratios.split(",");
+    final double[] result = new double[parts.length];
+    for ( int i = 0; i < parts.length; i++ ) {
+      result[i] = Double.parseDouble(parts[i].trim());
+    }
+    return result;
+  }
+}
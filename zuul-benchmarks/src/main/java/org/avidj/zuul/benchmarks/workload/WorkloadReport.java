@@ -0,0 +1,156 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.avidj.util.LatencyHistogram;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The outcome of a workload run: latency percentiles, conflict and error counts per operation. 
+ * Latencies are measured from the point in time an operation was scheduled to start, not from the
+ * time it actually started, so that a stalled lock manager cannot hide its own backlog.
+ */
+public final class WorkloadReport {
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+  /** The operations distinguished by the report. */
+  public enum Operation {
+    READ_SHALLOW, READ_DEEP, WRITE_SHALLOW, WRITE_DEEP, MULTI_LOCK, RELEASE, EXPIRE, HEARTBEAT,
+    SCOPE, CONVERT, LEASE, INFO;
+
+    static Operation of(LockType type, LockScope scope) {
+      if ( type == LockType.READ ) {
+        return ( scope == LockScope.DEEP ) ? READ_DEEP : READ_SHALLOW;
+      }
+      return ( scope == LockScope.DEEP ) ? WRITE_DEEP : WRITE_SHALLOW;
+    }
+  }
+
+  private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+  private volatile long elapsedNanos;
+
+  WorkloadReport() {
+    for ( Operation op : Operation.values() ) {
+      stats.put(op, new Stats());
+    }
+  }
+
+  void record(Operation op, long latencyNanos, boolean success) {
+    final Stats s = stats.get(op);
+    s.latency.record(latencyNanos);
+    s.count.increment();
+    if ( !success ) {
+      s.conflicts.increment();
+    }
+  }
+
+  void error(Operation op) {
+    stats.get(op).errors.increment();
+  }
+
+  void elapsed(long nanos) {
+    this.elapsedNanos = nanos;
+  }
+
+  /**
+   * Returns the latency histogram of the given operation in nanoseconds.
+   * @param op the operation
+   * @return the latencies of all completed operations of the given kind
+   */
+  public LatencyHistogram latency(Operation op) {
+    return stats.get(op).latency;
+  }
+
+  /**
+   * Returns the number of completed operations of the given kind.
+   * @param op the operation
+   * @return the number of completed operations
+   */
+  public long count(Operation op) {
+    return stats.get(op).count.sum();
+  }
+
+  /**
+   * Returns the number of completed operations of the given kind that were not granted, i.e., locks
+   * that conflicted with locks of other sessions, or releases of locks no longer held.
+   * For operations that do not return an outcome, this is always 0.
+   * @param op the operation
+   * @return the number of unsuccessful operations
+   */
+  public long conflicts(Operation op) {
+    return stats.get(op).conflicts.sum();
+  }
+
+  /**
+   * Returns the number of operations of the given kind that failed with an exception.
+   * @param op the operation
+   * @return the number of failed operations
+   */
+  public long errors(Operation op) {
+    return stats.get(op).errors.sum();
+  }
+
+  /**
+   * Print a table of all operations to the given stream, latencies are given in microseconds.
+   * @param out the stream to print to
+   */
+  public void print(PrintStream out) {
+    final double seconds = elapsedNanos / 1e9;
+    long total = 0;
+    out.printf("%-14s %10s %10s %8s %8s", "operation", "count", "conflicts", "conf%", "errors");
+    for ( double p : PERCENTILES ) {
+      out.printf(" %10s", ( p == Math.rint(p) ) ? "p" + (long)p : "p" + p);
+    }
+    out.printf(" %10s%n", "max");
+    for ( Operation op : Operation.values() ) {
+      final long count = count(op);
+      if ( count == 0 && errors(op) == 0 ) {
+        continue;
+      }
+      total += count;
+      final long conflicts = conflicts(op);
+      out.printf("%-14s %10d %10d %8.2f %8d", 
+          op, count, conflicts, count == 0 ? 0 : 100.0 * conflicts / count, errors(op));
+      final LatencyHistogram latency = latency(op);
+      for ( double p : PERCENTILES ) {
+        out.printf(" %10d", TimeUnit.NANOSECONDS.toMicros(latency.percentile(p)));
+      }
+      out.printf(" %10d%n", TimeUnit.NANOSECONDS.toMicros(latency.max()));
+    }
+    out.printf("%d operations in %.2f s (%.0f ops/s)%n", 
+        total, seconds, seconds == 0 ? 0 : total / seconds);
+  }
+
+  private static final class Stats {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder count = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+  }
+}
@@ -0,0 +1,193 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The configuration of a synthetic lock workload. All setters return this specification, so that 
+ * calls can be chained. The defaults describe a moderately skewed read-mostly workload.
+ */
+public final class WorkloadSpec {
+  double rate = 1000;
+  long durationNanos = TimeUnit.SECONDS.toNanos(10);
+  int sessions = 100;
+  int workers = 16;
+  Distribution depth = Distribution.uniform(1, 4);
+  int fanOut = 100;
+  double skew = 1;
+  double[] readRatios = { 0.9 };
+  long phaseNanos = TimeUnit.SECONDS.toNanos(10);
+  double deepRatio = 0.1;
+  Distribution shallowHoldMicros = Distribution.exponential(1000);
+  Distribution deepHoldMicros = Distribution.exponential(50_000);
+  long expiryIntervalNanos = 0;
+  int expiryBurst = 0;
+  long seed = 42;
+
+  /**
+   * Set the mean rate of lock requests. Requests arrive as a Poisson process, independent of the
+   * progress of previous requests.
+   * @param opsPerSecond the mean number of lock requests per second
+   * @return this
+   */
+  public WorkloadSpec rate(double opsPerSecond) {
+    Preconditions.checkArgument(opsPerSecond > 0, "rate must be positive: %s", opsPerSecond);
+    this.rate = opsPerSecond;
+    return this;
+  }
+
+  /**
+   * Set the time during which lock requests are issued.
+   * @param millis the duration of the run in milliseconds
+   * @return this
+   */
+  public WorkloadSpec duration(long millis) {
+    Preconditions.checkArgument(millis > 0, "duration must be positive: %s", millis);
+    this.durationNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    return this;
+  }
+
+  /**
+   * Set the number of concurrently active sessions.
+   * @param sessions the number of sessions
+   * @return this
+   */
+  public WorkloadSpec sessions(int sessions) {
+    Preconditions.checkArgument(sessions > 0, "sessions must be positive: %s", sessions);
+    this.sessions = sessions;
+    return this;
+  }
+
+  /**
+   * Set the number of threads issuing requests against the lock manager. Requests that find no idle
+   * worker are queued, and the time spent queued counts towards their latency.
+   * @param workers the number of worker threads
+   * @return this
+   */
+  public WorkloadSpec workers(int workers) {
+    Preconditions.checkArgument(workers > 0, "workers must be positive: %s", workers);
+    this.workers = workers;
+    return this;
+  }
+
+  /**
+   * Set the distribution of lock paths.
+   * @param depth the distribution of path lengths
+   * @param fanOut the number of distinct names on each level
+   * @param skew the Zipf exponent of the names on each level, 0 for uniformly distributed names
+   * @return this
+   */
+  public WorkloadSpec paths(Distribution depth, int fanOut, double skew) {
+    Preconditions.checkNotNull(depth);
+    Preconditions.checkArgument(fanOut > 0, "fan-out must be positive: %s", fanOut);
+    Preconditions.checkArgument(skew >= 0, "skew must not be negative: %s", skew);
+    this.depth = depth;
+    this.fanOut = fanOut;
+    this.skew = skew;
+    return this;
+  }
+
+  /**
+   * Set the ratio of read locks among all lock requests. The ratio may change over time: The run is
+   * divided into phases of the given length, which cycle through the given ratios. 
+   * @param phaseMillis the length of each phase in milliseconds
+   * @param readRatios the ratio of read locks in each phase, between 0 and 1
+   * @return this
+   */
+  public WorkloadSpec readRatios(long phaseMillis, double... readRatios) {
+    Preconditions.checkArgument(phaseMillis > 0, "phase must be positive: %s", phaseMillis);
+    Preconditions.checkArgument(readRatios.length > 0, "at least one read ratio required");
+    for ( double ratio : readRatios ) {
+      Preconditions.checkArgument(0 <= ratio && ratio <= 1, "invalid read ratio: %s", ratio);
+    }
+    this.phaseNanos = TimeUnit.MILLISECONDS.toNanos(phaseMillis);
+    this.readRatios = readRatios.clone();
+    return this;
+  }
+
+  /**
+   * Set the ratio of deep locks among all lock requests.
+   * @param deepRatio the ratio of deep locks, between 0 and 1
+   * @return this
+   */
+  public WorkloadSpec deepRatio(double deepRatio) {
+    Preconditions.checkArgument(0 <= deepRatio && deepRatio <= 1, "invalid ratio: %s", deepRatio);
+    this.deepRatio = deepRatio;
+    return this;
+  }
+
+  /**
+   * Set the distributions of the times for which granted locks are held before they are released.
+   * @param shallowMicros the hold times of shallow locks in microseconds
+   * @param deepMicros the hold times of deep locks in microseconds
+   * @return this
+   */
+  public WorkloadSpec holdTimes(Distribution shallowMicros, Distribution deepMicros) {
+    Preconditions.checkNotNull(shallowMicros);
+    Preconditions.checkNotNull(deepMicros);
+    this.shallowHoldMicros = shallowMicros;
+    this.deepHoldMicros = deepMicros;
+    return this;
+  }
+
+  /**
+   * Configure session churn: Every interval, a burst of sessions ends at once, releasing all their 
+   * locks as an expiring session would, and is replaced by fresh sessions.
+   * @param intervalMillis the time between bursts in milliseconds, 0 to disable churn
+   * @param burst the number of sessions ending in each burst
+   * @return this
+   */
+  public WorkloadSpec expiries(long intervalMillis, int burst) {
+    Preconditions.checkArgument(intervalMillis >= 0, "invalid interval: %s", intervalMillis);
+    Preconditions.checkArgument(burst >= 0, "invalid burst: %s", burst);
+    this.expiryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.expiryBurst = burst;
+    return this;
+  }
+
+  /**
+   * Set the seed of the random number generator. Runs with the same seed issue the same sequence of
+   * requests at the same points in time, while the outcomes of course depend on the lock manager.
+   * @param seed the seed
+   * @return this
+   */
+  public WorkloadSpec seed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  double readRatio(long elapsedNanos) {
+    return readRatios[(int)( ( elapsedNanos / phaseNanos ) % readRatios.length )];
+  }
+
+  @Override
+  public String toString() {
+    return "rate=" + rate + "/s, duration=" + TimeUnit.NANOSECONDS.toMillis(durationNanos) 
+        + "ms, sessions=" + sessions + ", workers=" + workers + ", fanOut=" + fanOut 
+        + ", skew=" + skew + ", readRatios=" + Arrays.toString(readRatios) 
+        + ", deepRatio=" + deepRatio + ", expiryBurst=" + expiryBurst;
+  }
+}
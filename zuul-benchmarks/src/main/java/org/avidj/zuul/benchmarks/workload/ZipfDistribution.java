@@ -0,0 +1,66 @@
+package org.avidj.zuul.benchmarks.workload;
+
+/*
+ * #%L
+ * zuul-benchmarks
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A Zipf distribution over the ranks {@code 0, ..., n - 1}, where rank {@code k} is drawn with a
+ * probability proportional to {@code 1 / (k + 1)^s}. With an exponent {@code s} around 1 a few 
+ * ranks account for most of the samples, which models hot prefixes of lock paths. An exponent of 0 
+ * yields a uniform distribution.
+ */
+public final class ZipfDistribution {
+  private final double[] cdf;
+
+  /**
+   * Create a new Zipf distribution.
+   * @param n the number of ranks
+   * @param exponent the skew of the distribution
+   */
+  public ZipfDistribution(int n, double exponent) {
+    Preconditions.checkArgument(n > 0, "n must be positive: %s", n);
+    Preconditions.checkArgument(exponent >= 0, "exponent must not be negative: %s", exponent);
+    cdf = new double[n];
+    double sum = 0;
+    for ( int k = 0; k < n; k++ ) {
+      sum += 1 / Math.pow(k + 1, exponent);
+      cdf[k] = sum;
+    }
+    for ( int k = 0; k < n; k++ ) {
+      cdf[k] /= sum;
+    }
+  }
+
+  /**
+   * Returns the next rank.
+   * @param random the source of randomness
+   * @return a rank between {@code 0} and {@code n - 1}
+   */
+  public int next(Random random) {
+    final int i = Arrays.binarySearch(cdf, random.nextDouble());
+    return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+  }
+}
@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A type of lock that can be used in try-with-resources blocks. These locks are created using an
@@ -45,6 +46,9 @@ public class AutoCloseableLock implements AutoCloseable {
   private int read;
   private int write;
   private final Stack<LockOp> locks = new Stack<>();   // a stack of open lock operations expected to be properly closed
+  // Guards lock operations, which may be remote calls. Not a monitor, so that virtual threads 
+  // calling the lock manager do not pin their carrier threads.
+  private final ReentrantLock mutex = new ReentrantLock();
   
   private enum LockOp {
     READ(LockType.READ,                                // target lock type
@@ -120,7 +124,8 @@ public class AutoCloseableLock implements AutoCloseable {
    * @return this
    */
   public AutoCloseableLock readLock() {
-    synchronized ( this ) {
+    mutex.lock();
+    try {
       boolean success;
       LockOp op = null;
       if ( this.isWriteLocked() ) {
@@ -137,6 +142,8 @@ public class AutoCloseableLock implements AutoCloseable {
       } else {
         LOG.warn("Create blocking lock operations so that autoclosable locks can be used.");
       }
+    } finally {
+      mutex.unlock();
     }
     return this;
   }
@@ -147,7 +154,8 @@ public class AutoCloseableLock implements AutoCloseable {
    * @return this
    */
   public AutoCloseableLock writeLock() {
-    synchronized ( this ) {
+    mutex.lock();
+    try {
       boolean success = lockManager.writeLock(this.session, this.path, this.scope);
       if ( success ) {
         LockOp op = LockOp.WRITE;
@@ -156,6 +164,8 @@ public class AutoCloseableLock implements AutoCloseable {
       } else {
         LOG.warn("Create blocking lock operations so that autoclosable locks can be used.");
       }
+    } finally {
+      mutex.unlock();
     }
     return this;
   }
@@ -173,7 +183,8 @@ public class AutoCloseableLock implements AutoCloseable {
 //      throw new IllegalStateException("This lock cannot be released, as it's not being held.");
       return this;
     }
-    synchronized ( this ) {
+    mutex.lock();
+    try {
       LockOp lockOp = locks.peek();
       boolean success = lockOp.revert(this);
       if ( success ) {
@@ -182,6 +193,8 @@ public class AutoCloseableLock implements AutoCloseable {
       } else {
         LOG.warn("Create blocking lock operations so that autoclosable locks can be used.");
       }
+    } finally {
+      mutex.unlock();
     }
     return this;
   }
@@ -0,0 +1,142 @@
+package org.avidj.zuul.client;
+
+/*
+ * #%L
+ * zuul-client
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.avidj.zuul.core.Lock;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockTreeVisitor;
+import org.avidj.zuul.core.LockType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a lock tree streamed by the service as nested JSON objects of the form
+ * <pre>
+ * { "key" : "a",
+ *   "locks" : [ { "session" : "1", "type" : "READ", "scope" : "DEEP", "count" : 1 } ],
+ *   "children" : [ { "key" : "b", "locks" : [ ... ] } ] }
+ * </pre>
+ * and reports the nodes and locks to a visitor while parsing, in the order of a local walk.
+ * Memory consumption is linear in the depth of the tree, but independent of the number of nodes.
+ */
+class JsonLockTreeReader {
+  private final JsonParser json;
+  private final LockTreeVisitor visitor;
+
+  JsonLockTreeReader(JsonParser json, LockTreeVisitor visitor) {
+    this.json = json;
+    this.visitor = visitor;
+  }
+
+  /**
+   * Read the tree and report it to the visitor.
+   * @param path the path of the root of the tree
+   * @throws IOException if reading the tree fails or the tree is malformed
+   */
+  void read(List<String> path) throws IOException {
+    expect(json.nextToken(), JsonToken.START_OBJECT);
+    readNode(new ArrayList<>(path), true);
+  }
+
+  /* read the node whose start object token was just consumed, path is the path of its parent */
+  private void readNode(List<String> path, boolean root) throws IOException {
+    boolean entered = false;
+    while ( json.nextToken() == JsonToken.FIELD_NAME ) {
+      final String field = json.getCurrentName();
+      final JsonToken value = json.nextToken();
+      if ( "key".equals(field) ) {
+        final String key = ( value == JsonToken.VALUE_NULL ) ? null : json.getText();
+        if ( !root ) {
+          path.add(key);
+        }
+        visitor.enter(key);
+        entered = true;
+      } else if ( "locks".equals(field) ) {
+        expect(value, JsonToken.START_ARRAY);
+        checkEntered(entered);
+        while ( json.nextToken() == JsonToken.START_OBJECT ) {
+          visitor.visit(readLock(path));
+        }
+      } else if ( "children".equals(field) ) {
+        expect(value, JsonToken.START_ARRAY);
+        checkEntered(entered);
+        while ( json.nextToken() == JsonToken.START_OBJECT ) {
+          readNode(path, false);
+        }
+      } else {
+        json.skipChildren();
+      }
+    }
+    checkEntered(entered);
+    visitor.leave();
+    if ( !root ) {
+      path.remove(path.size() - 1);
+    }
+  }
+
+  /* read the lock whose start object token was just consumed */
+  private Lock readLock(List<String> path) throws IOException {
+    String session = null;
+    LockType type = null;
+    LockScope scope = null;
+    int count = 1;
+    while ( json.nextToken() == JsonToken.FIELD_NAME ) {
+      final String field = json.getCurrentName();
+      json.nextToken();
+      if ( "session".equals(field) ) {
+        session = json.getText();
+      } else if ( "type".equals(field) ) {
+        type = LockType.valueOf(json.getText());
+      } else if ( "scope".equals(field) ) {
+        scope = LockScope.valueOf(json.getText());
+      } else if ( "count".equals(field) ) {
+        count = json.getIntValue();
+      } else {
+        json.skipChildren();
+      }
+    }
+    if ( session == null || type == null || scope == null ) {
+      throw new JsonParseException("incomplete lock", json.getCurrentLocation());
+    }
+    final Lock lock = Lock.newLock(session, path, type, scope);
+    lock.count = count;
+    return lock;
+  }
+
+  private void checkEntered(boolean entered) throws JsonParseException {
+    if ( !entered ) {
+      throw new JsonParseException("node without key", json.getCurrentLocation());
+    }
+  }
+
+  private void expect(JsonToken actual, JsonToken expected) throws JsonParseException {
+    if ( actual != expected ) {
+      throw new JsonParseException(
+          "expected " + expected + " but got " + actual, json.getCurrentLocation());
+    }
+  }
+}
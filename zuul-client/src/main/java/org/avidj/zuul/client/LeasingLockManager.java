@@ -0,0 +1,357 @@
+package org.avidj.zuul.client;
+
+/*
+ * #%L
+ * zuul-client
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.util.Strings;
+import org.avidj.zuul.core.DefaultEmbeddedLockManager;
+import org.avidj.zuul.core.Lock;
+import org.avidj.zuul.core.LockHolder;
+import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.LockRequest;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockTreeVisitor;
+import org.avidj.zuul.core.LockType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * A decorator around a (usually remote) {@link LockManager} that handles all lock operations below
+ * the prefixes of delegated leases in an embedded {@link DefaultEmbeddedLockManager}, i.e., without
+ * network calls. All other operations are forwarded to the backing lock manager. Recalled leases
+ * are detected on {@link #heartbeat(String)}; then the local lock state below the prefix is flushed
+ * to the backing lock manager and the lease is released. Operations below the leases of a session
+ * wait while one of its leases is being recalled.
+ */
+public class LeasingLockManager implements LockManager {
+  private static final Logger LOG = LoggerFactory.getLogger(LeasingLockManager.class);
+  private final LockManager remote;
+  private final DefaultEmbeddedLockManager local = new DefaultEmbeddedLockManager();
+  private final Map<String, Leases> leases = new ConcurrentHashMap<>();
+
+  /**
+   * Create a new leasing lock manager.
+   * @param remote the lock manager granting the leases and managing all locks outside of them
+   */
+  public LeasingLockManager(LockManager remote) {
+    Preconditions.checkNotNull(remote);
+    this.remote = remote;
+  }
+
+  @Override
+  public void setSessionTimeout(long timeoutMillis) {
+    remote.setSessionTimeout(timeoutMillis);
+    local.setSessionTimeout(timeoutMillis);
+  }
+
+  @Override
+  public void setSessionTimeout(String session, long timeoutMillis) {
+    remote.setSessionTimeout(session, timeoutMillis);
+    local.setSessionTimeout(session, timeoutMillis);
+  }
+
+  @Override
+  public Set<Lock> getLocks(String session) {
+    final Set<Lock> locks = new HashSet<>(remote.getLocks(session));
+    locks.addAll(local.getLocks(session));
+    return Collections.unmodifiableSet(locks);
+  }
+
+  /**
+   * Walk the locks known to the backing lock manager. Locks held locally below the prefix of a lease
+   * are not reported, only the lease itself.
+   */
+  @Override
+  public boolean walkLocks(
+      String session, List<String> path, LockScope scope, LockTreeVisitor visitor) {
+    return remote.walkLocks(session, path, scope, visitor);
+  }
+
+  @Override
+  public List<String> listChildren(List<String> path, String startAfter, int limit) {
+    return remote.listChildren(path, startAfter, limit);
+  }
+
+  @Override
+  public boolean readLock(String session, List<String> path, LockScope scope) {
+    return route(session, path, lm -> lm.readLock(session, path, scope));
+  }
+
+  @Override
+  public boolean writeLock(String session, List<String> path, LockScope scope) {
+    return route(session, path, lm -> lm.writeLock(session, path, scope));
+  }
+
+  @Override
+  public boolean lock(String session, List<String> path, LockType type, LockScope scope) {
+    return route(session, path, lm -> lm.lock(session, path, type, scope));
+  }
+
+  @Override
+  public boolean lock(
+      String session, List<String> path, LockType type, LockScope scope, long ttlMillis) {
+    return route(session, path, lm -> lm.lock(session, path, type, scope, ttlMillis));
+  }
+
+  @Override
+  public boolean multiLock(
+      String session, List<List<String>> paths, LockType type, LockScope scope) {
+    return multiLock(session, LockRequest.all(paths, type, scope));
+  }
+
+  @Override
+  public boolean multiLock(String session, List<LockRequest> requests) {
+    final Leases held = leases.get(session);
+    if ( held == null ) {
+      return remote.multiLock(session, requests);
+    }
+    held.lock.readLock().lock();
+    try {
+      return multiLock(session, held, requests);
+    } finally {
+      held.lock.readLock().unlock();
+    }
+  }
+
+  private boolean multiLock(String session, Leases held, List<LockRequest> requests) {
+    final List<LockRequest> leased = new ArrayList<>();
+    final List<LockRequest> other = new ArrayList<>();
+    for ( LockRequest request : requests ) {
+      ( held.isLeased(request.path) ? leased : other ).add(request);
+    }
+    if ( other.isEmpty() ) {
+      return local.multiLock(session, leased);
+    } else if ( leased.isEmpty() ) {
+      return remote.multiLock(session, other);
+    }
+    if ( !local.multiLock(session, leased) ) {
+      return false;
+    }
+    if ( !remote.multiLock(session, other) ) {
+      for ( LockRequest request : leased ) {
+        local.release(session, request.path);
+      }
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public boolean release(String session, List<String> path) {
+    return route(session, path, lm -> lm.release(session, path));
+  }
+
+  @Override
+  public int release(String session, Collection<List<String>> paths) {
+    int released = 0;
+    for ( List<String> path : paths ) {
+      if ( release(session, path) ) {
+        released++;
+      }
+    }
+    return released;
+  }
+
+  @Override
+  public void release(String session) {
+    leases.remove(session);
+    local.release(session);
+    remote.release(session);
+  }
+
+  /**
+   * Keeps the session alive and flushes all leases that have been recalled in the meantime.
+   *
+   * @param session the session to keep alive
+   */
+  @Override
+  public void heartbeat(String session) {
+    remote.heartbeat(session);
+    local.heartbeat(session);
+    for ( List<String> prefix : remote.getRecalledLeases(session) ) {
+      recall(session, prefix);
+    }
+  }
+
+  @Override
+  public boolean upScope(String session, List<String> path, LockType type) {
+    return route(session, path, lm -> lm.upScope(session, path, type));
+  }
+
+  @Override
+  public boolean downScope(String session, List<String> path, LockType type, LockScope shallow) {
+    return route(session, path, lm -> lm.downScope(session, path, type, shallow));
+  }
+
+  @Override
+  public boolean upgrade(String session, List<String> path) {
+    return route(session, path, lm -> lm.upgrade(session, path));
+  }
+
+  @Override
+  public boolean downgrade(String session, List<String> path) {
+    return route(session, path, lm -> lm.downgrade(session, path));
+  }
+
+  @Override
+  public boolean lease(String session, List<String> prefix) {
+    if ( !remote.lease(session, prefix) ) {
+      return false;
+    }
+    final Leases held = leases.computeIfAbsent(session, s -> new Leases());
+    held.lock.writeLock().lock();
+    try {
+      held.prefixes.add(Collections.unmodifiableList(new ArrayList<>(prefix)));
+    } finally {
+      held.lock.writeLock().unlock();
+    }
+    return true;
+  }
+
+  @Override
+  public Set<List<String>> getRecalledLeases(String session) {
+    return remote.getRecalledLeases(session);
+  }
+
+  @Override
+  public CompletableFuture<List<String>> watch(List<String> path, LockScope scope) {
+    return remote.watch(path, scope);
+  }
+
+  /**
+   * Returns the locks held longest in the backing or in the embedded lock manager. Within a lease,
+   * the hold times count from when the locks were obtained locally.
+   */
+  @Override
+  public List<LockHolder> getLongestHolders(int limit) {
+    final List<LockHolder> holders = new ArrayList<>(remote.getLongestHolders(limit));
+    holders.addAll(local.getLongestHolders(limit));
+    holders.sort((h1, h2) -> Long.compare(h2.heldMillis, h1.heldMillis));
+    return holders.subList(0, Math.min(limit, holders.size()));
+  }
+
+  /**
+   * Give back the lease on the given {@code prefix}. All locks held locally below the prefix are
+   * obtained from the backing lock manager, then they are released locally and the lease itself is
+   * released. Lock operations below the leases of the session wait until the recall is complete, so
+   * that no local lock is left behind. If a lock cannot be flushed, the locks flushed so far are 
+   * released again and the lease is kept, so that the recall can be retried.
+   *
+   * @param session the session holding the lease
+   * @param prefix the prefix of the lease
+   * @throws IllegalStateException if a local lock cannot be obtained from the backing lock manager
+   */
+  public void recall(String session, List<String> prefix) throws IllegalStateException {
+    final Leases held = leases.get(session);
+    if ( held == null ) {
+      return;
+    }
+    // this also keeps concurrent recalls of the same session from flushing the locks twice
+    held.lock.writeLock().lock();
+    try {
+      if ( !held.prefixes.contains(prefix) ) {
+        return;
+      }
+      final List<Lock> flush = new ArrayList<>();
+      for ( Lock lock : local.getLocks(session) ) {
+        if ( isBelow(prefix, lock.key) ) {
+          flush.add(lock);
+        }
+      }
+      // parents first, so that deep locks are obtained before their nested locks
+      flush.sort((l1, l2) -> l1.key.size() - l2.key.size());
+      final List<List<String>> flushed = new ArrayList<>();
+      for ( Lock lock : flush ) {
+        for ( int i = 0; i < lock.count; i++ ) {
+          if ( !remote.lock(session, lock.key, lock.type, lock.scope) ) {
+            remote.release(session, flushed);
+            throw new IllegalStateException("cannot flush leased lock: " + lock);
+          }
+          flushed.add(lock.key);
+        }
+      }
+      held.prefixes.remove(prefix);
+      for ( Lock lock : flush ) {
+        for ( int i = 0; i < lock.count; i++ ) {
+          local.release(session, lock.key);
+        }
+      }
+      remote.release(session, prefix);
+      LOG.debug("flushed {} locks of recalled lease ({})", flush.size(), Strings.join(prefix));
+    } finally {
+      held.lock.writeLock().unlock();
+    }
+  }
+
+  /*
+   * Apply the given operation to the embedded lock manager if the path is below a lease of the 
+   * session, or to the backing lock manager otherwise. The lease is checked and the local operation
+   * applied under the read lock of the session's leases, so that a recall cannot miss the lock.
+   */
+  private boolean route(String session, List<String> path, Function<LockManager, Boolean> op) {
+    final Leases held = leases.get(session);
+    if ( held != null ) {
+      held.lock.readLock().lock();
+      try {
+        if ( held.isLeased(path) ) {
+          return op.apply(local);
+        }
+      } finally {
+        held.lock.readLock().unlock();
+      }
+    }
+    return op.apply(remote);
+  }
+
+  // true, iff path denotes a node strictly below prefix
+  private static boolean isBelow(List<String> prefix, List<String> path) {
+    return path.size() > prefix.size() && path.subList(0, prefix.size()).equals(prefix);
+  }
+
+  // the prefixes leased by a session, local operations below them hold the read lock
+  private static final class Leases {
+    private final Set<List<String>> prefixes = new HashSet<>(); // guarded by lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    boolean isLeased(List<String> path) {
+      for ( List<String> prefix : prefixes ) {
+        if ( isBelow(prefix, path) ) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
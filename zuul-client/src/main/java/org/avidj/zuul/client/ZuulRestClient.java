@@ -20,12 +20,20 @@ package org.avidj.zuul.client;
  * #L%
  */
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 
+import org.avidj.util.VirtualThreads;
 import org.avidj.zuul.core.Lock;
+import org.avidj.zuul.core.LockHandle;
+import org.avidj.zuul.core.LockHolder;
 import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.LockRequest;
 import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockTreeVisitor;
 import org.avidj.zuul.core.LockType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,17 +43,23 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ZuulRestClient implements LockManager {
   private static final Logger LOG = LoggerFactory.getLogger(ZuulRestClient.class);
@@ -55,19 +69,43 @@ public class ZuulRestClient implements LockManager {
   private static final Map<LockType, String> TYPE_TO_PARAM = ImmutableMap.of(
       LockType.READ, "r",
       LockType.WRITE, "w");
+  private static final String RELEASE = "-";
+  private static final String HANDLE = "Zuul-Lock-Handle";
+  private static final JsonFactory JSON = new JsonFactory();
+  // long polls of watches block while waiting for the response, on virtual threads if available
+  private static final ExecutorService POLLS = VirtualThreads.isAvailable()
+      ? VirtualThreads.newThreadPerTaskExecutor()
+      : Executors.newCachedThreadPool(task -> {
+        final Thread thread = new Thread(task, "zuul-watch");
+        thread.setDaemon(true);
+        return thread;
+      });
   private final String serviceUrl;
+  private final RestTemplate restTemplate;
   
   /**
    * Create a new REST client for Zuul.
    * @param serviceUrl the URL for accessing the Zuul lock service. 
    */
   public ZuulRestClient(String serviceUrl) {
+    this(serviceUrl, new RestTemplate());
+  }
+  
+  /**
+   * Create a new REST client for Zuul that sends its requests through the given template, e.g., 
+   * to use a specific HTTP client library.
+   * @param serviceUrl the URL for accessing the Zuul lock service. 
+   * @param restTemplate the template to send requests with
+   */
+  public ZuulRestClient(String serviceUrl, RestTemplate restTemplate) {
     Preconditions.checkNotNull(serviceUrl);
+    Preconditions.checkNotNull(restTemplate);
     checkIsUrl(serviceUrl);
     if ( !serviceUrl.endsWith("/") ) {
       serviceUrl += "/";
     }
     this.serviceUrl = serviceUrl;
+    this.restTemplate = restTemplate;
   }
   
   @Override
@@ -75,11 +113,61 @@ public class ZuulRestClient implements LockManager {
     throw new UnsupportedOperationException("not yet implemented");
   }
 
+  @Override
+  public void setSessionTimeout(String session, long timeoutMillis) {
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(serviceUrl + "p/" + session)
+        .queryParam("timeout", timeoutMillis);
+    exchange(uriBuilder, HttpMethod.PUT);
+  }
+
   @Override
   public Set<Lock> getLocks(String session) {
     throw new UnsupportedOperationException("not yet implemented");
   }
 
+  /**
+   * Walk the locks by streaming the tree from the service. The visitor is called while the 
+   * response is parsed, so neither the whole tree nor the whole response is held in memory.
+   */
+  @Override
+  public boolean walkLocks(
+      String session, List<String> path, LockScope scope, LockTreeVisitor visitor) {
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(
+        serviceUrl + "t/" + lockPath(path))
+        .queryParam("s", scope(scope));
+    if ( session != null ) {
+      uriBuilder.queryParam("session", session);
+    }
+    try {
+      return restTemplate.execute(uriBuilder.build().encode().toUri(), HttpMethod.GET, null,
+          response -> {
+            try ( JsonParser json = JSON.createParser(response.getBody()) ) {
+              new JsonLockTreeReader(json, visitor).read(path);
+            }
+            return true;
+          });
+    } catch ( HttpClientErrorException e ) {
+      if ( e.getStatusCode() == HttpStatus.NOT_FOUND ) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public List<String> listChildren(List<String> path, String startAfter, int limit) {
+    Preconditions.checkArgument(limit > 0, "limit must be positive");
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(
+        serviceUrl + "c/" + lockPath(path))
+        .queryParam("limit", limit);
+    if ( startAfter != null ) {
+      uriBuilder.queryParam("after", startAfter);
+    }
+    final String[] children = restTemplate.getForObject(
+        uriBuilder.build().encode().toUri(), String[].class);
+    return Arrays.asList(children);
+  }
+
   @Override
   public boolean readLock(String session, List<String> path, LockScope scope) {
     throw new UnsupportedOperationException("not yet implemented");
@@ -92,27 +180,77 @@ public class ZuulRestClient implements LockManager {
 
   @Override
   public boolean lock(String sessionId, List<String> path, LockType type, LockScope scope) {
-    RestTemplate restTemplate = new RestTemplate();
+    return lock(sessionId, path, type, scope, 0, false) != null;
+  }
+
+  /**
+   * Obtain a lock and return a handle with the numeric id assigned by the service, if any, so that
+   * the lock can be reentered and released without sending its path.
+   */
+  @Override
+  public LockHandle acquire(
+      String sessionId, List<String> path, LockType type, LockScope scope, long ttlMillis) {
+    Preconditions.checkArgument(ttlMillis >= 0, "ttlMillis must not be negative");
+    final ResponseEntity<String> result = lock(sessionId, path, type, scope, ttlMillis, true);
+    if ( result == null ) {
+      return null;
+    }
+    final String handle = result.getHeaders().getFirst(HANDLE);
+    return LockHandle.of(
+        sessionId, path, ( handle != null ) ? Long.parseLong(handle) : LockHandle.NO_ID);
+  }
 
+  // returns the response if the lock was obtained, or null if it conflicts with another lock
+  private ResponseEntity<String> lock(String sessionId, List<String> path, LockType type, 
+      LockScope scope, long ttlMillis, boolean handle) {
     HttpHeaders headers = new HttpHeaders();
     headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
     HttpEntity<String> entity = new HttpEntity<String>("parameters", headers);
     
-    Map<String, String> parameters = new HashMap<>();
-    parameters.put("id", sessionId); // set the session id
-    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(serviceUrl + lockPath(path))
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(
+        serviceUrl + "s/" + sessionId + "/" + lockPath(path))
         .queryParam("t", type(type))
         .queryParam("s", scope(scope));
+    if ( ttlMillis > 0 ) {
+      uriBuilder.queryParam("ttl", ttlMillis);
+    }
+    if ( handle ) {
+      uriBuilder.queryParam("handle", true);
+    }
             
-    ResponseEntity<String> result = restTemplate.exchange(
-        uriBuilder.build().encode().toUri(), 
-        HttpMethod.PUT, 
-        entity, 
-        String.class);
-
+    final ResponseEntity<String> result;
+    try {
+      result = restTemplate.exchange(
+          uriBuilder.build().encode().toUri(), 
+          HttpMethod.PUT, 
+          entity, 
+          String.class);
+    } catch ( HttpClientErrorException e ) {
+      if ( e.getStatusCode() == HttpStatus.FORBIDDEN ) {
+        return null;
+      }
+      throw e;
+    }
     LOG.info(result.toString());
-    HttpStatus code = result.getStatusCode();
-    return code.equals(HttpStatus.CREATED);
+    return result.getStatusCode().equals(HttpStatus.CREATED) ? result : null;
+  }
+
+  @Override
+  public boolean lock(LockHandle handle, LockType type, LockScope scope) {
+    if ( handle.id == LockHandle.NO_ID ) {
+      return lock(handle.session, handle.path, type, scope);
+    }
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(handleUrl(handle))
+        .queryParam("t", type(type))
+        .queryParam("s", scope(scope));
+    return exchange(uriBuilder, HttpMethod.PUT) == HttpStatus.CREATED;
+  }
+
+  @Override
+  public boolean lock(
+      String sessionId, List<String> path, LockType type, LockScope scope, long ttlMillis) {
+    Preconditions.checkArgument(ttlMillis > 0, "ttlMillis must be positive");
+    return lock(sessionId, path, type, scope, ttlMillis, false) != null;
   }
 
   private static String scope(LockScope scope) {
@@ -134,22 +272,100 @@ public class ZuulRestClient implements LockManager {
   @Override
   public boolean multiLock(String sessionId, List<List<String>> paths, LockType type,
       LockScope scope) {
-    throw new UnsupportedOperationException("not yet implemented");
+    return multiLock(sessionId, LockRequest.all(paths, type, scope));
+  }
+
+  /**
+   * Obtain all given locks in one request to the bulk endpoint of the service, or none of them.
+   */
+  @Override
+  public boolean multiLock(String sessionId, List<LockRequest> requests) {
+    final List<List<String>> ops = new ArrayList<>(requests.size());
+    for ( LockRequest request : requests ) {
+      ops.add(bulkOp(type(request.type) + scope(request.scope), request.path));
+    }
+    return bulk(sessionId, ops, true) != null;
   }
 
   @Override
   public boolean release(String session, List<String> path) throws IllegalStateException {
-    throw new UnsupportedOperationException("not yet implemented");
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(
+        serviceUrl + "s/" + session + "/" + lockPath(path));
+    return exchange(uriBuilder, HttpMethod.DELETE) == HttpStatus.NO_CONTENT;
+  }
+
+  @Override
+  public boolean release(LockHandle handle) {
+    if ( handle.id == LockHandle.NO_ID ) {
+      return release(handle.session, handle.path);
+    }
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(handleUrl(handle));
+    return exchange(uriBuilder, HttpMethod.DELETE) == HttpStatus.NO_CONTENT;
   }
 
+  private String handleUrl(LockHandle handle) {
+    return serviceUrl + "h/" + handle.session + "/" + handle.id;
+  }
+
+  // the status of the response, client errors such as a stale handle are returned as well
+  private HttpStatus exchange(UriComponentsBuilder uriBuilder, HttpMethod method) {
+    try {
+      return restTemplate.exchange(
+          uriBuilder.build().encode().toUri(), method, null, String.class).getStatusCode();
+    } catch ( HttpClientErrorException e ) {
+      return e.getStatusCode();
+    }
+  }
+
+  /**
+   * Release the given locks in one request to the bulk endpoint of the service.
+   */
   @Override
   public int release(String session, Collection<List<String>> paths) {
-    throw new UnsupportedOperationException("not yet implemented");
+    final List<List<String>> ops = new ArrayList<>(paths.size());
+    for ( List<String> path : paths ) {
+      ops.add(bulkOp(RELEASE, path));
+    }
+    int released = 0;
+    for ( Boolean result : bulk(session, ops, false) ) {
+      if ( result ) {
+        released++;
+      }
+    }
+    return released;
+  }
+
+  // the results of the given bulk operations, or null if atomic operations were rejected
+  private Boolean[] bulk(String session, List<List<String>> ops, boolean atomic) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(serviceUrl + "b/" + session)
+        .queryParam("atomic", atomic);
+    try {
+      return restTemplate.exchange(
+          uriBuilder.build().encode().toUri(), 
+          HttpMethod.POST, 
+          new HttpEntity<List<List<String>>>(ops, headers), 
+          Boolean[].class).getBody();
+    } catch ( HttpClientErrorException e ) {
+      if ( atomic && e.getStatusCode() == HttpStatus.FORBIDDEN ) {
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  private static List<String> bulkOp(String code, List<String> path) {
+    final List<String> op = new ArrayList<>(path.size() + 1);
+    op.add(code);
+    op.addAll(path);
+    return op;
   }
 
   @Override
   public void release(String session) {
-    throw new UnsupportedOperationException("not yet implemented");
+    exchange(UriComponentsBuilder.fromHttpUrl(serviceUrl + "p/" + session), HttpMethod.DELETE);
   }
 
   @Override
@@ -162,9 +378,98 @@ public class ZuulRestClient implements LockManager {
     throw new UnsupportedOperationException("not yet implemented");
   }
 
+  @Override
+  public boolean upgrade(String session, List<String> path) {
+    return convert(session, path, LockType.WRITE);
+  }
+
+  @Override
+  public boolean downgrade(String session, List<String> path) {
+    return convert(session, path, LockType.READ);
+  }
+
+  private boolean convert(String session, List<String> path, LockType type) {
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(
+        serviceUrl + "s/" + session + "/" + lockPath(path))
+        .queryParam("to", type(type));
+    return exchange(uriBuilder, HttpMethod.PUT) == HttpStatus.OK;
+  }
+
   @Override
   public void heartbeat(String session) {
-    throw new UnsupportedOperationException("not yet implemented");
+    exchange(UriComponentsBuilder.fromHttpUrl(serviceUrl + "p/" + session), HttpMethod.PUT);
+  }
+
+  @Override
+  public boolean lease(String session, List<String> prefix) {
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(
+        serviceUrl + "l/" + session + "/" + lockPath(prefix));
+    return exchange(uriBuilder, HttpMethod.PUT) == HttpStatus.CREATED;
+  }
+
+  @Override
+  public Set<List<String>> getRecalledLeases(String session) {
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(
+        serviceUrl + "l/" + session);
+    String[][] result = restTemplate.getForObject(
+        uriBuilder.build().encode().toUri(), String[][].class);
+    Set<List<String>> recalled = new HashSet<>();
+    for ( String[] path : result ) {
+      recalled.add(Arrays.asList(path));
+    }
+    return recalled;
+  }
+
+  /**
+   * Watch the lock with the given path by long polling the service. The poll is sent 
+   * asynchronously and renewed whenever it times out without a change, until the future is 
+   * completed or cancelled. Unlike with an embedded lock manager, the watch is only registered when
+   * the poll reaches the service.
+   */
+  @Override
+  public CompletableFuture<List<String>> watch(List<String> path, LockScope scope) {
+    final URI uri = UriComponentsBuilder.fromHttpUrl(serviceUrl + "w/" + lockPath(path))
+        .queryParam("s", scope(scope))
+        .build().encode().toUri();
+    final CompletableFuture<List<String>> watch = new CompletableFuture<>();
+    POLLS.execute(() -> poll(uri, watch));
+    return watch;
+  }
+
+  private void poll(URI uri, CompletableFuture<List<String>> watch) {
+    try {
+      while ( !watch.isDone() ) {
+        final ResponseEntity<String[]> result = restTemplate.getForEntity(uri, String[].class);
+        if ( result.getStatusCode() == HttpStatus.OK ) {
+          watch.complete(Arrays.asList(result.getBody()));
+        }
+      }
+    } catch ( RuntimeException e ) {
+      watch.completeExceptionally(e);
+    }
+  }
+
+  @Override
+  public List<LockHolder> getLongestHolders(int limit) {
+    Preconditions.checkArgument(limit > 0, "limit must be positive");
+    UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(serviceUrl + "stats/holders")
+        .queryParam("limit", limit);
+    final JsonNode[] holders = restTemplate.getForObject(
+        uriBuilder.build().encode().toUri(), JsonNode[].class);
+    final List<LockHolder> result = new ArrayList<>(holders.length);
+    for ( JsonNode holder : holders ) {
+      final List<String> path = new ArrayList<>();
+      for ( JsonNode key : holder.get("path") ) {
+        path.add(key.asText());
+      }
+      result.add(new LockHolder(
+          holder.get("session").asText(), 
+          path, 
+          LockType.valueOf(holder.get("type").asText()),
+          LockScope.valueOf(holder.get("scope").asText()),
+          holder.get("heldMillis").asLong()));
+    }
+    return result;
   }
 
   private static String lockPath(List<String> path) {
@@ -0,0 +1,139 @@
+package org.avidj.zuul.client;
+
+/*
+ * #%L
+ * zuul-client
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.avidj.zuul.core.Lock.newLock;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.avidj.zuul.core.DefaultEmbeddedLockManager;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class LeasingLockManagerTest {
+  private DefaultEmbeddedLockManager remote;
+  private LeasingLockManager lm;
+
+  @Before
+  public void before() {
+    remote = new DefaultEmbeddedLockManager();
+    lm = new LeasingLockManager(remote);
+    lm.setSessionTimeout(100000000);
+  }
+
+  @Test
+  public void itShallLockBelowLeaseLocally() {
+    boolean success = lm.lease("1", key("a"));
+    assertThat(success, is(true));
+    
+    success = lm.lock("1", key("a", "b"), LockType.WRITE, LockScope.SHALLOW);
+    assertThat(success, is(true));
+    assertThat(remote.getLocks("1"), is(equalTo(ImmutableSet.of(
+        newLock("1", key("a"), LockType.WRITE, LockScope.DEEP)))));
+    assertThat(lm.getLocks("1"), is(equalTo(ImmutableSet.of(
+        newLock("1", key("a"), LockType.WRITE, LockScope.DEEP),
+        newLock("1", key("a", "b"), LockType.WRITE, LockScope.SHALLOW)))));
+    
+    success = lm.release("1", key("a", "b"));
+    assertThat(success, is(true));
+  }
+
+  @Test
+  public void itShallFlushLocksOfRecalledLease() {
+    boolean success = lm.lease("1", key("a"));
+    assertThat(success, is(true));
+    success = lm.lock("1", key("a", "b"), LockType.WRITE, LockScope.SHALLOW);
+    assertThat(success, is(true));
+
+    success = remote.lock("2", key("a", "c"), LockType.READ, LockScope.SHALLOW);
+    assertThat(success, is(false));
+    
+    lm.heartbeat("1");
+    assertThat(remote.getLocks("1"), is(equalTo(ImmutableSet.of(
+        newLock("1", key("a", "b"), LockType.WRITE, LockScope.SHALLOW)))));
+
+    success = remote.lock("2", key("a", "c"), LockType.READ, LockScope.SHALLOW);
+    assertThat(success, is(true));
+    success = remote.lock("2", key("a", "b"), LockType.READ, LockScope.SHALLOW);
+    assertThat(success, is(false));
+  }
+
+  @Test(timeout = 10000)
+  public void itShallNotStrandLocksObtainedDuringRecall() throws InterruptedException {
+    final CountDownLatch flushing = new CountDownLatch(1);
+    final CountDownLatch resume = new CountDownLatch(1);
+    remote = new DefaultEmbeddedLockManager() {
+      @Override
+      public boolean lock(String id, List<String> path, LockType type, LockScope scope) {
+        if ( path.equals(key("a", "b")) ) {
+          // hold the recall in the middle of flushing the leased locks
+          flushing.countDown();
+          try {
+            resume.await();
+          } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        return super.lock(id, path, type, scope);
+      }
+    };
+    lm = new LeasingLockManager(remote);
+    lm.setSessionTimeout(100000000);
+    assertThat(lm.lease("1", key("a")), is(true));
+    assertThat(lm.lock("1", key("a", "b"), LockType.WRITE, LockScope.SHALLOW), is(true));
+
+    final Thread recall = new Thread(() -> lm.recall("1", key("a")));
+    recall.start();
+    flushing.await();
+    final AtomicBoolean locked = new AtomicBoolean();
+    final Thread locker = new Thread(
+        () -> locked.set(lm.lock("1", key("a", "c"), LockType.WRITE, LockScope.SHALLOW)));
+    locker.start();
+    while ( locker.isAlive() && locker.getState() != Thread.State.WAITING ) {
+      Thread.sleep(1);
+    }
+    resume.countDown();
+    recall.join();
+    locker.join();
+
+    assertThat(locked.get(), is(true));
+    assertThat(remote.getLocks("1"), is(equalTo(ImmutableSet.of(
+        newLock("1", key("a", "b"), LockType.WRITE, LockScope.SHALLOW),
+        newLock("1", key("a", "c"), LockType.WRITE, LockScope.SHALLOW)))));
+    assertThat(lm.release("1", key("a", "c")), is(true));
+    assertThat(lm.release("1", key("a", "b")), is(true));
+    assertThat(lm.getLocks("1").isEmpty(), is(true));
+  }
+
+  private static List<String> key(String... key) {
+    return Arrays.asList(key);
+  }
+}
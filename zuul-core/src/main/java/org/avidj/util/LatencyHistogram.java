@@ -0,0 +1,150 @@
+package org.avidj.util;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values, e.g., latencies in nanoseconds, in the style of an
+ * HDR histogram. Values are counted in buckets that grow exponentially, where each power of two is
+ * split into {@value #SUB_BUCKETS} linear sub-buckets. Hence, the relative error of reported 
+ * percentiles is at most {@code 1 / }{@value #SUB_BUCKETS}, regardless of the magnitude of the
+ * values. Recording a value is a single atomic increment and never allocates. 
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKETS;
+  
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record the given value. Negative values are recorded as zero.
+   * @param value the value to record
+   */
+  public void record(long value) {
+    if ( value < 0 ) {
+      value = 0;
+    }
+    counts.incrementAndGet(index(value));
+    long current = max.get();
+    while ( value > current && !max.compareAndSet(current, value) ) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Returns the number of values recorded so far.
+   * @return the number of recorded values
+   */
+  public long count() {
+    long count = 0;
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the largest value recorded so far.
+   * @return the maximum value, or 0 if no values have been recorded
+   */
+  public long max() {
+    return max.get();
+  }
+
+  /**
+   * Returns an upper bound of the given percentile of the recorded values. Concurrently recorded 
+   * values may or may not be taken into account.
+   * @param percentile the percentile, between 0 and 100
+   * @return the highest value in the bucket containing the given percentile, or 0 if no values have
+   *     been recorded
+   */
+  public long percentile(double percentile) {
+    final long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if ( total == 0 ) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      seen += snapshot[i];
+      if ( seen >= rank ) {
+        return Math.min(highestValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Add all values recorded in the given histogram to this histogram.
+   * @param other the histogram to add
+   */
+  public void add(LatencyHistogram other) {
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      final long count = other.counts.get(i);
+      if ( count > 0 ) {
+        counts.addAndGet(i, count);
+      }
+    }
+    final long otherMax = other.max();
+    long current = max.get();
+    while ( otherMax > current && !max.compareAndSet(current, otherMax) ) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Forget all values recorded so far. Values recorded concurrently may or may not be forgotten.
+   */
+  public void reset() {
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      counts.set(i, 0);
+    }
+    max.set(0);
+  }
+
+  static int index(long value) {
+    if ( value < SUB_BUCKETS ) {
+      return (int)value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int subBucket = (int)( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+    return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + subBucket;
+  }
+
+  static long highestValue(int index) {
+    if ( index < SUB_BUCKETS ) {
+      return index;
+    }
+    final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final long subBucket = index % SUB_BUCKETS;
+    final int shift = exponent - SUB_BUCKET_BITS;
+    return ( ( SUB_BUCKETS + subBucket + 1 ) << shift ) - 1;
+  }
+}
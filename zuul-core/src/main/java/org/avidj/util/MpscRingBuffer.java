@@ -0,0 +1,109 @@
+package org.avidj.util;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for many producers and a single consumer in the style of the LMAX
+ * disruptor. Producers claim a sequence number with a compare-and-set and then publish their
+ * element into the slot of that sequence. The consumer takes elements in sequence order and frees
+ * their slots. When the buffer is full, {@link #offer(Object)} fails immediately instead of blocking
+ * the producer.
+ *
+ * @param <E> the type of the elements
+ */
+public final class MpscRingBuffer<E> {
+  private final AtomicReferenceArray<E> slots;
+  private final int mask;
+  // the next sequence to claim by a producer
+  private final AtomicLong tail = new AtomicLong();
+  // the next sequence to take by the consumer, only written by the consumer
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * Create a new ring buffer.
+   * @param capacity the minimum capacity, rounded up to the next power of two
+   */
+  public MpscRingBuffer(int capacity) {
+    Preconditions.checkArgument(
+        capacity > 0 && capacity <= 1 << 30, "capacity out of range: %s", capacity);
+    final int size = ( capacity == 1 ) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * Returns the capacity of this buffer.
+   * @return the maximum number of elements in this buffer
+   */
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Add the given element, unless the buffer is full. This method may be called by any thread.
+   * @param element the element to add, not {@code null}
+   * @return {@code true}, iff the element has been added
+   */
+  public boolean offer(E element) {
+    Preconditions.checkNotNull(element);
+    long sequence;
+    do {
+      sequence = tail.get();
+      if ( sequence - head.get() > mask ) {
+        return false;
+      }
+    } while ( !tail.compareAndSet(sequence, sequence + 1) );
+    slots.lazySet((int)sequence & mask, element);
+    return true;
+  }
+
+  /**
+   * Take the next element. This method must only be called by one thread at a time.
+   * @return the next element, or {@code null} if the buffer is empty or the next element has been
+   *     claimed but not yet published
+   */
+  public E poll() {
+    final long sequence = head.get();
+    final int slot = (int)sequence & mask;
+    final E element = slots.get(slot);
+    if ( element == null ) {
+      return null;
+    }
+    slots.lazySet(slot, null);
+    head.lazySet(sequence + 1);
+    return element;
+  }
+
+  /**
+   * Returns whether the buffer is empty. Elements that are being offered concurrently may or may
+   * not be taken into account.
+   * @return {@code true}, iff no element has been claimed that has not been taken
+   */
+  public boolean isEmpty() {
+    return head.get() == tail.get();
+  }
+}
@@ -0,0 +1,192 @@
+package org.avidj.util;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A non-reentrant read-write lock that adapts to read-mostly use, following the BRAVO design 
+ * ("biased locking for reader-writer locks", Dice and Kogan). While a lock is read-biased, readers
+ * do not write to the lock at all: they announce themselves in a slot of a table of visible readers
+ * shared by all locks, so concurrent readers do not contend on a common cache line. A writer that 
+ * arrives revokes the bias and waits for the visible readers of this lock to leave. The revocation
+ * scans the whole table, so the bias is only re-enabled by a reader after a multiple of the time 
+ * the revocation took, which bounds its cost for write-heavy locks.
+ * <p>
+ * The read lock returns a stamp that must be passed to {@link #unlockRead(int)}.
+ */
+public final class ReadBiasedLock {
+  /** The stamp of a read lock obtained from the underlying lock rather than by bias. */
+  public static final int UNBIASED = -1;
+  /** The stamp returned by {@link #tryReadLock()} if the read lock is not available. */
+  public static final int FAILED = -2;
+
+  private static final int TABLE_SIZE = 4096;
+  // the read-biased locks held by visible readers, a slot is owned by the reader that set it
+  private static final AtomicReferenceArray<ReadBiasedLock> READERS = 
+      new AtomicReferenceArray<>(TABLE_SIZE);
+  private static final int INHIBIT_MULTIPLIER = 9;
+  private static final int SPINS = 100;
+
+  private final StampedLock lock = new StampedLock();
+  private final int hash = System.identityHashCode(this) * 0x85EBCA6B;
+  private volatile boolean biased;
+  // the System.nanoTime() before which the bias must not be re-enabled
+  private volatile long inhibitUntil;
+  private Thread owner;
+
+  /**
+   * Obtain the read lock, blocking if a writer holds the write lock.
+   * @return the stamp to release the read lock with
+   */
+  public int readLock() {
+    final int slot = tryBiasedRead();
+    if ( slot >= 0 ) {
+      return slot;
+    }
+    lock.readLock();
+    enableBias();
+    return UNBIASED;
+  }
+
+  /**
+   * Obtain the read lock if no writer holds the write lock.
+   * @return the stamp to release the read lock with, or {@link #FAILED}
+   */
+  public int tryReadLock() {
+    final int slot = tryBiasedRead();
+    if ( slot >= 0 ) {
+      return slot;
+    }
+    if ( lock.tryReadLock() == 0 ) {
+      return FAILED;
+    }
+    enableBias();
+    return UNBIASED;
+  }
+
+  /**
+   * Release the read lock.
+   * @param stamp the stamp returned when obtaining the read lock
+   */
+  public void unlockRead(int stamp) {
+    if ( stamp >= 0 ) {
+      READERS.set(stamp, null);
+    } else if ( !lock.tryUnlockRead() ) {
+      throw new IllegalMonitorStateException("read lock not held");
+    }
+  }
+
+  /**
+   * Obtain the write lock, blocking while other threads hold the read or the write lock.
+   */
+  public void lock() {
+    lock.writeLock();
+    owner = Thread.currentThread();
+    revokeBias();
+  }
+
+  /**
+   * Obtain the write lock if no other thread holds the read or the write lock. Revoking the bias may
+   * still have to wait for visible readers.
+   * @return {@code true}, iff the write lock has been obtained
+   */
+  public boolean tryLock() {
+    if ( lock.tryWriteLock() == 0 ) {
+      return false;
+    }
+    owner = Thread.currentThread();
+    revokeBias();
+    return true;
+  }
+
+  /**
+   * Release the write lock.
+   */
+  public void unlock() {
+    owner = null;
+    if ( !lock.tryUnlockWrite() ) {
+      throw new IllegalMonitorStateException("write lock not held");
+    }
+  }
+
+  /**
+   * Returns whether the current thread holds the write lock.
+   * @return {@code true}, iff the current thread holds the write lock
+   */
+  public boolean isHeldByCurrentThread() {
+    return owner == Thread.currentThread();
+  }
+
+  /**
+   * Returns whether readers currently bypass the underlying lock.
+   * @return {@code true}, iff this lock is read-biased
+   */
+  public boolean isBiased() {
+    return biased;
+  }
+
+  // announce a visible reader and return its slot, or return -1 if the lock is not biased
+  private int tryBiasedRead() {
+    if ( !biased ) {
+      return -1;
+    }
+    int h = (int)Thread.currentThread().getId() * 0x9E3779B9 + hash;
+    h ^= ( h >>> 16 );
+    final int slot = h & ( TABLE_SIZE - 1 );
+    if ( READERS.get(slot) == null && READERS.compareAndSet(slot, null, this) ) {
+      // a writer revokes the bias before it scans the slots, so either it sees this reader or this
+      // reader sees the revocation
+      if ( biased ) {
+        return slot;
+      }
+      READERS.set(slot, null);
+    }
+    return -1;
+  }
+
+  // called by readers holding the underlying read lock, so no writer can revoke concurrently
+  private void enableBias() {
+    if ( !biased && System.nanoTime() - inhibitUntil >= 0 ) {
+      biased = true;
+    }
+  }
+
+  // called by the writer holding the underlying write lock
+  private void revokeBias() {
+    if ( !biased ) {
+      return;
+    }
+    final long start = System.nanoTime();
+    biased = false;
+    for ( int i = 0; i < TABLE_SIZE; i++ ) {
+      for ( int spins = 0; READERS.get(i) == this; spins++ ) {
+        if ( spins > SPINS ) {
+          Thread.yield();
+        }
+      }
+    }
+    final long now = System.nanoTime();
+    inhibitUntil = now + ( now - start ) * INHIBIT_MULTIPLIER;
+  }
+}
@@ -0,0 +1,185 @@
+package org.avidj.util;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded summary of the heaviest keys of a stream of weighted keys, using the space-saving
+ * algorithm of Metwally et al. At most {@code capacity} keys are monitored. When a new key arrives
+ * and the summary is full, it replaces the key with the least weight and inherits that weight as
+ * its possible overestimation ({@link Entry#error}). Every key whose true weight exceeds
+ * {@code 1 / capacity} of the total weight is guaranteed to be monitored. The monitored keys are
+ * kept in an indexed min-heap, so adding a weight takes logarithmic time in the capacity.
+ * 
+ * @param <K> the type of the keys
+ */
+public final class SpaceSaving<K> {
+  private final Object[] keys;
+  private final long[] weights;
+  private final long[] errors;
+  private final Map<K, Integer> index;
+  private int size = 0;
+
+  /**
+   * Create a new summary monitoring up to the given number of keys.
+   * @param capacity the maximum number of keys to monitor
+   */
+  public SpaceSaving(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+    this.keys = new Object[capacity];
+    this.weights = new long[capacity];
+    this.errors = new long[capacity];
+    this.index = new HashMap<>(capacity * 2);
+  }
+
+  /**
+   * Add the given weight to the given key.
+   * @param key the key, not {@code null}
+   * @param weight the non-negative weight to add
+   */
+  public synchronized void add(K key, long weight) {
+    Preconditions.checkNotNull(key);
+    Preconditions.checkArgument(weight >= 0, "weight must not be negative");
+    final Integer pos = index.get(key);
+    if ( pos != null ) {
+      weights[pos] += weight;
+      siftDown(pos);
+    } else if ( size < keys.length ) {
+      keys[size] = key;
+      weights[size] = weight;
+      errors[size] = 0;
+      index.put(key, size);
+      siftUp(size++);
+    } else {
+      // replace the lightest key, which is at the root of the heap
+      index.remove(keys[0]);
+      keys[0] = key;
+      errors[0] = weights[0];
+      weights[0] += weight;
+      index.put(key, 0);
+      siftDown(0);
+    }
+  }
+
+  /**
+   * Returns the heaviest monitored keys.
+   * @param limit the maximum number of keys to return
+   * @return the heaviest keys in descending order of their estimated weight
+   */
+  public List<Entry<K>> top(int limit) {
+    final List<Entry<K>> top = new ArrayList<>();
+    synchronized ( this ) {
+      for ( int i = 0; i < size; i++ ) {
+        top.add(new Entry<K>(key(i), weights[i], errors[i]));
+      }
+    }
+    Collections.sort(top, (e1, e2) -> Long.compare(e2.weight, e1.weight));
+    return ( top.size() > limit ) ? new ArrayList<>(top.subList(0, limit)) : top;
+  }
+
+  /**
+   * Forget all keys.
+   */
+  public synchronized void reset() {
+    index.clear();
+    for ( int i = 0; i < size; i++ ) {
+      keys[i] = null;
+    }
+    size = 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private K key(int pos) {
+    return (K)keys[pos];
+  }
+
+  private void siftUp(int pos) {
+    while ( pos > 0 ) {
+      final int parent = ( pos - 1 ) / 2;
+      if ( weights[parent] <= weights[pos] ) {
+        return;
+      }
+      swap(pos, parent);
+      pos = parent;
+    }
+  }
+
+  private void siftDown(int pos) {
+    while ( true ) {
+      final int left = 2 * pos + 1;
+      if ( left >= size ) {
+        return;
+      }
+      final int right = left + 1;
+      final int min = ( right < size && weights[right] < weights[left] ) ? right : left;
+      if ( weights[pos] <= weights[min] ) {
+        return;
+      }
+      swap(pos, min);
+      pos = min;
+    }
+  }
+
+  private void swap(int i, int j) {
+    final Object key = keys[i];
+    keys[i] = keys[j];
+    keys[j] = key;
+    final long weight = weights[i];
+    weights[i] = weights[j];
+    weights[j] = weight;
+    final long error = errors[i];
+    errors[i] = errors[j];
+    errors[j] = error;
+    index.put(key(i), i);
+    index.put(key(j), j);
+  }
+
+  /**
+   * A monitored key with its estimated weight. The true weight of the key is between 
+   * {@code weight - error} and {@code weight}.
+   * 
+   * @param <K> the type of the key
+   */
+  public static final class Entry<K> {
+    public final K key;
+    public final long weight;
+    public final long error;
+
+    Entry(K key, long weight, long error) {
+      this.key = key;
+      this.weight = weight;
+      this.error = error;
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + weight + ( error > 0 ? "(-" + error + ")" : "" );
+    }
+  }
+}
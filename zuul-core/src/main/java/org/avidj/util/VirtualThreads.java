@@ -0,0 +1,79 @@
+package org.avidj.util;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads, which are part of Java 21 and later, from code compiled for Java 8.
+ * The lock managers block only by parking, never while holding a monitor, so virtual threads that
+ * wait for locks or watches do not pin their carrier threads. On JVMs without virtual threads,
+ * {@link #isAvailable()} returns {@code false}.
+ */
+public final class VirtualThreads {
+  private static final MethodHandle NEW_EXECUTOR = lookupExecutor();
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * Returns whether this JVM supports virtual threads.
+   * @return {@code true}, iff {@link #newThreadPerTaskExecutor()} can be called
+   */
+  public static boolean isAvailable() {
+    return NEW_EXECUTOR != null;
+  }
+
+  /**
+   * Create an executor that starts a new virtual thread for each task.
+   * @return the new executor
+   * @throws UnsupportedOperationException if this JVM does not support virtual threads
+   */
+  public static ExecutorService newThreadPerTaskExecutor() throws UnsupportedOperationException {
+    if ( NEW_EXECUTOR == null ) {
+      throw new UnsupportedOperationException("virtual threads require Java 21 or later");
+    }
+    try {
+      return (ExecutorService)NEW_EXECUTOR.invokeExact();
+    } catch ( RuntimeException | Error e ) {
+      throw e;
+    } catch ( Throwable t ) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static MethodHandle lookupExecutor() {
+    try {
+      final MethodHandle handle = MethodHandles.publicLookup().findStatic(Executors.class,
+          "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+      // virtual threads are a preview feature before Java 21, check that they can be created
+      ( (ExecutorService)handle.invokeExact() ).shutdown();
+      return handle;
+    } catch ( Throwable e ) {
+      return null;
+    }
+  }
+}
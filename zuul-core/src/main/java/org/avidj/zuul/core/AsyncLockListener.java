@@ -0,0 +1,123 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.util.MpscRingBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A listener that hands events over to another listener running in a background thread. Events are
+ * passed through a lock-free {@link MpscRingBuffer}, so notifying this listener only costs a 
+ * compare-and-set and never blocks. When the delegate cannot keep up and the buffer is full, events
+ * are dropped rather than slowing down lock operations; the number of dropped events is available
+ * via {@link #dropped()}.
+ */
+public class AsyncLockListener implements LockListener, Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncLockListener.class);
+  private static final int DEFAULT_CAPACITY = 64 * 1024;
+  private static final int SPINS = 100;
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final LockListener delegate;
+  private final MpscRingBuffer<LockEvent> buffer;
+  private final LongAdder dropped = new LongAdder();
+  private final Thread thread;
+  private volatile boolean closed = false;
+
+  /**
+   * Create a new asynchronous listener with a default buffer capacity.
+   * @param delegate the listener to notify in the background
+   */
+  public AsyncLockListener(LockListener delegate) {
+    this(delegate, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Create a new asynchronous listener.
+   * @param delegate the listener to notify in the background
+   * @param capacity the maximum number of pending events
+   */
+  public AsyncLockListener(LockListener delegate, int capacity) {
+    Preconditions.checkNotNull(delegate);
+    this.delegate = delegate;
+    this.buffer = new MpscRingBuffer<>(capacity);
+    this.thread = new Thread(this::dispatch, "zuul-lock-listener");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  @Override
+  public void onEvent(LockEvent event) {
+    if ( closed || !buffer.offer(event) ) {
+      dropped.increment();
+    }
+  }
+
+  /**
+   * Returns the number of events dropped so far because the delegate could not keep up.
+   * @return the number of dropped events
+   */
+  public long dropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Stop accepting events and wait until all pending events have been delivered.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      thread.join();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void dispatch() {
+    int idle = 0;
+    while ( !closed || !buffer.isEmpty() ) {
+      final LockEvent event = buffer.poll();
+      if ( event == null ) {
+        // spin shortly for the next event, then back off so as not to burn a core
+        if ( ++idle > SPINS ) {
+          LockSupport.parkNanos(PARK_NANOS);
+        }
+        continue;
+      }
+      idle = 0;
+      try {
+        delegate.onEvent(event);
+      } catch ( RuntimeException e ) {
+        LOG.warn("lock listener failed on " + event, e);
+      }
+    }
+  }
+}
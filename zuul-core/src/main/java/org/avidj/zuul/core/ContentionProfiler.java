@@ -0,0 +1,85 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.avidj.util.SpaceSaving;
+import org.avidj.util.SpaceSaving.Entry;
+
+import java.util.List;
+
+/**
+ * Records where a lock tree is contended: the time threads wait for the mutexes of tree nodes, and
+ * the number of lock requests rejected because of conflicting locks, both per lock path. Only
+ * contended operations are recorded, so a profiler adds no cost to uncontended operations beyond a
+ * non-blocking attempt to acquire each mutex. The hottest paths are kept in bounded 
+ * {@link SpaceSaving} summaries, so memory does not grow with the size of the tree.
+ * 
+ * @see DefaultEmbeddedLockManager#setContentionProfiler(ContentionProfiler)
+ */
+public class ContentionProfiler {
+  private final SpaceSaving<List<String>> mutexWaits;
+  private final SpaceSaving<List<String>> conflicts;
+
+  /**
+   * Create a new profiler.
+   * @param capacity the number of paths to keep per summary, the more paths the more accurate the 
+   *     summaries
+   */
+  public ContentionProfiler(int capacity) {
+    this.mutexWaits = new SpaceSaving<>(capacity);
+    this.conflicts = new SpaceSaving<>(capacity);
+  }
+
+  void mutexWait(LockTreeNode node, long nanos) {
+    mutexWaits.add(node.path(), nanos);
+  }
+
+  void conflict(LockTreeNode node) {
+    conflicts.add(node.path(), 1);
+  }
+
+  /**
+   * Returns the paths whose node mutexes have been waited for the longest.
+   * @param limit the maximum number of paths to return
+   * @return the paths in descending order of the total time waited, in nanoseconds
+   */
+  public List<Entry<List<String>>> getMutexWaits(int limit) {
+    return mutexWaits.top(limit);
+  }
+
+  /**
+   * Returns the paths on which lock requests have been rejected most often.
+   * @param limit the maximum number of paths to return
+   * @return the paths in descending order of the number of rejected lock requests
+   */
+  public List<Entry<List<String>>> getConflicts(int limit) {
+    return conflicts.top(limit);
+  }
+
+  /**
+   * Forget all recorded contention.
+   */
+  public void reset() {
+    mutexWaits.reset();
+    conflicts.reset();
+  }
+}
@@ -23,19 +23,30 @@ package org.avidj.zuul.core;
 import static org.avidj.zuul.core.Lock.newLock;
 import static org.avidj.zuul.core.LockTreeNode.treeNode;
 
+import com.google.common.base.Preconditions;
+
 import org.avidj.util.Strings;
+import org.avidj.zuul.core.jfr.Jfr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 /**
  * This default implementation of the {@link LockManager} interface builds a tree of lock tree nodes
@@ -46,34 +57,137 @@ import java.util.Timer;
 public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
   private static final Logger LOG = LoggerFactory.getLogger(DefaultEmbeddedLockManager.class);
   private static final long DEFAULT_SESSION_TIMEOUT = 50000;
+  private static final long SWEEP_INTERVAL = 1000;
  
-  private final Map<String, Session> sessions = new HashMap<>();
-  private final Timer sessionTimer = new Timer();
+  private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+  private final Timer sweeper = new Timer("zuul-session-sweeper", true);
   private final LockTreeNode root = treeNode(null, null);
+  private final WatchRegistry watches = new WatchRegistry();
+  private final HoldIndex holds = new HoldIndex();
+  private final List<LockListener> listeners = new CopyOnWriteArrayList<>();
+  private final LockManagerStats stats = 
+      new LockManagerStats(root.tree.size::sum, () -> sessions.size());
+  // applies the lock requests published to a combiner for the same subtree together
+  private final FlatCombiner.Traversal batch = this::obtainAll;
   
-  private long sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+  private volatile long sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+  private volatile FlatCombiner combiner;
+
+  /**
+   * Create a new lock manager. Expired sessions and locks are detected lazily whenever they are 
+   * accessed or in the way of other sessions. As a backup, a background task sweeps all sessions 
+   * regularly.
+   */
+  public DefaultEmbeddedLockManager() {
+    sweeper.schedule(new SessionSweepTask(this), SWEEP_INTERVAL, SWEEP_INTERVAL);
+  }
   
+  /**
+   * Returns the operation counters and latency histograms of this lock manager.
+   * @return the statistics of this lock manager
+   */
+  public LockManagerStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Install the given profiler to record contention per lock path, or stop profiling.
+   * @param profiler the profiler to record contention with, or {@code null} to stop profiling
+   */
+  public void setContentionProfiler(ContentionProfiler profiler) {
+    root.tree.profiler = profiler;
+  }
+
+  /**
+   * Returns the profiler recording contention, if any.
+   * @return the current profiler, or {@code null} if contention is not profiled
+   */
+  public ContentionProfiler getContentionProfiler() {
+    return root.tree.profiler;
+  }
+
+  /**
+   * Install the given log to record lock requests exceeding its threshold, or stop logging.
+   * @param slowOps the log to record slow lock requests in, or {@code null} to stop logging
+   */
+  public void setSlowOpLog(SlowOpLog slowOps) {
+    root.tree.slowOps = slowOps;
+  }
+
+  /**
+   * Returns the log recording slow lock requests, if any.
+   * @return the current slow operation log, or {@code null} if slow requests are not logged
+   */
+  public SlowOpLog getSlowOpLog() {
+    return root.tree.slowOps;
+  }
+
+  /**
+   * Install the given combiner to batch lock and release operations per subtree, or stop batching.
+   * The lock requests of a batch on the same subtree pass the top of the tree in one traversal, 
+   * releases are applied one after the other. Batching trades some latency of uncontended 
+   * operations for fewer mutex handoffs in hot subtrees.
+   * The slow operation log attributes mutex waits and conflicts of batched operations to the 
+   * operation applied first by the same thread.
+   * @param combiner the combiner to batch operations with, or {@code null} to apply them directly
+   */
+  public void setFlatCombiner(FlatCombiner combiner) {
+    this.combiner = combiner;
+  }
+
+  /**
+   * Returns the combiner batching lock and release operations, if any.
+   * @return the current combiner, or {@code null} if operations are applied directly
+   */
+  public FlatCombiner getFlatCombiner() {
+    return combiner;
+  }
+
+  /**
+   * Register the given listener to be notified of all changes of the lock state. As long as no
+   * listener is registered, no events are created.
+   * @param listener the listener to register
+   */
+  public void addListener(LockListener listener) {
+    Preconditions.checkNotNull(listener);
+    listeners.add(listener);
+  }
+
+  /**
+   * Unregister the given listener.
+   * @param listener the listener to unregister
+   * @return {@code true}, iff the listener was registered
+   */
+  public boolean removeListener(LockListener listener) {
+    return listeners.remove(listener);
+  }
+
   @Override
   public Session getSession(String id) {
+    final long now = System.nanoTime();
     Session session = sessions.get(id);
-    if ( session != null ) {
-      session.cancelTimeout();
-    }
-    if ( session == null ) {
-      session = new Session(this, id);
-      sessions.put(id, session);
-    }
-    synchronized ( this ) {
-      sessionTimer.schedule(session.newTimeoutTask(), sessionTimeout);
+    if ( session != null && session.isExpired(now) ) {
+      expire(session);
     }
+    session = sessions.computeIfAbsent(id, key -> {
+      final Session created = new Session(this, key);
+      created.touch(now, sessionTimeout);
+      return created;
+    });
+    session.touch(now, sessionTimeout);
     return session;
   }
 
   @Override
   public void setSessionTimeout(long sessionTimeout) {
-    synchronized ( this ) {
-      this.sessionTimeout = sessionTimeout;
-    }
+    this.sessionTimeout = sessionTimeout;
+  }
+
+  @Override
+  public void setSessionTimeout(String id, long timeoutMillis) {
+    final Session session = getSession(id);
+    session.setTimeout(timeoutMillis);
+    session.touch(System.nanoTime(), sessionTimeout);
   }
 
   @Override
@@ -83,14 +197,19 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
 
   @Override
   public Set<Lock> getLocks(String id) {
-    final Session session = sessions.get(id);
+    final Session session = liveSession(id);
     if ( session == null ) {
       return Collections.emptySet();
     }
+    final long now = System.nanoTime();
     final Set<Lock> locks = new HashSet<>();
     for ( LockTreeNode node : session.getLocks() ) {
       Lock lock = node.getLock(id);
-      if ( lock != null ) {
+      if ( lock == null ) {
+        continue;
+      } else if ( lock.isExpired(now) ) {
+        releaseExpired(id, lock.key);
+      } else {
         locks.add(lock);
       }
     }
@@ -99,187 +218,908 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
 
   @Override
   public void heartbeat(String id) {
-    Session session = sessions.get(id);
+    final Session session = liveSession(id);
     if ( session != null ) {
-      session.cancelTimeout();
-      sessionTimer.schedule(session.newTimeoutTask(), sessionTimeout);
+      session.touch(System.nanoTime(), sessionTimeout);
     }
   }
 
   @Override
   public void release(String id) {
-    final Session session = sessions.get(id);
+    final Session session = sessions.remove(id);
     if ( session != null ) {
-      sessions.remove(id);
-      session.cancelTimeout();
-      for ( LockTreeNode node : session.getLocks() ) {
-        final Lock lock = node.getLock(session.id);
+      releaseAll(session);
+    }
+  }
+
+  private void releaseAll(Session session) {
+    for ( LockTreeNode node : session.getLocks() ) {
+      final Lock lock;
+      node.lock();
+      try {
+        lock = node.getLock(session.id);
         if ( lock != null ) {
           node.removeLock(lock);
-          lock.type.decLock(root, lock.key);
+          holds.remove(lock);
         }
+      } finally {
+        node.unlock();
+      }
+      if ( lock != null ) {
+        stats.held(lock.key, System.nanoTime() - lock.acquired);
+        decLock(node, lock.type, lock.key);
+        watches.fire(lock.key);
+        publish(LockEvent.Kind.RELEASE, lock.session, lock.key, lock.type, lock.scope);
       }
     }
   }
 
   @Override
   public boolean release(String id, List<String> path) {
+    final long start = System.nanoTime();
+    final FlatCombiner combiner = this.combiner;
+    final boolean success = ( combiner != null && !path.isEmpty() )
+        ? combiner.apply(path.get(0), () -> release(id, path, false))
+        : release(id, path, false);
+    stats.release(success, System.nanoTime() - start);
+    return success;
+  }
+
+  @Override
+  public boolean release(LockHandle handle) {
+    Preconditions.checkNotNull(handle, "handle must not be null");
+    final LockTreeNode node = handle.node;
+    if ( node == null ) {
+      return release(handle.session, handle.path);
+    }
+    final long start = System.nanoTime();
+    node.lock();
+    final boolean success = release(sessions.get(handle.session), handle.session, node, handle.id, 
+        false);
+    stats.release(success, System.nanoTime() - start);
+    return success;
+  }
+
+  /*
+   * Release the lock of the given session on the given path. If all is true, the lock is released 
+   * completely, otherwise it is released once.
+   */
+  private boolean release(String id, List<String> path, boolean all) {
     final Session session = sessions.get(id);
-    
-    final LockTreeNode node = findExistingNode(id, path);
+    final LockTreeNode node = lockedNode(session, id, path);
     if ( node == null ) {
       return false;
     }
+    return release(session, id, node, LockHandle.NO_ID, all);
+  }
+
+  /*
+   * Release the lock of the given session on the given node, whose mutex is held by the caller and
+   * released by this method. Unless the given handle is NO_ID, the lock must have that handle.
+   */
+  private boolean release(Session session, String id, LockTreeNode node, long handle, boolean all) {
+    final Lock lock;
+    final boolean removed;
     try {
-      final Lock lock = node.getLock(id);
-      if ( lock == null ) {
+      lock = node.getLock(id);
+      if ( lock == null || ( handle != LockHandle.NO_ID && lock.handle != handle ) ) {
         return false;
       }
-      synchronized ( node ) {
-        lock.release();
-      }
-      if ( lock.count == 0 ) {
+      // the count is guarded by the node's mutex, no monitor is needed
+      lock.count = all ? 0 : lock.count - 1;
+      removed = ( lock.count == 0 );
+      if ( removed ) {
         node.removeLock(lock);
-        session.removeLock(lock.key);
-        lock.type.decLock(root, path);
+        holds.remove(lock);
+        if ( session != null ) {
+          session.removeLock(lock.key);
+          session.removeLease(lock.key);
+          if ( lock.handle != LockHandle.NO_ID ) {
+            session.removeHandle(lock.handle);
+          }
+        }
       }
     } finally {
       node.unlock();
     }
+    // the count must not be read again after unlocking, a concurrent release may have changed it
+    final List<String> path = lock.key;
+    if ( removed ) {
+      stats.held(path, System.nanoTime() - lock.acquired);
+      decLock(node, lock.type, path);
+      publish(LockEvent.Kind.RELEASE, id, path, lock.type, lock.scope);
+    }
+    watches.fire(path);
     assert ( invariants(root, path) );
     return true;
   }
 
-  @Override
-  public boolean writeLock(String id, List<String> path, LockScope scope) {
-    final Session session = getSession(id);
+  /*
+   * Returns the node of the lock of the given session on the given path with its mutex held, 
+   * or null if there is no such node. The node is taken from the session's locks if possible, 
+   * otherwise it is searched from the root.
+   */
+  private LockTreeNode lockedNode(Session session, String id, List<String> path) {
+    final LockTreeNode node = ( session != null ) ? session.getLock(path) : null;
+    if ( node != null ) {
+      node.lock();
+      // a node is not pruned while it holds a lock, so it is still part of the tree
+      if ( node.getLock(id) != null ) {
+        return node;
+      }
+      node.unlock();
+    }
+    return findExistingNode(id, path);
+  }
 
-    // traverse path described by lock
-    LockTreeNode prev = null;
-    LockTreeNode current = root;
+  /*
+   * Decrement the counts of a lock of the given type that has been removed from the given node, 
+   * bottom-up through the parent pointers. Only if this leaves the node without locks in its 
+   * subtree, the path is traversed from the root to prune empty nodes.
+   */
+  private void decLock(LockTreeNode node, LockType type, List<String> path) {
+    type.decLock(node);
+    if ( node.subtreeEmpty() ) {
+      visit(root, path, n -> { });
+    }
+  }
 
-    current.lock();
-    if ( deepLockedByOther(current, id, LockType.READ) ) {
-      current.unlock();
-      assert ( invariants(root, path) );
+  /*
+   * Returns the session with the given id, unless it does not exist or has expired. In the latter
+   * case all its locks are released.
+   */
+  private Session liveSession(String id) {
+    final Session session = sessions.get(id);
+    if ( session != null && session.isExpired(System.nanoTime()) ) {
+      expire(session);
+      return null;
+    }
+    return session;
+  }
+
+  private boolean expire(Session session) {
+    if ( sessions.remove(session.id, session) ) {
+      LOG.info("RELEASE BY TIMEOUT: " + session.id);
+      stats.expiredSession();
+      publish(LockEvent.Kind.SESSION_EXPIRED, session.id, Collections.emptyList(), null, null);
+      releaseAll(session);
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * Completely release the lock of the given session on the given path if it has expired.
+   * @return true, iff the lock has been released
+   */
+  private boolean releaseExpired(String id, List<String> path) {
+    final LockTreeNode node = findExistingNode(id, path);
+    if ( node == null ) {
       return false;
     }
-    synchronized ( current ) {
-      current.exclusive++;
-//      current.ix++;
+    final Lock lock;
+    try {
+      lock = node.getLock(id);
+    } finally {
+      node.unlock();
     }
-    
-    final int n = path.size();
-    int pos;
-    for ( pos = 0; pos < n; pos++ ) {
-      prev = current;
-      current = current.children.get(path.get(pos));
-      if ( current != null ) {
-        current.lock();
-        prev.unlock();
-        if ( deepLockedByOther(current, id, LockType.READ) ) {
-          current.unlock();
-          LockType.WRITE.decLock(root, path.subList(0, pos));
-          assert ( invariants(root, path) );
-          return false;
+    if ( lock != null && lock.isExpired(System.nanoTime()) ) {
+      LOG.info("RELEASE BY TIMEOUT: {} ({})", id, Strings.join(path));
+      if ( release(id, path, true) ) {
+        stats.expiredLock();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Release all locks on the given path that are held by other sessions and that have expired, or 
+   * whose session has expired.
+   * @return true, iff any lock has been released
+   */
+  private boolean releaseExpiredOnPath(String id, List<String> path) {
+    final long now = System.nanoTime();
+    final Set<Lock> expired = new HashSet<>();
+    visit(root, path, node -> {
+      final Lock exclusive = node.getExclusiveLock();
+      if ( exclusive != null ) {
+        addIfExpired(id, exclusive, now, expired);
+      }
+      for ( Lock lock : node.getSharedLocks() ) {
+        addIfExpired(id, lock, now, expired);
+      }
+    });
+    for ( Lock lock : expired ) {
+      final Session session = sessions.get(lock.session);
+      if ( session != null && session.isExpired(now) ) {
+        expire(session);
+      } else {
+        releaseExpired(lock.session, lock.key);
+      }
+    }
+    return !expired.isEmpty();
+  }
+
+  private void addIfExpired(String id, Lock lock, long now, Set<Lock> expired) {
+    if ( lock.session.equals(id) ) {
+      return;
+    }
+    final Session session = sessions.get(lock.session);
+    if ( lock.isExpired(now) || session == null || session.isExpired(now) ) {
+      expired.add(lock);
+    }
+  }
+
+  /**
+   * Release all expired sessions and locks. This is a backup for the lazy expiry on access and 
+   * called regularly by a background task. 
+   */
+  void sweep() {
+    final Object event = Jfr.beginSweep();
+    final long now = System.nanoTime();
+    int expiredSessions = 0;
+    int expiredLocks = 0;
+    for ( Session session : sessions.values() ) {
+      if ( session.isExpired(now) ) {
+        if ( expire(session) ) {
+          expiredSessions++;
         }
-        synchronized ( current ) {
-          current.exclusive++;
-//          current.ix++;
+        continue;
+      }
+      for ( LockTreeNode node : session.getLocks() ) {
+        final Lock lock = node.getLock(session.id);
+        if ( lock != null && lock.isExpired(now) && releaseExpired(session.id, lock.key) ) {
+          expiredLocks++;
         }
-      } else {
-        break;
       }
     }
-    for ( ; pos < n; pos++ ) {
-      current = treeNode(path.get(pos), prev);
-      current.lock();
-      prev.unlock();
-      prev.children.put(path.get(pos), current);
-      synchronized ( current ) {
-        current.exclusive++;
-//        current.ix++;
+    Jfr.commitSweep(event, expiredSessions, expiredLocks);
+  }
+
+  @Override
+  public boolean lock(
+      String id, List<String> path, LockType type, LockScope scope, long ttlMillis) {
+    Preconditions.checkNotNull(id, "sessionId must not be null");
+    Preconditions.checkNotNull(path, "path must not be null");
+    Preconditions.checkNotNull(type, "type must not be null");
+    Preconditions.checkNotNull(scope, "scope must not be null");
+    Preconditions.checkArgument(ttlMillis > 0, "ttlMillis must be positive");
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    switch ( type ) {
+      case READ:
+        return readLock(id, path, scope, deadline);
+      case WRITE:
+        return writeLock(id, path, scope, deadline, false);
+      default:
+        throw new IllegalArgumentException("Unknown lock type: " + type);
+    }
+  }
+
+  /**
+   * Try to obtain a lock and return a handle to it. The handle refers to the lock tree node of the
+   * lock, so that reentering and releasing the lock through the handle does not traverse the path
+   * from the root. The lock is assigned a numeric id, by which the handle can be looked up again.
+   */
+  @Override
+  public LockHandle acquire(
+      String id, List<String> path, LockType type, LockScope scope, long ttlMillis) {
+    Preconditions.checkNotNull(id, "sessionId must not be null");
+    Preconditions.checkNotNull(path, "path must not be null");
+    Preconditions.checkNotNull(type, "type must not be null");
+    Preconditions.checkNotNull(scope, "scope must not be null");
+    Preconditions.checkArgument(ttlMillis >= 0, "ttlMillis must not be negative");
+    final long deadline = ( ttlMillis > 0 ) 
+        ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis) : Lock.NO_DEADLINE;
+    // the handle is assigned while the node of the lock is locked to set the lock
+    final Acquisition request = new Acquisition(id, path, type, scope, deadline, false, true);
+    if ( !apply(request) ) {
+      return null;
+    }
+    return new LockHandle(id, request.lock.key, request.lock.handle, request.node);
+  }
+
+  @Override
+  public LockHandle getHandle(String id, long handle) {
+    final Session session = liveSession(id);
+    final LockTreeNode node = ( session != null ) ? session.getHandle(handle) : null;
+    if ( node == null ) {
+      return null;
+    }
+    final Lock lock;
+    node.lock();
+    try {
+      lock = node.getLock(id);
+    } finally {
+      node.unlock();
+    }
+    return ( lock != null && lock.handle == handle ) 
+        ? new LockHandle(id, lock.key, handle, node) : null;
+  }
+
+  /**
+   * Reenter the lock with the given handle. Plain reentry and reducing the scope of the lock only 
+   * change the lock's node, neither the counts nor the ancestors are touched. Changing the lock 
+   * type or extending its scope needs to check the ancestors for conflicting deep locks, so these
+   * requests traverse the path like {@link #lock(String, List, LockType, LockScope)}.
+   */
+  @Override
+  public boolean lock(LockHandle handle, LockType type, LockScope scope) {
+    Preconditions.checkNotNull(handle, "handle must not be null");
+    Preconditions.checkNotNull(type, "type must not be null");
+    Preconditions.checkNotNull(scope, "scope must not be null");
+    final LockTreeNode node = handle.node;
+    if ( node == null ) {
+      return lock(handle.session, handle.path, type, scope);
+    }
+    final long start = System.nanoTime();
+    getSession(handle.session); // keep the session alive
+    final Lock lock;
+    final boolean local;
+    node.lock();
+    try {
+      lock = node.getLock(handle.session);
+      if ( lock == null || lock.handle != handle.id ) {
+        return false;
       }
-      prev = current;
+      local = ( type == lock.type && ( scope == lock.scope || scope == LockScope.SHALLOW ) );
+      if ( local ) {
+        node.removeLock(lock);
+        node.addLock(( type == LockType.WRITE ) ? lock.writeLock(scope) : lock.readLock(scope));
+      }
+    } finally {
+      node.unlock();
     }
-    boolean success = setWriteLock(current, session, path, scope);
-    current.unlock();
-    if ( !success ) {
-      LockType.WRITE.decLock(root, path);
-//    } else {
-//      LockType.WRITE.convertCounts(root, path);
+    if ( !local ) {
+      return lock(handle.session, handle.path, type, scope);
     }
-    assert ( invariants(root, path) );
-    return success;
+    stats.lock(type, true, System.nanoTime() - start);
+    watches.fire(lock.key);
+    publish(LockEvent.Kind.ACQUIRE, handle.session, lock.key, type, scope);
+    return true;
   }
 
+  /**
+   * Obtain all locks or none. The locks are obtained in the order of their paths. A request that
+   * would weaken a lock already held by the session, i.e., downgrade it or reduce its scope, is
+   * obtained with the held type and scope, and the lock is only weakened after all locks have been
+   * obtained. So up to a failure locks are only ever strengthened, and the type, scope and count
+   * every lock had before the call are restored exactly by releasing, downgrading and downscoping
+   * it, none of which can conflict with other sessions.
+   */
   @Override
-  public boolean readLock(String id, List<String> path, LockScope scope) {
+  public boolean multiLock(String id, List<LockRequest> requests) {
+    Preconditions.checkNotNull(id, "session must not be null");
+    Preconditions.checkNotNull(requests, "requests must not be null");
+    Preconditions.checkArgument(!requests.isEmpty(), "requests must not be empty");
     final Session session = getSession(id);
+    // the lock held on each touched path before the call, or null, in the order of the paths
+    final Map<List<String>, Lock> before = new LinkedHashMap<>();
+    // the last request of each path, which determines type and scope like on reentry
+    final Map<List<String>, LockRequest> last = new HashMap<>();
+    for ( LockRequest request : LockRequest.sorted(requests) ) {
+      final Lock held = heldLock(session, id, request.path);
+      if ( !before.containsKey(request.path) ) {
+        before.put(request.path, held);
+      }
+      last.put(request.path, request);
+      final LockType type = ( held != null && held.type == LockType.WRITE )
+          ? LockType.WRITE : request.type;
+      final LockScope scope = ( held != null && held.scope == LockScope.DEEP )
+          ? LockScope.DEEP : request.scope;
+      if ( !lock(id, request.path, type, scope) ) {
+        restore(session, id, before);
+        return false;
+      }
+    }
+    for ( LockRequest request : last.values() ) {
+      final Lock held = heldLock(session, id, request.path);
+      if ( held == null ) {
+        continue; // released concurrently
+      }
+      if ( held.type == LockType.WRITE && request.type == LockType.READ ) {
+        downgrade(id, request.path);
+      }
+      if ( held.scope == LockScope.DEEP && request.scope == LockScope.SHALLOW ) {
+        narrowScope(session, id, request.path);
+      }
+    }
+    return true;
+  }
 
-    // traverse path described by lock
-    LockTreeNode prev = null;
-    LockTreeNode current = root;
+  /*
+   * Restore the given locks of a failed multi-lock in reverse order. The locks obtained since have
+   * replaced the given ones, which therefore still carry the counts from before.
+   */
+  private void restore(Session session, String id, Map<List<String>, Lock> before) {
+    final List<List<String>> paths = new ArrayList<>(before.keySet());
+    for ( int i = paths.size() - 1; i >= 0; i-- ) {
+      final List<String> path = paths.get(i);
+      final Lock prior = before.get(path);
+      final Lock held = heldLock(session, id, path);
+      if ( held == null || held == prior ) {
+        continue;
+      }
+      for ( int n = held.count - ( prior != null ? prior.count : 0 ); n > 0; n-- ) {
+        release(id, path);
+      }
+      if ( prior != null ) {
+        if ( held.type == LockType.WRITE && prior.type == LockType.READ ) {
+          downgrade(id, path);
+        }
+        if ( held.scope == LockScope.DEEP && prior.scope == LockScope.SHALLOW ) {
+          narrowScope(session, id, path);
+        }
+      }
+    }
+  }
 
-    current.lock();
-    if ( deepLockedByOther(current, id, LockType.WRITE) ) {
-      current.unlock();
-      assert ( invariants(root, path) );
-      return false;
+  /*
+   * Reduce a deep lock of the given session to a shallow lock in place, under the mutex of its 
+   * node. Unlike updateScope(), the ancestors are not checked for deep locks of other sessions, 
+   * because a session can always narrow the scope of its own lock.
+   */
+  private void narrowScope(Session session, String id, List<String> path) {
+    final LockTreeNode node = lockedNode(session, id, path);
+    if ( node == null ) {
+      return; // released concurrently
     }
-    synchronized ( current ) {
-      current.shared++;
-//      current.is++;
+    final Lock existing;
+    try {
+      existing = node.getLock(id);
+      if ( existing.scope == LockScope.SHALLOW ) {
+        return;
+      }
+      node.removeLock(existing);
+      node.addLock(existing.scope(LockScope.SHALLOW));
+    } finally {
+      node.unlock();
     }
-    
-    final int n = path.size();
-    int pos;
-    
-    // traverse through path from root down into tree
-    for ( pos = 0; pos < n; pos++ ) {
-      prev = current;
-      current = current.children.get(path.get(pos));
-      if ( current != null ) {
-        current.lock();
-        prev.unlock();
-        if ( deepLockedByOther(current, id, LockType.WRITE) ) {
-          current.unlock();
-          LockType.READ.decLock(root, path.subList(0, pos));
-          assert ( invariants(root, path) );
-          return false;
+    watches.fire(path);
+    publish(LockEvent.Kind.SCOPE_CHANGE, id, path, existing.type, LockScope.SHALLOW);
+  }
+
+  // returns the lock of the given session on the given path, or null
+  private Lock heldLock(Session session, String id, List<String> path) {
+    final LockTreeNode node = lockedNode(session, id, path);
+    if ( node == null ) {
+      return null;
+    }
+    try {
+      return node.getLock(id);
+    } finally {
+      node.unlock();
+    }
+  }
+
+  @Override
+  public boolean writeLock(String id, List<String> path, LockScope scope) {
+    return writeLock(id, path, scope, Lock.NO_DEADLINE, false);
+  }
+
+  /*
+   * Obtain a write lock that expires at the given deadline, unless it is NO_DEADLINE. If lease is
+   * true, the lock is registered as a lease of the session while its node is still locked, so that
+   * no conflicting request can miss recalling it.
+   */
+  private boolean writeLock(
+      String id, List<String> path, LockScope scope, long deadline, boolean lease) {
+    return apply(new Acquisition(id, path, LockType.WRITE, scope, deadline, lease, false));
+  }
+
+  @Override
+  public boolean readLock(String id, List<String> path, LockScope scope) {
+    return readLock(id, path, scope, Lock.NO_DEADLINE);
+  }
+
+  private boolean readLock(String id, List<String> path, LockScope scope, long deadline) {
+    return apply(new Acquisition(id, path, LockType.READ, scope, deadline, false, false));
+  }
+
+  // obtain the lock of the given request, recording its outcome and latency
+  private boolean apply(Acquisition request) {
+    final String id = request.id;
+    final List<String> path = request.path;
+    final LockType type = request.type;
+    final LockScope scope = request.scope;
+    final Object event = Jfr.beginLock();
+    final SlowOpLog slowOps = root.tree.slowOps;
+    final SlowOpLog.Probe probe = ( slowOps != null ) ? SlowOpLog.begin() : null;
+    final long start = System.nanoTime();
+    final boolean success = obtain(request);
+    final long nanos = System.nanoTime() - start;
+    stats.lock(type, success, nanos);
+    if ( probe != null ) {
+      slowOps.end(probe, id, path, type, scope, success, nanos);
+    }
+    Jfr.commitLock(event, id, path, type, scope, success);
+    if ( !success ) {
+      Jfr.conflict(id, path, type, scope);
+      publish(LockEvent.Kind.CONFLICT, id, path, type, scope);
+    }
+    return success;
+  }
+
+  // apply the request on its own or, if there is a combiner, together with others on its subtree
+  private boolean obtain(Acquisition request) {
+    final FlatCombiner combiner = this.combiner;
+    return ( combiner != null && !request.path.isEmpty() )
+        ? combiner.apply(request.path.get(0), request, batch)
+        : request.getAsBoolean();
+  }
+
+  // try to obtain the lock, and once more after releasing expired locks on the path
+  private boolean obtainLock(Acquisition request) {
+    return tryLock(request)
+        || ( releaseExpiredOnPath(request.id, request.path) && tryLock(request) );
+  }
+
+  private boolean tryLock(Acquisition request) {
+    request.start(getSession(request.id));
+    final int stamp = root.lock(request.type == LockType.READ && !request.path.isEmpty());
+    if ( request.enter(root) ) {
+      descend(request, root, stamp, 0, true);
+    } else {
+      root.unlock(stamp);
+      request.conflict(root, -1);
+    }
+    return finish(request);
+  }
+
+  /*
+   * Apply the given lock requests on the subtree with the given key in one traversal. The root and 
+   * the root of the subtree are locked once for all requests, and the mutex of the latter is held 
+   * while each request descends from there. All events are published after the mutexes have been 
+   * released, as listeners and watches may call back into this lock manager. Requests that fail
+   * are retried on their own after releasing expired locks on their paths.
+   */
+  private boolean[] obtainAll(String key, List<BooleanSupplier> operations) {
+    final Acquisition[] requests = new Acquisition[operations.size()];
+    // writes pass the prefix exclusively, reads only lock the node of their lock exclusively
+    boolean sharedRoot = true;
+    boolean sharedNode = true;
+    for ( int i = 0; i < requests.length; i++ ) {
+      final Acquisition request = (Acquisition)operations.get(i);
+      request.start(getSession(request.id));
+      sharedRoot &= ( request.type == LockType.READ );
+      sharedNode &= ( request.type == LockType.READ && request.path.size() > 1 );
+      requests[i] = request;
+    }
+
+    final int rootStamp = root.lock(sharedRoot);
+    boolean entered = false;
+    for ( Acquisition request : requests ) {
+      if ( request.enter(root) ) {
+        entered = true;
+      } else {
+        request.conflict(root, -1);
+      }
+    }
+    if ( !entered ) {
+      root.unlock(rootStamp);
+    } else {
+      LockTreeNode node = root.children.get(key);
+      int stamp;
+      if ( node != null ) {
+        stamp = node.lock(sharedNode);
+      } else {
+        final LockTreeNode created = treeNode(key, root);
+        stamp = created.lock(sharedNode); // must lock before adding to children list
+        node = root.children.putIfAbsent(key, created);
+        if ( node == null ) {
+          node = created;
+        } else {
+          // a reader passing the root in shared mode has added the node first
+          created.unlock(stamp);
+          created.tree.size.decrement();
+          stamp = node.lock(sharedNode);
         }
-        synchronized ( current ) {
-          current.shared++;
-//          current.is++;
+      }
+      root.unlock(rootStamp);
+      try {
+        for ( Acquisition request : requests ) {
+          if ( request.node != null ) {
+            continue;
+          } else if ( !request.enter(node) ) {
+            request.conflict(node, 0);
+          } else if ( request.path.size() == 1 ) {
+            request.set(node);
+          } else {
+            descend(request, node, stamp, 1, false);
+          }
         }
-      } else {
-        break;
+      } finally {
+        node.unlock(stamp);
       }
     }
+
+    final boolean[] results = new boolean[requests.length];
+    for ( int i = 0; i < requests.length; i++ ) {
+      final Acquisition request = requests[i];
+      results[i] = finish(request)
+          || ( releaseExpiredOnPath(request.id, request.path) && tryLock(request) );
+    }
+    return results;
+  }
+
+  /*
+   * Continue the traversal of the given request from the given node at the given position of its 
+   * path, down to the node of its lock. The request has entered the node, which is locked with the
+   * given stamp. Unless release is false, its mutex is released after locking the next node.
+   */
+  private void descend(
+      Acquisition request, LockTreeNode node, int stamp, int pos, boolean release) {
+    final List<String> path = request.path;
+    final int n = path.size();
+    LockTreeNode current = node;
     for ( ; pos < n; pos++ ) {
-      current = treeNode(path.get(pos), prev);
-      current.lock(); // must lock before adding to children list
-      prev.unlock();
-      prev.children.put(path.get(pos), current);
-      synchronized ( current ) {
-        current.shared++;
-//        current.is++;
+      // read requests pass the ancestors of their node in shared mode
+      final boolean shared = ( request.type == LockType.READ && pos + 1 < n );
+      LockTreeNode next = current.children.get(path.get(pos));
+      int nextStamp;
+      if ( next != null ) {
+        nextStamp = next.lock(shared);
+      } else {
+        final LockTreeNode created = treeNode(path.get(pos), current);
+        nextStamp = created.lock(shared); // must lock before adding to children list
+        next = current.children.putIfAbsent(path.get(pos), created);
+        if ( next == null ) {
+          next = created;
+        } else {
+          // another reader passing the parent in shared mode has added the node first, as the 
+          // parent has been held since, it cannot have been pruned
+          created.unlock(nextStamp);
+          created.tree.size.decrement();
+          nextStamp = next.lock(shared);
+        }
+      }
+      if ( release ) {
+        current.unlock(stamp);
+      }
+      release = true;
+      current = next;
+      stamp = nextStamp;
+      if ( !request.enter(current) ) {
+        current.unlock(stamp);
+        request.conflict(current, pos);
+        return;
       }
-      prev = current;
     }
-    LOG.trace("try read lock");
-    boolean success = setReadLock(current, session, path, scope);
-    current.unlock();
-    if ( !success ) {
-      LockType.READ.decLock(root, path);
-//    } else {
-//      LockType.READ.convertCounts(root, path);
+    request.set(current);
+    if ( release ) {
+      current.unlock(stamp);
+    }
+  }
+
+  /*
+   * Publish the outcome of the given request, whose traversal is complete and which holds no 
+   * mutexes. On failure, the counts it has incremented on the way are decremented.
+   */
+  private boolean finish(Acquisition request) {
+    final LockTreeNode node = request.node;
+    final List<String> path = request.path;
+    if ( request.success ) {
+      // the counts of a replaced lock are decremented after unlocking, never while it is swapped
+      final Lock existing = request.existing;
+      if ( existing != null ) {
+        existing.type.decLock(node);
+      }
+      watches.fire(path);
+      final LockEvent.Kind kind = ( existing == null || existing.type == request.type ) 
+          ? LockEvent.Kind.ACQUIRE 
+          : ( request.type == LockType.WRITE ) ? LockEvent.Kind.UPGRADE : LockEvent.Kind.DOWNGRADE;
+      publish(kind, request.id, path, request.type, request.scope);
+    } else {
+      conflict(node);
+      if ( request.passed == Acquisition.REACHED ) {
+        decLock(node, request.type, path);
+      } else if ( request.passed >= 0 ) {
+        request.type.decLock(root, path.subList(0, request.passed));
+      }
     }
-    LOG.trace("check invariants");
     assert ( invariants(root, path) );
-    return success;
+    return request.success;
   }
-  
+
+  /*
+   * A lock request and the outcome of its traversal. Write requests pass the ancestors of their 
+   * node exclusively. Read requests pass them in shared mode and only lock the node itself 
+   * exclusively, so that concurrent readers traverse common prefixes in parallel. Shared holders of
+   * a node only check its deep locks, increment its counts and add children; removing children and 
+   * all other changes require the exclusive mode.
+   */
+  private final class Acquisition implements BooleanSupplier {
+    // the value of passed if the request has reached the node of its lock
+    static final int REACHED = Integer.MAX_VALUE;
+    final String id;
+    final List<String> path;
+    final LockType type;
+    final LockScope scope;
+    final long deadline;
+    final boolean lease;
+    // whether to assign a numeric handle to the lock
+    final boolean handle;
+    Session session;
+    // the node the traversal has ended on, either the node of the lock or a conflicting one
+    LockTreeNode node;
+    // REACHED, or the length of the prefix above the conflicting node whose counts have been 
+    // incremented, which is -1 if the conflict is on the root 
+    int passed;
+    Lock existing;
+    boolean success;
+    // the obtained lock, only if it is a lease or has been assigned a handle
+    Lock lock;
+
+    Acquisition(String id, List<String> path, LockType type, LockScope scope, long deadline, 
+        boolean lease, boolean handle) {
+      this.id = id;
+      this.path = path;
+      this.type = type;
+      this.scope = scope;
+      this.deadline = deadline;
+      this.lease = lease;
+      this.handle = handle;
+    }
+
+    @Override
+    public boolean getAsBoolean() {
+      return obtainLock(this);
+    }
+
+    // start a new traversal
+    void start(Session session) {
+      this.session = session;
+      node = null;
+      existing = null;
+      success = false;
+      lock = null;
+    }
+
+    // check the deep locks of the given node and count this request, return false on a conflict
+    boolean enter(LockTreeNode current) {
+      final LockType conflicting = ( type == LockType.WRITE ) ? LockType.READ : LockType.WRITE;
+      if ( deepLockedByOther(current, id, conflicting) ) {
+        recallLeases(current, id);
+        return false;
+      }
+      if ( type == LockType.WRITE ) {
+        current.exclusive.increment();
+      } else {
+        current.shared.increment();
+      }
+      return true;
+    }
+
+    // end the traversal on the given conflicting node, whose mutex has been released
+    void conflict(LockTreeNode current, int passed) {
+      this.node = current;
+      this.passed = passed;
+    }
+
+    // set the lock on the given node, which is locked exclusively
+    void set(LockTreeNode current) {
+      node = current;
+      passed = REACHED;
+      existing = current.getLock(id);
+      success = ( type == LockType.WRITE )
+          ? setWriteLock(current, session, path, scope, deadline)
+          : setReadLock(current, session, path, scope, deadline);
+      if ( success && ( lease || handle ) ) {
+        lock = current.getLock(id);
+        if ( lease ) {
+          session.addLease(lock.key);
+        }
+        if ( handle ) {
+          session.addHandle(lock.handle(), current);
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean lease(String id, List<String> prefix) {
+    return writeLock(id, prefix, LockScope.DEEP, Lock.NO_DEADLINE, true);
+  }
+
+  @Override
+  public Set<List<String>> getRecalledLeases(String id) {
+    final Session session = sessions.get(id);
+    if ( session == null ) {
+      return Collections.emptySet();
+    }
+    return session.getRecalledLeases();
+  }
+
+  @Override
+  public boolean walkLocks(
+      String id, List<String> path, LockScope scope, LockTreeVisitor visitor) {
+    final LockTreeNode node = findExistingNode(id, path);
+    if ( node == null ) {
+      return false;
+    }
+    walk(node, id, scope == LockScope.DEEP, System.nanoTime(), visitor);
+    return true;
+  }
+
+  /*
+   * Walk the subtree rooted at the given node, which must be locked by the current thread. The 
+   * mutex of the node is released before its locks and children are reported to the visitor. The
+   * children need not be copied, because iterating them is weakly consistent.
+   */
+  private static void walk(
+      LockTreeNode node, String session, boolean deep, long now, LockTreeVisitor visitor) {
+    final List<Lock> locks;
+    try {
+      locks = node.getLocks();
+    } finally {
+      node.unlock();
+    }
+    final Collection<LockTreeNode> children = 
+        deep ? node.children.values() : Collections.emptyList();
+    visitor.enter(node.key);
+    for ( Lock lock : locks ) {
+      if ( ( session == null || lock.session.equals(session) ) && !lock.isExpired(now) ) {
+        visitor.visit(lock);
+      }
+    }
+    for ( LockTreeNode child : children ) {
+      child.lock();
+      if ( child.subtreeEmpty() ) {
+        child.unlock();
+      } else {
+        walk(child, session, true, now, visitor);
+      }
+    }
+    visitor.leave();
+  }
+
+  @Override
+  public List<String> listChildren(List<String> path, String startAfter, int limit) {
+    Preconditions.checkArgument(limit > 0, "limit must be positive");
+    final LockTreeNode node = findExistingNode(null, path);
+    if ( node == null ) {
+      return Collections.emptyList();
+    }
+    node.unlock();
+    final Collection<String> keys = ( startAfter == null ) 
+        ? node.children.keySet() 
+        : node.children.tailMap(startAfter, false).keySet();
+    final List<String> page = new ArrayList<>(Math.min(limit, 1024));
+    for ( String key : keys ) {
+      if ( page.size() == limit ) {
+        break;
+      }
+      page.add(key);
+    }
+    return page;
+  }
+
+  @Override
+  public List<LockHolder> getLongestHolders(int limit) {
+    Preconditions.checkArgument(limit > 0, "limit must be positive");
+    return holds.oldest(limit);
+  }
+
+  @Override
+  public CompletableFuture<List<String>> watch(List<String> path, LockScope scope) {
+    return watches.watch(path, scope);
+  }
+
+  /*
+   * Recall all leases of other sessions on the given node. The caller must hold the node's mutex.
+   */
+  private void recallLeases(LockTreeNode node, String requester) {
+    for ( Lock lock : node.getDeepLocks() ) {
+      if ( !lock.session.equals(requester) ) {
+        final Session holder = sessions.get(lock.session);
+        if ( holder != null && holder.recallLease(lock.key) ) {
+          LOG.debug("recall lease ({}) of {} requested by {}", 
+              Strings.join(lock.key), lock.session, requester);
+        }
+      }
+    }
+  }
+
   @Override
   public boolean upScope(String id, List<String> path, LockType type) {
     return updateScope(id, path, type, LockScope.DEEP);
@@ -299,6 +1139,7 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
 
     current.lock();
     if ( deepLockedByOther(current, id, LockType.READ) ) {
+      current.unlock();
       throw new IllegalStateException("deep locked by other session");
     }
     
@@ -311,24 +1152,136 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
         current.lock();
         prev.unlock();
         if ( deepLockedByOther(current, id, LockType.READ) ) {
+          current.unlock();
           throw new IllegalStateException("deep locked by other session");
         }
       } else {
+        prev.unlock();
         throw new IllegalStateException("lock does not exist");
       }
     }
-    boolean success = setLockScope(current, session, path, scope);
-    current.unlock();
+    final boolean success;
+    try {
+      success = setLockScope(current, session, path, scope);
+    } finally {
+      current.unlock();
+    }
+    if ( success ) {
+      watches.fire(path);
+      publish(LockEvent.Kind.SCOPE_CHANGE, id, path, type, scope);
+    }
     return success;
   }
 
-  private boolean setReadLock(
-      LockTreeNode node, Session session, List<String> path, LockScope scope) {
-    synchronized ( node ) {
-      // TODO: what if current session has the deep locks?
-      if ( scope == LockScope.DEEP && node.exclusive > 0 ) { 
+  /**
+   * Upgrade a read lock in place. The path is traversed once with lock coupling to check the 
+   * ancestors for conflicting deep locks, incrementing their write counts on the way down like a 
+   * write lock request. After the type of the lock has been changed, only the read counts of the 
+   * node and its ancestors are decremented, through the parent pointers.
+   */
+  @Override
+  public boolean upgrade(String id, List<String> path) {
+    Preconditions.checkNotNull(id, "session must not be null");
+    Preconditions.checkNotNull(path, "path must not be null");
+    final long start = System.nanoTime();
+    final boolean success = tryUpgrade(id, path) 
+        || ( releaseExpiredOnPath(id, path) && tryUpgrade(id, path) );
+    stats.lock(LockType.WRITE, success, System.nanoTime() - start);
+    return success;
+  }
+
+  private boolean tryUpgrade(String id, List<String> path) {
+    getSession(id); // keep the session alive
+    
+    // traverse path described by lock
+    LockTreeNode current = root;
+    current.lock();
+    for ( int pos = 0, n = path.size(); ; pos++ ) {
+      if ( deepLockedByOther(current, id, LockType.READ) ) {
+        recallLeases(current, id);
+        current.unlock();
+        conflict(current);
+        if ( current.parent != null ) {
+          decLock(current.parent, LockType.WRITE, path);
+        }
         return false;
       }
+      current.exclusive.increment();
+      if ( pos == n ) {
+        break;
+      }
+      final LockTreeNode prev = current;
+      current = current.children.get(path.get(pos));
+      if ( current == null ) {
+        prev.unlock();
+        decLock(prev, LockType.WRITE, path);
+        return false;
+      }
+      current.lock();
+      prev.unlock();
+    }
+    final Lock existing = current.getLock(id);
+    final boolean upgrade = ( existing != null && existing.type == LockType.READ );
+    final boolean success = upgrade && current.canGetExclusiveLock(id)
+        && ( existing.scope == LockScope.SHALLOW || current.locksInSubtree() == 2 );
+    if ( success ) {
+      current.removeLock(existing);
+      current.addLock(existing.type(LockType.WRITE));
+    }
+    current.unlock();
+    if ( success ) {
+      LockType.READ.decLock(current);
+      watches.fire(path);
+      publish(LockEvent.Kind.UPGRADE, id, path, LockType.WRITE, existing.scope);
+      return true;
+    }
+    decLock(current, LockType.WRITE, path);
+    if ( upgrade ) {
+      conflict(current);
+      publish(LockEvent.Kind.CONFLICT, id, path, LockType.WRITE, existing.scope);
+    }
+    return ( existing != null && !upgrade ); // a write lock is left as it is
+  }
+
+  /**
+   * Downgrade a write lock in place. The node is taken from the session's locks, and only the 
+   * counts of the node and its ancestors are adjusted through the parent pointers. The read counts
+   * are incremented before the write counts are decremented, so that the subtree never appears to
+   * be empty to concurrent deep lock requests.
+   */
+  @Override
+  public boolean downgrade(String id, List<String> path) {
+    Preconditions.checkNotNull(id, "session must not be null");
+    Preconditions.checkNotNull(path, "path must not be null");
+    final LockTreeNode node = lockedNode(getSession(id), id, path);
+    if ( node == null ) {
+      return false;
+    }
+    final Lock existing;
+    try {
+      existing = node.getLock(id);
+      if ( existing == null || existing.type == LockType.READ ) {
+        return ( existing != null );
+      }
+      node.removeLock(existing);
+      node.addLock(existing.type(LockType.READ));
+    } finally {
+      node.unlock();
+    }
+    for ( LockTreeNode current = node; current != null; current = current.parent ) {
+      current.shared.increment();
+    }
+    LockType.WRITE.decLock(node);
+    watches.fire(path);
+    publish(LockEvent.Kind.DOWNGRADE, id, path, LockType.READ, existing.scope);
+    return true;
+  }
+
+  private boolean setReadLock(
+      LockTreeNode node, Session session, List<String> path, LockScope scope, long deadline) {
+    // TODO: what if current session has the deep locks?
+    if ( scope == LockScope.DEEP && node.hasWritesInSubtree() ) { 
+      return false;
     }
     final Lock exclusive = node.getExclusiveLock();
     if ( exclusive != null && !exclusive.session.equals(session.id) ) {
@@ -338,14 +1291,15 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
     final Lock existing = ( exclusive != null ) ? exclusive : node.getLock(session.id);
     if ( existing != null ) {
       node.removeLock(existing);
-      node.unlock();
-      existing.type.decLock(root, path);
-      node.lock();
     }
     
     final Lock newLock = ( existing != null ) 
         ? existing.readLock(scope) : newLock(session.id, path, LockType.READ, scope);
+    newLock.extend(deadline);
     node.addLock(newLock);
+    if ( existing == null ) {
+      holds.add(newLock, node);
+    }
     session.addLock(node);
   
     return true;
@@ -354,7 +1308,9 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
   private boolean setLockScope(
       LockTreeNode node, Session session, List<String> path, LockScope scope) {
     final Lock existing = node.getLock(session.id);
-    assert ( existing != null );
+    if ( existing == null ) {
+      throw new IllegalStateException("lock does not exist");
+    }
     // TODO: upscoping shall be allowed if all nested locks belong to this session 
     if ( scope == existing.scope 
        || ( scope == LockScope.DEEP && node.locksInSubtree() > 1 ) ) { 
@@ -370,7 +1326,7 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
   }
 
   private boolean setWriteLock(
-      LockTreeNode node, Session session, List<String> path, LockScope scope) {
+      LockTreeNode node, Session session, List<String> path, LockScope scope, long deadline) {
     if ( !node.canGetExclusiveLock(session.id) ) {
       return false;
     }
@@ -384,16 +1340,15 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
   
     // locking is legal and there is no existing lock for the current session
     if ( existing == null ) {
-      node.addLock(newLock(session.id, path, LockType.WRITE, scope));
+      final Lock newLock = newLock(session.id, path, LockType.WRITE, scope).extend(deadline);
+      node.addLock(newLock);
+      holds.add(newLock, node);
       session.addLock(node);
       return true;
     }
     
-    // on lock type upgrade, update counts
-    node.unlock();
-    existing.type.decLock(root, path);
-    node.lock();
-    Lock newLock = existing.writeLock(scope);
+    // on lock type upgrade, the caller updates the counts
+    Lock newLock = existing.writeLock(scope).extend(deadline);
     node.removeLock(existing);
     node.addLock(newLock);
     session.addLock(node);
@@ -437,7 +1392,11 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
       current = current.children.get(path.get(i));
       if ( current != null ) {
         current.lock();
-        current = visit(current, visitor);
+        final LockTreeNode next = visit(current, visitor);
+        if ( next == null ) {
+          current.unlock(); // pruned
+        }
+        current = next;
       }
       prev.unlock();
     }
@@ -447,14 +1406,50 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
   }
   
   static LockTreeNode visit(LockTreeNode node, LockTreeNodeVisitor visitor) {
-    synchronized ( node ) {
-      visitor.visit(node);
-      if ( node.subtreeEmpty() && node.parent != null ) {
-        node.parent.children.remove(node.key);
-        return null;
+    visitor.visit(node);
+    if ( node.subtreeEmpty() && node.parent != null ) {
+      if ( node.parent.children.remove(node.key, node) ) {
+        node.tree.size.add(-size(node));
       }
-      return node;
+      return null;
     }
+    return node;
+  }
+
+  // notify all listeners, without creating an event if there are none
+  private void publish(
+      LockEvent.Kind kind, String session, List<String> path, LockType type, LockScope scope) {
+    if ( listeners.isEmpty() ) {
+      return;
+    }
+    final LockEvent event = new LockEvent(kind, session, path, type, scope);
+    for ( LockListener listener : listeners ) {
+      try {
+        listener.onEvent(event);
+      } catch ( RuntimeException e ) {
+        LOG.warn("lock listener failed on " + event, e);
+      }
+    }
+  }
+
+  // record a rejected lock request on the given node, if contention is profiled or logged
+  private void conflict(LockTreeNode node) {
+    final ContentionProfiler profiler = root.tree.profiler;
+    if ( profiler != null ) {
+      profiler.conflict(node);
+    }
+    if ( root.tree.slowOps != null ) {
+      SlowOpLog.conflict(node);
+    }
+  }
+
+  // the number of nodes in the given subtree, which is pruned along with its root
+  private static long size(LockTreeNode node) {
+    long size = 1;
+    for ( LockTreeNode child : node.children.values() ) {
+      size += size(child);
+    }
+    return size;
   }
 
   private static boolean currentThreadHoldsNoLocksOnPath(LockTreeNode root, List<String> path) {
@@ -483,15 +1478,11 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
       current = current.children.get(step);
       if ( current == null ) {
         return true;
-      } else {
-        synchronized ( current ) {
-          if ( !current.hasExclusiveLock() 
-              && current.getSharedLocks().isEmpty() 
-              && current.children.isEmpty() ) {
-            LOG.error("No locks and no children in node: {}", Strings.join(path.subList(0, i + 1)));
-            return false;
-          }
-        }
+      } else if ( !current.hasExclusiveLock() 
+          && current.getSharedLocks().isEmpty() 
+          && current.children.isEmpty() ) {
+        LOG.error("No locks and no children in node: {}", Strings.join(path.subList(0, i + 1)));
+        return false;
       }
     }
     return true;
@@ -526,10 +1517,8 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
   }
 
   private static boolean lockCountsAreCorrect(LockTreeNode root) {    
-    synchronized ( root ) {
-      return readCount(root) == root.shared
-          && writeCount(root) == root.exclusive;
-    }
+    return readCount(root) == root.shared.sum()
+        && writeCount(root) == root.exclusive.sum();
   }
 
   private static int readCount(LockTreeNode node) {
@@ -537,11 +1526,9 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
     for ( LockTreeNode child : node.children.values() ) {
       count += readCount(child);
     }
-    synchronized ( node ) {
-      assert ( count == node.shared ) : 
-        String.format("node = %1$s, reads = %2$d, actual = %3$d", 
-            Strings.join(pathTo(node)), node.shared, count);
-    }
+    assert ( count == node.shared.sum() ) : 
+      String.format("node = %1$s, reads = %2$d, actual = %3$d", 
+          Strings.join(pathTo(node)), node.shared.sum(), count);
     return count;
   }
 
@@ -551,11 +1538,9 @@ public class DefaultEmbeddedLockManager implements EmbeddedLockManager {
     for ( LockTreeNode child : node.children.values() ) {
       count += writeCount(child);
     }
-    synchronized ( node ) {
-      assert ( count == node.exclusive ) : 
-        String.format("node = %1$s, writes = %2$d, actual = %3$d", 
-            Strings.join(pathTo(node)), node.exclusive, count);
-    }
+    assert ( count == node.exclusive.sum() ) : 
+      String.format("node = %1$s, writes = %2$d, actual = %3$d", 
+          Strings.join(pathTo(node)), node.exclusive.sum(), count);
     return count;
   }
 
@@ -6,10 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /*
  * #%L
@@ -83,27 +80,9 @@ public interface EmbeddedLockManager extends LockManager {
     Preconditions.checkArgument(!paths.isEmpty(), "paths must not be empty");
     Preconditions.checkNotNull(type, "type must not be null");
     Preconditions.checkNotNull(scope, "scope must not be null");
-    sessionId = sessionId.intern();
-    
-    Collections.sort(paths, LockUtils.pathComparator());
-    boolean success = true;
-    Set<List<String>> obtained = new HashSet<>();
-    for ( List<String> path : paths ) {
-      success &= lock(sessionId, path, type, scope);
-      if ( success ) {
-        obtained.add(path);
-      } else {
-        break;
-      }
-    }
-    if ( !success ) {
-      for ( List<String> path : obtained ) {
-        release(sessionId, path);
-      }
-    }
-    return success;
+    return multiLock(sessionId, LockRequest.all(paths, type, scope));
   }
-  
+
   /**
    * Release a collection of locks. As locks are reentrant, they may have to be released multiple 
    * times to be eventually <em>really</em> released. Locks not held by the session are ignored by
@@ -0,0 +1,298 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Batches lock operations on hot subtrees by flat combining. Callers publish their operations to
+ * the publication list of the subtree given by the first component of their lock paths. Whichever
+ * caller acquires the combiner role of the subtree takes all published operations and applies those
+ * on the same subtree together, by a {@link Traversal} that passes the common prefix of their lock
+ * paths only once, while the others wait for their results. Thus, the node mutexes at the top of a
+ * contended subtree are acquired once per batch rather than handed off between all callers. 
+ * Subtrees are hashed into a fixed number of stripes, so unrelated subtrees may share a publication
+ * list, but they are still traversed separately.
+ * <p>
+ * Operations run in the combining thread, so do the lock listeners and watches they trigger. These 
+ * may call back into the lock manager. Calls from a thread that is combining, for any stripe, are 
+ * applied directly by that thread rather than published, so they never wait for a combiner role.
+ */
+public class FlatCombiner {
+  // publication list drains per combining round, to bound the latency of the combining thread
+  private static final int MAX_PASSES = 16;
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final Subtree[] subtrees;
+  // the stripe the current thread is combining, if any
+  private final ThreadLocal<Subtree> combining = new ThreadLocal<>();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder combined = new LongAdder();
+  private final LongAdder traversals = new LongAdder();
+
+  /**
+   * Create a new flat combiner.
+   * @param stripes the number of publication lists, rounded up to a power of two
+   */
+  public FlatCombiner(int stripes) {
+    Preconditions.checkArgument(stripes > 0, "stripes must be positive");
+    final int size = ( stripes == 1 ) ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+    subtrees = new Subtree[size];
+    for ( int i = 0; i < size; i++ ) {
+      subtrees[i] = new Subtree();
+    }
+  }
+
+  /**
+   * Returns the number of publication lists.
+   * @return the number of stripes
+   */
+  public int stripes() {
+    return subtrees.length;
+  }
+
+  /**
+   * Returns the number of batches applied so far.
+   * @return the number of batches
+   */
+  public long getBatches() {
+    return batches.sum();
+  }
+
+  /**
+   * Returns the number of operations applied in batches so far.
+   * @return the number of combined operations
+   */
+  public long getCombined() {
+    return combined.sum();
+  }
+
+  /**
+   * Returns the number of shared traversals so far, each applying two or more operations on the
+   * same subtree.
+   * @return the number of shared traversals
+   */
+  public long getTraversals() {
+    return traversals.sum();
+  }
+
+  /**
+   * Apply the given operation together with the other operations published for the same subtree.
+   * The operation is applied on its own.
+   * @param key the first component of the lock path of the operation
+   * @param operation the operation to apply
+   * @return the result of the operation
+   */
+  boolean apply(String key, BooleanSupplier operation) {
+    return apply(key, operation, null);
+  }
+
+  /**
+   * Apply the given operation together with the other operations published for the same subtree.
+   * @param key the first component of the lock path of the operation
+   * @param operation the operation to apply
+   * @param traversal the traversal to apply the operation with other operations of the same 
+   *     traversal on the same subtree, or {@code null} to apply it on its own
+   * @return the result of the operation
+   */
+  boolean apply(String key, BooleanSupplier operation, Traversal traversal) {
+    if ( combining.get() != null ) {
+      // called back from an operation applied by this thread
+      return operation.getAsBoolean();
+    }
+    int hash = key.hashCode();
+    hash ^= ( hash >>> 16 );
+    final Subtree subtree = subtrees[hash & ( subtrees.length - 1 )];
+    final Request request = new Request(key, operation, traversal);
+    subtree.publish(request);
+    while ( !request.done ) {
+      if ( !subtree.combine(this) ) {
+        LockSupport.parkNanos(this, PARK_NANOS);
+      }
+    }
+    if ( request.error instanceof RuntimeException ) {
+      throw (RuntimeException)request.error;
+    } else if ( request.error != null ) {
+      throw (Error)request.error;
+    }
+    return request.result;
+  }
+
+  /**
+   * Applies a batch of operations on the same subtree in one traversal.
+   */
+  interface Traversal {
+    /**
+     * Apply the given operations, which have all been published with this traversal. The results
+     * must be the same as if the operations had been applied one after the other, in any order.
+     * @param key the first component of the lock paths of the operations
+     * @param operations the operations in publication order, at least two
+     * @return the results of the operations, in the order of the operations
+     */
+    boolean[] apply(String key, List<BooleanSupplier> operations);
+  }
+
+  /* The publication list of a subtree and its combiner role. */
+  private static final class Subtree {
+    private final AtomicReference<Request> head = new AtomicReference<>();
+    // the thread holding the combiner role, or null
+    private final AtomicReference<Thread> role = new AtomicReference<>();
+
+    void publish(Request request) {
+      Request current;
+      do {
+        current = head.get();
+        request.next = current;
+      } while ( !head.compareAndSet(current, request) );
+    }
+
+    // apply all published operations if the combiner role is free, return false if it is not
+    boolean combine(FlatCombiner owner) {
+      final Thread self = Thread.currentThread();
+      if ( role.get() != null || !role.compareAndSet(null, self) ) {
+        return false;
+      }
+      owner.combining.set(this);
+      try {
+        for ( int pass = 0; pass < MAX_PASSES; pass++ ) {
+          Request batch = head.getAndSet(null);
+          if ( batch == null ) {
+            break;
+          }
+          // the list is in reverse publication order, group the operations per subtree in 
+          // publication order
+          Request fifo = null;
+          while ( batch != null ) {
+            final Request next = batch.next;
+            batch.next = fifo;
+            fifo = batch;
+            batch = next;
+          }
+          final Map<String, List<Request>> groups = new LinkedHashMap<>();
+          int size = 0;
+          for ( ; fifo != null; fifo = fifo.next ) {
+            groups.computeIfAbsent(fifo.key, key -> new ArrayList<>()).add(fifo);
+            size++;
+          }
+          for ( Map.Entry<String, List<Request>> group : groups.entrySet() ) {
+            owner.apply(group.getKey(), group.getValue(), self);
+          }
+          owner.batches.increment();
+          owner.combined.add(size);
+        }
+      } finally {
+        owner.combining.remove();
+        role.set(null);
+      }
+      // hand over the role to a waiting thread, rather than let it wait for its parking to time out
+      final Request pending = head.get();
+      if ( pending != null ) {
+        LockSupport.unpark(pending.thread);
+      }
+      return true;
+    }
+  }
+
+  /*
+   * Apply the given requests on the subtree with the given key, those of the traversal of the 
+   * first one in one traversal, the others on their own.
+   */
+  private void apply(String key, List<Request> requests, Thread combiner) {
+    final Traversal traversal = requests.get(0).traversal;
+    final List<Request> shared = new ArrayList<>(requests.size());
+    for ( Request request : requests ) {
+      if ( traversal != null && request.traversal == traversal ) {
+        shared.add(request);
+      } else {
+        request.apply(combiner);
+      }
+    }
+    if ( shared.size() == 1 ) {
+      shared.get(0).apply(combiner);
+    } else if ( !shared.isEmpty() ) {
+      final List<BooleanSupplier> operations = new ArrayList<>(shared.size());
+      for ( Request request : shared ) {
+        operations.add(request.operation);
+      }
+      boolean[] results = null;
+      Throwable error = null;
+      try {
+        results = traversal.apply(key, operations);
+      } catch ( RuntimeException | Error e ) {
+        error = e;
+      }
+      for ( int i = 0; i < shared.size(); i++ ) {
+        shared.get(i).complete(( results != null ) && results[i], error, combiner);
+      }
+      traversals.increment();
+    }
+  }
+
+  /* A published operation and, once done, its result. */
+  private static final class Request {
+    final Thread thread = Thread.currentThread();
+    final String key;
+    final BooleanSupplier operation;
+    final Traversal traversal;
+    Request next;
+    boolean result;
+    Throwable error;
+    volatile boolean done;
+
+    Request(String key, BooleanSupplier operation, Traversal traversal) {
+      this.key = key;
+      this.operation = operation;
+      this.traversal = traversal;
+    }
+
+    void apply(Thread combiner) {
+      boolean result = false;
+      Throwable error = null;
+      try {
+        result = operation.getAsBoolean();
+      } catch ( RuntimeException | Error e ) {
+        error = e;
+      }
+      complete(result, error, combiner);
+    }
+
+    void complete(boolean result, Throwable error, Thread combiner) {
+      this.result = result;
+      this.error = error;
+      // the request must not be accessed after it is done, its thread may have moved on
+      final Thread waiter = thread;
+      done = true;
+      if ( waiter != combiner ) {
+        LockSupport.unpark(waiter);
+      }
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An index of all held locks ordered by the time they were first obtained, so that the locks held
+ * longest can be found without traversing the lock tree. Locks are only added when they are 
+ * created and only removed when they are released completely, i.e., reentering, upgrading or 
+ * rescoping a lock does not touch the index. Both happen under the mutex of the lock's node, so 
+ * the index cannot miss a release.
+ */
+final class HoldIndex {
+  private final ConcurrentNavigableMap<Hold, LockTreeNode> holds = new ConcurrentSkipListMap<>();
+
+  /**
+   * Add a newly created lock. The caller must hold the mutex of the given node.
+   * @param lock the new lock
+   * @param node the node the lock is set on
+   */
+  void add(Lock lock, LockTreeNode node) {
+    holds.put(new Hold(lock), node);
+  }
+
+  /**
+   * Remove a completely released lock. The caller must hold the mutex of the lock's node.
+   * @param lock the released lock
+   */
+  void remove(Lock lock) {
+    holds.remove(new Hold(lock));
+  }
+
+  /**
+   * Returns the locks held longest, longest first. Locks that are released concurrently may or may
+   * not be reported.
+   * @param limit the maximum number of locks to return
+   * @return the oldest locks
+   */
+  List<LockHolder> oldest(int limit) {
+    final long now = System.nanoTime();
+    final List<LockHolder> oldest = new ArrayList<>(Math.min(limit, 1024));
+    for ( Map.Entry<Hold, LockTreeNode> entry : holds.entrySet() ) {
+      if ( oldest.size() == limit ) {
+        break;
+      }
+      final Hold hold = entry.getKey();
+      final Lock lock = entry.getValue().getLock(hold.session);
+      if ( lock != null && lock.acquired == hold.acquired ) {
+        oldest.add(new LockHolder(lock, now));
+      }
+    }
+    return oldest;
+  }
+
+  /*
+   * The key of a lock in the index. There is at most one lock per session and path, so the key is
+   * unique.
+   */
+  private static final class Hold implements Comparable<Hold> {
+    private final long acquired;
+    private final String session;
+    private final List<String> path;
+
+    Hold(Lock lock) {
+      this.acquired = lock.acquired;
+      this.session = lock.session;
+      this.path = lock.key;
+    }
+
+    @Override
+    public int compareTo(Hold that) {
+      int cmp = Long.signum(this.acquired - that.acquired);
+      if ( cmp != 0 ) {
+        return cmp;
+      }
+      cmp = this.session.compareTo(that.session);
+      if ( cmp != 0 ) {
+        return cmp;
+      }
+      for ( int i = 0, n = Math.min(this.path.size(), that.path.size()); i < n; i++ ) {
+        cmp = this.path.get(i).compareTo(that.path.get(i));
+        if ( cmp != 0 ) {
+          return cmp;
+        }
+      }
+      return this.path.size() - that.path.size();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Hold && compareTo((Hold)other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(acquired) * 31 + session.hashCode();
+    }
+  }
+}
@@ -26,22 +26,36 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Representation of a lock referenced by a lock tree node. The lock is associated with an 
  * immutable composite key that represents the path to that lock in the lock tree. Also,
  * the lock is either read or a write lock and orthogonally it may be a shallow lock 
  * affecting only this node, or a deep lock affecting  the whole subtree rooted at this node.
- * Each lock is associated to the session owning it. Now, as this class is immutable, any change
- * in the state of the lock results in a new lock node to be created.
+ * Each lock is associated to the session owning it. Session, key, type and scope of a lock never
+ * change, any change of the type or scope results in a new lock to be created. Only the 
+ * {@link #count}, the deadline and the numeric handle of a lock are changed in place, on release,
+ * reentry with a time to live and when a handle is requested. They are guarded by the mutex of the
+ * lock tree node holding the lock, or, in a {@link SingleWriterLockManager}, only changed by its 
+ * writer thread.
  */
 public class Lock {
+  /** The deadline of locks that do not expire on their own, but only with their session. */
+  static final long NO_DEADLINE = 0;
+  private static final AtomicLong HANDLES = new AtomicLong();
   private final int hashCode;
   public int count;
   public String session;
   public List<String> key;
   public LockType type;
   public LockScope scope;
+  // the System.nanoTime() after which this lock expires, or NO_DEADLINE 
+  long deadline = NO_DEADLINE;
+  // the System.nanoTime() at which the session first obtained this lock, kept on reentry
+  final long acquired;
+  // the numeric handle of this lock, kept on reentry, or LockHandle.NO_ID if none was requested
+  long handle = LockHandle.NO_ID;
   
   /**
    * @param session the session owning this lock
@@ -51,18 +65,26 @@ public class Lock {
    * @return the new lock object
    */
   public static Lock newLock(String session, List<String> path, LockType type, LockScope scope) {
-    return new Lock(session, path, type, scope, 1);
+    return new Lock(session, path, type, scope, 1, System.nanoTime());
   }
   
-  private Lock(String session, List<String> key, LockType type, LockScope scope, int count) {
+  private Lock(
+      String session, List<String> key, LockType type, LockScope scope, int count, long acquired) {
     assert ( count >= 0 );
     this.session = session.intern();
     this.key = intern(key);
     this.type = type;
     this.scope = scope;
     this.count = count;
+    this.acquired = acquired;
     hashCode = Objects.hash(session, type, key);
   }
+
+  private Lock(Lock lock, LockType type, LockScope scope, int count) {
+    this(lock.session, lock.key, type, scope, count, lock.acquired);
+    this.deadline = lock.deadline;
+    this.handle = lock.handle;
+  }
   
   private static List<String> intern(List<String> key) {
     List<String> intern = new ArrayList<>(key.size());
@@ -79,7 +101,7 @@ public class Lock {
    * @return a write lock of the given scope corresponding to this lock's path
    */
   Lock writeLock(LockScope scope) {
-    return new Lock(session, key, LockType.WRITE, scope, count + 1);
+    return new Lock(this, LockType.WRITE, scope, count + 1);
   }
 
   /**
@@ -89,7 +111,17 @@ public class Lock {
    * @return a read lock of the given scope corresponding to this lock's path
    */
   Lock readLock(LockScope scope) {
-    return new Lock(session, key, LockType.READ, scope, count + 1);
+    return new Lock(this, LockType.READ, scope, count + 1);
+  }
+
+  /**
+   * Change the type of this lock according to the input, keeping its count and scope.
+   * 
+   * @param type the desired type
+   * @return a lock corresponding to this lock but with the desired type
+   */
+  Lock type(LockType type) {
+    return new Lock(this, type, scope, count);
   }
 
   /**
@@ -99,7 +131,7 @@ public class Lock {
    * @return a lock corresponding to this lock but with the desired scope
    */
   Lock scope(LockScope scope) {
-    return new Lock(session, key, type, scope, count);
+    return new Lock(this, type, scope, count);
   }
 
   /**
@@ -111,7 +143,7 @@ public class Lock {
     if ( scope == LockScope.DEEP ) {
       return this;
     }
-    return new Lock(session, key, type, LockScope.DEEP, count);
+    return new Lock(this, type, LockScope.DEEP, count);
   }
   
   /**
@@ -123,7 +155,43 @@ public class Lock {
     if ( scope == LockScope.SHALLOW ) {
       return this;
     }
-    return new Lock(session, key, type, LockScope.SHALLOW, count);
+    return new Lock(this, type, LockScope.SHALLOW, count);
+  }
+
+  /**
+   * Let this lock expire at the given deadline, unless it is {@link #NO_DEADLINE}.
+   * 
+   * @param deadline the {@link System#nanoTime()} after which this lock expires
+   * @return this
+   */
+  Lock extend(long deadline) {
+    if ( deadline != NO_DEADLINE ) {
+      this.deadline = deadline;
+    }
+    return this;
+  }
+
+  /**
+   * Returns the numeric handle of this lock, assigning a new one if it has none yet. The caller 
+   * must hold the mutex of the lock's node.
+   * 
+   * @return the handle of this lock
+   */
+  long handle() {
+    if ( handle == LockHandle.NO_ID ) {
+      handle = HANDLES.incrementAndGet();
+    }
+    return handle;
+  }
+
+  /**
+   * Returns whether this lock has expired on its own, regardless of its session.
+   * 
+   * @param now the current {@link System#nanoTime()}
+   * @return {@code true}, iff this lock has a deadline that has passed
+   */
+  boolean isExpired(long now) {
+    return deadline != NO_DEADLINE && now - deadline > 0;
   }
 
   /**
@@ -0,0 +1,81 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable notification of a change of the lock state, passed to {@link LockListener}s.
+ */
+public final class LockEvent {
+
+  /** The kinds of lock events. */
+  public enum Kind {
+    /** A lock has been obtained or re-entered. */
+    ACQUIRE,
+    /** A lock request has been rejected because of conflicting locks. */
+    CONFLICT,
+    /** A read lock has been upgraded to a write lock. */
+    UPGRADE,
+    /** A write lock has been downgraded to a read lock. */
+    DOWNGRADE,
+    /** The scope of a lock has been changed. */
+    SCOPE_CHANGE,
+    /** A lock has been released completely, explicitly or because it or its session expired. */
+    RELEASE,
+    /** A session has expired, its locks are released subsequently. */
+    SESSION_EXPIRED
+  }
+
+  /** The kind of event. */
+  public final Kind kind;
+  /** The session the event applies to. */
+  public final String session;
+  /** The lock path, empty for session events. */
+  public final List<String> path;
+  /** The lock type, or {@code null} for session events. */
+  public final LockType type;
+  /** The (new) lock scope, or {@code null} for session events. */
+  public final LockScope scope;
+  /** The wall clock time of the event in milliseconds since the epoch. */
+  public final long timestamp;
+
+  LockEvent(Kind kind, String session, List<String> path, LockType type, LockScope scope) {
+    Preconditions.checkNotNull(kind);
+    Preconditions.checkNotNull(session);
+    this.kind = kind;
+    this.session = session;
+    this.path = Collections.unmodifiableList(new ArrayList<>(path));
+    this.type = type;
+    this.scope = scope;
+    this.timestamp = System.currentTimeMillis();
+  }
+
+  @Override
+  public String toString() {
+    return kind + "(" + session + ", " + path + ", " + type + ", " + scope + ") @" + timestamp;
+  }
+}
@@ -0,0 +1,98 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.util.Strings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A lightweight handle to a lock held by a session, as returned by 
+ * {@link LockManager#acquire(String, List, LockType, LockScope, long)}. Lock managers may use the
+ * handle to reach the lock directly on reentry and release, instead of looking it up by its path. 
+ * The numeric {@link #id} identifies the lock within its session, e.g., for remote clients. A 
+ * handle becomes stale when its lock is released completely, operations on stale handles fail.
+ */
+public final class LockHandle {
+  /** The id of handles that do not identify the lock by number, but only by path. */
+  public static final long NO_ID = 0;
+  /** The session holding the lock. */
+  public final String session;
+  /** The path of the lock. */
+  public final List<String> path;
+  /** The numeric id of the lock, or {@link #NO_ID}. */
+  public final long id;
+  // the node of the lock in an embedded lock manager, or null
+  final LockTreeNode node;
+
+  LockHandle(String session, List<String> path, long id, LockTreeNode node) {
+    this.session = session;
+    this.path = path;
+    this.id = id;
+    this.node = node;
+  }
+
+  /**
+   * Create a handle to a lock that the given session holds on the given path.
+   * @param session the session holding the lock, not {@code null}
+   * @param path the path of the lock, not {@code null}
+   * @param id the numeric id of the lock, or {@link #NO_ID}
+   * @return the new lock handle
+   */
+  public static LockHandle of(String session, List<String> path, long id) {
+    Preconditions.checkNotNull(session, "session must not be null");
+    Preconditions.checkNotNull(path, "path must not be null");
+    return new LockHandle(session, Collections.unmodifiableList(new ArrayList<>(path)), id, null);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(session, path, id);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if ( this == obj ) {
+      return true;
+    }
+    if ( !( obj instanceof LockHandle ) ) {
+      return false;
+    }
+    final LockHandle other = (LockHandle)obj;
+    return session.equals(other.session) && path.equals(other.path) && id == other.id;
+  }
+
+  @Override
+  public String toString() {
+    return new StringBuilder("LockHandle(")
+        .append("session = ").append(session)
+        .append(", id = ").append(id)
+        .append(", key = (").append(Strings.join(path))
+        .append(") )")
+        .toString();
+  }
+}
@@ -0,0 +1,74 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable snapshot of a lock together with the time it has been held by its session, as 
+ * reported by {@link LockManager#getLongestHolders(int)}.
+ */
+public final class LockHolder {
+  /** The session holding the lock. */
+  public final String session;
+  /** The lock path. */
+  public final List<String> path;
+  /** The current lock type. */
+  public final LockType type;
+  /** The current lock scope. */
+  public final LockScope scope;
+  /** The number of milliseconds since the session first obtained the lock. */
+  public final long heldMillis;
+
+  /**
+   * Create a snapshot from its parts, e.g., as reported by a remote lock manager.
+   * @param session the session holding the lock
+   * @param path the lock path
+   * @param type the current lock type
+   * @param scope the current lock scope
+   * @param heldMillis the number of milliseconds since the session first obtained the lock
+   */
+  public LockHolder(
+      String session, List<String> path, LockType type, LockScope scope, long heldMillis) {
+    this.session = Preconditions.checkNotNull(session);
+    this.path = ImmutableList.copyOf(path);
+    this.type = Preconditions.checkNotNull(type);
+    this.scope = Preconditions.checkNotNull(scope);
+    this.heldMillis = heldMillis;
+  }
+
+  LockHolder(Lock lock, long now) {
+    this.session = lock.session;
+    this.path = lock.key;
+    this.type = lock.type;
+    this.scope = lock.scope;
+    this.heldMillis = TimeUnit.NANOSECONDS.toMillis(now - lock.acquired);
+  }
+
+  @Override
+  public String toString() {
+    return session + " holds " + type + "(" + scope + ", " + path + ") for " + heldMillis + " ms";
+  }
+}
@@ -0,0 +1,39 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+/**
+ * A listener to the lock state changes of a {@link DefaultEmbeddedLockManager}. Listeners are 
+ * notified synchronously in the thread performing the lock operation, but never while it holds any
+ * mutexes of the lock tree. Slow listeners should be wrapped in an {@link AsyncLockListener}, so 
+ * that they do not add latency to lock operations. Exceptions thrown by listeners are logged and
+ * otherwise ignored.
+ */
+@FunctionalInterface
+public interface LockListener {
+
+  /**
+   * Handle the given event.
+   * @param event the event
+   */
+  public void onEvent(LockEvent event);
+}
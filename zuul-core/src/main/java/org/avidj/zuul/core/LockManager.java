@@ -1,8 +1,11 @@
 package org.avidj.zuul.core;
 
+import com.google.common.base.Preconditions;
+
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /*
  * #%L
@@ -33,14 +36,23 @@ public interface LockManager {
 
   /**
    * After a timeout all locks of a session are released if that session is not kept alive through
-   * heartbeats or otherwise accessed through lock operations. 
-   * TODO: While this is currently the timeout used for all sessions, it should rather be a maximum
-   * timeout where each session (or lock) can define its own TTL.
+   * heartbeats or otherwise accessed through lock operations. This is the default timeout of all
+   * sessions that do not define their own timeout using {@link #setSessionTimeout(String, long)}.
    * 
    * @param timeoutMillis number of milliseconds until sessions time out and locks are released
    */
   public void setSessionTimeout(long timeoutMillis);
 
+  /**
+   * Set the timeout of the given {@code session}, overriding the default session timeout. 
+   * 
+   * @param session the session to set the timeout for
+   * @param timeoutMillis number of milliseconds until the session times out and its locks are 
+   *     released
+   * @see #setSessionTimeout(long)
+   */
+  public void setSessionTimeout(String session, long timeoutMillis);
+
   /**
    * The set of all locks held by the given session. The result may not be 
    * consistent if there are concurrent calls to {@link #lock(String, List, LockType, LockScope)} or
@@ -52,6 +64,38 @@ public interface LockManager {
    */
   public Set<Lock> getLocks(String session);
 
+  /**
+   * Walk the locks in the subtree rooted at the given {@code path} and report them to the given 
+   * {@code visitor}. Only the locks of the given node and, if the scope is deep, of its subtree are
+   * reported, not any (deep) locks on its ancestors. The walk does not take a snapshot of the 
+   * subtree, so it is only weakly consistent with concurrent lock operations. On the other hand, it 
+   * only blocks concurrent operations on the node it is currently visiting.
+   * 
+   * @param session the session to report locks for, or {@code null} to report locks of all sessions
+   * @param path the path of the root of the subtree to walk
+   * @param scope {@code SHALLOW} to report only the locks on the node at the given path, 
+   *     {@code DEEP} to report the locks of the whole subtree 
+   * @param visitor the visitor to report nodes and locks to
+   * @return {@code true}, iff there is a node at the given path 
+   */
+  public boolean walkLocks(
+      String session, List<String> path, LockScope scope, LockTreeVisitor visitor);
+
+  /**
+   * List the keys of the children of the node at the given {@code path} in ascending order, like 
+   * the entries of a directory in a file system. Listing is paginated: the listing starts after the
+   * given key and returns at most {@code limit} keys. The last key of a page can be passed as 
+   * {@code startAfter} to retrieve the next page. The listing is weakly consistent with concurrent 
+   * lock operations.
+   * 
+   * @param path the path of the node to list the children of
+   * @param startAfter the key to start the listing after, or {@code null} to start with the first 
+   *     child
+   * @param limit the maximum number of keys to return, positive
+   * @return the possibly empty list of child keys, empty if there is no node at the given path
+   */
+  public List<String> listChildren(List<String> path, String startAfter, int limit);
+
   /**
    * Obtain a read lock on the given {@code path} for the given {@code session}. As locks are 
    * reentrant this may instead reenter the lock, instead.
@@ -88,6 +132,69 @@ public interface LockManager {
    */
   public boolean lock(String sessionId, List<String> path, LockType type, LockScope scope);
 
+  /**
+   * Try to obtain a lock like {@link #lock(String, List, LockType, LockScope)}, but let the lock 
+   * expire after the given time to live, even if the session is kept alive. On reentry, the lock's
+   * expiry is moved to the new time to live.
+   * 
+   * @param sessionId the session to obtain a lock for, not {@code null}
+   * @param path the path of the resource to lock, not {@code null}
+   * @param type the lock type, not {@code null}
+   * @param scope the lock scope, not {@code null}
+   * @param ttlMillis the number of milliseconds after which the lock is released, positive
+   * @return {@code true}, iff the lock attempt was successful
+   */
+  public boolean lock(
+      String sessionId, List<String> path, LockType type, LockScope scope, long ttlMillis);
+
+  /**
+   * Try to obtain a lock like {@link #lock(String, List, LockType, LockScope)} and return a handle
+   * to it. Reentering and releasing the lock through the handle avoids looking it up by its path,
+   * if the lock manager supports that. By default, handles only refer to the lock by its path.
+   * 
+   * @param sessionId the session to obtain a lock for, not {@code null}
+   * @param path the path of the resource to lock, not {@code null}
+   * @param type the lock type, not {@code null}
+   * @param scope the lock scope, not {@code null}
+   * @param ttlMillis the number of milliseconds after which the lock is released, or {@code 0} if
+   *     it only expires with its session
+   * @return a handle to the lock, or {@code null} if the lock attempt was not successful
+   */
+  public default LockHandle acquire(
+      String sessionId, List<String> path, LockType type, LockScope scope, long ttlMillis) {
+    Preconditions.checkArgument(ttlMillis >= 0, "ttlMillis must not be negative");
+    final boolean success = ( ttlMillis > 0 ) 
+        ? lock(sessionId, path, type, scope, ttlMillis) 
+        : lock(sessionId, path, type, scope);
+    return success ? LockHandle.of(sessionId, path, LockHandle.NO_ID) : null;
+  }
+
+  /**
+   * Returns the handle with the given numeric id, if the given session still holds its lock. By
+   * default, lock managers do not assign numeric ids and this method returns {@code null}.
+   * 
+   * @param sessionId the session holding the lock
+   * @param id the numeric id of the handle
+   * @return the handle, or {@code null} if there is no such lock
+   */
+  public default LockHandle getHandle(String sessionId, long id) {
+    return null;
+  }
+
+  /**
+   * Reenter the lock with the given handle like {@link #lock(String, List, LockType, LockScope)},
+   * possibly changing its type and scope. 
+   * 
+   * @param handle the handle of the lock, not {@code null}
+   * @param type the lock type, not {@code null}
+   * @param scope the lock scope, not {@code null}
+   * @return {@code true}, iff the lock was reentered
+   */
+  public default boolean lock(LockHandle handle, LockType type, LockScope scope) {
+    Preconditions.checkNotNull(handle, "handle must not be null");
+    return lock(handle.session, handle.path, type, scope);
+  }
+
   /**
    * Try to obtain multiple locks of the given {@code type} and {@code scope} for the given 
    * {@code session}. If possible, this method should be preferred over multiple invocations of 
@@ -103,6 +210,18 @@ public interface LockManager {
    */
   public boolean multiLock(
       String sessionId, List<List<String>> paths, LockType type, LockScope scope);
+
+  /**
+   * Try to obtain multiple locks of possibly different types and scopes for the given 
+   * {@code session}, e.g., read locks on some paths and a write lock on others, all at once. The 
+   * locks are obtained in the order of their paths, so concurrent multi-locks cannot deadlock. If 
+   * any of the locks cannot be obtained this method rolls back all successful locks.
+   * 
+   * @param sessionId the session to obtain the locks for, not {@code null}
+   * @param requests the locks to obtain, not {@code null}, and not empty
+   * @return {@code true}, iff all locks were obtained
+   */
+  public boolean multiLock(String sessionId, List<LockRequest> requests);
   
   /**
    * Releases the given {@code lock} for the given {@code session}. As locks are reentrant, they
@@ -114,6 +233,17 @@ public interface LockManager {
    */
   boolean release(String session, List<String> path) throws IllegalStateException;
 
+  /**
+   * Release the lock with the given handle once, like {@link #release(String, List)}.
+   * 
+   * @param handle the handle of the lock to be released, not {@code null}
+   * @return {@code true}, iff the session held the lock and it was released  
+   */
+  public default boolean release(LockHandle handle) {
+    Preconditions.checkNotNull(handle, "handle must not be null");
+    return release(handle.session, handle.path);
+  }
+
   /**
    * Release a collection of locks. As locks are reentrant, they may have to be released multiple 
    * times to be eventually <em>really</em> released. Locks not held by the session are ignored by
@@ -154,4 +284,78 @@ public interface LockManager {
    * @return {@code true}, iff the scope was deep and now is shallow
    */
   public boolean downScope(String session, List<String> path, LockType type, LockScope shallow);
+
+  /**
+   * Atomically upgrade the read lock of the given {@code session} on the given {@code path} to a 
+   * write lock. Unlike obtaining a write lock on the path, this neither reenters the lock nor 
+   * changes its scope, and it fails if the session does not hold a lock on the path. A write lock
+   * is left as it is.
+   * 
+   * @param session the session holding the lock
+   * @param path the path of the lock
+   * @return {@code true}, iff the session now holds a write lock on the path, {@code false} if it 
+   *     holds no lock or the upgrade conflicts with a lock of another session
+   */
+  public boolean upgrade(String session, List<String> path);
+
+  /**
+   * Atomically downgrade the write lock of the given {@code session} on the given {@code path} to
+   * a read lock, keeping its count and scope. A downgrade never conflicts with other locks. A read
+   * lock is left as it is.
+   * 
+   * @param session the session holding the lock
+   * @param path the path of the lock
+   * @return {@code true}, iff the session now holds a read lock on the path, {@code false} if it 
+   *     holds no lock
+   */
+  public boolean downgrade(String session, List<String> path);
+
+  /**
+   * Grant the given {@code session} a delegated lease on the subtree rooted at {@code prefix}. A
+   * lease is a deep write lock that allows the holder to manage all locks strictly below the prefix
+   * on its own, e.g., in an embedded lock manager, without asking this lock manager. The lease is 
+   * recalled as soon as another session attempts to obtain a conflicting lock. 
+   * 
+   * @param session the session to grant the lease to
+   * @param prefix the root of the subtree to be leased
+   * @return {@code true}, iff the lease was granted
+   * @see #getRecalledLeases(String)
+   */
+  public boolean lease(String session, List<String> prefix);
+
+  /**
+   * Returns the prefixes of all leases held by the given {@code session} that have been recalled 
+   * because another session requested a conflicting lock. The holder of a recalled lease shall 
+   * flush its local lock state to this lock manager and then release the lease by calling 
+   * {@link #release(String, List)} on the prefix.
+   * 
+   * @param session the session holding the leases
+   * @return the possibly empty set of recalled lease prefixes
+   */
+  public Set<List<String>> getRecalledLeases(String session);
+
+  /**
+   * Watch the lock with the given {@code path} for changes. The returned future is completed with
+   * the path of the changed lock upon the next change of the lock state of the given path, or if
+   * {@code scope} is {@code DEEP} of any path in the subtree rooted at the given path. Watches are
+   * one-shot, that is, to be notified of further changes a new watch must be registered. Clients
+   * waiting for a conflicting lock to be released shall register the watch before retrying the 
+   * lock so as not to miss the release. Cancelling the future unregisters the watch.
+   * 
+   * @param path the path of the lock to watch
+   * @param scope whether to watch only the given path or the whole subtree rooted at it
+   * @return a future completed with the path of the next changed lock
+   */
+  public CompletableFuture<List<String>> watch(List<String> path, LockScope scope);
+
+  /**
+   * Returns the locks that have been held longest by their sessions, longest first. The hold time
+   * of a lock counts from when its session first obtained it, reentering, upgrading, downgrading 
+   * or rescoping the lock does not reset it. This is meant to find the sessions that block others,
+   * without walking the whole lock tree.
+   * 
+   * @param limit the maximum number of locks to return
+   * @return the locks held longest
+   */
+  public List<LockHolder> getLongestHolders(int limit);
 }
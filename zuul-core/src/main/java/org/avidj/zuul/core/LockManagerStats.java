@@ -0,0 +1,283 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.util.LatencyHistogram;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Operation counters, latency histograms and lock hold times of a lock manager. Counters are striped 
+ * ({@link LongAdder}) and histograms are lock-free, so that recording does not add contention 
+ * between threads. The statistics can be published as an MXBean with 
+ * {@link #registerMBean(String)}.
+ */
+public class LockManagerStats implements LockManagerStatsMXBean {
+  // hold times of further prefixes are grouped together, to bound the memory of the histograms
+  static final int MAX_HOLD_TIME_PREFIXES = 64;
+  static final String OTHER_PREFIXES = "*";
+  private final LongAdder readLocks = new LongAdder();
+  private final LongAdder writeLocks = new LongAdder();
+  private final LongAdder conflicts = new LongAdder();
+  private final LongAdder releases = new LongAdder();
+  private final LongAdder expiredSessions = new LongAdder();
+  private final LongAdder expiredLocks = new LongAdder();
+  private final LatencyHistogram readLockLatency = new LatencyHistogram();
+  private final LatencyHistogram writeLockLatency = new LatencyHistogram();
+  private final LatencyHistogram releaseLatency = new LatencyHistogram();
+  private final ConcurrentMap<String, LatencyHistogram> holdTimes = new ConcurrentHashMap<>();
+  private volatile int holdTimePrefixLength = 1;
+  private final LongSupplier nodes;
+  private final LongSupplier sessions;
+  private ObjectName name;
+
+  LockManagerStats(LongSupplier nodes, LongSupplier sessions) {
+    this.nodes = nodes;
+    this.sessions = sessions;
+  }
+
+  void lock(LockType type, boolean success, long nanos) {
+    if ( type == LockType.READ ) {
+      readLockLatency.record(nanos);
+      if ( success ) {
+        readLocks.increment();
+      }
+    } else {
+      writeLockLatency.record(nanos);
+      if ( success ) {
+        writeLocks.increment();
+      }
+    }
+    if ( !success ) {
+      conflicts.increment();
+    }
+  }
+
+  void release(boolean success, long nanos) {
+    releaseLatency.record(nanos);
+    if ( success ) {
+      releases.increment();
+    }
+  }
+
+  void held(List<String> path, long nanos) {
+    final String prefix = prefix(path, holdTimePrefixLength);
+    LatencyHistogram histogram = holdTimes.get(prefix);
+    if ( histogram == null ) {
+      histogram = holdTimes.computeIfAbsent(
+          holdTimes.size() < MAX_HOLD_TIME_PREFIXES ? prefix : OTHER_PREFIXES, 
+          key -> new LatencyHistogram());
+    }
+    histogram.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+  }
+
+  void expiredSession() {
+    expiredSessions.increment();
+  }
+
+  void expiredLock() {
+    expiredLocks.increment();
+  }
+
+  @Override
+  public long getReadLocks() {
+    return readLocks.sum();
+  }
+
+  @Override
+  public long getWriteLocks() {
+    return writeLocks.sum();
+  }
+
+  @Override
+  public long getConflicts() {
+    return conflicts.sum();
+  }
+
+  @Override
+  public long getReleases() {
+    return releases.sum();
+  }
+
+  @Override
+  public long getExpiredSessions() {
+    return expiredSessions.sum();
+  }
+
+  @Override
+  public long getExpiredLocks() {
+    return expiredLocks.sum();
+  }
+
+  @Override
+  public long getNodes() {
+    return nodes.getAsLong();
+  }
+
+  @Override
+  public long getSessions() {
+    return sessions.getAsLong();
+  }
+
+  @Override
+  public Map<String, Long> getReadLockLatency() {
+    return percentiles(readLockLatency);
+  }
+
+  @Override
+  public Map<String, Long> getWriteLockLatency() {
+    return percentiles(writeLockLatency);
+  }
+
+  @Override
+  public Map<String, Long> getReleaseLatency() {
+    return percentiles(releaseLatency);
+  }
+
+  @Override
+  public Map<String, Map<String, Long>> getHoldTimes() {
+    final Map<String, Map<String, Long>> percentiles = new TreeMap<>();
+    for ( Map.Entry<String, LatencyHistogram> entry : holdTimes.entrySet() ) {
+      percentiles.put(entry.getKey(), percentiles(entry.getValue()));
+    }
+    return percentiles;
+  }
+
+  @Override
+  public int getHoldTimePrefixLength() {
+    return holdTimePrefixLength;
+  }
+
+  @Override
+  public void setHoldTimePrefixLength(int length) {
+    Preconditions.checkArgument(length >= 0, "length must not be negative");
+    holdTimePrefixLength = length;
+    holdTimes.clear();
+  }
+
+  @Override
+  public void reset() {
+    for ( LongAdder counter : new LongAdder[] { 
+        readLocks, writeLocks, conflicts, releases, expiredSessions, expiredLocks } ) {
+      counter.reset();
+    }
+    readLockLatency.reset();
+    writeLockLatency.reset();
+    releaseLatency.reset();
+    holdTimes.clear();
+  }
+
+  /**
+   * Returns all statistics as a map from names to values, e.g., to serialize them.
+   * @return an ordered map of all counters and latency percentiles
+   */
+  public Map<String, Object> snapshot() {
+    final Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("readLocks", getReadLocks());
+    snapshot.put("writeLocks", getWriteLocks());
+    snapshot.put("conflicts", getConflicts());
+    snapshot.put("releases", getReleases());
+    snapshot.put("expiredSessions", getExpiredSessions());
+    snapshot.put("expiredLocks", getExpiredLocks());
+    snapshot.put("nodes", getNodes());
+    snapshot.put("sessions", getSessions());
+    snapshot.put("readLockLatency", getReadLockLatency());
+    snapshot.put("writeLockLatency", getWriteLockLatency());
+    snapshot.put("releaseLatency", getReleaseLatency());
+    snapshot.put("holdTimes", getHoldTimes());
+    return snapshot;
+  }
+
+  /**
+   * Register these statistics with the platform MBean server under the name
+   * {@code org.avidj.zuul:type=LockManager,name=<name>}, replacing any statistics previously 
+   * registered under that name.
+   * @param name the name of the lock manager
+   * @return the object name of the MBean
+   * @throws IllegalStateException if the MBean cannot be registered
+   */
+  public synchronized ObjectName registerMBean(String name) throws IllegalStateException {
+    Preconditions.checkNotNull(name);
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      final ObjectName objectName = 
+          new ObjectName("org.avidj.zuul:type=LockManager,name=" + ObjectName.quote(name));
+      if ( server.isRegistered(objectName) ) {
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(this, objectName);
+      this.name = objectName;
+      return objectName;
+    } catch ( JMException e ) {
+      throw new IllegalStateException("cannot register lock manager statistics", e);
+    }
+  }
+
+  /**
+   * Unregister these statistics from the platform MBean server, if they have been registered.
+   */
+  public synchronized void unregisterMBean() {
+    if ( name == null ) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch ( JMException e ) {
+      // already unregistered
+    }
+    name = null;
+  }
+
+  private static String prefix(List<String> path, int length) {
+    final StringBuilder prefix = new StringBuilder();
+    for ( int i = 0, n = Math.min(length, path.size()); i < n; i++ ) {
+      prefix.append('/').append(path.get(i));
+    }
+    return ( prefix.length() == 0 ) ? "/" : prefix.toString();
+  }
+
+  private static Map<String, Long> percentiles(LatencyHistogram histogram) {
+    final Map<String, Long> percentiles = new LinkedHashMap<>();
+    percentiles.put("count", histogram.count());
+    percentiles.put("p50", histogram.percentile(50));
+    percentiles.put("p90", histogram.percentile(90));
+    percentiles.put("p99", histogram.percentile(99));
+    percentiles.put("p999", histogram.percentile(99.9));
+    percentiles.put("max", histogram.max());
+    return percentiles;
+  }
+}
@@ -0,0 +1,86 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link LockManagerStats}. Latencies are given as maps from 
+ * percentiles ({@code p50}, {@code p90}, {@code p99}, {@code p999}, {@code max}) to nanoseconds,
+ * plus the number of recorded operations ({@code count}).
+ */
+public interface LockManagerStatsMXBean {
+
+  /** @return the number of granted read locks */
+  public long getReadLocks();
+
+  /** @return the number of granted write locks */
+  public long getWriteLocks();
+
+  /** @return the number of lock requests that conflicted with locks of other sessions */
+  public long getConflicts();
+
+  /** @return the number of released locks */
+  public long getReleases();
+
+  /** @return the number of sessions that have been released because they timed out */
+  public long getExpiredSessions();
+
+  /** @return the number of locks that have been released because their time to live expired */
+  public long getExpiredLocks();
+
+  /** @return the current number of nodes in the lock tree, not counting the root */
+  public long getNodes();
+
+  /** @return the current number of sessions */
+  public long getSessions();
+
+  /** @return the latency percentiles of read lock requests */
+  public Map<String, Long> getReadLockLatency();
+
+  /** @return the latency percentiles of write lock requests */
+  public Map<String, Long> getWriteLockLatency();
+
+  /** @return the latency percentiles of releases */
+  public Map<String, Long> getReleaseLatency();
+
+  /**
+   * @return the percentiles of the times (in milliseconds) that released locks had been held, by 
+   *     the first {@link #getHoldTimePrefixLength()} elements of their paths
+   */
+  public Map<String, Map<String, Long>> getHoldTimes();
+
+  /** @return the length of the path prefixes by which hold times are grouped */
+  public int getHoldTimePrefixLength();
+
+  /**
+   * Group hold times by path prefixes of the given length, discarding the hold times recorded so 
+   * far.
+   * @param length the prefix length, at least 0
+   */
+  public void setHoldTimePrefixLength(int length);
+
+  /**
+   * Reset all counters and histograms. Node and session counts are not affected.
+   */
+  public void reset();
+}
@@ -0,0 +1,122 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.util.Strings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A request for a lock of a given type and scope on a path. A list of requests with different 
+ * types and scopes can be obtained atomically by {@link LockManager#multiLock(String, List)}.
+ */
+public final class LockRequest {
+  private static final Comparator<LockRequest> PATH_ORDER = 
+      (r1, r2) -> LockUtils.pathComparator().compare(r1.path, r2.path);
+  /** The path of the lock. */
+  public final List<String> path;
+  /** The type of the lock. */
+  public final LockType type;
+  /** The scope of the lock. */
+  public final LockScope scope;
+
+  private LockRequest(List<String> path, LockType type, LockScope scope) {
+    this.path = Collections.unmodifiableList(new ArrayList<>(path));
+    this.type = type;
+    this.scope = scope;
+  }
+
+  /**
+   * Create a new lock request.
+   * @param path the path of the lock, not {@code null}
+   * @param type the type of the lock, not {@code null}
+   * @param scope the scope of the lock, not {@code null}
+   * @return the new lock request
+   */
+  public static LockRequest of(List<String> path, LockType type, LockScope scope) {
+    Preconditions.checkNotNull(path, "path must not be null");
+    Preconditions.checkNotNull(type, "type must not be null");
+    Preconditions.checkNotNull(scope, "scope must not be null");
+    return new LockRequest(path, type, scope);
+  }
+
+  /**
+   * Create requests for locks of the same type and scope on all given paths.
+   * @param paths the paths of the locks, not {@code null}
+   * @param type the type of the locks, not {@code null}
+   * @param scope the scope of the locks, not {@code null}
+   * @return the new lock requests in the order of the paths
+   */
+  public static List<LockRequest> all(List<List<String>> paths, LockType type, LockScope scope) {
+    Preconditions.checkNotNull(paths, "paths must not be null");
+    final List<LockRequest> requests = new ArrayList<>(paths.size());
+    for ( List<String> path : paths ) {
+      requests.add(of(path, type, scope));
+    }
+    return requests;
+  }
+
+  /**
+   * Returns the given requests ordered by their paths, which is the order in which lock managers
+   * obtain them. Requests of the same path keep their relative order.
+   * @param requests the requests to sort
+   * @return a new sorted list of the requests
+   */
+  static List<LockRequest> sorted(List<LockRequest> requests) {
+    final List<LockRequest> sorted = new ArrayList<>(requests);
+    sorted.sort(PATH_ORDER);
+    return sorted;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(path, type, scope);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if ( this == obj ) {
+      return true;
+    }
+    if ( !( obj instanceof LockRequest ) ) {
+      return false;
+    }
+    final LockRequest other = (LockRequest)obj;
+    return path.equals(other.path) && type == other.type && scope == other.scope;
+  }
+
+  @Override
+  public String toString() {
+    return new StringBuilder("LockRequest(")
+        .append("type = ").append(type)
+        .append(", scope = ").append(scope)
+        .append(", key = (").append(Strings.join(path))
+        .append(") )")
+        .toString();
+  }
+}
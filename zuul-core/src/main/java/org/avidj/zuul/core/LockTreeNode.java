@@ -22,16 +22,22 @@ package org.avidj.zuul.core;
 
 import com.google.common.base.Preconditions;
 
+import org.avidj.util.ReadBiasedLock;
 import org.avidj.util.Strings;
+import org.avidj.zuul.core.jfr.Jfr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A node in a lock tree. A node is associated with a final key, which is the component of the lock path leading to that
@@ -39,8 +45,10 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 class LockTreeNode {
   private static final Logger LOG = LoggerFactory.getLogger(LockTreeNode.class);
-  // Mutex for lock coupling.
-  private final ReentrantLock mutex = new ReentrantLock();
+  // The stamp of the java-level lock held in exclusive mode.
+  static final int EXCLUSIVE = Integer.MIN_VALUE;
+  // Mutex for lock coupling. Read lock requests pass their ancestors in shared mode.
+  private final ReadBiasedLock mutex = new ReadBiasedLock();
   
   final LockTreeNode parent;
 
@@ -50,10 +58,11 @@ class LockTreeNode {
   private Lock exclusiveLock;
 
   // A possibly empty map from session keys to shared locks. If not empty, then there can't be an exclusive lock.
-  private final Map<String, Lock> sharedLocks = Collections.synchronizedMap(new HashMap<>());
+  // Concurrent rather than synchronized collections, so that no monitor is ever held by a lock request.
+  private final Map<String, Lock> sharedLocks = new ConcurrentHashMap<>();
 
   // The set of deep locks on this node.
-  private final Set<Lock> deepLocks = Collections.synchronizedSet(new HashSet<>());
+  private final Set<Lock> deepLocks = ConcurrentHashMap.newKeySet();
 
   // The number nested intention shared locks.
   int is = 0;
@@ -64,14 +73,19 @@ class LockTreeNode {
   // The number of shared intention exclusive locks.
   int six = 0;
   
-  // The number of nested shared locks.
-  int shared = 0;
+  // The number of nested shared locks. The counts are updated by all lock requests passing through
+  // this node, so they are striped per thread rather than bounce between cores like a plain field.
+  final LongAdder shared = new LongAdder();
   
   // The number of nested exclusive locks.
-  int exclusive = 0;
+  final LongAdder exclusive = new LongAdder();
   
+  // The children ordered by key, so that they can be listed page by page without copying them.
   // TODO: use a patricia tree instead?
-  final Map<Object, LockTreeNode> children = new HashMap<>();
+  final ConcurrentNavigableMap<String, LockTreeNode> children = new ConcurrentSkipListMap<>();
+
+  // The state shared by all nodes of a tree.
+  final Tree tree;
 
   /* Create a new tree node with the given parent and key component. */
   static LockTreeNode treeNode(String key, LockTreeNode parent) {
@@ -82,6 +96,12 @@ class LockTreeNode {
   private LockTreeNode(String key, LockTreeNode parent) {
     this.key = (key != null ) ? key.intern() : null;
     this.parent = parent;
+    if ( parent == null ) {
+      this.tree = new Tree();
+    } else {
+      this.tree = parent.tree;
+      this.tree.size.increment();
+    }
   }
   
   /**
@@ -94,6 +114,16 @@ class LockTreeNode {
     return children.get(id);
   }
   
+  // the path from the root to this node, computed from the final keys of the ancestors
+  List<String> path() {
+    final List<String> path = new ArrayList<>();
+    for ( LockTreeNode current = this; current.parent != null; current = current.parent ) {
+      path.add(current.key);
+    }
+    Collections.reverse(path);
+    return Collections.unmodifiableList(path);
+  }
+
   @Override
   public String toString() {
     return new StringBuilder("Node(")
@@ -133,6 +163,18 @@ class LockTreeNode {
     return Collections.unmodifiableSet(new HashSet<>(sharedLocks.values()));
   }
 
+  /** 
+   * Returns all locks on this node.
+   * 
+   * @return the possibly empty list of locks on this node 
+   */
+  List<Lock> getLocks() {
+    if ( exclusiveLock != null ) {
+      return Collections.singletonList(exclusiveLock);
+    }
+    return new ArrayList<>(sharedLocks.values());
+  }
+
   /** 
    * Returns the lock on this node owned by the given session.
    * 
@@ -200,9 +242,10 @@ class LockTreeNode {
         || ( sharedLocks.size() == 1 && sharedLocks.get(session) != null );
   }
 
-  // the number of shared and exclusive locks in the subtree rooted at this lock node
-  int locksInSubtree() {
-    return ( shared + exclusive );
+  // the number of shared and exclusive locks in the subtree rooted at this lock node, the counts are 
+  // exact while the mutex of this node is held
+  long locksInSubtree() {
+    return ( shared.sum() + exclusive.sum() );
   }
   
   // true, iff there are no locks in the subtree rooted at this lock node
@@ -210,21 +253,100 @@ class LockTreeNode {
     return ( locksInSubtree() == 0 );
   }
 
+  // true, iff there are exclusive locks in the subtree rooted at this lock node
+  boolean hasWritesInSubtree() {
+    return ( exclusive.sum() > 0 );
+  }
+
   // obtain the java-level lock on this lock node
   void lock() {
     LOG.trace("try lock {}", key != null ? key : "root");
-    mutex.lock();
+    final ContentionProfiler profiler = tree.profiler;
+    final SlowOpLog slowOps = tree.slowOps;
+    if ( profiler == null && slowOps == null && !Jfr.isRecording() ) {
+      mutex.lock();
+    } else if ( !mutex.tryLock() ) {
+      final Object event = Jfr.beginMutexWait();
+      final long start = System.nanoTime();
+      mutex.lock();
+      waited(profiler, slowOps, event, start);
+    }
     LOG.trace("locked {}", key != null ? key : "root");
   }
 
+  // obtain the java-level lock on this lock node in the given mode, return the stamp to release it
+  int lock(boolean shared) {
+    if ( shared ) {
+      return lockShared();
+    }
+    lock();
+    return EXCLUSIVE;
+  }
+
+  // release the java-level lock on this lock node obtained with the given stamp
+  void unlock(int stamp) {
+    if ( stamp == EXCLUSIVE ) {
+      unlock();
+    } else {
+      unlockShared(stamp);
+    }
+  }
+
+  // obtain the java-level lock on this lock node in shared mode, return the stamp to release it
+  int lockShared() {
+    LOG.trace("try lock shared {}", key != null ? key : "root");
+    final ContentionProfiler profiler = tree.profiler;
+    final SlowOpLog slowOps = tree.slowOps;
+    int stamp;
+    if ( profiler == null && slowOps == null && !Jfr.isRecording() ) {
+      stamp = mutex.readLock();
+    } else if ( ( stamp = mutex.tryReadLock() ) == ReadBiasedLock.FAILED ) {
+      final Object event = Jfr.beginMutexWait();
+      final long start = System.nanoTime();
+      stamp = mutex.readLock();
+      waited(profiler, slowOps, event, start);
+    }
+    LOG.trace("locked shared {}", key != null ? key : "root");
+    return stamp;
+  }
+
+  private void waited(ContentionProfiler profiler, SlowOpLog slowOps, Object event, long start) {
+    final long nanos = System.nanoTime() - start;
+    if ( profiler != null ) {
+      profiler.mutexWait(this, nanos);
+    }
+    if ( slowOps != null ) {
+      SlowOpLog.mutexWait(nanos);
+    }
+    Jfr.commitMutexWait(event, this::path);
+  }
+
   // release the java-level lock on this lock node
   void unlock() {
     mutex.unlock();
     LOG.trace("unlocked {}", key != null ? key : "root");
   }
 
+  // release the java-level lock on this lock node obtained in shared mode
+  void unlockShared(int stamp) {
+    mutex.unlockRead(stamp);
+    LOG.trace("unlocked shared {}", key != null ? key : "root");
+  }
+
   // true iff the current thread holds the java-level lock on this lock node
   boolean isHeldByCurrentThread() {
     return mutex.isHeldByCurrentThread();
   }
+
+  /* The state shared by all nodes of a tree. */
+  static final class Tree {
+    // The number of nodes in the tree below the root.
+    final LongAdder size = new LongAdder();
+
+    // Records contention if not null.
+    volatile ContentionProfiler profiler;
+
+    // Logs slow lock requests if not null.
+    volatile SlowOpLog slowOps;
+  }
 }
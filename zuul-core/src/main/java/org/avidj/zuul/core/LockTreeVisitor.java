@@ -0,0 +1,47 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * A visitor of the nodes and locks of a lock tree, as walked by 
+ * {@link LockManager#walkLocks(String, java.util.List, LockScope, LockTreeVisitor)}. The walk is 
+ * depth first. For each node, {@link #enter(String)} is called first, then {@link #visit(Lock)} for
+ * each lock on the node, then the children are walked, and finally {@link #leave()} is called.
+ */
+public interface LockTreeVisitor {
+
+  /**
+   * Called when the walk enters a node.
+   * @param key the last component of the path of the node, {@code null} for the root
+   */
+  void enter(String key);
+
+  /**
+   * Called for each lock on the node most recently entered and not yet left. 
+   * @param lock the lock
+   */
+  void visit(Lock lock);
+
+  /**
+   * Called when the walk leaves the node most recently entered.
+   */
+  void leave();
+}
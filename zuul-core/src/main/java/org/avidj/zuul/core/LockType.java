@@ -27,14 +27,14 @@ import java.util.List;
 public enum LockType {
   READ( 
           (lm, session, path, scope) -> lm.readLock(session, path, scope),
-          n -> { n.is--; n.shared++; },
+          n -> { n.is--; n.shared.increment(); },
           n -> n.is--,
-          n -> n.shared--),
+          n -> n.shared.decrement()),
   WRITE( 
           (lm, session, path, scope) -> lm.writeLock(session, path, scope),
-          n -> { n.ix--; n.exclusive++; },
+          n -> { n.ix--; n.exclusive.increment(); },
           n -> n.ix--,
-          n -> n.exclusive--);
+          n -> n.exclusive.decrement());
   
   private final LockOperation lo;
   private final LockTreeNodeVisitor convert;
@@ -63,6 +63,13 @@ public enum LockType {
   void decLock(LockTreeNode root, List<String> path) {
     DefaultEmbeddedLockManager.visit(root, path, decLock);
   }
+
+  // decrement the counts of the given node and its ancestors through the parent pointers
+  void decLock(LockTreeNode node) {
+    for ( LockTreeNode current = node; current != null; current = current.parent ) {
+      decLock.visit(current);
+    }
+  }
   
   boolean lock(LockManager lm, Session session, List<String> path, LockScope scope) {
     return lo.lock(lm, session.id, path, scope);
@@ -0,0 +1,178 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Obtains a lock asynchronously, i.e., without blocking a thread while a conflicting lock is held.
+ * A rejected request registers watches on the requested path and its ancestors and is retried 
+ * when one of them fires. That is, when a lock that may have caused the conflict has changed.
+ * Retries run in the common fork-join pool rather than in the thread that released the lock.
+ * <p>
+ * Cancelling the returned future abandons the request. If the lock is granted concurrently with the
+ * cancellation, it is released again, so an abandoned request never leaks a lock.
+ * 
+ * @param <T> the result of a granted request
+ */
+public final class LockWaiter<T> {
+  private final LockManager lm;
+  private final String session;
+  private final List<String> path;
+  private final LockType type;
+  private final LockScope scope;
+  private final long ttlMillis;
+  // whether the lock is obtained by LockManager.acquire, to obtain a handle to it
+  private final boolean acquire;
+  private final Function<LockHandle, T> result;
+  private final CompletableFuture<T> granted = new CompletableFuture<>();
+  // the watches of the current attempt, cancelled when the request is abandoned
+  private volatile List<CompletableFuture<List<String>>> watches = Collections.emptyList();
+
+  private LockWaiter(LockManager lm, String session, List<String> path, LockType type, 
+      LockScope scope, long ttlMillis, boolean acquire, Function<LockHandle, T> result) {
+    Preconditions.checkNotNull(lm);
+    Preconditions.checkArgument(ttlMillis >= 0, "negative time to live: %s", ttlMillis);
+    this.lm = lm;
+    this.session = session;
+    this.path = Collections.unmodifiableList(new ArrayList<>(path));
+    this.type = type;
+    this.scope = scope;
+    this.ttlMillis = ttlMillis;
+    this.acquire = acquire;
+    this.result = result;
+  }
+
+  /**
+   * Obtain the given lock as soon as it is available.
+   * 
+   * @param lm the lock manager to obtain the lock from
+   * @param session the session to obtain the lock for
+   * @param path the path of the lock
+   * @param type the type of the lock
+   * @param scope the scope of the lock
+   * @param ttlMillis the number of milliseconds after which the lock is released, or {@code 0} if
+   *     the lock is held until it is released or the session expires
+   * @return a future completed when the lock is granted
+   */
+  public static CompletableFuture<Void> lockWhenAvailable(LockManager lm, String session, 
+      List<String> path, LockType type, LockScope scope, long ttlMillis) {
+    return start(new LockWaiter<Void>(
+        lm, session, path, type, scope, ttlMillis, false, handle -> null));
+  }
+
+  /**
+   * Obtain the given lock as soon as it is available, like 
+   * {@link #lockWhenAvailable(LockManager, String, List, LockType, LockScope, long)}, and return a 
+   * handle to it, as returned by 
+   * {@link LockManager#acquire(String, List, LockType, LockScope, long)}.
+   * 
+   * @param lm the lock manager to obtain the lock from
+   * @param session the session to obtain the lock for
+   * @param path the path of the lock
+   * @param type the type of the lock
+   * @param scope the scope of the lock
+   * @param ttlMillis the number of milliseconds after which the lock is released, or {@code 0} if
+   *     the lock is held until it is released or the session expires
+   * @return a future completed with the handle of the lock when the lock is granted
+   */
+  public static CompletableFuture<LockHandle> acquireWhenAvailable(LockManager lm, String session, 
+      List<String> path, LockType type, LockScope scope, long ttlMillis) {
+    return start(new LockWaiter<LockHandle>(
+        lm, session, path, type, scope, ttlMillis, true, handle -> handle));
+  }
+
+  private static <T> CompletableFuture<T> start(LockWaiter<T> waiter) {
+    waiter.granted.whenComplete((v, t) -> {
+      if ( waiter.granted.isCancelled() ) {
+        cancel(waiter.watches);
+      }
+    });
+    waiter.attempt();
+    return waiter.granted;
+  }
+
+  private void attempt() {
+    if ( granted.isDone() ) {
+      return;
+    }
+    // register the watches first, so that a release right after a rejection is not missed
+    final List<CompletableFuture<List<String>>> current = watch();
+    watches = current;
+    try {
+      final LockHandle handle = tryLock();
+      if ( handle != null ) {
+        cancel(current);
+        if ( !granted.complete(result.apply(handle)) ) {
+          lm.release(session, path);
+        }
+        return;
+      }
+    } catch ( RuntimeException e ) {
+      cancel(current);
+      granted.completeExceptionally(e);
+      return;
+    }
+    if ( granted.isCancelled() ) {
+      cancel(current);
+      return;
+    }
+    CompletableFuture.anyOf(current.toArray(new CompletableFuture<?>[current.size()]))
+        .whenCompleteAsync((changed, t) -> {
+          cancel(current);
+          attempt();
+        });
+  }
+
+  // returns the handle of the lock, which refers to the lock by its path unless acquire is true
+  private LockHandle tryLock() {
+    if ( acquire ) {
+      return lm.acquire(session, path, type, scope, ttlMillis);
+    }
+    final boolean locked = ( ttlMillis == 0 ) 
+        ? lm.lock(session, path, type, scope)
+        : lm.lock(session, path, type, scope, ttlMillis);
+    return locked ? new LockHandle(session, path, LockHandle.NO_ID, null) : null;
+  }
+
+  // a conflict is caused by a lock on an ancestor, on the path itself, or on a descendant
+  private List<CompletableFuture<List<String>>> watch() {
+    final List<CompletableFuture<List<String>>> watches = new ArrayList<>(path.size() + 1);
+    for ( int i = 0, n = path.size(); i < n; i++ ) {
+      watches.add(lm.watch(path.subList(0, i), LockScope.SHALLOW));
+    }
+    watches.add(lm.watch(path, LockScope.DEEP));
+    return watches;
+  }
+
+  private static void cancel(List<CompletableFuture<List<String>>> watches) {
+    for ( CompletableFuture<List<String>> watch : watches ) {
+      watch.cancel(false);
+    }
+  }
+}
@@ -23,22 +23,29 @@ package org.avidj.zuul.core;
 import org.avidj.zuul.core.LockManager;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A session identifies a possible owner of locks. It is associated with a lock manager,
- * an identifier, a set of owned locks, and a timeout timer that kicks in if it was inactive
+ * an identifier, a set of owned locks, and a deadline after which it times out if it was inactive
  * for some time. 
  */
 public class Session {
+  private static final long USE_DEFAULT_TIMEOUT = -1;
   private final LockManager lm;
-  private final Map<List<String>, LockTreeNode> locks = new HashMap<>();
-  private SessionTimeoutTask timeoutTask;
+  private final Map<List<String>, LockTreeNode> locks = new ConcurrentHashMap<>();
+  private final Map<Long, LockTreeNode> handles = new ConcurrentHashMap<>();
+  private final Set<List<String>> leases = ConcurrentHashMap.newKeySet();
+  private final Set<List<String>> recalledLeases = ConcurrentHashMap.newKeySet();
+  // the session specific timeout in milliseconds, or USE_DEFAULT_TIMEOUT
+  private volatile long timeout = USE_DEFAULT_TIMEOUT;
+  // the System.nanoTime() after which this session expires
+  private volatile long deadline;
   final String id;
 
   Session(LockManager lm, String id) {
@@ -56,19 +63,30 @@ public class Session {
   }
   
   /**
-   * Create a new timeout task and associate it with this session.
-   * @return the new timeout task
+   * Set a session specific timeout, overriding the default timeout of the lock manager.
+   * @param timeoutMillis number of milliseconds until this session times out if not accessed
    */
-  TimerTask newTimeoutTask() {
-    timeoutTask = new SessionTimeoutTask(lm, this);
-    return timeoutTask;
+  void setTimeout(long timeoutMillis) {
+    timeout = timeoutMillis;
   }
 
   /**
-   * Cancel the current timeout task. 
+   * Keep this session alive, i.e., move its deadline to the given time plus its timeout. 
+   * @param now the current {@link System#nanoTime()}
+   * @param defaultTimeoutMillis the timeout to apply if this session has no specific timeout
    */
-  void cancelTimeout() {
-    timeoutTask.cancel();
+  void touch(long now, long defaultTimeoutMillis) {
+    final long millis = ( timeout == USE_DEFAULT_TIMEOUT ) ? defaultTimeoutMillis : timeout;
+    deadline = now + TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /**
+   * Returns whether this session has not been accessed within its timeout.
+   * @param now the current {@link System#nanoTime()}
+   * @return {@code true}, iff the deadline of this session has passed
+   */
+  boolean isExpired(long now) {
+    return now - deadline > 0;
   }
 
   /**
@@ -88,6 +106,77 @@ public class Session {
     locks.remove(key);
   }
 
+  /**
+   * Returns the lock tree node this session holds the lock with the given key on, if any. The 
+   * node must be locked and checked for the lock before using it.
+   * @param key the key of the lock
+   * @return the node of the lock, or {@code null} if this session does not hold the lock
+   */
+  LockTreeNode getLock(List<String> key) {
+    return locks.get(key);
+  }
+
+  /**
+   * Register the numeric handle of a lock held by this session.
+   * @param handle the handle of the lock
+   * @param node the lock tree node the lock is set on
+   */
+  void addHandle(long handle, LockTreeNode node) {
+    handles.put(handle, node);
+  }
+
+  /**
+   * Forget about the given handle, e.g., because its lock has been released.
+   * @param handle the handle of the released lock
+   */
+  void removeHandle(long handle) {
+    handles.remove(handle);
+  }
+
+  /**
+   * Returns the lock tree node of the lock with the given numeric handle, if any. The node must be
+   * locked and checked for the lock before using it.
+   * @param handle the handle of the lock
+   * @return the node of the lock, or {@code null} if this session has no lock with that handle
+   */
+  LockTreeNode getHandle(long handle) {
+    return handles.get(handle);
+  }
+
+  /**
+   * Register the lock with the given key as a delegated lease of this session.
+   * @param key the key of the deep write lock representing the lease
+   */
+  void addLease(List<String> key) {
+    leases.add(key);
+  }
+
+  /**
+   * Forget about the lease with the given key, e.g., because the lock has been released.
+   * @param key the key of the lease
+   */
+  void removeLease(List<String> key) {
+    leases.remove(key);
+    recalledLeases.remove(key);
+  }
+
+  /**
+   * Mark the lease with the given key as recalled if this session holds such a lease.
+   * @param key the key of the lock that is in the way of another session
+   * @return {@code true}, iff the key denotes a lease of this session that has not been recalled yet
+   */
+  boolean recallLease(List<String> key) {
+    return leases.contains(key) && recalledLeases.add(key);
+  }
+
+  /**
+   * Returns the keys of all leases of this session that have been recalled.
+   * @return the possibly empty set of recalled leases
+   */
+  Set<List<String>> getRecalledLeases() {
+    return Collections.unmodifiableSet(new HashSet<>(recalledLeases));
+  }
+
   /**
    * Returns all locks on this node.
    * 
@@ -20,27 +20,20 @@ package org.avidj.zuul.core;
  * #L%
  */
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import java.util.TimerTask;
 
 /**
- * A timer that upon timeout will release all locks held by the associated session. 
+ * A timer task that regularly releases all locks of timed out sessions and all timed out locks. 
  */
-final class SessionTimeoutTask extends TimerTask {
-  private static final Logger LOG = LoggerFactory.getLogger(SessionTimeoutTask.class);
-  private final LockManager lm;
-  private final Session session;
+final class SessionSweepTask extends TimerTask {
+  private final DefaultEmbeddedLockManager lm;
 
-  SessionTimeoutTask(LockManager lm, Session session) {
+  SessionSweepTask(DefaultEmbeddedLockManager lm) {
     this.lm = lm;
-    this.session = session;
   }
 
   @Override
   public void run() {
-    LOG.info("RELEASE BY TIMEOUT: " + session.id);
-    lm.release(session.id);
+    lm.sweep();
   }
 }
@@ -0,0 +1,1165 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import static org.avidj.zuul.core.Lock.newLock;
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock manager that applies all operations in one dedicated writer thread, as an alternative to
+ * the lock coupling of {@link DefaultEmbeddedLockManager}. Callers publish their requests into a 
+ * pre-allocated ring buffer, in the style of the LMAX disruptor, and the writer publishes the 
+ * results back into the same slots. As the lock tree is only ever accessed by the writer thread, 
+ * it needs no mutexes, atomics or memory barriers and it stays in the writer's cache. In turn, all
+ * operations are serialized, so throughput is bounded by a single core, and every operation costs
+ * two handoffs between threads.
+ * <p>
+ * The locking semantics are those of {@link DefaultEmbeddedLockManager}, except that deep locks are
+ * granted above nested locks of the same session. Multi-locks are atomic, as they are applied in 
+ * one step. Statistics, listeners, profiling and the slow operation log are not supported. Call 
+ * {@link #close()} to stop the writer thread.
+ */
+public class SingleWriterLockManager implements LockManager, Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(SingleWriterLockManager.class);
+  private static final long DEFAULT_SESSION_TIMEOUT = 50000;
+  private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final int DEFAULT_CAPACITY = 1024;
+  // busy waiting iterations before parking, handoffs usually complete within them under load
+  private static final int SPINS = ( Runtime.getRuntime().availableProcessors() > 1 ) ? 256 : 0;
+  private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  // markers in the events of a walk, see replay
+  private static final Object ENTER_ROOT = new Object();
+  private static final Object LEAVE = new Object();
+
+  private final Slot[] slots;
+  private final int mask;
+  private final AtomicLong cursor = new AtomicLong();
+  private final Thread writer;
+  private final WatchRegistry watches = new WatchRegistry();
+  private volatile boolean writerParked;
+  private volatile boolean closed;
+  private volatile long sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+
+  // the state below is confined to the writer thread
+  private final Node root = new Node(null, null);
+  private final Map<String, Owner> owners = new HashMap<>();
+  private List<List<String>> changed;
+
+  /**
+   * Create a new lock manager with a ring buffer of 1024 requests and start its writer thread.
+   */
+  public SingleWriterLockManager() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Create a new lock manager and start its writer thread.
+   * @param capacity the number of slots in the ring buffer, a power of two of at least 4
+   */
+  public SingleWriterLockManager(int capacity) {
+    Preconditions.checkArgument(capacity >= 4 && Integer.bitCount(capacity) == 1, 
+        "capacity must be a power of two of at least 4");
+    slots = new Slot[capacity];
+    for ( int i = 0; i < capacity; i++ ) {
+      slots[i] = new Slot(i);
+    }
+    mask = capacity - 1;
+    writer = new Thread(this::run, "zuul-single-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Stop the writer thread after all requests published so far have been applied. Subsequent 
+   * requests fail with an {@link IllegalStateException}.
+   */
+  @Override
+  public void close() {
+    if ( closed ) {
+      return;
+    }
+    final long pos = publish(Op.CLOSE, null, null, null, null, 0, null);
+    await(pos);
+    free(pos);
+    try {
+      writer.join();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void setSessionTimeout(long timeoutMillis) {
+    this.sessionTimeout = timeoutMillis;
+  }
+
+  @Override
+  public void setSessionTimeout(String session, long timeoutMillis) {
+    call(Op.SESSION_TIMEOUT, session, null, null, null, timeoutMillis, null);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Set<Lock> getLocks(String session) {
+    return (Set<Lock>)query(Op.GET_LOCKS, session, null, null, 0);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public boolean walkLocks(
+      String session, List<String> path, LockScope scope, LockTreeVisitor visitor) {
+    final List<Object> events = (List<Object>)query(Op.WALK, session, path, scope, 0);
+    if ( events == null ) {
+      return false;
+    }
+    for ( Object event : events ) {
+      if ( event == LEAVE ) {
+        visitor.leave();
+      } else if ( event == ENTER_ROOT ) {
+        visitor.enter(null);
+      } else if ( event instanceof String ) {
+        visitor.enter((String)event);
+      } else {
+        visitor.visit((Lock)event);
+      }
+    }
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<String> listChildren(List<String> path, String startAfter, int limit) {
+    Preconditions.checkArgument(limit > 0, "limit must be positive");
+    final long pos = publish(Op.LIST_CHILDREN, null, path, null, null, limit, startAfter);
+    return (List<String>)answer(pos);
+  }
+
+  @Override
+  public boolean readLock(String session, List<String> path, LockScope scope) {
+    return lock(session, path, LockType.READ, scope, Lock.NO_DEADLINE, false);
+  }
+
+  @Override
+  public boolean writeLock(String session, List<String> path, LockScope scope) {
+    return lock(session, path, LockType.WRITE, scope, Lock.NO_DEADLINE, false);
+  }
+
+  @Override
+  public boolean lock(String session, List<String> path, LockType type, LockScope scope) {
+    return lock(session, path, type, scope, Lock.NO_DEADLINE, true);
+  }
+
+  @Override
+  public boolean lock(
+      String session, List<String> path, LockType type, LockScope scope, long ttlMillis) {
+    Preconditions.checkArgument(ttlMillis > 0, "ttlMillis must be positive");
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    return lock(session, path, type, scope, deadline, true);
+  }
+
+  private boolean lock(String session, List<String> path, LockType type, LockScope scope, 
+      long deadline, boolean check) {
+    if ( check ) {
+      Preconditions.checkNotNull(session, "sessionId must not be null");
+      Preconditions.checkNotNull(path, "path must not be null");
+      Preconditions.checkNotNull(type, "type must not be null");
+      Preconditions.checkNotNull(scope, "scope must not be null");
+    }
+    final boolean success = call(Op.LOCK, session, path, type, scope, deadline, null);
+    if ( success ) {
+      watches.fire(path);
+    }
+    return success;
+  }
+
+  @Override
+  public boolean multiLock(
+      String session, List<List<String>> paths, LockType type, LockScope scope) {
+    Preconditions.checkNotNull(session, "session must not be null");
+    Preconditions.checkNotNull(paths, "paths must not be null");
+    Preconditions.checkArgument(!paths.isEmpty(), "paths must not be empty");
+    Preconditions.checkNotNull(type, "type must not be null");
+    Preconditions.checkNotNull(scope, "scope must not be null");
+    return multiLock(session, LockRequest.all(paths, type, scope));
+  }
+
+  @Override
+  public boolean multiLock(String session, List<LockRequest> requests) {
+    Preconditions.checkNotNull(session, "session must not be null");
+    Preconditions.checkNotNull(requests, "requests must not be null");
+    Preconditions.checkArgument(!requests.isEmpty(), "requests must not be empty");
+    return call(Op.MULTI_LOCK, session, null, null, null, 0, LockRequest.sorted(requests));
+  }
+
+  @Override
+  public boolean release(String session, List<String> path) {
+    final boolean success = call(Op.RELEASE, session, path, null, null, 0, null);
+    if ( success ) {
+      watches.fire(path);
+    }
+    return success;
+  }
+
+  @Override
+  public int release(String session, Collection<List<String>> paths) {
+    final long pos = publish(Op.RELEASE_PATHS, session, null, null, null, 0, paths);
+    return (Integer)answer(pos);
+  }
+
+  @Override
+  public void release(String session) {
+    call(Op.RELEASE_SESSION, session, null, null, null, 0, null);
+  }
+
+  @Override
+  public void heartbeat(String session) {
+    call(Op.HEARTBEAT, session, null, null, null, 0, null);
+  }
+
+  @Override
+  public boolean upScope(String session, List<String> path, LockType type) {
+    return updateScope(session, path, type, LockScope.DEEP);
+  }
+
+  @Override
+  public boolean downScope(String session, List<String> path, LockType type, LockScope shallow) {
+    return updateScope(session, path, type, LockScope.SHALLOW);
+  }
+
+  private boolean updateScope(String session, List<String> path, LockType type, LockScope scope) {
+    final boolean success = call(Op.SCOPE, session, path, type, scope, 0, null);
+    if ( success ) {
+      watches.fire(path);
+    }
+    return success;
+  }
+
+  @Override
+  public boolean upgrade(String session, List<String> path) {
+    return convert(session, path, LockType.WRITE);
+  }
+
+  @Override
+  public boolean downgrade(String session, List<String> path) {
+    return convert(session, path, LockType.READ);
+  }
+
+  private boolean convert(String session, List<String> path, LockType type) {
+    Preconditions.checkNotNull(session, "session must not be null");
+    Preconditions.checkNotNull(path, "path must not be null");
+    final boolean success = call(Op.TYPE, session, path, type, null, 0, null);
+    if ( success ) {
+      watches.fire(path);
+    }
+    return success;
+  }
+
+  @Override
+  public boolean lease(String session, List<String> prefix) {
+    final boolean success = call(Op.LEASE, session, prefix, null, null, 0, null);
+    if ( success ) {
+      watches.fire(prefix);
+    }
+    return success;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Set<List<String>> getRecalledLeases(String session) {
+    return (Set<List<String>>)query(Op.RECALLED_LEASES, session, null, null, 0);
+  }
+
+  @Override
+  public CompletableFuture<List<String>> watch(List<String> path, LockScope scope) {
+    return watches.watch(path, scope);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<LockHolder> getLongestHolders(int limit) {
+    Preconditions.checkArgument(limit > 0, "limit must be positive");
+    return (List<LockHolder>)query(Op.LONGEST_HOLDERS, null, null, null, limit);
+  }
+
+  /*
+   * Caller side of the ring buffer. A slot passes through four states, given by its sequence: free
+   * for the request at pos (pos), published (pos + 1), completed (pos + 2), and free for the request
+   * at pos + capacity once the caller has read the result. The capacity of at least 4 keeps these 
+   * states apart.
+   */
+
+  // publish a request and return whether it succeeded
+  private boolean call(Op op, String session, List<String> path, LockType type, LockScope scope, 
+      long value, Object arg) {
+    final long pos = publish(op, session, path, type, scope, value, arg);
+    await(pos);
+    final Slot slot = slots[(int)pos & mask];
+    final boolean result = slot.result;
+    complete(pos, slot);
+    return result;
+  }
+
+  // publish a request and return its answer
+  private Object query(Op op, String session, List<String> path, LockScope scope, long value) {
+    final long pos = publish(op, session, path, null, scope, value, null);
+    return answer(pos);
+  }
+
+  private Object answer(long pos) {
+    await(pos);
+    final Slot slot = slots[(int)pos & mask];
+    final Object answer = slot.answer;
+    complete(pos, slot);
+    return answer;
+  }
+
+  private long publish(Op op, String session, List<String> path, LockType type, LockScope scope,
+      long value, Object arg) {
+    if ( closed ) {
+      throw new IllegalStateException("lock manager is closed");
+    }
+    final long pos = cursor.getAndIncrement();
+    final Slot slot = slots[(int)pos & mask];
+    for ( int i = 0; slot.sequence != pos; i++ ) {
+      if ( i > SPINS ) {
+        checkWriter();
+        Thread.yield();
+      }
+    }
+    slot.op = op;
+    slot.session = session;
+    slot.path = path;
+    slot.type = type;
+    slot.scope = scope;
+    slot.value = value;
+    slot.arg = arg;
+    slot.sequence = pos + 1;
+    if ( writerParked ) {
+      LockSupport.unpark(writer);
+    }
+    return pos;
+  }
+
+  private void await(long pos) {
+    final Slot slot = slots[(int)pos & mask];
+    for ( int i = 0; slot.sequence != pos + 2; i++ ) {
+      if ( i > SPINS ) {
+        slot.waiter = Thread.currentThread();
+        if ( slot.sequence != pos + 2 ) {
+          checkWriter();
+          LockSupport.parkNanos(this, PARK_NANOS);
+        }
+      }
+    }
+    slot.waiter = null;
+  }
+
+  // rethrow the writer's exception, fire the watches of changed paths and free the slot
+  private void complete(long pos, Slot slot) {
+    final RuntimeException error = slot.error;
+    final List<List<String>> changed = slot.changed;
+    free(pos);
+    if ( changed != null ) {
+      for ( List<String> path : changed ) {
+        watches.fire(path);
+      }
+    }
+    if ( error != null ) {
+      throw error;
+    }
+  }
+
+  private void free(long pos) {
+    final Slot slot = slots[(int)pos & mask];
+    slot.session = null;
+    slot.path = null;
+    slot.arg = null;
+    slot.answer = null;
+    slot.error = null;
+    slot.changed = null;
+    slot.sequence = pos + slots.length;
+  }
+
+  private void checkWriter() {
+    if ( !writer.isAlive() ) {
+      throw new IllegalStateException("lock manager is closed");
+    }
+  }
+
+  /*
+   * Writer side of the ring buffer.
+   */
+
+  private void run() {
+    long nextSweep = System.nanoTime() + SWEEP_INTERVAL_NANOS;
+    for ( long pos = 0; ; pos++ ) {
+      final Slot slot = slots[(int)pos & mask];
+      for ( int i = 0; slot.sequence != pos + 1; i++ ) {
+        final long now = System.nanoTime();
+        if ( now - nextSweep >= 0 ) {
+          sweep(now);
+          nextSweep = now + SWEEP_INTERVAL_NANOS;
+          fireAsync();
+        } else if ( i > SPINS ) {
+          writerParked = true;
+          if ( slot.sequence != pos + 1 ) {
+            LockSupport.parkNanos(this, nextSweep - now);
+          }
+          writerParked = false;
+        }
+      }
+      final Op op = slot.op;
+      try {
+        apply(slot);
+      } catch ( RuntimeException e ) {
+        slot.error = e;
+      }
+      slot.changed = changed;
+      changed = null;
+      slot.sequence = pos + 2;
+      // read the waiter only after publishing the result, a caller that registers itself in 
+      // between re-checks the sequence before parking, and unparking the next user of the slot
+      // instead is harmless
+      final Thread waiter = slot.waiter;
+      if ( waiter != null ) {
+        LockSupport.unpark(waiter);
+      }
+      if ( op == Op.CLOSE ) {
+        closed = true;
+        return;
+      }
+    }
+  }
+
+  // fire the watches of paths changed by a sweep, not in the writer thread
+  private void fireAsync() {
+    final List<List<String>> expired = changed;
+    changed = null;
+    if ( expired != null ) {
+      ForkJoinPool.commonPool().execute(() -> {
+        for ( List<String> path : expired ) {
+          watches.fire(path);
+        }
+      });
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void apply(Slot slot) {
+    final long now = System.nanoTime();
+    final String id = slot.session;
+    switch ( slot.op ) {
+      case LOCK:
+        slot.result = lock(session(id, now), slot.path, slot.type, slot.scope, slot.value, now);
+        break;
+      case MULTI_LOCK:
+        slot.result = multiLock(session(id, now), (List<LockRequest>)slot.arg, now);
+        break;
+      case RELEASE:
+        slot.result = release(id, slot.path, false);
+        break;
+      case RELEASE_PATHS:
+        int released = 0;
+        for ( List<String> path : (Collection<List<String>>)slot.arg ) {
+          if ( release(id, path, false) ) {
+            changed(path);
+            released++;
+          }
+        }
+        slot.answer = released;
+        break;
+      case RELEASE_SESSION:
+        final Owner owner = owners.remove(id);
+        if ( owner != null ) {
+          releaseAll(owner);
+        }
+        break;
+      case HEARTBEAT:
+        final Owner live = liveSession(id, now);
+        if ( live != null ) {
+          live.touch(now, sessionTimeout);
+        }
+        break;
+      case SESSION_TIMEOUT:
+        final Owner timed = session(id, now);
+        timed.timeout = slot.value;
+        timed.touch(now, sessionTimeout);
+        break;
+      case SCOPE:
+        slot.result = updateScope(session(id, now), slot.path, slot.scope);
+        break;
+      case TYPE:
+        slot.result = convert(session(id, now), slot.path, slot.type, now);
+        break;
+      case LEASE:
+        final Owner lessee = session(id, now);
+        slot.result = lock(lessee, slot.path, LockType.WRITE, LockScope.DEEP, Lock.NO_DEADLINE, now);
+        if ( slot.result ) {
+          lessee.leases.add(Collections.unmodifiableList(new ArrayList<>(slot.path)));
+        }
+        break;
+      case RECALLED_LEASES:
+        final Owner holder = owners.get(id);
+        slot.answer = ( holder == null ) 
+            ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(holder.recalled));
+        break;
+      case GET_LOCKS:
+        slot.answer = getLocks(id, now);
+        break;
+      case WALK:
+        slot.answer = walk(id, slot.path, slot.scope, now);
+        break;
+      case LIST_CHILDREN:
+        slot.answer = childrenOf(slot.path, (String)slot.arg, (int)slot.value);
+        break;
+      case LONGEST_HOLDERS:
+        slot.answer = longestHolders((int)slot.value, now);
+        break;
+      case CLOSE:
+        break;
+      default:
+        throw new IllegalArgumentException("unknown operation: " + slot.op);
+    }
+  }
+
+  /*
+   * The lock tree, only accessed by the writer thread.
+   */
+
+  // the session with the given id, which is created or, if it has expired, replaced
+  private Owner session(String id, long now) {
+    Owner owner = owners.get(id);
+    if ( owner != null && owner.isExpired(now) ) {
+      expire(owner);
+      owner = null;
+    }
+    if ( owner == null ) {
+      owner = new Owner(id);
+      owners.put(id, owner);
+    }
+    owner.touch(now, sessionTimeout);
+    return owner;
+  }
+
+  // the session with the given id, or null if it does not exist or has expired
+  private Owner liveSession(String id, long now) {
+    final Owner owner = owners.get(id);
+    if ( owner != null && owner.isExpired(now) ) {
+      expire(owner);
+      return null;
+    }
+    return owner;
+  }
+
+  private void expire(Owner owner) {
+    LOG.info("RELEASE BY TIMEOUT: " + owner.id);
+    owners.remove(owner.id);
+    releaseAll(owner);
+  }
+
+  private void releaseAll(Owner owner) {
+    for ( Map.Entry<List<String>, Node> entry : owner.locks.entrySet() ) {
+      final Lock lock = entry.getValue().lockOf(owner.id);
+      if ( lock != null ) {
+        remove(entry.getValue(), lock);
+        changed(lock.key);
+      }
+    }
+    owner.locks.clear();
+  }
+
+  private void sweep(long now) {
+    for ( Owner owner : new ArrayList<>(owners.values()) ) {
+      if ( owner.isExpired(now) ) {
+        expire(owner);
+      } else {
+        releaseExpired(owner, now);
+      }
+    }
+  }
+
+  // completely release all locks of the given session whose time to live has expired
+  private void releaseExpired(Owner owner, long now) {
+    List<List<String>> expired = null;
+    for ( Map.Entry<List<String>, Node> entry : owner.locks.entrySet() ) {
+      final Lock lock = entry.getValue().lockOf(owner.id);
+      if ( lock != null && lock.isExpired(now) ) {
+        if ( expired == null ) {
+          expired = new ArrayList<>();
+        }
+        expired.add(lock.key);
+      }
+    }
+    if ( expired != null ) {
+      for ( List<String> path : expired ) {
+        LOG.info("RELEASE BY TIMEOUT: {} ({})", owner.id, Strings.join(path));
+        release(owner.id, path, true);
+        changed(path);
+      }
+    }
+  }
+
+  /*
+   * Release all locks on the given path that are held by other sessions and that have expired, or
+   * whose session has expired.
+   */
+  private boolean releaseExpiredOnPath(String id, List<String> path, long now) {
+    final List<Lock> expired = new ArrayList<>();
+    Node node = root;
+    for ( int pos = 0; node != null; pos++ ) {
+      node.collectExpired(id, owners, now, expired);
+      node = ( pos < path.size() ) ? node.children.get(path.get(pos)) : null;
+    }
+    for ( Lock lock : expired ) {
+      final Owner owner = owners.get(lock.session);
+      if ( owner != null && owner.isExpired(now) ) {
+        expire(owner);
+      } else if ( lock.isExpired(now) ) {
+        LOG.info("RELEASE BY TIMEOUT: {} ({})", lock.session, Strings.join(lock.key));
+        release(lock.session, lock.key, true);
+        changed(lock.key);
+      }
+    }
+    return !expired.isEmpty();
+  }
+
+  private boolean lock(Owner owner, List<String> path, LockType type, LockScope scope, 
+      long deadline, long now) {
+    return tryLock(owner, path, type, scope, deadline)
+        || ( releaseExpiredOnPath(owner.id, path, now) 
+            && tryLock(owner, path, type, scope, deadline) );
+  }
+
+  /*
+   * Obtain all locks or none. The requests must be sorted, so that the locks are obtained in the 
+   * same order as by DefaultEmbeddedLockManager. On failure, the locks held before are put back in
+   * reverse order, with the type, scope and count they had. As this thread is the only writer, this
+   * restores the lock state exactly.
+   */
+  private boolean multiLock(Owner owner, List<LockRequest> requests, long now) {
+    // the lock held on each touched path before the call, or null, in the order of the paths
+    final Map<List<String>, Lock> before = new LinkedHashMap<>();
+    for ( LockRequest request : requests ) {
+      if ( !before.containsKey(request.path) ) {
+        final Node node = find(request.path);
+        before.put(request.path, ( node != null ) ? node.lockOf(owner.id) : null);
+      }
+      if ( !lock(owner, request.path, request.type, request.scope, Lock.NO_DEADLINE, now) ) {
+        restore(owner, before);
+        return false;
+      }
+    }
+    for ( LockRequest request : requests ) {
+      changed(request.path);
+    }
+    return true;
+  }
+
+  // put back the given locks replaced by a failed multi-lock, whose counts have not been changed
+  private void restore(Owner owner, Map<List<String>, Lock> before) {
+    final List<List<String>> paths = new ArrayList<>(before.keySet());
+    for ( int i = paths.size() - 1; i >= 0; i-- ) {
+      final List<String> path = paths.get(i);
+      final Lock prior = before.get(path);
+      if ( prior == null ) {
+        release(owner.id, path, true);
+        continue;
+      }
+      final Node node = find(path);
+      final Lock held = node.lockOf(owner.id);
+      if ( held == prior ) {
+        continue;
+      }
+      node.remove(held);
+      node.add(prior);
+      if ( held.type != prior.type ) {
+        for ( Node current = node; current != null; current = current.parent ) {
+          current.writes += ( prior.type == LockType.WRITE ) ? 1 : -1;
+        }
+      }
+    }
+  }
+
+  private boolean tryLock(
+      Owner owner, List<String> path, LockType type, LockScope scope, long deadline) {
+    // check the existing part of the path, nothing is changed before the lock is granted
+    Node node = root;
+    int pos = 0;
+    final int n = path.size();
+    while ( true ) {
+      if ( node.deepLockedByOther(owner.id, type) ) {
+        recallLeases(node, owner.id);
+        return false;
+      }
+      final Node child = ( pos < n ) ? node.children.get(path.get(pos)) : null;
+      if ( child == null ) {
+        break;
+      }
+      node = child;
+      pos++;
+    }
+    final Lock existing = ( pos == n ) ? node.lockOf(owner.id) : null;
+    if ( pos == n && !node.grants(owner.id, type, scope, existing) ) {
+      return false;
+    }
+    for ( ; pos < n; pos++ ) {
+      final Node child = new Node(path.get(pos), node);
+      node.children.put(child.key, child);
+      node = child;
+    }
+    if ( existing == null ) {
+      final Lock lock = newLock(owner.id, path, type, scope).extend(deadline);
+      node.add(lock);
+      owner.locks.put(lock.key, node);
+      for ( Node current = node; current != null; current = current.parent ) {
+        current.locks++;
+        if ( type == LockType.WRITE ) {
+          current.writes++;
+        }
+      }
+    } else {
+      final Lock lock = ( type == LockType.WRITE ) 
+          ? existing.writeLock(scope) : existing.readLock(scope);
+      node.remove(existing);
+      node.add(lock.extend(deadline));
+      if ( existing.type != type ) {
+        for ( Node current = node; current != null; current = current.parent ) {
+          current.writes += ( type == LockType.WRITE ) ? 1 : -1;
+        }
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Release the lock of the given session on the given path. If all is true, the lock is released 
+   * completely, otherwise it is released once.
+   */
+  private boolean release(String id, List<String> path, boolean all) {
+    final Node node = find(path);
+    final Lock lock = ( node != null ) ? node.lockOf(id) : null;
+    if ( lock == null ) {
+      return false;
+    }
+    lock.count = all ? 0 : lock.count - 1;
+    if ( lock.count == 0 ) {
+      remove(node, lock);
+      final Owner owner = owners.get(id);
+      if ( owner != null ) {
+        owner.locks.remove(lock.key);
+        owner.leases.remove(lock.key);
+        owner.recalled.remove(lock.key);
+      }
+    }
+    return true;
+  }
+
+  // remove the given lock completely and prune the nodes left without locks
+  private static void remove(Node node, Lock lock) {
+    node.remove(lock);
+    for ( Node current = node; current != null; current = current.parent ) {
+      current.locks--;
+      if ( lock.type == LockType.WRITE ) {
+        current.writes--;
+      }
+    }
+    for ( Node current = node; current.parent != null && current.locks == 0; ) {
+      current.parent.children.remove(current.key);
+      current = current.parent;
+    }
+  }
+
+  private boolean updateScope(Owner owner, List<String> path, LockScope scope) {
+    Node node = root;
+    for ( int pos = 0, n = path.size(); ; pos++ ) {
+      if ( node.deepLockedByOther(owner.id, LockType.WRITE) ) {
+        throw new IllegalStateException("deep locked by other session");
+      }
+      if ( pos == n ) {
+        break;
+      }
+      node = node.children.get(path.get(pos));
+      if ( node == null ) {
+        throw new IllegalStateException("lock does not exist");
+      }
+    }
+    final Lock existing = node.lockOf(owner.id);
+    if ( existing == null ) {
+      throw new IllegalStateException("lock does not exist");
+    }
+    if ( scope == existing.scope 
+        || ( scope == LockScope.DEEP && !node.grantsDeep(owner.id, existing.type) ) ) {
+      return false;
+    }
+    node.remove(existing);
+    node.add(existing.scope(scope));
+    return true;
+  }
+
+  // change the type of the lock in place, keeping its count and scope
+  private boolean convert(Owner owner, List<String> path, LockType type, long now) {
+    return tryConvert(owner, path, type)
+        || ( type == LockType.WRITE && releaseExpiredOnPath(owner.id, path, now) 
+            && tryConvert(owner, path, type) );
+  }
+
+  private boolean tryConvert(Owner owner, List<String> path, LockType type) {
+    final Node node = owner.locks.get(path);
+    final Lock existing = ( node != null ) ? node.lockOf(owner.id) : null;
+    if ( existing == null || existing.type == type ) {
+      return ( existing != null );
+    }
+    if ( type == LockType.WRITE ) {
+      for ( Node current = node; current != null; current = current.parent ) {
+        if ( current.deepLockedByOther(owner.id, type) ) {
+          recallLeases(current, owner.id);
+          return false;
+        }
+      }
+      if ( !node.grants(owner.id, type, existing.scope, existing) ) {
+        return false;
+      }
+    }
+    node.remove(existing);
+    node.add(existing.type(type));
+    for ( Node current = node; current != null; current = current.parent ) {
+      current.writes += ( type == LockType.WRITE ) ? 1 : -1;
+    }
+    return true;
+  }
+
+  private void recallLeases(Node node, String requester) {
+    for ( Lock lock : node.getLocks() ) {
+      if ( lock.scope == LockScope.DEEP && !lock.session.equals(requester) ) {
+        final Owner holder = owners.get(lock.session);
+        if ( holder != null && holder.leases.contains(lock.key) && holder.recalled.add(lock.key) ) {
+          LOG.debug("recall lease ({}) of {} requested by {}", 
+              Strings.join(lock.key), lock.session, requester);
+        }
+      }
+    }
+  }
+
+  private Set<Lock> getLocks(String id, long now) {
+    final Owner owner = liveSession(id, now);
+    if ( owner == null ) {
+      return Collections.emptySet();
+    }
+    releaseExpired(owner, now);
+    final Set<Lock> locks = new HashSet<>();
+    for ( Map.Entry<List<String>, Node> entry : owner.locks.entrySet() ) {
+      locks.add(entry.getValue().lockOf(id));
+    }
+    return Collections.unmodifiableSet(locks);
+  }
+
+  // the events of a walk of the given subtree, replayed to the visitor by the caller
+  private List<Object> walk(String id, List<String> path, LockScope scope, long now) {
+    final Node node = find(path);
+    if ( node == null ) {
+      return null;
+    }
+    final List<Object> events = new ArrayList<>();
+    walk(node, id, scope == LockScope.DEEP, now, events);
+    return events;
+  }
+
+  private static void walk(Node node, String id, boolean deep, long now, List<Object> events) {
+    events.add(( node.key != null ) ? node.key : ENTER_ROOT);
+    for ( Lock lock : node.getLocks() ) {
+      if ( ( id == null || lock.session.equals(id) ) && !lock.isExpired(now) ) {
+        events.add(lock);
+      }
+    }
+    if ( deep ) {
+      for ( Node child : node.children.values() ) {
+        walk(child, id, true, now, events);
+      }
+    }
+    events.add(LEAVE);
+  }
+
+  private List<String> childrenOf(List<String> path, String startAfter, int limit) {
+    final Node node = find(path);
+    if ( node == null ) {
+      return Collections.emptyList();
+    }
+    final Collection<String> keys = ( startAfter == null ) 
+        ? node.children.keySet() 
+        : node.children.tailMap(startAfter, false).keySet();
+    final List<String> page = new ArrayList<>(Math.min(limit, 1024));
+    for ( String key : keys ) {
+      if ( page.size() == limit ) {
+        break;
+      }
+      page.add(key);
+    }
+    return page;
+  }
+
+  private List<LockHolder> longestHolders(int limit, long now) {
+    final List<Lock> locks = new ArrayList<>();
+    for ( Owner owner : owners.values() ) {
+      for ( Node node : owner.locks.values() ) {
+        locks.add(node.lockOf(owner.id));
+      }
+    }
+    locks.sort((l1, l2) -> Long.signum(l1.acquired - l2.acquired));
+    final List<LockHolder> holders = new ArrayList<>(Math.min(limit, locks.size()));
+    for ( int i = 0, n = Math.min(limit, locks.size()); i < n; i++ ) {
+      holders.add(new LockHolder(locks.get(i), now));
+    }
+    return holders;
+  }
+
+  private Node find(List<String> path) {
+    Node node = root;
+    for ( int pos = 0, n = path.size(); node != null && pos < n; pos++ ) {
+      node = node.children.get(path.get(pos));
+    }
+    return node;
+  }
+
+  // remember a path changed as a side effect, to fire its watches outside of the writer thread
+  private void changed(List<String> path) {
+    if ( changed == null ) {
+      changed = new ArrayList<>();
+    }
+    changed.add(path);
+  }
+
+  private enum Op {
+    LOCK, MULTI_LOCK, RELEASE, RELEASE_PATHS, RELEASE_SESSION, HEARTBEAT, SESSION_TIMEOUT, SCOPE,
+    TYPE, LEASE, RECALLED_LEASES, GET_LOCKS, WALK, LIST_CHILDREN, LONGEST_HOLDERS, CLOSE
+  }
+
+  /* A slot of the ring buffer holding a request and, once completed, its result. */
+  private static final class Slot {
+    volatile long sequence;
+    volatile Thread waiter;
+    Op op;
+    String session;
+    List<String> path;
+    LockType type;
+    LockScope scope;
+    long value;
+    Object arg;
+    boolean result;
+    Object answer;
+    RuntimeException error;
+    List<List<String>> changed;
+
+    Slot(long sequence) {
+      this.sequence = sequence;
+    }
+  }
+
+  /* The state of a session. */
+  private static final class Owner {
+    final String id;
+    // the lock tree nodes this session holds locks on, by lock path
+    final Map<List<String>, Node> locks = new HashMap<>();
+    final Set<List<String>> leases = new HashSet<>();
+    final Set<List<String>> recalled = new HashSet<>();
+    // the session specific timeout in milliseconds, or -1 to use the default
+    long timeout = -1;
+    // the System.nanoTime() after which this session expires
+    long deadline;
+
+    Owner(String id) {
+      this.id = id;
+    }
+
+    void touch(long now, long defaultTimeoutMillis) {
+      deadline = now + TimeUnit.MILLISECONDS.toNanos(timeout < 0 ? defaultTimeoutMillis : timeout);
+    }
+
+    boolean isExpired(long now) {
+      return now - deadline > 0;
+    }
+  }
+
+  /* A node of the lock tree. Nodes exist as long as there are locks in their subtree. */
+  private static final class Node {
+    final String key;
+    final Node parent;
+    final NavigableMap<String, Node> children = new TreeMap<>();
+    // the write lock on this node, or null
+    Lock exclusive;
+    // the read locks on this node by session, created on demand
+    Map<String, Lock> shared;
+    // the number of deep locks on this node
+    int deep;
+    // the number of locks and of write locks in the subtree rooted at this node
+    int locks;
+    int writes;
+
+    Node(String key, Node parent) {
+      this.key = key;
+      this.parent = parent;
+    }
+
+    Lock lockOf(String session) {
+      if ( exclusive != null ) {
+        return exclusive.session.equals(session) ? exclusive : null;
+      }
+      return ( shared != null ) ? shared.get(session) : null;
+    }
+
+    List<Lock> getLocks() {
+      if ( exclusive != null ) {
+        return Collections.singletonList(exclusive);
+      }
+      return ( shared != null ) ? new ArrayList<>(shared.values()) : Collections.emptyList();
+    }
+
+    void add(Lock lock) {
+      if ( lock.type == LockType.WRITE ) {
+        exclusive = lock;
+      } else {
+        if ( shared == null ) {
+          shared = new HashMap<>(4);
+        }
+        shared.put(lock.session, lock);
+      }
+      if ( lock.scope == LockScope.DEEP ) {
+        deep++;
+      }
+    }
+
+    void remove(Lock lock) {
+      if ( lock == exclusive ) {
+        exclusive = null;
+      } else {
+        shared.remove(lock.session);
+      }
+      if ( lock.scope == LockScope.DEEP ) {
+        deep--;
+      }
+    }
+
+    // true, iff another session holds a deep lock on this node conflicting with the given type
+    boolean deepLockedByOther(String session, LockType type) {
+      if ( deep == 0 ) {
+        return false;
+      }
+      if ( exclusive != null ) {
+        return !exclusive.session.equals(session);
+      }
+      if ( type == LockType.READ ) {
+        return false;
+      }
+      for ( Lock lock : shared.values() ) {
+        if ( lock.scope == LockScope.DEEP && !lock.session.equals(session) ) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // true, iff the given session may obtain a lock of the given type and scope on this node
+    boolean grants(String session, LockType type, LockScope scope, Lock existing) {
+      if ( exclusive != null && exclusive != existing ) {
+        return false;
+      }
+      if ( type == LockType.WRITE && shared != null 
+          && shared.size() > ( existing != null && existing.type == LockType.READ ? 1 : 0 ) ) {
+        return false;
+      }
+      return scope == LockScope.SHALLOW || grantsDeep(session, type);
+    }
+
+    // true, iff no other session holds locks below this node that conflict with a deep lock
+    boolean grantsDeep(String session, LockType type) {
+      final int here = ( exclusive != null ? 1 : 0 ) + ( shared != null ? shared.size() : 0 );
+      final int below = ( type == LockType.WRITE ) 
+          ? locks - here : writes - ( exclusive != null ? 1 : 0 );
+      if ( below == 0 ) {
+        return true;
+      }
+      for ( Node child : children.values() ) {
+        if ( child.holdsConflicting(session, type) ) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // true, iff another session holds a lock in this subtree that conflicts with the given type
+    private boolean holdsConflicting(String session, LockType type) {
+      if ( ( type == LockType.WRITE ? locks : writes ) == 0 ) {
+        return false;
+      }
+      if ( exclusive != null && !exclusive.session.equals(session) ) {
+        return true;
+      }
+      if ( type == LockType.WRITE && shared != null ) {
+        for ( Lock lock : shared.values() ) {
+          if ( !lock.session.equals(session) ) {
+            return true;
+          }
+        }
+      }
+      for ( Node child : children.values() ) {
+        if ( child.holdsConflicting(session, type) ) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // add the locks on this node of other sessions that have expired, or whose session has
+    void collectExpired(String session, Map<String, Owner> owners, long now, List<Lock> expired) {
+      for ( Lock lock : getLocks() ) {
+        if ( !lock.session.equals(session) ) {
+          final Owner owner = owners.get(lock.session);
+          if ( lock.isExpired(now) || owner == null || owner.isExpired(now) ) {
+            expired.add(lock);
+          }
+        }
+      }
+    }
+  }
+}
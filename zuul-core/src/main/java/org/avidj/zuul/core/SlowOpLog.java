@@ -0,0 +1,213 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded log of lock requests that took longer than a threshold. Each entry gives the details
+ * needed to explain the latency: how many tree nodes were traversed, how long the request waited
+ * for node mutexes and which session held a conflicting lock. The log is a ring buffer that keeps
+ * the most recent entries. Fast requests only cost a thread local lookup and a comparison, and 
+ * mutex waits are only timed if a mutex is contended, so the log can be left enabled in 
+ * production. Install it with {@link DefaultEmbeddedLockManager#setSlowOpLog(SlowOpLog)}.
+ */
+public final class SlowOpLog {
+  private static final ThreadLocal<Probe> PROBE = ThreadLocal.withInitial(Probe::new);
+  private final long thresholdNanos;
+  private final AtomicReferenceArray<Entry> entries;
+  private final int mask;
+  private final AtomicLong next = new AtomicLong();
+
+  /**
+   * Create a new slow operation log.
+   * @param threshold the latency above which lock requests are logged, 0 logs all requests
+   * @param unit the unit of the threshold
+   * @param capacity the number of entries to keep, rounded up to a power of two
+   */
+  public SlowOpLog(long threshold, TimeUnit unit, int capacity) {
+    Preconditions.checkArgument(threshold >= 0, "threshold must not be negative");
+    Preconditions.checkArgument(
+        capacity > 0 && capacity <= 1 << 30, "capacity must be in [1, 2^30]");
+    this.thresholdNanos = unit.toNanos(threshold);
+    final int size = Integer.highestOneBit(capacity);
+    this.entries = new AtomicReferenceArray<>(size == capacity ? size : size << 1);
+    this.mask = entries.length() - 1;
+  }
+
+  /**
+   * Returns the threshold above which lock requests are logged.
+   * @param unit the unit to return the threshold in
+   * @return the threshold
+   */
+  public long getThreshold(TimeUnit unit) {
+    return unit.convert(thresholdNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the number of entries kept.
+   * @return the capacity of this log
+   */
+  public int capacity() {
+    return entries.length();
+  }
+
+  /**
+   * Returns the most recent entries, most recent first. Entries logged concurrently may or may not
+   * be returned.
+   * @param limit the maximum number of entries to return
+   * @return the most recent entries
+   */
+  public List<Entry> getEntries(int limit) {
+    Preconditions.checkArgument(limit > 0, "limit must be positive");
+    final long last = next.get();
+    final long first = Math.max(0, last - Math.min(limit, entries.length()));
+    final List<Entry> recent = new ArrayList<>((int)( last - first ));
+    for ( long i = last - 1; i >= first; i-- ) {
+      final Entry entry = entries.get((int)i & mask);
+      if ( entry != null ) {
+        recent.add(entry);
+      }
+    }
+    return recent;
+  }
+
+  /**
+   * Discard all entries.
+   */
+  public void clear() {
+    for ( int i = 0, n = entries.length(); i < n; i++ ) {
+      entries.set(i, null);
+    }
+  }
+
+  /* Start probing a lock request of the current thread. */
+  static Probe begin() {
+    final Probe probe = PROBE.get();
+    probe.mutexWaitNanos = 0;
+    probe.conflict = null;
+    return probe;
+  }
+
+  /* Add the given time the current thread waited for a node mutex to its current request. */
+  static void mutexWait(long nanos) {
+    PROBE.get().mutexWaitNanos += nanos;
+  }
+
+  /* Remember the node on which the current request of the current thread conflicted. */
+  static void conflict(LockTreeNode node) {
+    PROBE.get().conflict = node;
+  }
+
+  /* Log the probed request, if it exceeded the threshold. */
+  void end(Probe probe, String session, List<String> path, LockType type, LockScope scope, 
+      boolean granted, long nanos) {
+    if ( nanos < thresholdNanos ) {
+      return;
+    }
+    // a granted request may have conflicted before expired locks on its path were released
+    final LockTreeNode conflict = granted ? null : probe.conflict;
+    final Entry entry = new Entry(session, path, type, scope, granted, nanos, 
+        ( conflict != null ) ? depth(conflict) : path.size() + 1, probe.mutexWaitNanos, 
+        ( conflict != null ) ? holder(conflict, session) : null);
+    entries.lazySet((int)next.getAndIncrement() & mask, entry);
+  }
+
+  // the number of nodes from the root down to the given node
+  private static int depth(LockTreeNode node) {
+    int depth = 0;
+    for ( LockTreeNode current = node; current != null; current = current.parent ) {
+      depth++;
+    }
+    return depth;
+  }
+
+  // some other session holding a lock on the given node, the holder may have changed meanwhile
+  private static String holder(LockTreeNode node, String session) {
+    for ( Lock lock : node.getLocks() ) {
+      if ( !lock.session.equals(session) ) {
+        return lock.session;
+      }
+    }
+    return null;
+  }
+
+  /* The state of the current request of a thread. */
+  static final class Probe {
+    private long mutexWaitNanos;
+    private LockTreeNode conflict;
+  }
+
+  /**
+   * A logged lock request.
+   */
+  public static final class Entry {
+    /** The wall clock time the request completed in milliseconds since the epoch. */
+    public final long timestamp;
+    /** The requesting session. */
+    public final String session;
+    /** The requested lock path. */
+    public final List<String> path;
+    /** The requested lock type. */
+    public final LockType type;
+    /** The requested lock scope. */
+    public final LockScope scope;
+    /** Whether the lock was granted. */
+    public final boolean granted;
+    /** The latency of the request in nanoseconds. */
+    public final long nanos;
+    /** The number of tree nodes traversed, including the root. */
+    public final int nodes;
+    /** The time spent waiting for node mutexes in nanoseconds. */
+    public final long mutexWaitNanos;
+    /** A session holding a conflicting lock, or {@code null}. */
+    public final String holder;
+
+    Entry(String session, List<String> path, LockType type, LockScope scope, boolean granted, 
+        long nanos, int nodes, long mutexWaitNanos, String holder) {
+      this.timestamp = System.currentTimeMillis();
+      this.session = session;
+      this.path = Collections.unmodifiableList(new ArrayList<>(path));
+      this.type = type;
+      this.scope = scope;
+      this.granted = granted;
+      this.nanos = nanos;
+      this.nodes = nodes;
+      this.mutexWaitNanos = mutexWaitNanos;
+      this.holder = holder;
+    }
+
+    @Override
+    public String toString() {
+      return session + " " + type + "(" + scope + ", " + path + ") " 
+          + ( granted ? "granted" : "rejected" ) + " in " + nanos + " ns, " + nodes + " nodes, " 
+          + mutexWaitNanos + " ns mutex wait" + ( holder != null ? ", held by " + holder : "" );
+    }
+  }
+}
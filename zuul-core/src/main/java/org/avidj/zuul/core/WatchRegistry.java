@@ -0,0 +1,116 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A registry of one-shot watches on lock paths. A watch is a future that is completed with the
+ * path of the changed lock upon the next change of the watched path (shallow) or of the subtree
+ * rooted at the watched path (deep). Watches do not own any threads, they are completed by the
+ * thread that fired the change. All watches of a path are kept in one entry of a concurrent map and
+ * are only modified under the map's per-key atomicity, so no additional locking is needed.
+ */
+final class WatchRegistry {
+  private final ConcurrentMap<List<String>, Watches> watches = new ConcurrentHashMap<>();
+
+  /**
+   * Register a new watch on the given path.
+   *
+   * @param path the path to watch
+   * @param scope {@code SHALLOW} to watch only the given path, {@code DEEP} to watch its subtree
+   * @return a future that is completed with the path of the next changed lock
+   */
+  CompletableFuture<List<String>> watch(List<String> path, LockScope scope) {
+    final List<String> key = Collections.unmodifiableList(new ArrayList<>(path));
+    final CompletableFuture<List<String>> watch = new CompletableFuture<>();
+    watches.compute(key, (k, w) -> ( w == null ? new Watches() : w ).add(scope, watch));
+    watch.whenComplete((p, t) -> {
+      if ( watch.isCancelled() ) {
+        watches.computeIfPresent(key, (k, w) -> w.remove(watch));
+      }
+    });
+    return watch;
+  }
+
+  /**
+   * Notify all watches affected by a change of the lock at the given path. That is, all watches of
+   * the path itself and all deep watches of its ancestors. This method must not be called while
+   * holding the mutex of a lock tree node, because dependent actions of the watches run in the
+   * calling thread.
+   *
+   * @param path the path of the changed lock
+   */
+  void fire(List<String> path) {
+    if ( watches.isEmpty() ) {
+      return;
+    }
+    final List<CompletableFuture<List<String>>> fired = new ArrayList<>();
+    for ( int i = 0, n = path.size(); i < n; i++ ) {
+      watches.computeIfPresent(path.subList(0, i), (k, w) -> w.drainDeep(fired));
+    }
+    final Watches exact = watches.remove(path);
+    if ( exact != null ) {
+      fired.addAll(exact.shallow);
+      fired.addAll(exact.deep);
+    }
+    for ( CompletableFuture<List<String>> watch : fired ) {
+      watch.complete(path);
+    }
+  }
+
+  /*
+   * The watches of one path. Instances are only accessed within the atomic compute methods of the
+   * concurrent map, or after they have been removed from it.
+   */
+  private static final class Watches {
+    private final Set<CompletableFuture<List<String>>> shallow = new LinkedHashSet<>();
+    private final Set<CompletableFuture<List<String>>> deep = new LinkedHashSet<>();
+
+    Watches add(LockScope scope, CompletableFuture<List<String>> watch) {
+      ( scope == LockScope.DEEP ? deep : shallow ).add(watch);
+      return this;
+    }
+
+    Watches remove(CompletableFuture<List<String>> watch) {
+      shallow.remove(watch);
+      deep.remove(watch);
+      return isEmpty() ? null : this;
+    }
+
+    Watches drainDeep(List<CompletableFuture<List<String>>> fired) {
+      fired.addAll(deep);
+      deep.clear();
+      return isEmpty() ? null : this;
+    }
+
+    boolean isEmpty() {
+      return shallow.isEmpty() && deep.isEmpty();
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package org.avidj.zuul.core.jfr;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Emits Java Flight Recorder events of the lock manager and the REST service, so that slow lock
+ * operations can be correlated with GC pauses and safepoints in one recording. The events are:
+ * <ul>
+ * <li>{@code org.avidj.zuul.LockAcquisition}: a lock request, granted or not, default threshold 
+ *     1 ms</li>
+ * <li>{@code org.avidj.zuul.LockConflict}: a rejected lock request, no threshold</li>
+ * <li>{@code org.avidj.zuul.MutexWait}: a wait for the mutex of a lock tree node, default 
+ *     threshold 1 ms</li>
+ * <li>{@code org.avidj.zuul.SessionSweep}: a sweep of expired sessions and locks, default 
+ *     threshold 1 ms</li>
+ * <li>{@code org.avidj.zuul.RestRequest}: a REST request, default threshold 10 ms</li>
+ * </ul>
+ * Thresholds can be changed in the settings of a recording. JFR is part of JDK 11 and later and of
+ * OpenJDK 8u272 and later. On other JVMs, and as long as no recording is running, the methods of
+ * this class return immediately without creating any events.
+ */
+public final class Jfr {
+  private static final Logger LOG = LoggerFactory.getLogger(Jfr.class);
+  private static volatile boolean recording;
+  private static final boolean AVAILABLE = register();
+
+  private Jfr() {
+  }
+
+  /**
+   * Returns whether Java Flight Recorder is available in this JVM.
+   * @return {@code true}, iff events can be recorded
+   */
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  /**
+   * Returns whether a flight recording is running.
+   * @return {@code true}, iff events are created
+   */
+  public static boolean isRecording() {
+    return recording;
+  }
+
+  static void setRecording(boolean recording) {
+    Jfr.recording = recording;
+  }
+
+  /**
+   * Start timing a lock request.
+   * @return an event to commit, or {@code null} if not recording
+   */
+  public static Object beginLock() {
+    return recording ? JfrEvents.beginLock() : null;
+  }
+
+  /**
+   * Commit a timed lock request, if it exceeds the threshold.
+   * @param event the event returned by {@link #beginLock()}, or {@code null}
+   * @param session the requesting session
+   * @param path the lock path
+   * @param type the lock type
+   * @param scope the lock scope
+   * @param granted whether the lock has been granted
+   */
+  public static void commitLock(Object event, String session, List<String> path, LockType type, 
+      LockScope scope, boolean granted) {
+    if ( event != null ) {
+      JfrEvents.commitLock(event, session, path, type, scope, granted);
+    }
+  }
+
+  /**
+   * Record a rejected lock request.
+   * @param session the requesting session
+   * @param path the lock path
+   * @param type the lock type
+   * @param scope the lock scope
+   */
+  public static void conflict(String session, List<String> path, LockType type, LockScope scope) {
+    if ( recording ) {
+      JfrEvents.conflict(session, path, type, scope);
+    }
+  }
+
+  /**
+   * Start timing a wait for a node mutex.
+   * @return an event to commit, or {@code null} if not recording
+   */
+  public static Object beginMutexWait() {
+    return recording ? JfrEvents.beginMutexWait() : null;
+  }
+
+  /**
+   * Commit a timed mutex wait, if it exceeds the threshold.
+   * @param event the event returned by {@link #beginMutexWait()}, or {@code null}
+   * @param path supplies the path of the node, only called if the event is committed
+   */
+  public static void commitMutexWait(Object event, Supplier<List<String>> path) {
+    if ( event != null ) {
+      JfrEvents.commitMutexWait(event, path);
+    }
+  }
+
+  /**
+   * Start timing a sweep of expired sessions and locks.
+   * @return an event to commit, or {@code null} if not recording
+   */
+  public static Object beginSweep() {
+    return recording ? JfrEvents.beginSweep() : null;
+  }
+
+  /**
+   * Commit a timed sweep, if it exceeds the threshold.
+   * @param event the event returned by {@link #beginSweep()}, or {@code null}
+   * @param expiredSessions the number of sessions released by the sweep
+   * @param expiredLocks the number of locks released by the sweep
+   */
+  public static void commitSweep(Object event, int expiredSessions, int expiredLocks) {
+    if ( event != null ) {
+      JfrEvents.commitSweep(event, expiredSessions, expiredLocks);
+    }
+  }
+
+  /**
+   * Start timing a REST request.
+   * @return an event to commit, or {@code null} if not recording
+   */
+  public static Object beginRequest() {
+    return recording ? JfrEvents.beginRequest() : null;
+  }
+
+  /**
+   * Commit a timed REST request, if it exceeds the threshold.
+   * @param event the event returned by {@link #beginRequest()}, or {@code null}
+   * @param method the HTTP method
+   * @param uri the request URI
+   * @param status the HTTP status of the response
+   */
+  public static void commitRequest(Object event, String method, String uri, int status) {
+    if ( event != null ) {
+      JfrEvents.commitRequest(event, method, uri, status);
+    }
+  }
+
+  // track running recordings, if the flight recorder api is present
+  private static boolean register() {
+    try {
+      Class.forName("jdk.jfr.FlightRecorder");
+    } catch ( ClassNotFoundException e ) {
+      LOG.debug("flight recorder not available");
+      return false;
+    }
+    try {
+      JfrEvents.register();
+      return true;
+    } catch ( RuntimeException | LinkageError e ) {
+      LOG.warn("cannot track flight recordings, no events will be emitted", e);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package org.avidj.zuul.core.jfr;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.avidj.util.Strings;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/*
+ * The flight recorder events. This class is only loaded if the flight recorder api is present, it
+ * must not be referenced outside of Jfr.
+ */
+final class JfrEvents {
+
+  private JfrEvents() {
+  }
+
+  static void register() {
+    FlightRecorder.addListener(new FlightRecorderListener() {
+      @Override
+      public void recorderInitialized(FlightRecorder recorder) {
+        update();
+      }
+
+      @Override
+      public void recordingStateChanged(Recording recording) {
+        update();
+      }
+    });
+    update();
+  }
+
+  private static void update() {
+    boolean running = false;
+    if ( FlightRecorder.isInitialized() ) {
+      for ( Recording recording : FlightRecorder.getFlightRecorder().getRecordings() ) {
+        running |= ( recording.getState() == RecordingState.RUNNING );
+      }
+    }
+    Jfr.setRecording(running);
+  }
+
+  static Object beginLock() {
+    final LockAcquisition event = new LockAcquisition();
+    event.begin();
+    return event;
+  }
+
+  static void commitLock(Object begun, String session, List<String> path, LockType type, 
+      LockScope scope, boolean granted) {
+    final LockAcquisition event = (LockAcquisition)begun;
+    event.end();
+    if ( event.shouldCommit() ) {
+      event.session = session;
+      event.path = join(path);
+      event.type = type.name();
+      event.scope = scope.name();
+      event.granted = granted;
+      event.commit();
+    }
+  }
+
+  static void conflict(String session, List<String> path, LockType type, LockScope scope) {
+    final LockConflict event = new LockConflict();
+    if ( event.shouldCommit() ) {
+      event.session = session;
+      event.path = join(path);
+      event.type = type.name();
+      event.scope = scope.name();
+      event.commit();
+    }
+  }
+
+  static Object beginMutexWait() {
+    final MutexWait event = new MutexWait();
+    event.begin();
+    return event;
+  }
+
+  static void commitMutexWait(Object begun, Supplier<List<String>> path) {
+    final MutexWait event = (MutexWait)begun;
+    event.end();
+    if ( event.shouldCommit() ) {
+      event.path = join(path.get());
+      event.commit();
+    }
+  }
+
+  static Object beginSweep() {
+    final SessionSweep event = new SessionSweep();
+    event.begin();
+    return event;
+  }
+
+  static void commitSweep(Object begun, int expiredSessions, int expiredLocks) {
+    final SessionSweep event = (SessionSweep)begun;
+    event.end();
+    if ( event.shouldCommit() ) {
+      event.expiredSessions = expiredSessions;
+      event.expiredLocks = expiredLocks;
+      event.commit();
+    }
+  }
+
+  static Object beginRequest() {
+    final RestRequest event = new RestRequest();
+    event.begin();
+    return event;
+  }
+
+  static void commitRequest(Object begun, String method, String uri, int status) {
+    final RestRequest event = (RestRequest)begun;
+    event.end();
+    if ( event.shouldCommit() ) {
+      event.method = method;
+      event.uri = uri;
+      event.status = status;
+      event.commit();
+    }
+  }
+
+  private static String join(List<String> path) {
+    return "/" + Strings.join("/", path);
+  }
+
+  @Name("org.avidj.zuul.LockAcquisition")
+  @Label("Lock Acquisition")
+  @Description("A lock request, granted or not")
+  @Category("Zuul")
+  @Threshold("1 ms")
+  @StackTrace(false)
+  static final class LockAcquisition extends Event {
+    @Label("Session")
+    String session;
+    @Label("Path")
+    String path;
+    @Label("Type")
+    String type;
+    @Label("Scope")
+    String scope;
+    @Label("Granted")
+    boolean granted;
+  }
+
+  @Name("org.avidj.zuul.LockConflict")
+  @Label("Lock Conflict")
+  @Description("A lock request rejected because of conflicting locks")
+  @Category("Zuul")
+  @StackTrace(false)
+  static final class LockConflict extends Event {
+    @Label("Session")
+    String session;
+    @Label("Path")
+    String path;
+    @Label("Type")
+    String type;
+    @Label("Scope")
+    String scope;
+  }
+
+  @Name("org.avidj.zuul.MutexWait")
+  @Label("Lock Tree Mutex Wait")
+  @Description("A wait for the mutex of a lock tree node")
+  @Category("Zuul")
+  @Threshold("1 ms")
+  static final class MutexWait extends Event {
+    @Label("Path")
+    String path;
+  }
+
+  @Name("org.avidj.zuul.SessionSweep")
+  @Label("Session Sweep")
+  @Description("A sweep releasing expired sessions and locks")
+  @Category("Zuul")
+  @Threshold("1 ms")
+  @StackTrace(false)
+  static final class SessionSweep extends Event {
+    @Label("Expired Sessions")
+    int expiredSessions;
+    @Label("Expired Locks")
+    int expiredLocks;
+  }
+
+  @Name("org.avidj.zuul.RestRequest")
+  @Label("REST Request")
+  @Description("A request to the REST service")
+  @Category("Zuul")
+  @Threshold("10 ms")
+  @StackTrace(false)
+  static final class RestRequest extends Event {
+    @Label("Method")
+    String method;
+    @Label("URI")
+    String uri;
+    @Label("Status")
+    int status;
+  }
+}
@@ -0,0 +1,370 @@
+package org.avidj.zuul.core.trace;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.zuul.core.Lock;
+import org.avidj.zuul.core.LockHandle;
+import org.avidj.zuul.core.LockHolder;
+import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.LockRequest;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockTreeVisitor;
+import org.avidj.zuul.core.LockType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A decorator around a {@link LockManager} that records all state changing calls in a binary trace
+ * (see {@link TraceWriter}). Calls are only timed and enqueued by the calling threads; encoding and
+ * I/O happen in a background thread. When the queue is full, events are dropped rather than slowing
+ * down the lock manager, the number of dropped events is available via {@link #dropped()}.
+ */
+public class RecordingLockManager implements LockManager, Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(RecordingLockManager.class);
+  private static final int DEFAULT_CAPACITY = 1 << 16;
+  private final LockManager delegate;
+  private final TraceWriter writer;
+  private final BlockingQueue<TraceEvent> queue;
+  private final LongAdder recorded = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final long origin = System.nanoTime();
+  private final Thread thread;
+  private volatile boolean closed = false;
+
+  /**
+   * Create a new recording lock manager with a default queue capacity.
+   * @param delegate the lock manager to record
+   * @param out the stream to write the trace to, closed when this lock manager is closed
+   * @throws IOException if the trace header cannot be written
+   */
+  public RecordingLockManager(LockManager delegate, OutputStream out) throws IOException {
+    this(delegate, out, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Create a new recording lock manager.
+   * @param delegate the lock manager to record
+   * @param out the stream to write the trace to, closed when this lock manager is closed
+   * @param capacity the maximum number of events waiting to be written
+   * @throws IOException if the trace header cannot be written
+   */
+  public RecordingLockManager(LockManager delegate, OutputStream out, int capacity) 
+      throws IOException {
+    Preconditions.checkNotNull(delegate);
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+    this.delegate = delegate;
+    this.writer = new TraceWriter(out, System.currentTimeMillis());
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.thread = new Thread(this::drain, "zuul-trace-writer");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Returns the recorded lock manager.
+   * @return the lock manager all calls are delegated to
+   */
+  public LockManager delegate() {
+    return delegate;
+  }
+
+  /**
+   * Returns the number of events recorded so far.
+   * @return the number of recorded events
+   */
+  public long recorded() {
+    return recorded.sum();
+  }
+
+  /**
+   * Returns the number of events dropped so far because the writer could not keep up.
+   * @return the number of dropped events
+   */
+  public long dropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Stop recording, write all pending events and close the trace. Calls are still delegated after
+   * the recording has been closed.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    try {
+      thread.join();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+    writer.close();
+  }
+
+  @Override
+  public void setSessionTimeout(long timeoutMillis) {
+    delegate.setSessionTimeout(timeoutMillis);
+  }
+
+  @Override
+  public void setSessionTimeout(String session, long timeoutMillis) {
+    final long start = System.nanoTime();
+    delegate.setSessionTimeout(session, timeoutMillis);
+    record(TraceOp.SESSION_TIMEOUT, session, Collections.emptyList(), null, null, timeoutMillis, 
+        start, 1);
+  }
+
+  @Override
+  public Set<Lock> getLocks(String session) {
+    return delegate.getLocks(session);
+  }
+
+  @Override
+  public boolean walkLocks(
+      String session, List<String> path, LockScope scope, LockTreeVisitor visitor) {
+    return delegate.walkLocks(session, path, scope, visitor);
+  }
+
+  @Override
+  public List<String> listChildren(List<String> path, String startAfter, int limit) {
+    return delegate.listChildren(path, startAfter, limit);
+  }
+
+  @Override
+  public boolean readLock(String session, List<String> path, LockScope scope) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.readLock(session, path, scope);
+    record(TraceOp.LOCK, session, path, LockType.READ, scope, 0, start, success);
+    return success;
+  }
+
+  @Override
+  public boolean writeLock(String session, List<String> path, LockScope scope) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.writeLock(session, path, scope);
+    record(TraceOp.LOCK, session, path, LockType.WRITE, scope, 0, start, success);
+    return success;
+  }
+
+  @Override
+  public boolean lock(String session, List<String> path, LockType type, LockScope scope) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.lock(session, path, type, scope);
+    record(TraceOp.LOCK, session, path, type, scope, 0, start, success);
+    return success;
+  }
+
+  @Override
+  public boolean lock(
+      String session, List<String> path, LockType type, LockScope scope, long ttlMillis) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.lock(session, path, type, scope, ttlMillis);
+    record(TraceOp.LOCK, session, path, type, scope, ttlMillis, start, success);
+    return success;
+  }
+
+  @Override
+  public LockHandle acquire(
+      String session, List<String> path, LockType type, LockScope scope, long ttlMillis) {
+    final long start = System.nanoTime();
+    final LockHandle handle = delegate.acquire(session, path, type, scope, ttlMillis);
+    record(TraceOp.LOCK, session, path, type, scope, ttlMillis, start, handle != null);
+    return handle;
+  }
+
+  @Override
+  public LockHandle getHandle(String session, long id) {
+    return delegate.getHandle(session, id);
+  }
+
+  @Override
+  public boolean lock(LockHandle handle, LockType type, LockScope scope) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.lock(handle, type, scope);
+    record(TraceOp.LOCK, handle.session, handle.path, type, scope, 0, start, success);
+    return success;
+  }
+
+  @Override
+  public boolean multiLock(
+      String session, List<List<String>> paths, LockType type, LockScope scope) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.multiLock(session, paths, type, scope);
+    record(TraceOp.MULTI_LOCK, session, paths, type, scope, 0, start, success ? 1 : 0);
+    return success;
+  }
+
+  @Override
+  public boolean multiLock(String session, List<LockRequest> requests) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.multiLock(session, requests);
+    record(TraceOp.MIXED_MULTI_LOCK, session, TraceEvent.encode(requests), null, null, 0, start, 
+        success ? 1 : 0);
+    return success;
+  }
+
+  @Override
+  public boolean release(String session, List<String> path) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.release(session, path);
+    record(TraceOp.RELEASE, session, path, null, null, 0, start, success);
+    return success;
+  }
+
+  @Override
+  public boolean release(LockHandle handle) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.release(handle);
+    record(TraceOp.RELEASE, handle.session, handle.path, null, null, 0, start, success);
+    return success;
+  }
+
+  @Override
+  public int release(String session, Collection<List<String>> paths) {
+    final long start = System.nanoTime();
+    final int released = delegate.release(session, paths);
+    record(TraceOp.RELEASE_PATHS, session, new ArrayList<>(paths), null, null, 0, start, released);
+    return released;
+  }
+
+  @Override
+  public void release(String session) {
+    final long start = System.nanoTime();
+    delegate.release(session);
+    record(TraceOp.END_SESSION, session, Collections.emptyList(), null, null, 0, start, 1);
+  }
+
+  @Override
+  public void heartbeat(String session) {
+    final long start = System.nanoTime();
+    delegate.heartbeat(session);
+    record(TraceOp.HEARTBEAT, session, Collections.emptyList(), null, null, 0, start, 1);
+  }
+
+  @Override
+  public boolean upScope(String session, List<String> path, LockType type) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.upScope(session, path, type);
+    record(TraceOp.UP_SCOPE, session, path, type, LockScope.DEEP, 0, start, success);
+    return success;
+  }
+
+  @Override
+  public boolean downScope(String session, List<String> path, LockType type, LockScope scope) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.downScope(session, path, type, scope);
+    record(TraceOp.DOWN_SCOPE, session, path, type, scope, 0, start, success);
+    return success;
+  }
+
+  @Override
+  public boolean upgrade(String session, List<String> path) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.upgrade(session, path);
+    record(TraceOp.UPGRADE, session, path, null, null, 0, start, success);
+    return success;
+  }
+
+  @Override
+  public boolean downgrade(String session, List<String> path) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.downgrade(session, path);
+    record(TraceOp.DOWNGRADE, session, path, null, null, 0, start, success);
+    return success;
+  }
+
+  @Override
+  public boolean lease(String session, List<String> prefix) {
+    final long start = System.nanoTime();
+    final boolean success = delegate.lease(session, prefix);
+    record(TraceOp.LEASE, session, prefix, null, null, 0, start, success);
+    return success;
+  }
+
+  @Override
+  public Set<List<String>> getRecalledLeases(String session) {
+    return delegate.getRecalledLeases(session);
+  }
+
+  @Override
+  public CompletableFuture<List<String>> watch(List<String> path, LockScope scope) {
+    return delegate.watch(path, scope);
+  }
+
+  @Override
+  public List<LockHolder> getLongestHolders(int limit) {
+    return delegate.getLongestHolders(limit);
+  }
+
+  private void record(TraceOp op, String session, List<String> path, LockType type, 
+      LockScope scope, long argument, long start, boolean success) {
+    record(op, session, Collections.singletonList(path), type, scope, argument, start, 
+        success ? 1 : 0);
+  }
+
+  private void record(TraceOp op, String session, List<List<String>> paths, LockType type, 
+      LockScope scope, long argument, long start, int result) {
+    if ( closed ) {
+      return;
+    }
+    final long end = System.nanoTime();
+    final TraceEvent event = new TraceEvent(
+        op, session, paths, type, scope, argument, start - origin, end - start, result);
+    if ( queue.offer(event) ) {
+      recorded.increment();
+    } else {
+      dropped.increment();
+    }
+  }
+
+  private void drain() {
+    try {
+      while ( !closed || !queue.isEmpty() ) {
+        final TraceEvent event = queue.poll(100, TimeUnit.MILLISECONDS);
+        if ( event != null ) {
+          writer.write(event);
+        }
+      }
+      writer.flush();
+    } catch ( IOException e ) {
+      LOG.error("cannot write lock trace, recording stopped", e);
+      closed = true;
+    } catch ( InterruptedException e ) {
+      LOG.warn("lock trace writer interrupted, recording stopped");
+      closed = true;
+    }
+  }
+}
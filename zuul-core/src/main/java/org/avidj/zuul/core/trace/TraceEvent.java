@@ -0,0 +1,140 @@
+package org.avidj.zuul.core.trace;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.zuul.core.LockRequest;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable record of one lock manager call in a trace.
+ */
+public final class TraceEvent {
+  /** The operation. */
+  public final TraceOp op;
+  /** The session issuing the operation. */
+  public final String session;
+  /** The paths the operation applies to, empty for session operations. */
+  public final List<List<String>> paths;
+  /** The lock type, or {@code null} if not applicable. */
+  public final LockType type;
+  /** The lock scope, or {@code null} if not applicable. */
+  public final LockScope scope;
+  /** The time to live of a lock or the timeout of a session in milliseconds, or 0. */
+  public final long argument;
+  /** The start of the call in nanoseconds since the start of the trace. */
+  public final long startNanos;
+  /** The duration of the call in nanoseconds. */
+  public final long durationNanos;
+  /** The outcome of the call, i.e., 1 for success, 0 for failure, or the number of releases. */
+  public final int result;
+
+  /**
+   * Create a new trace event.
+   * @param op the operation
+   * @param session the session issuing the operation
+   * @param paths the paths the operation applies to
+   * @param type the lock type, or {@code null}
+   * @param scope the lock scope, or {@code null}
+   * @param argument the time to live or timeout in milliseconds, or 0
+   * @param startNanos the start of the call relative to the start of the trace
+   * @param durationNanos the duration of the call
+   * @param result the outcome of the call
+   */
+  public TraceEvent(TraceOp op, String session, List<List<String>> paths, LockType type, 
+      LockScope scope, long argument, long startNanos, long durationNanos, int result) {
+    Preconditions.checkNotNull(op);
+    Preconditions.checkNotNull(session);
+    Preconditions.checkNotNull(paths);
+    this.op = op;
+    this.session = session;
+    this.paths = copy(paths);
+    this.type = type;
+    this.scope = scope;
+    this.argument = argument;
+    this.startNanos = startNanos;
+    this.durationNanos = durationNanos;
+    this.result = result;
+  }
+
+  /**
+   * Returns the single path of operations on one lock.
+   * @return the first path of this event
+   * @throws IllegalStateException if this event has no paths
+   */
+  public List<String> path() throws IllegalStateException {
+    Preconditions.checkState(!paths.isEmpty(), "%s has no path", op);
+    return paths.get(0);
+  }
+
+  /**
+   * Returns the lock requests of a {@link TraceOp#MIXED_MULTI_LOCK}. The first component of each 
+   * path of such an event is the code of the lock type, {@code r} or {@code w}, followed by the 
+   * code of the lock scope, {@code s} or {@code d}.
+   * @return the lock requests of this event
+   * @throws IllegalStateException if this event is no mixed multi-lock
+   */
+  public List<LockRequest> requests() throws IllegalStateException {
+    Preconditions.checkState(op == TraceOp.MIXED_MULTI_LOCK, "%s has no lock requests", op);
+    final List<LockRequest> requests = new ArrayList<>(paths.size());
+    for ( List<String> path : paths ) {
+      final String code = path.get(0);
+      requests.add(LockRequest.of(path.subList(1, path.size()), 
+          code.charAt(0) == 'w' ? LockType.WRITE : LockType.READ, 
+          code.charAt(1) == 'd' ? LockScope.DEEP : LockScope.SHALLOW));
+    }
+    return requests;
+  }
+
+  // the paths of a mixed multi-lock, each prefixed with the code of its type and scope
+  static List<List<String>> encode(List<LockRequest> requests) {
+    final List<List<String>> paths = new ArrayList<>(requests.size());
+    for ( LockRequest request : requests ) {
+      final List<String> path = new ArrayList<>(request.path.size() + 1);
+      path.add(( request.type == LockType.WRITE ? "w" : "r" ) 
+          + ( request.scope == LockScope.DEEP ? "d" : "s" ));
+      path.addAll(request.path);
+      paths.add(path);
+    }
+    return paths;
+  }
+
+  private static List<List<String>> copy(List<List<String>> paths) {
+    final List<List<String>> copy = new ArrayList<>(paths.size());
+    for ( List<String> path : paths ) {
+      copy.add(Collections.unmodifiableList(new ArrayList<>(path)));
+    }
+    return Collections.unmodifiableList(copy);
+  }
+
+  @Override
+  public String toString() {
+    return op + "(" + session + ", " + paths + ", " + type + ", " + scope + ", " + argument 
+        + ") @" + startNanos + "+" + durationNanos + " -> " + result;
+  }
+}
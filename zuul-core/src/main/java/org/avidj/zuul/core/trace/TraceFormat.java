@@ -0,0 +1,83 @@
+package org.avidj.zuul.core.trace;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+
+/**
+ * Constants of the binary trace format. A trace starts with a header of the magic number, the format
+ * version and the wall clock time of the start of the trace in milliseconds since the epoch. It is
+ * followed by a sequence of events, each starting with a flags byte that encodes the operation in
+ * its low bits, followed by variable length integers for the start time (delta to the previous
+ * event, zig-zag encoded), the duration, the session, the result, then the paths and the argument,
+ * if the operation has any. Strings, i.e., sessions and path components, are stored in a dictionary
+ * built on the fly: Each string is referenced by a number; the first reference to a string is 
+ * immediately followed by the string itself.
+ */
+final class TraceFormat {
+  static final int MAGIC = 0x5a545243; // "ZTRC"
+  static final int VERSION = 1;
+  static final int OP_MASK = 0x0f;
+  static final int WRITE = 0x10;
+  static final int DEEP = 0x20;
+  static final int HAS_TYPE = 0x40;
+  static final int HAS_SCOPE = 0x80;
+
+  private TraceFormat() {
+  }
+
+  static int flags(TraceEvent event) {
+    int flags = event.op.ordinal();
+    if ( event.type != null ) {
+      flags |= HAS_TYPE | ( event.type == LockType.WRITE ? WRITE : 0 );
+    }
+    if ( event.scope != null ) {
+      flags |= HAS_SCOPE | ( event.scope == LockScope.DEEP ? DEEP : 0 );
+    }
+    return flags;
+  }
+
+  static boolean hasSinglePath(TraceOp op) {
+    switch ( op ) {
+      case LOCK:
+      case RELEASE:
+      case UP_SCOPE:
+      case DOWN_SCOPE:
+      case UPGRADE:
+      case DOWNGRADE:
+      case LEASE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  static boolean hasPaths(TraceOp op) {
+    return op == TraceOp.MULTI_LOCK || op == TraceOp.MIXED_MULTI_LOCK 
+        || op == TraceOp.RELEASE_PATHS;
+  }
+
+  static boolean hasArgument(TraceOp op) {
+    return op == TraceOp.LOCK || op == TraceOp.SESSION_TIMEOUT;
+  }
+}
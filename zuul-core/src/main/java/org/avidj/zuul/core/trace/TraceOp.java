@@ -0,0 +1,58 @@
+package org.avidj.zuul.core.trace;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+/**
+ * The lock manager operations captured in a trace. Read-only operations and watches are not 
+ * recorded, as they do not change the state of the lock manager.
+ */
+public enum TraceOp {
+  /** A lock of a single path, including read and write locks and locks with a time to live. */
+  LOCK,
+  /** An atomic lock of multiple paths. */
+  MULTI_LOCK,
+  /** The release of a single lock. */
+  RELEASE,
+  /** The release of multiple locks. */
+  RELEASE_PATHS,
+  /** The release of a session and all its locks. */
+  END_SESSION,
+  /** A heartbeat keeping a session alive. */
+  HEARTBEAT,
+  /** A change of a lock's scope to deep. */
+  UP_SCOPE,
+  /** A change of a lock's scope to shallow. */
+  DOWN_SCOPE,
+  /** The delegation of a lease. */
+  LEASE,
+  /** A change of a session's timeout. */
+  SESSION_TIMEOUT,
+  /** 
+   * An atomic lock of multiple paths with individual lock types and scopes. The first component of
+   * each path is the code of its type and scope, see {@link TraceEvent#requests()}.
+   */
+  MIXED_MULTI_LOCK,
+  /** An in-place upgrade of a read lock to a write lock. */
+  UPGRADE,
+  /** An in-place downgrade of a write lock to a read lock. */
+  DOWNGRADE
+}
@@ -0,0 +1,160 @@
+package org.avidj.zuul.core.trace;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import static org.avidj.zuul.core.trace.TraceFormat.hasArgument;
+import static org.avidj.zuul.core.trace.TraceFormat.hasPaths;
+import static org.avidj.zuul.core.trace.TraceFormat.hasSinglePath;
+
+import com.google.common.base.Preconditions;
+
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockType;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads trace events written by a {@link TraceWriter}. This class is not thread-safe.
+ */
+public final class TraceReader implements Closeable {
+  private static final TraceOp[] OPS = TraceOp.values();
+  private final DataInputStream in;
+  private final List<String> symbols = new ArrayList<>();
+  private final long originMillis;
+  private long lastStart;
+
+  /**
+   * Create a new trace reader and read the trace header.
+   * @param in the stream to read from, closed when this reader is closed
+   * @throws IOException if the stream does not start with a valid trace header
+   */
+  public TraceReader(InputStream in) throws IOException {
+    Preconditions.checkNotNull(in);
+    this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    if ( this.in.readInt() != TraceFormat.MAGIC ) {
+      throw new IOException("not a lock trace");
+    }
+    final int version = this.in.readUnsignedByte();
+    if ( version != TraceFormat.VERSION ) {
+      throw new IOException("unsupported trace version: " + version);
+    }
+    this.originMillis = this.in.readLong();
+  }
+
+  /**
+   * Returns the wall clock time of the start of the trace.
+   * @return the start of the trace in milliseconds since the epoch
+   */
+  public long originMillis() {
+    return originMillis;
+  }
+
+  /**
+   * Read the next event.
+   * @return the next event, or {@code null} at the end of the trace
+   * @throws IOException if the trace cannot be read or is corrupt
+   */
+  public TraceEvent read() throws IOException {
+    final int flags = in.read();
+    if ( flags < 0 ) {
+      return null;
+    }
+    if ( ( flags & TraceFormat.OP_MASK ) >= OPS.length ) {
+      throw new IOException("corrupt trace: unknown operation " + ( flags & TraceFormat.OP_MASK ));
+    }
+    final TraceOp op = OPS[flags & TraceFormat.OP_MASK];
+    final LockType type = ( flags & TraceFormat.HAS_TYPE ) == 0 ? null 
+        : ( flags & TraceFormat.WRITE ) != 0 ? LockType.WRITE : LockType.READ;
+    final LockScope scope = ( flags & TraceFormat.HAS_SCOPE ) == 0 ? null 
+        : ( flags & TraceFormat.DEEP ) != 0 ? LockScope.DEEP : LockScope.SHALLOW;
+    final long start = lastStart + unZigZag(readVarLong());
+    lastStart = start;
+    final long duration = readVarLong();
+    final String session = readSymbol();
+    final int result = (int)readVarLong();
+    List<List<String>> paths = Collections.emptyList();
+    if ( hasSinglePath(op) ) {
+      paths = Collections.singletonList(readPath());
+    } else if ( hasPaths(op) ) {
+      final int n = (int)readVarLong();
+      paths = new ArrayList<>(n);
+      for ( int i = 0; i < n; i++ ) {
+        paths.add(readPath());
+      }
+    }
+    final long argument = hasArgument(op) ? readVarLong() : 0;
+    return new TraceEvent(op, session, paths, type, scope, argument, start, duration, result);
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private List<String> readPath() throws IOException {
+    final int n = (int)readVarLong();
+    final List<String> path = new ArrayList<>(n);
+    for ( int i = 0; i < n; i++ ) {
+      path.add(readSymbol());
+    }
+    return path;
+  }
+
+  private String readSymbol() throws IOException {
+    final long id = readVarLong();
+    if ( id < symbols.size() ) {
+      return symbols.get((int)id);
+    } else if ( id == symbols.size() ) {
+      final String symbol = in.readUTF();
+      symbols.add(symbol);
+      return symbol;
+    }
+    throw new IOException("corrupt trace: undefined symbol " + id);
+  }
+
+  private long readVarLong() throws IOException {
+    long value = 0;
+    for ( int shift = 0; shift < 64; shift += 7 ) {
+      final int b = in.read();
+      if ( b < 0 ) {
+        throw new EOFException("truncated trace");
+      }
+      value |= (long)( b & 0x7f ) << shift;
+      if ( ( b & 0x80 ) == 0 ) {
+        return value;
+      }
+    }
+    throw new IOException("corrupt trace: malformed number");
+  }
+
+  private static long unZigZag(long value) {
+    return ( value >>> 1 ) ^ -( value & 1 );
+  }
+}
@@ -0,0 +1,128 @@
+package org.avidj.zuul.core.trace;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import static org.avidj.zuul.core.trace.TraceFormat.hasArgument;
+import static org.avidj.zuul.core.trace.TraceFormat.hasPaths;
+import static org.avidj.zuul.core.trace.TraceFormat.hasSinglePath;
+
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes trace events in the compact binary format described in {@link TraceFormat}. This class is
+ * not thread-safe.
+ */
+public final class TraceWriter implements Closeable, Flushable {
+  private final DataOutputStream out;
+  private final Map<String, Integer> symbols = new HashMap<>();
+  private long lastStart;
+
+  /**
+   * Create a new trace writer and write the trace header.
+   * @param out the stream to write to, closed when this writer is closed
+   * @param originMillis the wall clock time of the start of the trace
+   * @throws IOException if the header cannot be written
+   */
+  public TraceWriter(OutputStream out, long originMillis) throws IOException {
+    Preconditions.checkNotNull(out);
+    this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+    this.out.writeInt(TraceFormat.MAGIC);
+    this.out.writeByte(TraceFormat.VERSION);
+    this.out.writeLong(originMillis);
+  }
+
+  /**
+   * Append an event to the trace.
+   * @param event the event to write
+   * @throws IOException if the event cannot be written
+   */
+  public void write(TraceEvent event) throws IOException {
+    out.writeByte(TraceFormat.flags(event));
+    writeVarLong(zigZag(event.startNanos - lastStart));
+    lastStart = event.startNanos;
+    writeVarLong(event.durationNanos);
+    writeSymbol(event.session);
+    writeVarLong(event.result);
+    if ( hasSinglePath(event.op) ) {
+      writePath(event.path());
+    } else if ( hasPaths(event.op) ) {
+      writeVarLong(event.paths.size());
+      for ( List<String> path : event.paths ) {
+        writePath(path);
+      }
+    }
+    if ( hasArgument(event.op) ) {
+      writeVarLong(event.argument);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+  private void writePath(List<String> path) throws IOException {
+    writeVarLong(path.size());
+    for ( String component : path ) {
+      writeSymbol(component);
+    }
+  }
+
+  private void writeSymbol(String symbol) throws IOException {
+    final Integer id = symbols.get(symbol);
+    if ( id != null ) {
+      writeVarLong(id);
+    } else {
+      final int newId = symbols.size();
+      symbols.put(symbol, newId);
+      writeVarLong(newId);
+      out.writeUTF(symbol);
+    }
+  }
+
+  private void writeVarLong(long value) throws IOException {
+    while ( ( value & ~0x7fL ) != 0 ) {
+      out.writeByte((int)( value & 0x7f ) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int)value);
+  }
+
+  private static long zigZag(long value) {
+    return ( value << 1 ) ^ ( value >> 63 );
+  }
+}
@@ -0,0 +1,89 @@
+package org.avidj.util;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertThat(histogram.count(), is(0L));
+    assertThat(histogram.percentile(99), is(0L));
+    assertThat(histogram.max(), is(0L));
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for ( int i = 1; i <= 10; i++ ) {
+      histogram.record(i);
+    }
+    assertThat(histogram.count(), is(10L));
+    assertThat(histogram.percentile(50), is(5L));
+    assertThat(histogram.percentile(100), is(10L));
+  }
+
+  @Test
+  public void testRelativeError() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for ( int i = 1; i <= 1_000_000; i++ ) {
+      histogram.record(i);
+    }
+    assertThat(histogram.percentile(50), greaterThanOrEqualTo(500_000L));
+    assertThat(histogram.percentile(50), lessThanOrEqualTo(500_000L + 500_000L / 32));
+    assertThat(histogram.percentile(99.9), greaterThanOrEqualTo(999_000L));
+    assertThat(histogram.percentile(100), is(1_000_000L));
+    assertThat(histogram.max(), is(1_000_000L));
+  }
+
+  @Test
+  public void testBucketsAreContiguous() {
+    long expectedLowest = 0;
+    for ( int i = 0; expectedLowest >= 0; i++ ) {
+      assertThat(LatencyHistogram.index(expectedLowest), is(i));
+      long highest = LatencyHistogram.highestValue(i);
+      assertThat(LatencyHistogram.index(highest), is(i));
+      expectedLowest = highest + 1;
+    }
+  }
+
+  @Test
+  public void testAddAndReset() {
+    LatencyHistogram h1 = new LatencyHistogram();
+    LatencyHistogram h2 = new LatencyHistogram();
+    h1.record(1);
+    h2.record(1000);
+    h2.record(-5);
+    h1.add(h2);
+    assertThat(h1.count(), is(3L));
+    assertThat(h1.max(), is(1000L));
+    assertThat(h1.percentile(1), is(0L));
+    h1.reset();
+    assertThat(h1.count(), is(0L));
+  }
+}
@@ -0,0 +1,92 @@
+package org.avidj.util;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MpscRingBufferTest {
+
+  @Test
+  public void testCapacity() {
+    assertThat(new MpscRingBuffer<>(1).capacity(), is(1));
+    assertThat(new MpscRingBuffer<>(5).capacity(), is(8));
+    assertThat(new MpscRingBuffer<>(1024).capacity(), is(1024));
+  }
+
+  @Test
+  public void testFifoAndFull() {
+    MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+    assertThat(buffer.isEmpty(), is(true));
+    assertThat(buffer.poll(), is(nullValue()));
+    for ( int i = 0; i < 4; i++ ) {
+      assertThat(buffer.offer(i), is(true));
+    }
+    assertThat(buffer.offer(4), is(false));
+    assertThat(buffer.poll(), is(0));
+    assertThat(buffer.offer(4), is(true));
+    for ( int i = 1; i <= 4; i++ ) {
+      assertThat(buffer.poll(), is(i));
+    }
+    assertThat(buffer.isEmpty(), is(true));
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    final int producers = 4;
+    final int count = 100_000;
+    final MpscRingBuffer<long[]> buffer = new MpscRingBuffer<>(64);
+    final List<Thread> threads = new ArrayList<>();
+    for ( int p = 0; p < producers; p++ ) {
+      final long producer = p;
+      threads.add(new Thread(() -> {
+        for ( long i = 0; i < count; i++ ) {
+          final long[] element = { producer, i };
+          while ( !buffer.offer(element) ) {
+            Thread.yield();
+          }
+        }
+      }));
+    }
+    for ( Thread thread : threads ) {
+      thread.start();
+    }
+    // elements of each producer must arrive completely and in order
+    final long[] next = new long[producers];
+    for ( int received = 0; received < producers * count; ) {
+      final long[] element = buffer.poll();
+      if ( element != null ) {
+        assertThat(element[1], is(next[(int)element[0]]++));
+        received++;
+      }
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+    assertThat(buffer.isEmpty(), is(true));
+  }
+}
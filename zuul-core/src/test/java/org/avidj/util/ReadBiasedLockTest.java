@@ -0,0 +1,85 @@
+package org.avidj.util;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReadBiasedLockTest {
+
+  @Test
+  public void testBiasIsRevokedByWriter() {
+    final ReadBiasedLock lock = new ReadBiasedLock();
+    assertThat(lock.isBiased(), is(false));
+    lock.unlockRead(lock.readLock());
+    assertThat(lock.isBiased(), is(true));
+    final int stamp = lock.readLock();
+    assertThat(stamp >= 0, is(true));
+    lock.unlockRead(stamp);
+
+    lock.lock();
+    assertThat(lock.isBiased(), is(false));
+    assertThat(lock.isHeldByCurrentThread(), is(true));
+    assertThat(lock.tryReadLock() != ReadBiasedLock.FAILED, is(false));
+    lock.unlock();
+    assertThat(lock.isHeldByCurrentThread(), is(false));
+  }
+
+  @Test
+  public void testWriterExcludesReaders() throws InterruptedException {
+    final ReadBiasedLock lock = new ReadBiasedLock();
+    final AtomicInteger readers = new AtomicInteger();
+    final AtomicInteger violations = new AtomicInteger();
+    final List<Thread> threads = new ArrayList<>();
+    for ( int t = 0; t < 4; t++ ) {
+      final boolean writer = ( t == 0 );
+      threads.add(new Thread(() -> {
+        for ( int i = 0; i < 20_000; i++ ) {
+          if ( writer && i % 10 == 0 ) {
+            lock.lock();
+            if ( readers.get() != 0 ) {
+              violations.incrementAndGet();
+            }
+            lock.unlock();
+          } else {
+            final int stamp = lock.readLock();
+            readers.incrementAndGet();
+            readers.decrementAndGet();
+            lock.unlockRead(stamp);
+          }
+        }
+      }));
+    }
+    for ( Thread thread : threads ) {
+      thread.start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+    assertThat(violations.get(), is(0));
+  }
+}
@@ -0,0 +1,86 @@
+package org.avidj.util;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.avidj.util.SpaceSaving.Entry;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+public class SpaceSavingTest {
+
+  @Test
+  public void testExactBelowCapacity() {
+    SpaceSaving<String> summary = new SpaceSaving<>(3);
+    summary.add("a", 1);
+    summary.add("b", 5);
+    summary.add("a", 2);
+    summary.add("c", 4);
+    List<Entry<String>> top = summary.top(2);
+    assertThat(top.size(), is(2));
+    assertThat(top.get(0).key, is("b"));
+    assertThat(top.get(0).weight, is(5L));
+    assertThat(top.get(1).key, is("c"));
+    assertThat(top.get(1).error, is(0L));
+  }
+
+  @Test
+  public void testReplaceLightest() {
+    SpaceSaving<String> summary = new SpaceSaving<>(2);
+    summary.add("a", 10);
+    summary.add("b", 3);
+    summary.add("c", 1);
+    List<Entry<String>> top = summary.top(2);
+    assertThat(top.get(0).key, is("a"));
+    assertThat(top.get(1).key, is("c"));
+    assertThat(top.get(1).weight, is(4L));
+    assertThat(top.get(1).error, is(3L));
+  }
+
+  @Test
+  public void testFindsHeavyHitters() {
+    SpaceSaving<Integer> summary = new SpaceSaving<>(10);
+    Random random = new Random(42);
+    for ( int i = 0; i < 100_000; i++ ) {
+      // keys 0 and 1 make up half of the stream, the rest is spread over 1000 keys
+      int key = ( i % 2 == 0 ) ? i % 4 / 2 : 2 + random.nextInt(1000);
+      summary.add(key, 1);
+    }
+    List<Entry<Integer>> top = summary.top(2);
+    assertThat(top.get(0).key + top.get(1).key, is(1));
+    assertThat(top.get(0).weight - top.get(0).error <= 25_000, is(true));
+    assertThat(top.get(0).weight >= 25_000, is(true));
+  }
+
+  @Test
+  public void testReset() {
+    SpaceSaving<String> summary = new SpaceSaving<>(2);
+    summary.add("a", 1);
+    summary.reset();
+    assertThat(summary.top(2).isEmpty(), is(true));
+    summary.add("b", 1);
+    assertThat(summary.top(2).get(0).key, is("b"));
+  }
+}
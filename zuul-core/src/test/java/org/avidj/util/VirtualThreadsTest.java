@@ -0,0 +1,51 @@
+package org.avidj.util;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualThreadsTest {
+
+  @Test
+  public void testNewThreadPerTaskExecutor() throws Exception {
+    if ( !VirtualThreads.isAvailable() ) {
+      try {
+        VirtualThreads.newThreadPerTaskExecutor();
+        fail("virtual threads are not available");
+      } catch ( UnsupportedOperationException e ) {
+        // expected
+      }
+      return;
+    }
+    final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor();
+    final Future<String> name = executor.submit(() -> Thread.currentThread().toString());
+    assertThat(name.get(1, TimeUnit.SECONDS).startsWith("VirtualThread"), is(true));
+    executor.shutdown();
+  }
+}
@@ -20,10 +20,402 @@ package org.avidj.zuul.core;
  * #L%
  */
 
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.avidj.zuul.core.jfr.Jfr;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 public class DefaultLockManagerTest extends LockManagerInternalTest {
 
   @Override
   protected EmbeddedLockManager lockManager() {
     return new DefaultEmbeddedLockManager();
   }
+
+  @Test
+  public void testStats() {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    final LockManagerStats stats = lm.getStats();
+    assertTrue(lm.readLock("1", key("a", "b"), LockScope.SHALLOW));
+    assertTrue(lm.writeLock("2", key("a", "c"), LockScope.SHALLOW));
+    assertFalse(lm.writeLock("1", key("a", "c"), LockScope.SHALLOW));
+    assertThat(stats.getReadLocks(), is(1L));
+    assertThat(stats.getWriteLocks(), is(1L));
+    assertThat(stats.getConflicts(), is(1L));
+    assertThat(stats.getNodes(), is(3L));
+    assertThat(stats.getSessions(), is(2L));
+    assertThat(stats.getWriteLockLatency().get("count"), is(2L));
+
+    assertTrue(lm.release("1", key("a", "b")));
+    assertTrue(lm.release("2", key("a", "c")));
+    assertThat(stats.getReleases(), is(2L));
+    assertThat(stats.getNodes(), is(0L));
+
+    stats.reset();
+    assertThat(stats.getReadLocks(), is(0L));
+    assertThat(stats.getReadLockLatency().get("count"), is(0L));
+  }
+
+  @Test
+  public void testStatsMBean() throws Exception {
+    final LockManagerStats stats = new DefaultEmbeddedLockManager().getStats();
+    final ObjectName name = stats.registerMBean("test");
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      assertThat(server.getAttribute(name, "Nodes"), is((Object)0L));
+      stats.registerMBean("test");
+    } finally {
+      stats.unregisterMBean();
+    }
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+
+  @Test
+  public void testLongestHolders() {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    assertTrue(lm.readLock("1", key("a", "b"), LockScope.SHALLOW));
+    assertTrue(lm.writeLock("2", key("c"), LockScope.SHALLOW));
+    assertTrue(lm.writeLock("1", key("a", "b"), LockScope.SHALLOW));
+    List<LockHolder> holders = lm.getLongestHolders(10);
+    assertThat(holders.size(), is(2));
+    assertThat(holders.get(0).session, is("1"));
+    assertThat(holders.get(0).type, is(LockType.WRITE));
+    assertThat(holders.get(1).path, is(key("c")));
+    assertTrue(lm.release("1", key("a", "b")));
+    assertThat(lm.getLongestHolders(10).size(), is(2));
+    assertTrue(lm.release("1", key("a", "b")));
+    holders = lm.getLongestHolders(1);
+    assertThat(holders.size(), is(1));
+    assertThat(holders.get(0).session, is("2"));
+    assertThat(lm.getStats().getHoldTimes().get("/a").get("count"), is(1L));
+    lm.release("2");
+    assertTrue(lm.getLongestHolders(10).isEmpty());
+    assertThat(lm.getStats().getHoldTimes().get("/c").get("count"), is(1L));
+  }
+
+  @Test
+  public void testSlowOpLog() {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    lm.setSlowOpLog(new SlowOpLog(0, TimeUnit.NANOSECONDS, 3));
+    assertThat(lm.getSlowOpLog().capacity(), is(4));
+    assertTrue(lm.writeLock("1", key("a", "b"), LockScope.SHALLOW));
+    assertFalse(lm.readLock("2", key("a", "b"), LockScope.SHALLOW));
+    List<SlowOpLog.Entry> entries = lm.getSlowOpLog().getEntries(10);
+    assertThat(entries.size(), is(2));
+    assertThat(entries.get(0).session, is("2"));
+    assertFalse(entries.get(0).granted);
+    assertThat(entries.get(0).nodes, is(3));
+    assertThat(entries.get(0).holder, is("1"));
+    assertTrue(entries.get(1).granted);
+    assertThat(entries.get(1).holder, is((String)null));
+    for ( int i = 0; i < 5; i++ ) {
+      assertTrue(lm.readLock("2", key("c", Integer.toString(i)), LockScope.SHALLOW));
+    }
+    entries = lm.getSlowOpLog().getEntries(10);
+    assertThat(entries.size(), is(4));
+    assertThat(entries.get(0).path, is(key("c", "4")));
+    lm.setSlowOpLog(new SlowOpLog(1, TimeUnit.HOURS, 4));
+    assertTrue(lm.readLock("2", key("d"), LockScope.SHALLOW));
+    assertTrue(lm.getSlowOpLog().getEntries(10).isEmpty());
+  }
+
+  @Test
+  public void testFlatCombining() throws Exception {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    final FlatCombiner combiner = new FlatCombiner(3);
+    assertThat(combiner.stripes(), is(4));
+    lm.setFlatCombiner(combiner);
+    final AtomicInteger writers = new AtomicInteger();
+    final AtomicInteger violations = new AtomicInteger();
+    final List<Thread> threads = new ArrayList<>();
+    for ( int t = 0; t < 8; t++ ) {
+      final String session = Integer.toString(t);
+      threads.add(new Thread(() -> {
+        for ( int i = 0; i < 500; i++ ) {
+          if ( lm.writeLock(session, key("a", "b"), LockScope.SHALLOW) ) {
+            if ( writers.incrementAndGet() > 1 ) {
+              violations.incrementAndGet();
+            }
+            writers.decrementAndGet();
+            assertTrue(lm.release(session, key("a", "b")));
+          }
+          assertTrue(lm.readLock(session, key("a", session), LockScope.SHALLOW));
+          assertTrue(lm.release(session, key("a", session)));
+        }
+      }));
+    }
+    for ( Thread thread : threads ) {
+      thread.start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+    assertThat(violations.get(), is(0));
+    assertTrue(lm.getRoot().subtreeEmpty());
+    assertTrue(combiner.getCombined() >= 8 * 500 * 3);
+    assertTrue(combiner.getBatches() <= combiner.getCombined());
+
+    // watches completed by the combining thread may call back into the lock manager
+    final CompletableFuture<Boolean> released = lm.watch(key("c"), LockScope.SHALLOW)
+        .thenApply(path -> lm.release("1", path));
+    assertTrue(lm.writeLock("1", key("c"), LockScope.SHALLOW));
+    assertTrue(released.get(1, TimeUnit.SECONDS));
+    assertTrue(lm.getLocks("1").isEmpty());
+  }
+
+  @Test
+  public void testFlatCombiningSharedTraversal() throws Exception {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    final FlatCombiner combiner = new FlatCombiner(1);
+    lm.setFlatCombiner(combiner);
+    assertTrue(lm.writeLock("0", key("a", "x"), LockScope.SHALLOW));
+    final Map<String, Boolean> results = new ConcurrentHashMap<>();
+    final List<Thread> threads = new ArrayList<>();
+    threads.add(new Thread(() -> results.put("1", lm.readLock("1", key("a"), LockScope.SHALLOW))));
+    threads.add(new Thread(() -> results.put("2", 
+        lm.writeLock("2", key("a", "x"), LockScope.SHALLOW))));
+    threads.add(new Thread(() -> results.put("3", 
+        lm.writeLock("3", key("a", "y"), LockScope.DEEP))));
+    threads.add(new Thread(() -> results.put("4", 
+        lm.readLock("4", key("a", "z", "w"), LockScope.SHALLOW))));
+    threads.add(new Thread(() -> results.put("5", lm.readLock("5", key("a"), LockScope.DEEP))));
+
+    // hold the combiner role until all requests are published, so that they form one batch
+    combiner.apply("a", () -> {
+      threads.forEach(Thread::start);
+      while ( threads.stream().anyMatch(t -> t.getState() != Thread.State.TIMED_WAITING) ) {
+        Thread.yield();
+      }
+      return true;
+    });
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+    assertThat(combiner.getTraversals(), is(1L));
+    assertThat(results.get("1"), is(true));
+    assertThat(results.get("2"), is(false));
+    assertThat(results.get("3"), is(true));
+    assertThat(results.get("4"), is(true));
+    assertThat(results.get("5"), is(false));
+    
+    // the counts of failed requests are decremented, so the tree is pruned after releasing all
+    lm.release("0");
+    lm.release("1");
+    lm.release("3");
+    lm.release("4");
+    assertTrue(lm.getRoot().subtreeEmpty());
+    assertTrue(lm.getRoot().children.isEmpty());
+  }
+
+  @Test(timeout = 10000)
+  public void testFlatCombiningCallbacksAcrossStripes() throws Exception {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    final FlatCombiner combiner = new FlatCombiner(2);
+    lm.setFlatCombiner(combiner);
+    // "a" and "b" hash to different stripes, a listener of one combiner locks in the other stripe
+    lm.addListener(event -> {
+      if ( event.kind == LockEvent.Kind.ACQUIRE && event.path.size() == 1 ) {
+        final List<String> other = key(event.path.get(0).equals("a") ? "b" : "a", event.session);
+        assertTrue(lm.readLock(event.session, other, LockScope.SHALLOW));
+        assertTrue(lm.release(event.session, other));
+      }
+    });
+    final List<Thread> threads = new ArrayList<>();
+    for ( int t = 0; t < 4; t++ ) {
+      final String session = Integer.toString(t);
+      final List<String> path = key(( t % 2 == 0 ) ? "a" : "b");
+      threads.add(new Thread(() -> {
+        for ( int i = 0; i < 500; i++ ) {
+          assertTrue(lm.readLock(session, path, LockScope.SHALLOW));
+          assertTrue(lm.release(session, path));
+        }
+      }));
+    }
+    for ( Thread thread : threads ) {
+      thread.start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+    assertTrue(lm.getRoot().subtreeEmpty());
+  }
+
+  @Test
+  public void testReadersShareAncestors() throws Exception {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    assertTrue(lm.readLock("1", key("a", "b"), LockScope.SHALLOW));
+    final LockTreeNode node = lm.getRoot().getChild("a");
+    final int stamp = node.lockShared();
+    // a reader passes the shared node, a writer must wait for it
+    final CompletableFuture<Boolean> read = CompletableFuture.supplyAsync(
+        () -> lm.readLock("2", key("a", "c", "d"), LockScope.SHALLOW));
+    assertTrue(read.get(10, TimeUnit.SECONDS));
+    final CompletableFuture<Boolean> write = CompletableFuture.supplyAsync(
+        () -> lm.writeLock("3", key("a", "e"), LockScope.SHALLOW));
+    Thread.sleep(50);
+    assertFalse(write.isDone());
+    node.unlockShared(stamp);
+    assertTrue(write.get(10, TimeUnit.SECONDS));
+    assertThat(lm.getLocks("2").size(), is(1));
+    lm.release("1");
+    lm.release("2");
+    lm.release("3");
+    assertTrue(lm.getRoot().subtreeEmpty());
+  }
+
+  @Test
+  public void testLockHandleById() {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    final LockHandle handle = 
+        lm.acquire("1", key("a", "b"), LockType.WRITE, LockScope.SHALLOW, 0);
+    assertThat(lm.getHandle("1", handle.id), is(equalTo(handle)));
+    assertThat(lm.getHandle("2", handle.id), is(nullValue()));
+    
+    // extending the scope traverses the path, reducing it only changes the node
+    assertTrue(lm.lock(handle, LockType.WRITE, LockScope.DEEP));
+    assertTrue(lm.lock(handle, LockType.WRITE, LockScope.SHALLOW));
+    assertThat(lm.acquire("1", key("a", "b"), LockType.WRITE, LockScope.SHALLOW, 0).id, 
+        is(handle.id));
+    assertThat(lm.getLocks("1").iterator().next().count, is(4));
+    for ( int i = 0; i < 4; i++ ) {
+      assertTrue(lm.release(handle));
+    }
+    assertThat(lm.getHandle("1", handle.id), is(nullValue()));
+    assertTrue(lm.getRoot().subtreeEmpty());
+    assertThat(lm.getRoot().getChild("a"), is(nullValue()));
+    
+    // a stale handle does not refer to a new lock on the same path
+    assertTrue(lm.writeLock("1", key("a", "b"), LockScope.SHALLOW));
+    assertFalse(lm.lock(handle, LockType.WRITE, LockScope.SHALLOW));
+    assertFalse(lm.release(handle));
+    assertThat(lm.getLocks("1").iterator().next().count, is(1));
+  }
+
+  @Test
+  public void testContentionProfiler() throws InterruptedException {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    final ContentionProfiler profiler = new ContentionProfiler(10);
+    lm.setContentionProfiler(profiler);
+    assertTrue(lm.writeLock("1", key("a", "b"), LockScope.SHALLOW));
+    assertFalse(lm.writeLock("2", key("a", "b"), LockScope.SHALLOW));
+    assertFalse(lm.readLock("2", key("a", "b"), LockScope.SHALLOW));
+    assertThat(profiler.getConflicts(1).get(0).key, is(key("a", "b")));
+    assertThat(profiler.getConflicts(1).get(0).weight, is(2L));
+
+    final LockTreeNode node = lm.getRoot().getChild("a");
+    node.lock();
+    final Thread thread = new Thread(() -> lm.readLock("3", key("a", "c"), LockScope.SHALLOW));
+    thread.start();
+    while ( thread.getState() != Thread.State.WAITING ) {
+      Thread.sleep(1);
+    }
+    Thread.sleep(50);
+    node.unlock();
+    thread.join();
+    assertThat(profiler.getMutexWaits(1).get(0).key, is(key("a")));
+    assertTrue(profiler.getMutexWaits(1).get(0).weight >= TimeUnit.MILLISECONDS.toNanos(50));
+
+    lm.setContentionProfiler(null);
+    assertFalse(lm.writeLock("2", key("a", "b"), LockScope.SHALLOW));
+    assertThat(profiler.getConflicts(1).get(0).weight, is(2L));
+  }
+
+  @Test
+  public void testListener() {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    final List<LockEvent> events = new ArrayList<>();
+    final LockListener listener = events::add;
+    lm.addListener(listener);
+    assertTrue(lm.readLock("1", key("a"), LockScope.SHALLOW));
+    assertFalse(lm.writeLock("2", key("a"), LockScope.SHALLOW));
+    assertTrue(lm.writeLock("1", key("a"), LockScope.SHALLOW));
+    assertTrue(lm.readLock("1", key("a"), LockScope.SHALLOW));
+    assertTrue(lm.upScope("1", key("a"), LockType.READ));
+    lm.release("1");
+    assertThat(kinds(events), is(Arrays.asList(
+        LockEvent.Kind.ACQUIRE, LockEvent.Kind.CONFLICT, LockEvent.Kind.UPGRADE, 
+        LockEvent.Kind.DOWNGRADE, LockEvent.Kind.SCOPE_CHANGE, LockEvent.Kind.RELEASE)));
+    assertThat(events.get(1).session, is("2"));
+    assertThat(events.get(4).scope, is(LockScope.DEEP));
+    assertThat(events.get(5).path, is(key("a")));
+
+    assertTrue(lm.removeListener(listener));
+    assertTrue(lm.readLock("1", key("a"), LockScope.SHALLOW));
+    assertThat(events.size(), is(6));
+  }
+
+  @Test
+  public void testAsyncListener() {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    final List<LockEvent> events = Collections.synchronizedList(new ArrayList<>());
+    final AsyncLockListener listener = new AsyncLockListener(events::add, 16);
+    lm.addListener(listener);
+    for ( int i = 0; i < 10; i++ ) {
+      assertTrue(lm.writeLock("1", key("a", Integer.toString(i)), LockScope.SHALLOW));
+    }
+    listener.close();
+    assertThat(events.size() + listener.dropped(), is(10L));
+    lm.removeListener(listener);
+  }
+
+  @Test
+  public void testFlightRecorder() throws IOException {
+    Assume.assumeTrue(Jfr.isAvailable());
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    final Path file = Files.createTempFile("zuul", ".jfr");
+    try ( Recording recording = new Recording() ) {
+      recording.enable("org.avidj.zuul.LockAcquisition").withThreshold(Duration.ZERO);
+      recording.enable("org.avidj.zuul.LockConflict");
+      recording.start();
+      assertTrue(lm.writeLock("1", key("a"), LockScope.SHALLOW));
+      assertFalse(lm.readLock("2", key("a"), LockScope.SHALLOW));
+      recording.stop();
+      recording.dump(file);
+      final List<String> names = new ArrayList<>();
+      for ( RecordedEvent event : RecordingFile.readAllEvents(file) ) {
+        names.add(event.getEventType().getName() + ":" + event.getString("session"));
+      }
+      assertTrue(names.contains("org.avidj.zuul.LockAcquisition:1"));
+      assertTrue(names.contains("org.avidj.zuul.LockAcquisition:2"));
+      assertTrue(names.contains("org.avidj.zuul.LockConflict:2"));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private static List<LockEvent.Kind> kinds(List<LockEvent> events) {
+    final List<LockEvent.Kind> kinds = new ArrayList<>();
+    for ( LockEvent event : events ) {
+      kinds.add(event.kind);
+    }
+    return kinds;
+  }
 }
@@ -23,6 +23,8 @@ package org.avidj.zuul.core;
 import static org.junit.Assert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.avidj.zuul.core.Lock.newLock;
 
 import com.google.common.collect.ImmutableSet;
@@ -38,16 +40,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public abstract class LockManagerInternalTest {
   @SuppressWarnings("unused")
   private static final Logger LOG = LoggerFactory.getLogger(LockManagerInternalTest.class);
-  private EmbeddedLockManager lm;
+  private LockManager lm;
   
   /**
    * @return the lock manager to be tested
    */
-  protected abstract EmbeddedLockManager lockManager();
+  protected abstract LockManager lockManager();
 
   @Before
   public void before() {
@@ -516,6 +520,140 @@ public abstract class LockManagerInternalTest {
     assertThat(lm.getLocks("1"), is(equalTo(Collections.emptySet())));
   }
 
+  @Test
+  public void testMixedMultiLock() {
+    boolean success = lm.lock("1", key(2), LockType.READ, LockScope.SHALLOW);
+    assertThat(success, is(true));
+    
+    success = lm.multiLock("2", Arrays.asList(
+        LockRequest.of(key(3), LockType.WRITE, LockScope.SHALLOW),
+        LockRequest.of(key(1), LockType.READ, LockScope.DEEP),
+        LockRequest.of(key(2), LockType.READ, LockScope.SHALLOW)));
+    assertThat(success, is(true));
+    assertThat(lm.getLocks("2"), is(equalTo(ImmutableSet.of(
+        newLock("2", key(1), LockType.READ, LockScope.DEEP),
+        newLock("2", key(2), LockType.READ, LockScope.SHALLOW),
+        newLock("2", key(3), LockType.WRITE, LockScope.SHALLOW)))));
+
+    // the read lock on 1/2 is obtained first and rolled back when the write lock on 2 is rejected
+    success = lm.multiLock("3", Arrays.asList(
+        LockRequest.of(key(2), LockType.WRITE, LockScope.SHALLOW),
+        LockRequest.of(key(1, 2), LockType.READ, LockScope.SHALLOW)));
+    assertThat(success, is(false));
+    assertThat(lm.getLocks("3"), is(equalTo(Collections.emptySet())));
+  }
+
+  @Test
+  public void testMultiLockRestoresHeldLocks() {
+    assertThat(lm.lock("1", key("a"), LockType.READ, LockScope.SHALLOW), is(true));
+    assertThat(lm.lock("1", key("c"), LockType.WRITE, LockScope.DEEP), is(true));
+    assertThat(lm.lock("2", key("b"), LockType.WRITE, LockScope.SHALLOW), is(true));
+
+    // the upgraded lock on a and the downgraded lock on c are restored when b is rejected
+    boolean success = lm.multiLock("1", Arrays.asList(
+        LockRequest.of(key("a"), LockType.WRITE, LockScope.DEEP),
+        LockRequest.of(key("b"), LockType.READ, LockScope.SHALLOW),
+        LockRequest.of(key("c"), LockType.READ, LockScope.SHALLOW)));
+    assertThat(success, is(false));
+    assertThat(lm.getLocks("1"), is(equalTo(ImmutableSet.of(
+        newLock("1", key("a"), LockType.READ, LockScope.SHALLOW),
+        newLock("1", key("c"), LockType.WRITE, LockScope.DEEP)))));
+    for ( Lock lock : lm.getLocks("1") ) {
+      assertThat(lock.scope, is(lock.type == LockType.READ ? LockScope.SHALLOW : LockScope.DEEP));
+      assertThat(lock.count, is(1));
+    }
+    assertThat(lm.lock("3", key("a"), LockType.READ, LockScope.SHALLOW), is(true));
+    assertThat(lm.lock("3", key("c", "d"), LockType.READ, LockScope.SHALLOW), is(false));
+
+    // on success, the locks are reentered with the requested type and scope
+    success = lm.multiLock("1", Arrays.asList(
+        LockRequest.of(key("c"), LockType.READ, LockScope.SHALLOW),
+        LockRequest.of(key("d"), LockType.READ, LockScope.SHALLOW)));
+    assertThat(success, is(true));
+    assertThat(lm.getLocks("1"), is(equalTo(ImmutableSet.of(
+        newLock("1", key("a"), LockType.READ, LockScope.SHALLOW),
+        newLock("1", key("c"), LockType.READ, LockScope.SHALLOW),
+        newLock("1", key("d"), LockType.READ, LockScope.SHALLOW)))));
+    assertThat(lm.lock("3", key("c", "d"), LockType.READ, LockScope.SHALLOW), is(true));
+  }
+
+  @Test
+  public void testMultiLockNarrowsScopeBelowForeignDeepReadLock() {
+    assertThat(lm.readLock("1", key("a"), LockScope.DEEP), is(true));
+    assertThat(lm.readLock("0", key("a", "b"), LockScope.DEEP), is(true));
+    boolean success = lm.multiLock("0", Arrays.asList(
+        LockRequest.of(key("a", "b"), LockType.READ, LockScope.SHALLOW)));
+    assertThat(success, is(true));
+    assertThat(lm.getLocks("0"), is(equalTo(ImmutableSet.of(
+        newLock("0", key("a", "b"), LockType.READ, LockScope.SHALLOW)))));
+    final Lock lock = lm.getLocks("0").iterator().next();
+    assertThat(lock.scope, is(LockScope.SHALLOW));
+    assertThat(lock.count, is(2));
+  }
+
+  @Test
+  public void testMultiLockRestoresScopeBelowForeignDeepReadLock() {
+    assertThat(lm.readLock("1", key("a"), LockScope.DEEP), is(true));
+    assertThat(lm.readLock("0", key("a", "b"), LockScope.SHALLOW), is(true));
+    assertThat(lm.writeLock("2", key("c"), LockScope.SHALLOW), is(true));
+    boolean success = lm.multiLock("0", Arrays.asList(
+        LockRequest.of(key("a", "b"), LockType.READ, LockScope.DEEP),
+        LockRequest.of(key("c"), LockType.READ, LockScope.SHALLOW)));
+    assertThat(success, is(false));
+    assertThat(lm.getLocks("0"), is(equalTo(ImmutableSet.of(
+        newLock("0", key("a", "b"), LockType.READ, LockScope.SHALLOW)))));
+    final Lock lock = lm.getLocks("0").iterator().next();
+    assertThat(lock.scope, is(LockScope.SHALLOW));
+    assertThat(lock.count, is(1));
+  }
+
+  @Test
+  public void testLockHandle() {
+    final LockHandle handle = lm.acquire("1", key(1, 2), LockType.READ, LockScope.SHALLOW, 0);
+    assertThat(handle, is(notNullValue()));
+    assertThat(lm.acquire("2", key(1), LockType.WRITE, LockScope.DEEP, 0), is(nullValue()));
+    
+    assertThat(lm.lock(handle, LockType.READ, LockScope.SHALLOW), is(true));
+    assertThat(lm.getLocks("1").iterator().next().count, is(2));
+    assertThat(lm.release(handle), is(true));
+    assertThat(lm.release(handle), is(true));
+    assertThat(lm.release(handle), is(false));
+    assertThat(lm.getLocks("1"), is(equalTo(Collections.emptySet())));
+    
+    // the counts of the released lock are gone from all ancestors
+    assertThat(lm.lock("2", key(1), LockType.WRITE, LockScope.DEEP), is(true));
+  }
+
+  @Test
+  public void testUpgradeAndDowngrade() {
+    assertThat(lm.upgrade("1", key(1, 2)), is(false));
+    lm.lock("1", key(1, 2), LockType.READ, LockScope.DEEP);
+    lm.lock("1", key(1, 2), LockType.READ, LockScope.DEEP);
+    lm.lock("2", key(1), LockType.READ, LockScope.SHALLOW);
+    
+    assertThat(lm.upgrade("1", key(1, 2)), is(true));
+    Lock lock = lm.getLocks("1").iterator().next();
+    assertThat(lock.type, is(LockType.WRITE));
+    assertThat(lock.scope, is(LockScope.DEEP));
+    assertThat(lock.count, is(2));
+    assertThat(lm.upgrade("1", key(1, 2)), is(true));
+    assertThat(lm.lock("2", key(1), LockType.READ, LockScope.DEEP), is(false));
+    
+    assertThat(lm.downgrade("1", key(1, 2)), is(true));
+    lock = lm.getLocks("1").iterator().next();
+    assertThat(lock.type, is(LockType.READ));
+    assertThat(lock.scope, is(LockScope.DEEP));
+    assertThat(lock.count, is(2));
+    assertThat(lm.lock("2", key(1), LockType.READ, LockScope.DEEP), is(true));
+    
+    // the deep read lock of the other session on the parent prevents the upgrade
+    assertThat(lm.upgrade("1", key(1, 2)), is(false));
+    assertThat(lm.getLocks("1").iterator().next().type, is(LockType.READ));
+    lm.release("1");
+    lm.release("2");
+    assertThat(lm.lock("3", key(1), LockType.WRITE, LockScope.DEEP), is(true));
+  }
+
   @Test
   public void testReleaseSession() {
     boolean success = lm.multiLock("1", Arrays.asList(key(1), key(2), key(1, 2, 3)), 
@@ -572,6 +710,181 @@ public abstract class LockManagerInternalTest {
     assertThat(lm.getLocks("1").size(), is(3));
   }
 
+  @Test
+  public void itShallGrantLeaseOnFreeSubtree() {
+    boolean success = lm.lease("1", key(1));
+    assertThat(success, is(true));
+    assertThat(lm.getLocks("1"), is(equalTo(ImmutableSet.of(
+        newLock("1", key(1), LockType.WRITE, LockScope.DEEP)))));
+    assertThat(lm.getRecalledLeases("1"), is(equalTo(Collections.emptySet())));
+  }
+
+  @Test
+  public void itShallNotGrantLeaseOnLockedSubtree() {
+    boolean success = lm.lock("2", key(1, 2), LockType.READ, LockScope.SHALLOW);
+    assertThat(success, is(true));
+
+    success = lm.lease("1", key(1));
+    assertThat(success, is(false));
+  }
+
+  @Test
+  public void itShallRecallLeaseOnConflict() {
+    boolean success = lm.lease("1", key(1));
+    assertThat(success, is(true));
+
+    success = lm.lock("2", key(1, 2), LockType.READ, LockScope.SHALLOW);
+    assertThat(success, is(false));
+    assertThat(lm.getRecalledLeases("1"), is(equalTo(ImmutableSet.of(key(1)))));
+    
+    success = lm.release("1", key(1));
+    assertThat(success, is(true));
+    assertThat(lm.getRecalledLeases("1"), is(equalTo(Collections.emptySet())));
+    
+    success = lm.lock("2", key(1, 2), LockType.READ, LockScope.SHALLOW);
+    assertThat(success, is(true));
+  }
+
+  @Test
+  public void itShallNotifyWatchesOnRelease() {
+    boolean success = lm.lock("1", key(1, 2), LockType.WRITE, LockScope.SHALLOW);
+    assertThat(success, is(true));
+    
+    CompletableFuture<List<String>> shallow = lm.watch(key(1), LockScope.SHALLOW);
+    CompletableFuture<List<String>> deep = lm.watch(key(1), LockScope.DEEP);
+    CompletableFuture<List<String>> exact = lm.watch(key(1, 2), LockScope.SHALLOW);
+    
+    success = lm.release("1", key(1, 2));
+    assertThat(success, is(true));
+    assertThat(shallow.isDone(), is(false));
+    assertThat(deep.getNow(null), is(equalTo(key(1, 2))));
+    assertThat(exact.getNow(null), is(equalTo(key(1, 2))));
+    shallow.cancel(false);
+  }
+
+  @Test
+  public void itShallNotifyWatchesOnlyOnce() {
+    CompletableFuture<List<String>> watch = lm.watch(key(1), LockScope.SHALLOW);
+    
+    boolean success = lm.lock("1", key(1), LockType.READ, LockScope.SHALLOW);
+    assertThat(success, is(true));
+    assertThat(watch.getNow(null), is(equalTo(key(1))));
+
+    watch = lm.watch(key(1), LockScope.SHALLOW);
+    assertThat(watch.isDone(), is(false));
+    success = lm.release("1", key(1));
+    assertThat(watch.getNow(null), is(equalTo(key(1))));
+  }
+
+  @Test
+  public void itShallGrantWaitingLockOnRelease() throws Exception {
+    boolean success = lm.lock("1", key(1), LockType.WRITE, LockScope.DEEP);
+    assertThat(success, is(true));
+
+    CompletableFuture<Void> granted = LockWaiter.lockWhenAvailable(
+        lm, "2", key(1, 2), LockType.READ, LockScope.SHALLOW, 0);
+    assertThat(granted.isDone(), is(false));
+    success = lm.release("1", key(1));
+    assertThat(success, is(true));
+    granted.get(1, TimeUnit.SECONDS);
+    assertThat(lm.getLocks("2"), is(equalTo(ImmutableSet.of(
+        newLock("2", key(1, 2), LockType.READ, LockScope.SHALLOW)))));
+  }
+
+  @Test
+  public void itShallNotLeakAbandonedWaitingLock() throws Exception {
+    boolean success = lm.lock("1", key(1, 2), LockType.WRITE, LockScope.SHALLOW);
+    assertThat(success, is(true));
+
+    CompletableFuture<Void> granted = LockWaiter.lockWhenAvailable(
+        lm, "2", key(1), LockType.WRITE, LockScope.DEEP, 0);
+    assertThat(granted.isDone(), is(false));
+    granted.cancel(false);
+    success = lm.release("1", key(1, 2));
+    assertThat(success, is(true));
+    Thread.sleep(50);
+    assertThat(lm.getLocks("2"), is(equalTo(Collections.emptySet())));
+  }
+
+  @Test
+  public void itShallExpireLockAfterTtl() throws InterruptedException {
+    boolean success = lm.lock("1", key(1), LockType.WRITE, LockScope.DEEP, 10);
+    assertThat(success, is(true));
+    success = lm.lock("1", key(2), LockType.WRITE, LockScope.SHALLOW);
+    assertThat(success, is(true));
+
+    success = lm.lock("2", key(1, 2), LockType.READ, LockScope.SHALLOW);
+    assertThat(success, is(false));
+    
+    Thread.sleep(50);
+    success = lm.lock("2", key(1, 2), LockType.READ, LockScope.SHALLOW);
+    assertThat(success, is(true));
+    assertThat(lm.getLocks("1"), is(equalTo(ImmutableSet.of(
+        newLock("1", key(2), LockType.WRITE, LockScope.SHALLOW)))));
+  }
+
+  @Test
+  public void itShallExpireSessionAfterSessionTimeout() throws InterruptedException {
+    lm.setSessionTimeout("1", 10);
+    boolean success = lm.lock("1", key(1), LockType.WRITE, LockScope.SHALLOW);
+    assertThat(success, is(true));
+    success = lm.lock("2", key(2), LockType.WRITE, LockScope.SHALLOW);
+    assertThat(success, is(true));
+
+    Thread.sleep(50);
+    success = lm.lock("3", key(1), LockType.WRITE, LockScope.SHALLOW);
+    assertThat(success, is(true));
+    assertThat(lm.getLocks("1"), is(equalTo(Collections.emptySet())));
+    assertThat(lm.getLocks("2").size(), is(1));
+  }
+
+  @Test
+  public void itShallWalkOnlyTheRequestedSubtree() {
+    lm.lock("1", key(1, 2), LockType.READ, LockScope.SHALLOW);
+    lm.lock("2", key(1, 2, 3), LockType.WRITE, LockScope.DEEP);
+    lm.lock("1", key(4), LockType.WRITE, LockScope.SHALLOW);
+    
+    StringBuilder tree = new StringBuilder();
+    boolean found = lm.walkLocks(null, key(1), LockScope.DEEP, new LockTreeVisitor() {
+      @Override
+      public void enter(String key) {
+        tree.append("(").append(key);
+      }
+
+      @Override
+      public void visit(Lock lock) {
+        tree.append(" ").append(lock.session).append(lock.type);
+      }
+
+      @Override
+      public void leave() {
+        tree.append(")");
+      }
+    });
+    assertThat(found, is(true));
+    assertThat(tree.toString(), is(equalTo("(1(2 1READ(3 2WRITE)))")));
+  }
+
+  @Test
+  public void itShallNotWalkMissingSubtree() {
+    boolean found = lm.walkLocks("1", key(1), LockScope.DEEP, null);
+    assertThat(found, is(false));
+  }
+
+  @Test
+  public void itShallListChildrenPageByPage() {
+    for ( int i = 0; i < 5; i++ ) {
+      lm.lock("1", key(1, i), LockType.READ, LockScope.SHALLOW);
+    }
+    lm.lock("1", key(1, 2, 3), LockType.READ, LockScope.SHALLOW);
+    
+    assertThat(lm.listChildren(key(1), null, 2), is(equalTo(Arrays.asList("0", "1"))));
+    assertThat(lm.listChildren(key(1), "1", 2), is(equalTo(Arrays.asList("2", "3"))));
+    assertThat(lm.listChildren(key(1), "3", 2), is(equalTo(Arrays.asList("4"))));
+    assertThat(lm.listChildren(key(1), "4", 2), is(equalTo(Collections.emptyList())));
+    assertThat(lm.listChildren(key(2), null, 2), is(equalTo(Collections.emptyList())));
+  }
+
   static List<String> key(String first, String... more) {
     List<String> key = new ArrayList<>(more.length + 1);
     key.add(first);
@@ -0,0 +1,92 @@
+package org.avidj.zuul.core;
+
+/*
+ * #%L
+ * zuul-core
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleWriterLockManagerTest extends LockManagerInternalTest {
+  private final List<SingleWriterLockManager> managers = new ArrayList<>();
+
+  @Override
+  protected LockManager lockManager() {
+    return newLockManager(1024);
+  }
+
+  private SingleWriterLockManager newLockManager(int capacity) {
+    final SingleWriterLockManager lm = new SingleWriterLockManager(capacity);
+    managers.add(lm);
+    return lm;
+  }
+
+  @After
+  public void after() {
+    for ( SingleWriterLockManager lm : managers ) {
+      lm.close();
+    }
+    managers.clear();
+  }
+
+  @Test
+  public void testWrapAround() throws InterruptedException {
+    final SingleWriterLockManager lm = newLockManager(4);
+    final List<String> path = Arrays.asList("a", "b");
+    final AtomicInteger failures = new AtomicInteger();
+    final List<Thread> threads = new ArrayList<>();
+    for ( int t = 0; t < 8; t++ ) {
+      final String session = "s" + t;
+      threads.add(new Thread(() -> {
+        for ( int i = 0; i < 1000; i++ ) {
+          if ( lm.readLock(session, path, LockScope.SHALLOW) && !lm.release(session, path) ) {
+            failures.incrementAndGet();
+          }
+        }
+      }));
+    }
+    for ( Thread thread : threads ) {
+      thread.start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+    assertThat(failures.get(), is(0));
+    assertTrue(lm.writeLock("x", path, LockScope.DEEP));
+    assertThat(lm.listChildren(Collections.emptyList(), null, 10), is(Arrays.asList("a")));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testClosed() {
+    final SingleWriterLockManager lm = newLockManager(4);
+    assertTrue(lm.writeLock("s", Arrays.asList("a"), LockScope.SHALLOW));
+    lm.close();
+    lm.readLock("t", Arrays.asList("a"), LockScope.SHALLOW);
+  }
+}
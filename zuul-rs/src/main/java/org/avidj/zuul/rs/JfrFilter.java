@@ -0,0 +1,94 @@
+package org.avidj.zuul.rs;
+
+/*
+ * #%L
+ * zuul-rs
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.avidj.zuul.core.jfr.Jfr;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Emits a flight recorder event for each REST request exceeding the threshold of 
+ * {@code org.avidj.zuul.RestRequest}, see {@link Jfr}. Asynchronous requests, such as watches, are
+ * recorded when they complete.
+ */
+public class JfrFilter implements Filter {
+
+  @Override
+  public void init(FilterConfig config) {
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    final Object event = Jfr.beginRequest();
+    if ( event == null ) {
+      chain.doFilter(request, response);
+      return;
+    }
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      if ( request.isAsyncStarted() ) {
+        request.getAsyncContext().addListener(new AsyncListener() {
+          @Override
+          public void onComplete(AsyncEvent async) {
+            commit(event, request, response);
+          }
+
+          @Override
+          public void onTimeout(AsyncEvent async) {
+          }
+
+          @Override
+          public void onError(AsyncEvent async) {
+          }
+
+          @Override
+          public void onStartAsync(AsyncEvent async) {
+          }
+        });
+      } else {
+        commit(event, request, response);
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {
+  }
+
+  private static void commit(Object event, ServletRequest request, ServletResponse response) {
+    final HttpServletRequest http = (HttpServletRequest)request;
+    Jfr.commitRequest(event, http.getMethod(), http.getRequestURI(), 
+        ( (HttpServletResponse)response ).getStatus());
+  }
+}
@@ -0,0 +1,93 @@
+package org.avidj.zuul.rs;
+
+/*
+ * #%L
+ * zuul-rs
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.avidj.zuul.core.Lock;
+import org.avidj.zuul.core.LockTreeVisitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.BitSet;
+
+/**
+ * A lock tree visitor that streams the visited nodes and locks as nested JSON objects of the form
+ * <pre>
+ * { "key" : "a", 
+ *   "locks" : [ { "session" : "1", "type" : "READ", "scope" : "DEEP", "count" : 1 } ],
+ *   "children" : [ { "key" : "b", "locks" : [ ... ] } ] }
+ * </pre>
+ * Memory consumption is linear in the depth of the tree, but independent of the number of nodes.
+ */
+class JsonLockTreeWriter implements LockTreeVisitor {
+  private final JsonGenerator json;
+  // for each level of the current path, whether the children array has already been started
+  private final BitSet inChildren = new BitSet();
+  private int depth = -1;
+
+  JsonLockTreeWriter(JsonGenerator json) {
+    this.json = json;
+  }
+
+  @Override
+  public void enter(String key) {
+    try {
+      if ( depth >= 0 && !inChildren.get(depth) ) {
+        json.writeEndArray();
+        json.writeArrayFieldStart("children");
+        inChildren.set(depth);
+      }
+      depth++;
+      inChildren.clear(depth);
+      json.writeStartObject();
+      json.writeStringField("key", key);
+      json.writeArrayFieldStart("locks");
+    } catch ( IOException e ) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void visit(Lock lock) {
+    try {
+      json.writeStartObject();
+      json.writeStringField("session", lock.session);
+      json.writeStringField("type", lock.type.name());
+      json.writeStringField("scope", lock.scope.name());
+      json.writeNumberField("count", lock.count);
+      json.writeEndObject();
+    } catch ( IOException e ) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void leave() {
+    try {
+      json.writeEndArray(); // either locks or children
+      json.writeEndObject();
+      depth--;
+    } catch ( IOException e ) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
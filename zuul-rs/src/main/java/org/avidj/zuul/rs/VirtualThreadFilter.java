@@ -0,0 +1,132 @@
+package org.avidj.zuul.rs;
+
+/*
+ * #%L
+ * zuul-rs
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.google.common.base.Preconditions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves each request on a thread of the given executor, usually a new virtual thread, rather than
+ * on a thread of the servlet container. The request is put into asynchronous mode, and the rest of
+ * the filter chain and the servlet run on the executor, which completes the request. If the 
+ * application starts asynchronous processing itself, e.g., for a watch, it is handed the same 
+ * asynchronous context and it completes the request instead.
+ */
+public class VirtualThreadFilter implements Filter {
+  private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadFilter.class);
+  private final Executor executor;
+
+  /**
+   * Create a new filter running requests on the given executor.
+   * @param executor the executor, e.g., {@link org.avidj.util.VirtualThreads#newThreadPerTaskExecutor()}
+   */
+  public VirtualThreadFilter(Executor executor) {
+    Preconditions.checkNotNull(executor);
+    this.executor = executor;
+  }
+
+  @Override
+  public void init(FilterConfig config) {
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    // asynchronous dispatches are served by the container, they only write a result
+    if ( request.getDispatcherType() != DispatcherType.REQUEST 
+        || !request.isAsyncSupported() 
+        || !( request instanceof HttpServletRequest ) ) {
+      chain.doFilter(request, response);
+      return;
+    }
+    final AsyncContext async = request.startAsync();
+    async.setTimeout(0);
+    final AsyncRequest wrapped = new AsyncRequest((HttpServletRequest)request, async);
+    executor.execute(() -> {
+      try {
+        chain.doFilter(wrapped, response);
+      } catch ( IOException | ServletException | RuntimeException e ) {
+        LOG.error("Request failed: " + wrapped.getRequestURI(), e);
+        if ( !wrapped.started && !response.isCommitted() ) {
+          ( (HttpServletResponse)response ).setStatus(
+              HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+      } finally {
+        if ( !wrapped.started ) {
+          async.complete();
+        }
+      }
+    });
+  }
+
+  @Override
+  public void destroy() {
+  }
+
+  /*
+   * Hands the asynchronous context of this filter to the application. The request only appears to
+   * be asynchronous once the application has started asynchronous processing.
+   */
+  private static final class AsyncRequest extends HttpServletRequestWrapper {
+    private final AsyncContext async;
+    private volatile boolean started;
+
+    AsyncRequest(HttpServletRequest request, AsyncContext async) {
+      super(request);
+      this.async = async;
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+      started = true;
+      return async;
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+      started = true;
+      return async;
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+      return started && super.isAsyncStarted();
+    }
+  }
+}
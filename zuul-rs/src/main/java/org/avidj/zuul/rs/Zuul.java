@@ -20,51 +20,113 @@ package org.avidj.zuul.rs;
  * #L%
  */
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.ImmutableSet;
+
+import org.avidj.util.SpaceSaving;
 import org.avidj.util.Strings;
+import org.avidj.zuul.core.ContentionProfiler;
+import org.avidj.zuul.core.DefaultEmbeddedLockManager;
 import org.avidj.zuul.core.Lock;
+import org.avidj.zuul.core.LockHandle;
+import org.avidj.zuul.core.LockHolder;
 import org.avidj.zuul.core.LockManager;
+import org.avidj.zuul.core.LockManagerStats;
+import org.avidj.zuul.core.LockRequest;
 import org.avidj.zuul.core.LockScope;
 import org.avidj.zuul.core.LockType;
+import org.avidj.zuul.core.LockWaiter;
+import org.avidj.zuul.core.SlowOpLog;
+import org.avidj.zuul.core.trace.RecordingLockManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 @Controller
 @RequestMapping
 public class Zuul {
   private static final Logger LOG = LoggerFactory.getLogger(Zuul.class);
   private static final String ACK = "ack";
+  private static final String HANDLE = "Zuul-Lock-Handle";
+  private static final String RELEASE = "-";
+  private static final Set<String> BULK_OPS = ImmutableSet.of("rs", "rd", "ws", "wd", RELEASE);
+  private static final JsonFactory JSON = new JsonFactory();
   
   @Autowired
   private WebApplicationContext context;
 
   @Autowired
-  private LockManager lm;
+  private volatile LockManager lm;
+  
+  private File traceDirectory = 
+      new File(System.getProperty("zuul.trace.dir", System.getProperty("java.io.tmpdir")));
+  private RecordingLockManager recorder;
   
   void setLockManager(LockManager lm) {
     this.lm = lm;
   }
 
+  void setTraceDirectory(File traceDirectory) {
+    this.traceDirectory = traceDirectory;
+  }
+
+  /**
+   * Publish the statistics of the lock manager via JMX, if it keeps statistics.
+   */
+  @PostConstruct
+  public void registerStats() {
+    final LockManagerStats stats = lockManagerStats();
+    if ( stats != null ) {
+      LOG.info("registered lock manager statistics as {}", stats.registerMBean("zuul"));
+    }
+  }
+
+  /**
+   * Withdraw the statistics published by {@link #registerStats()}.
+   */
+  @PreDestroy
+  public void unregisterStats() {
+    final LockManagerStats stats = lockManagerStats();
+    if ( stats != null ) {
+      stats.unregisterMBean();
+    }
+  }
+
   @RequestMapping(value = "/p/{id}", method = RequestMethod.GET)
   @ResponseBody
   public String ping(@PathVariable("id") String id) {
@@ -72,6 +134,38 @@ public class Zuul {
     return ACK;
   }
   
+  /**
+   * Keep the given session alive and, if a timeout is given, set the timeout of the session, 
+   * overriding the default session timeout.
+   * @param id the identifier of the session
+   * @param timeout optional number of milliseconds until the session times out if not accessed
+   * @return an acknowledgement
+   */
+  @RequestMapping(value = "/p/{id}", method = RequestMethod.PUT)
+  @ResponseBody
+  public String setSessionTimeout(
+      @PathVariable("id") String id, 
+      @RequestParam(value = "timeout", required = false) Long timeout) {
+    if ( timeout != null ) {
+      lm.setSessionTimeout(id, timeout);
+    } else {
+      lm.heartbeat(id);
+    }
+    return ACK;
+  }
+
+  /**
+   * End the given session, i.e., release all of its locks, no matter how often they have been 
+   * reentered.
+   * @param id the identifier of the session
+   * @return {@code 204 No Content}
+   */
+  @RequestMapping(value = "/p/{id}", method = RequestMethod.DELETE)
+  public ResponseEntity<String> endSession(@PathVariable("id") String id) {
+    lm.release(id);
+    return new ResponseEntity<String>(HttpStatus.NO_CONTENT);
+  }
+  
   /**
    * Given a session id, this method returns all information about locks held by that session.
    * @param session the identifier of the session
@@ -89,37 +183,266 @@ public class Zuul {
     return locks;
   }
 
+  /**
+   * Stream the locks in the subtree rooted at the given lock path as a tree of nested JSON objects.
+   * The subtree is walked and written incrementally, so neither the whole tree nor the whole 
+   * response is ever held in memory.
+   * 
+   * @param session optional session to restrict the locks to, default are the locks of all sessions
+   * @param scope ({@code s})hallow to return only the node at the given path, ({@code d})eep to 
+   *     return the whole subtree, default is ({@code d})eep
+   * @param request the HTTP request, provided by the REST framework
+   * @param response the HTTP response to stream the tree to
+   * @throws IOException if writing the response fails
+   */
+  @RequestMapping(value = "/t/**", method = RequestMethod.GET)
+  public void tree(
+      @RequestParam(value = "session", required = false) String session,
+      @RequestParam(value = "s", defaultValue = "d") String scope,
+      HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    final List<String> path = getLockPath(request, "");
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    try ( JsonGenerator json = JSON.createGenerator(response.getOutputStream()) ) {
+      final boolean found = lm.walkLocks(
+          session, path, getLockScope(scope), new JsonLockTreeWriter(json));
+      if ( !found ) {
+        response.setStatus(HttpStatus.NOT_FOUND.value());
+      }
+    }
+  }
+
+  /**
+   * List the keys of the children of the given lock path in ascending order, one page at a time.
+   * 
+   * @param after the key to start the listing after, default is to start with the first child
+   * @param limit the maximum number of keys to return, default is 100
+   * @param request the HTTP request, provided by the REST framework
+   * @return the possibly empty list of child keys
+   */
+  @RequestMapping(value = "/c/**", method = RequestMethod.GET)
+  @ResponseBody
+  public List<String> children(
+      @RequestParam(value = "after", required = false) String after,
+      @RequestParam(value = "limit", defaultValue = "100") int limit,
+      HttpServletRequest request) {
+    final List<String> path = getLockPath(request, "");
+    return lm.listChildren(path, after, limit);
+  }
+
   /**
    * Obtain, upgrade, or downgrade a lock for the given {@code session}. Upgrades and downgrades are
    * possible along two dimensions: type and scope. Lock types are read ({@literal aka.} shared) and
    * write ({@literal aka.} exclusive). Lock scopes are shallow and deep. A shallow lock is only 
    * with respect to the specified lock path, a deep lock also locks the whole subtree below that 
-   * path.
+   * path. If a handle is requested and the lock manager assigns numeric lock handles, the handle
+   * of the lock is returned in the {@code Zuul-Lock-Handle} header, for use with the {@code /h/}
+   * resources.
    * 
    * @param session the session to obtain a lock for 
    * @param type the type of lock to obtain, possible values are ({@code r})ead and 
    *     ({@code w})rite, default is ({@code w})write  
    * @param scope the scope of lock to obtain, possible values are ({@code s})shallow and 
    *     ({@code d})eep, default is ({@code d})eep  
+   * @param ttl optional number of milliseconds after which the lock expires, even if the session
+   *     is kept alive
+   * @param handle whether to return a numeric handle of the lock, default is {@code false}
    * @param request the HTTP request, provided by the REST framework
    * @param uriBuilder builder for the result location URI
-   * @return {@code true}, iff the operation was successful
+   * @return {@code 201 Created} if the lock was obtained, {@code 403 Forbidden} if it conflicts
+   *     with another lock, or {@code 400 Bad Request} if the time to live is negative
    */
   @RequestMapping(value = "/s/{id}/**", method = { RequestMethod.POST, RequestMethod.PUT })
   public ResponseEntity<String> lock(
       @PathVariable("id") String session, 
       @RequestParam(value = "t", defaultValue = "w") String type,
       @RequestParam(value = "s", defaultValue = "s") String scope,
+      @RequestParam(value = "ttl", required = false) Long ttl,
+      @RequestParam(value = "handle", defaultValue = "false") boolean handle,
       HttpServletRequest request,
       UriComponentsBuilder uriBuilder) {
     // TODO: POST: lock (create resource)
     // TODO: PUT: upscope, downscope, lock reentry (return 226 IM used, return 404 as appropriate)
+    if ( ttl != null && ttl < 0 ) {
+      return new ResponseEntity<String>(HttpStatus.BAD_REQUEST);
+    }
+    final List<String> path = getLockPath(request, session); 
+    final LockType lockType = getLockType(type);
+    final LockScope lockScope = getLockScope(scope);
+    
+    HttpHeaders headers = locationHeaders(session, path, uriBuilder);
+    final boolean success;
+    if ( handle ) {
+      final LockHandle lock = 
+          lm.acquire(session, path, lockType, lockScope, ( ttl == null ) ? 0 : ttl);
+      success = ( lock != null );
+      setHandle(headers, lock);
+    } else {
+      success = ( ttl == null || ttl == 0 )
+          ? lm.lock(session, path, lockType, lockScope)
+          : lm.lock(session, path, lockType, lockScope, ttl);
+    }
+    HttpStatus httpStatus = success ? HttpStatus.CREATED : HttpStatus.FORBIDDEN;
+    return new ResponseEntity<String>(headers, httpStatus);
+  }
+
+  private static HttpHeaders locationHeaders(
+      String session, List<String> path, UriComponentsBuilder uriBuilder) {
+    UriComponents uriComponents = 
+        uriBuilder.path("/s/{id}/{lockPath}").buildAndExpand(session, Strings.join("/", path));
+    HttpHeaders headers = new HttpHeaders();
+    headers.setLocation(uriComponents.toUri());
+    return headers;
+  }
+
+  // the lock manager may not assign numeric handles, then the client has to use the lock path
+  private static void setHandle(HttpHeaders headers, LockHandle lock) {
+    if ( lock != null && lock.id != LockHandle.NO_ID ) {
+      headers.set(HANDLE, Long.toString(lock.id));
+    }
+  }
+
+  /**
+   * Reenter the lock with the given numeric {@code handle}, as returned by 
+   * {@link #lock(String, String, String, Long, boolean, HttpServletRequest, UriComponentsBuilder)},
+   * without
+   * looking up the lock by its path. The lock type and scope can be changed as on reentry by path.
+   * 
+   * @param session the session holding the lock
+   * @param handle the numeric handle of the lock
+   * @param type the type of the lock, possible values are ({@code r})ead and ({@code w})rite, 
+   *     default is ({@code w})write  
+   * @param scope the scope of the lock, possible values are ({@code s})shallow and ({@code d})eep,
+   *     default is ({@code s})hallow  
+   * @return {@code 201 Created} if the lock was reentered, {@code 403 Forbidden} if it conflicts 
+   *     with another lock, or {@code 404 Not Found} if the session holds no lock with that handle
+   */
+  @RequestMapping(value = "/h/{id}/{handle}", method = { RequestMethod.POST, RequestMethod.PUT })
+  public ResponseEntity<String> lock(
+      @PathVariable("id") String session, 
+      @PathVariable("handle") long handle,
+      @RequestParam(value = "t", defaultValue = "w") String type,
+      @RequestParam(value = "s", defaultValue = "s") String scope) {
+    final LockHandle lock = lm.getHandle(session, handle);
+    if ( lock == null ) {
+      return new ResponseEntity<String>(HttpStatus.NOT_FOUND);
+    }
+    final boolean reentered = lm.lock(lock, getLockType(type), getLockScope(scope));
+    return new ResponseEntity<String>(reentered ? HttpStatus.CREATED : HttpStatus.FORBIDDEN);
+  }
+
+  /**
+   * Release the lock with the given numeric {@code handle} once, without looking up the lock by 
+   * its path.
+   * 
+   * @param session the session holding the lock
+   * @param handle the numeric handle of the lock
+   * @return {@code 204 No Content} if the lock was released, or {@code 404 Not Found} if the 
+   *     session holds no lock with that handle
+   */
+  @RequestMapping(value = "/h/{id}/{handle}", method = RequestMethod.DELETE)
+  public ResponseEntity<String> release(
+      @PathVariable("id") String session, 
+      @PathVariable("handle") long handle) {
+    final LockHandle lock = lm.getHandle(session, handle);
+    if ( lock == null ) {
+      return new ResponseEntity<String>(HttpStatus.NOT_FOUND);
+    }
+    final boolean deleted = lm.release(lock);
+    return new ResponseEntity<String>(deleted ? HttpStatus.NO_CONTENT : HttpStatus.FORBIDDEN);
+  }
+  
+  /**
+   * Obtain a lock for the given {@code session}, waiting for conflicting locks to be released. The
+   * request is handled asynchronously, so waiting clients do not occupy a servlet container thread.
+   * The response is {@code 201 Created} when the lock is granted or, if it is not granted within 
+   * the given number of milliseconds, {@code 403 Forbidden}. If a handle is requested, it is 
+   * returned in the {@code Zuul-Lock-Handle} header of a granted lock.
+   * 
+   * @param session the session to obtain a lock for 
+   * @param type the type of lock to obtain, possible values are ({@code r})ead and 
+   *     ({@code w})rite, default is ({@code w})write  
+   * @param scope the scope of lock to obtain, possible values are ({@code s})shallow and 
+   *     ({@code d})eep, default is ({@code s})hallow  
+   * @param ttl optional number of milliseconds after which the lock expires, even if the session
+   *     is kept alive
+   * @param wait the number of milliseconds to wait for the lock
+   * @param handle whether to return a numeric handle of the lock, default is {@code false}
+   * @param request the HTTP request, provided by the REST framework
+   * @param uriBuilder builder for the result location URI
+   * @return the deferred result of the lock request
+   */
+  @RequestMapping(value = "/s/{id}/**", method = { RequestMethod.POST, RequestMethod.PUT }, 
+      params = "wait")
+  public DeferredResult<ResponseEntity<String>> lockWhenAvailable(
+      @PathVariable("id") String session, 
+      @RequestParam(value = "t", defaultValue = "w") String type,
+      @RequestParam(value = "s", defaultValue = "s") String scope,
+      @RequestParam(value = "ttl", required = false) Long ttl,
+      @RequestParam(value = "wait") long wait,
+      @RequestParam(value = "handle", defaultValue = "false") boolean handle,
+      HttpServletRequest request,
+      UriComponentsBuilder uriBuilder) {
+    if ( ttl != null && ttl < 0 ) {
+      final DeferredResult<ResponseEntity<String>> result = new DeferredResult<>();
+      result.setResult(new ResponseEntity<String>(HttpStatus.BAD_REQUEST));
+      return result;
+    }
     final List<String> path = getLockPath(request, session); 
     final LockType lockType = getLockType(type);
     final LockScope lockScope = getLockScope(scope);
+    final long ttlMillis = ( ttl == null ) ? 0 : ttl;
+    
+    final HttpHeaders headers = locationHeaders(session, path, uriBuilder);
+    final DeferredResult<ResponseEntity<String>> result = new DeferredResult<>(
+        wait, new ResponseEntity<String>(headers, HttpStatus.FORBIDDEN));
+    // completed with the handle of the lock if one is requested, or null otherwise
+    final CompletableFuture<?> granted = handle
+        ? LockWaiter.acquireWhenAvailable(lm, session, path, lockType, lockScope, ttlMillis)
+        : LockWaiter.lockWhenAvailable(lm, session, path, lockType, lockScope, ttlMillis);
+    result.onCompletion(() -> granted.cancel(false));
+    granted.whenComplete((lock, t) -> {
+      if ( t != null ) {
+        if ( !granted.isCancelled() ) {
+          result.setErrorResult(t);
+        }
+        return;
+      }
+      final HttpHeaders created = new HttpHeaders();
+      created.setLocation(headers.getLocation());
+      setHandle(created, (LockHandle)lock);
+      if ( !result.setResult(new ResponseEntity<String>(created, HttpStatus.CREATED)) ) {
+        // timed out concurrently, the client does not know about the lock
+        lm.release(session, path);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Upgrade or downgrade the lock of the given {@code session} in place. Unlike obtaining a lock of
+   * the other type, this does not reenter the lock and keeps its scope.
+   * 
+   * @param session the session holding the lock
+   * @param to the type to convert the lock to, ({@code w})rite to upgrade a read lock or 
+   *     ({@code r})ead to downgrade a write lock
+   * @param request the HTTP request, provided by the REST framework
+   * @param uriBuilder builder for the result location URI
+   * @return {@code 200 OK} if the lock now has the requested type, or {@code 403 Forbidden} if the
+   *     upgrade conflicts with another lock or the session holds no lock on the path
+   */
+  @RequestMapping(value = "/s/{id}/**", method = RequestMethod.PUT, params = "to")
+  public ResponseEntity<String> convert(
+      @PathVariable("id") String session, 
+      @RequestParam(value = "to") String to,
+      HttpServletRequest request,
+      UriComponentsBuilder uriBuilder) {
+    final List<String> path = getLockPath(request, session); 
     
-    final boolean created = lm.lock(session, path, lockType, lockScope);
-    HttpStatus httpStatus = created ? HttpStatus.CREATED : HttpStatus.FORBIDDEN;
+    final boolean converted = ( getLockType(to) == LockType.WRITE ) 
+        ? lm.upgrade(session, path) 
+        : lm.downgrade(session, path);
+    HttpStatus httpStatus = converted ? HttpStatus.OK : HttpStatus.FORBIDDEN;
     
     UriComponents uriComponents = 
         uriBuilder.path("/s/{id}/{lockPath}").buildAndExpand(session, Strings.join("/", path));
@@ -127,7 +450,7 @@ public class Zuul {
     headers.setLocation(uriComponents.toUri());
     return new ResponseEntity<String>(headers, httpStatus);
   }
-  
+
   /**
    * Release the given lock if it is held by the given {@code session}.
    * @param session the session id to release the lock for
@@ -152,6 +475,309 @@ public class Zuul {
     return new ResponseEntity<String>(headers, httpStatus);
   }
 
+  /**
+   * Apply a batch of lock and release operations of the given {@code session} in one request. The
+   * body is a JSON array of operations, each an array of an operation code followed by the 
+   * components of the lock path, e.g., {@code [["ws","a","b"],["rd","c"],["-","d"]]}. The code of a
+   * lock operation is its type, ({@code r})ead or ({@code w})rite, followed by its scope, 
+   * ({@code s})hallow or ({@code d})eep. The code {@code -} releases a lock.
+   * <p>
+   * If {@code atomic}, either all locks are obtained or none, like by a multi-lock, and the 
+   * releases are only applied if all locks have been obtained. The response is 
+   * {@code 201 Created} or {@code 403 Forbidden}. Otherwise, the operations are applied one by one
+   * and the response is {@code 200 OK}. The body of the response holds the result of each 
+   * operation.
+   * 
+   * @param session the session to apply the operations for
+   * @param atomic whether to apply all operations or none, default is {@code true}
+   * @param ops the operations to apply
+   * @return the result of each operation, or {@code 400 Bad Request} if an operation is malformed
+   */
+  @RequestMapping(value = "/b/{id}", method = RequestMethod.POST)
+  public ResponseEntity<List<Boolean>> bulk(
+      @PathVariable("id") String session,
+      @RequestParam(value = "atomic", defaultValue = "true") boolean atomic,
+      @RequestBody List<List<String>> ops) {
+    for ( List<String> op : ops ) {
+      if ( op.isEmpty() || !BULK_OPS.contains(op.get(0)) ) {
+        return new ResponseEntity<List<Boolean>>(HttpStatus.BAD_REQUEST);
+      }
+    }
+    final List<Boolean> results = new ArrayList<>(ops.size());
+    if ( !atomic ) {
+      for ( List<String> op : ops ) {
+        final List<String> path = op.subList(1, op.size());
+        results.add(RELEASE.equals(op.get(0)) 
+            ? lm.release(session, path) 
+            : lm.lock(session, path, getLockType(op.get(0).substring(0, 1)), 
+                getLockScope(op.get(0).substring(1))));
+      }
+      return new ResponseEntity<List<Boolean>>(results, HttpStatus.OK);
+    }
+    
+    // releases are applied after all locks have been obtained
+    final List<LockRequest> locks = new ArrayList<>();
+    for ( List<String> op : ops ) {
+      final String code = op.get(0);
+      if ( !RELEASE.equals(code) ) {
+        locks.add(LockRequest.of(op.subList(1, op.size()), 
+            getLockType(code.substring(0, 1)), getLockScope(code.substring(1))));
+      }
+    }
+    if ( !locks.isEmpty() && !lm.multiLock(session, locks) ) {
+      results.addAll(Collections.nCopies(ops.size(), false));
+      return new ResponseEntity<List<Boolean>>(results, HttpStatus.FORBIDDEN);
+    }
+    for ( List<String> op : ops ) {
+      results.add(RELEASE.equals(op.get(0)) ? lm.release(session, op.subList(1, op.size())) : true);
+    }
+    return new ResponseEntity<List<Boolean>>(results, HttpStatus.CREATED);
+  }
+
+  /**
+   * Grant the given {@code session} a delegated lease on the subtree rooted at the given lock path.
+   * The holder may then manage all locks below that path locally until the lease is recalled.
+   * @param session the session id to grant the lease to
+   * @param request the request
+   * @param uriBuilder a builder for the response location header URI
+   * @return {@code true}, iff the lease was granted
+   */
+  @RequestMapping(value = "/l/{id}/**", method = RequestMethod.PUT)
+  public ResponseEntity<String> lease(
+      @PathVariable("id") String session, 
+      HttpServletRequest request,
+      UriComponentsBuilder uriBuilder) {
+    final List<String> path = getLockPath(request, session); 
+    
+    final boolean granted = lm.lease(session, path);
+    HttpStatus httpStatus = granted ? HttpStatus.CREATED : HttpStatus.FORBIDDEN;
+    
+    UriComponents uriComponents = 
+        uriBuilder.path("/s/{id}/{lockPath}").buildAndExpand(session, Strings.join("/", path));
+    HttpHeaders headers = new HttpHeaders();
+    headers.setLocation(uriComponents.toUri());
+    return new ResponseEntity<String>(headers, httpStatus);
+  }
+
+  /**
+   * Returns the lock paths of all leases of the given {@code session} that have been recalled.
+   * @param session the session id to query
+   * @return the possibly empty set of recalled lease paths
+   */
+  @RequestMapping(value = "/l/{id}", method = RequestMethod.GET)
+  @ResponseBody
+  public Set<List<String>> recalledLeases(@PathVariable("id") String session) {
+    return lm.getRecalledLeases(session);
+  }
+
+  /**
+   * Wait for the next change of the lock at the given path or, if the scope is deep, of any lock in
+   * the subtree rooted at it. The request is handled asynchronously, so waiting clients do not 
+   * occupy a servlet container thread. The response is the path of the changed lock or, if no 
+   * change occurred within the timeout, {@code 204 No Content}.
+   * 
+   * @param scope the scope of the watch, possible values are ({@code s})shallow and 
+   *     ({@code d})eep, default is ({@code d})eep
+   * @param timeout the number of milliseconds to wait for a change
+   * @param request the HTTP request, provided by the REST framework
+   * @return the deferred path of the changed lock
+   */
+  @RequestMapping(value = "/w/**", method = RequestMethod.GET)
+  public DeferredResult<ResponseEntity<List<String>>> watch(
+      @RequestParam(value = "s", defaultValue = "d") String scope,
+      @RequestParam(value = "timeout", defaultValue = "30000") long timeout,
+      HttpServletRequest request) {
+    final List<String> path = getLockPath(request, "");
+    final CompletableFuture<List<String>> watch = lm.watch(path, getLockScope(scope));
+    final DeferredResult<ResponseEntity<List<String>>> result = new DeferredResult<>(
+        timeout, new ResponseEntity<List<String>>(HttpStatus.NO_CONTENT));
+    result.onCompletion(() -> watch.cancel(false));
+    watch.thenAccept(changed -> result.setResult(
+        new ResponseEntity<List<String>>(changed, HttpStatus.OK)));
+    return result;
+  }
+
+  /**
+   * Start recording all state changing lock operations into a new binary trace file. The file is
+   * created in the directory given by the system property {@code zuul.trace.dir}, default is the
+   * temp directory. Traces can be replayed with the tools in the zuul-benchmarks module.
+   * @return the name of the trace file, or {@code 409 Conflict} if already recording
+   * @throws IOException if the trace file cannot be created
+   */
+  @RequestMapping(value = "/r", method = RequestMethod.PUT)
+  public synchronized ResponseEntity<String> startRecording() throws IOException {
+    if ( recorder != null ) {
+      return new ResponseEntity<String>(HttpStatus.CONFLICT);
+    }
+    final File trace = new File(traceDirectory, "zuul-" + System.currentTimeMillis() + ".trace");
+    recorder = new RecordingLockManager(lm, new FileOutputStream(trace));
+    lm = recorder;
+    LOG.info("recording lock trace to {}", trace);
+    return new ResponseEntity<String>(trace.getName(), HttpStatus.CREATED);
+  }
+
+  /**
+   * Stop recording the current trace.
+   * @return the number of recorded and dropped events, or {@code 404 Not Found} if not recording
+   * @throws IOException if the trace file cannot be completed
+   */
+  @RequestMapping(value = "/r", method = RequestMethod.DELETE)
+  public synchronized ResponseEntity<String> stopRecording() throws IOException {
+    if ( recorder == null ) {
+      return new ResponseEntity<String>(HttpStatus.NOT_FOUND);
+    }
+    lm = recorder.delegate();
+    recorder.close();
+    final String summary = 
+        recorder.recorded() + " events recorded, " + recorder.dropped() + " events dropped";
+    LOG.info("stopped recording lock trace: {}", summary);
+    recorder = null;
+    return new ResponseEntity<String>(summary, HttpStatus.OK);
+  }
+
+  /**
+   * Returns the operation counters and latency percentiles (in nanoseconds) of the lock manager, 
+   * and the percentiles of lock hold times (in milliseconds) by path prefix.
+   * @return the statistics, or {@code 404 Not Found} if the lock manager keeps no statistics
+   */
+  @RequestMapping(value = "/stats", method = RequestMethod.GET)
+  public ResponseEntity<Map<String, Object>> stats() {
+    final LockManagerStats stats = lockManagerStats();
+    if ( stats == null ) {
+      return new ResponseEntity<Map<String, Object>>(HttpStatus.NOT_FOUND);
+    }
+    return new ResponseEntity<Map<String, Object>>(stats.snapshot(), HttpStatus.OK);
+  }
+
+  /**
+   * Returns the locks held longest by their sessions, longest first, with their hold times in 
+   * milliseconds. Hold time percentiles of released locks are part of {@link #stats()}.
+   * @param limit the maximum number of locks to return, default is 10
+   * @return the locks held longest
+   */
+  @RequestMapping(value = "/stats/holders", method = RequestMethod.GET)
+  @ResponseBody
+  public List<LockHolder> longestHolders(
+      @RequestParam(value = "limit", defaultValue = "10") int limit) {
+    return lm.getLongestHolders(limit);
+  }
+
+  /**
+   * Start profiling contention per lock path, discarding the results of any previous profiling.
+   * @param capacity the number of paths to keep track of, default is 100
+   * @return {@code 201 Created}, or {@code 404 Not Found} if the lock manager cannot be profiled
+   */
+  @RequestMapping(value = "/stats/contention", method = RequestMethod.PUT)
+  public ResponseEntity<String> startProfiling(
+      @RequestParam(value = "capacity", defaultValue = "100") int capacity) {
+    final DefaultEmbeddedLockManager lm = embeddedLockManager();
+    if ( lm == null ) {
+      return new ResponseEntity<String>(HttpStatus.NOT_FOUND);
+    }
+    lm.setContentionProfiler(new ContentionProfiler(capacity));
+    return new ResponseEntity<String>(HttpStatus.CREATED);
+  }
+
+  /**
+   * Returns the lock paths with the longest waits for node mutexes ({@code mutexWaits}, in 
+   * nanoseconds) and with the most rejected lock requests ({@code conflicts}). Each entry gives an
+   * upper bound of the true value ({@code weight}) and the maximum overestimation ({@code error}).
+   * @param limit the maximum number of paths to return per list, default is 10
+   * @return the hottest paths, or {@code 404 Not Found} if contention is not profiled
+   */
+  @RequestMapping(value = "/stats/contention", method = RequestMethod.GET)
+  public ResponseEntity<Map<String, List<SpaceSaving.Entry<List<String>>>>> contention(
+      @RequestParam(value = "limit", defaultValue = "10") int limit) {
+    final DefaultEmbeddedLockManager lm = embeddedLockManager();
+    final ContentionProfiler profiler = ( lm != null ) ? lm.getContentionProfiler() : null;
+    if ( profiler == null ) {
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    final Map<String, List<SpaceSaving.Entry<List<String>>>> hottest = new LinkedHashMap<>();
+    hottest.put("mutexWaits", profiler.getMutexWaits(limit));
+    hottest.put("conflicts", profiler.getConflicts(limit));
+    return new ResponseEntity<>(hottest, HttpStatus.OK);
+  }
+
+  /**
+   * Stop profiling contention.
+   * @return {@code 200 OK}, or {@code 404 Not Found} if contention is not profiled
+   */
+  @RequestMapping(value = "/stats/contention", method = RequestMethod.DELETE)
+  public ResponseEntity<String> stopProfiling() {
+    final DefaultEmbeddedLockManager lm = embeddedLockManager();
+    if ( lm == null || lm.getContentionProfiler() == null ) {
+      return new ResponseEntity<String>(HttpStatus.NOT_FOUND);
+    }
+    lm.setContentionProfiler(null);
+    return new ResponseEntity<String>(HttpStatus.OK);
+  }
+
+  /**
+   * Start logging lock requests that exceed the given latency, discarding the previous log.
+   * @param threshold the latency threshold in microseconds, default is 1000
+   * @param capacity the number of most recent slow requests to keep, default is 256
+   * @return {@code 201 Created}, or {@code 404 Not Found} if the lock manager cannot log requests
+   */
+  @RequestMapping(value = "/stats/slow", method = RequestMethod.PUT)
+  public ResponseEntity<String> startSlowOpLog(
+      @RequestParam(value = "threshold", defaultValue = "1000") long threshold,
+      @RequestParam(value = "capacity", defaultValue = "256") int capacity) {
+    final DefaultEmbeddedLockManager lm = embeddedLockManager();
+    if ( lm == null ) {
+      return new ResponseEntity<String>(HttpStatus.NOT_FOUND);
+    }
+    lm.setSlowOpLog(new SlowOpLog(threshold, TimeUnit.MICROSECONDS, capacity));
+    return new ResponseEntity<String>(HttpStatus.CREATED);
+  }
+
+  /**
+   * Returns the most recent slow lock requests, most recent first. Each entry gives the latency 
+   * and the mutex wait time in nanoseconds, the number of tree nodes traversed and, for rejected
+   * requests, a session holding a conflicting lock.
+   * @param limit the maximum number of entries to return, default is 100
+   * @return the slow requests, or {@code 404 Not Found} if slow requests are not logged
+   */
+  @RequestMapping(value = "/stats/slow", method = RequestMethod.GET)
+  public ResponseEntity<List<SlowOpLog.Entry>> slowOps(
+      @RequestParam(value = "limit", defaultValue = "100") int limit) {
+    final DefaultEmbeddedLockManager lm = embeddedLockManager();
+    final SlowOpLog slowOps = ( lm != null ) ? lm.getSlowOpLog() : null;
+    if ( slowOps == null ) {
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    return new ResponseEntity<>(slowOps.getEntries(limit), HttpStatus.OK);
+  }
+
+  /**
+   * Stop logging slow lock requests.
+   * @return {@code 200 OK}, or {@code 404 Not Found} if slow requests are not logged
+   */
+  @RequestMapping(value = "/stats/slow", method = RequestMethod.DELETE)
+  public ResponseEntity<String> stopSlowOpLog() {
+    final DefaultEmbeddedLockManager lm = embeddedLockManager();
+    if ( lm == null || lm.getSlowOpLog() == null ) {
+      return new ResponseEntity<String>(HttpStatus.NOT_FOUND);
+    }
+    lm.setSlowOpLog(null);
+    return new ResponseEntity<String>(HttpStatus.OK);
+  }
+
+  // the statistics of the lock manager, or null if it keeps none
+  private LockManagerStats lockManagerStats() {
+    final DefaultEmbeddedLockManager lm = embeddedLockManager();
+    return ( lm != null ) ? lm.getStats() : null;
+  }
+
+  // the embedded lock manager behind a possible recorder, or null if it is a different one
+  private DefaultEmbeddedLockManager embeddedLockManager() {
+    LockManager lm = this.lm;
+    if ( lm instanceof RecordingLockManager ) {
+      lm = ( (RecordingLockManager)lm ).delegate();
+    }
+    return ( lm instanceof DefaultEmbeddedLockManager ) ? (DefaultEmbeddedLockManager)lm : null;
+  }
+
   private static LockScope getLockScope(String scope) {
     return ( "s".equals(scope) ) ? LockScope.SHALLOW : LockScope.DEEP;
   }
@@ -163,7 +789,11 @@ public class Zuul {
   private static List<String> getLockPath(HttpServletRequest request, String session) {
     String matchedPath = 
         (String)request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
-    final int prefixLength = "/s/".length() + session.length();
+    final int slash = matchedPath.indexOf('/', 1);
+    if ( slash < 0 ) {
+      return Collections.emptyList(); // the root, as in "/t" or "/c" without a trailing slash
+    }
+    final int prefixLength = slash + 1 + session.length();
     String lockPath = matchedPath.substring(prefixLength);
     if ( lockPath.startsWith("/") ) {
       lockPath = lockPath.substring(1);
@@ -20,6 +20,10 @@ package org.avidj.zuul.rs;
  * #L%
  */
 
+import org.avidj.util.VirtualThreads;
+import org.avidj.zuul.core.jfr.Jfr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.WebApplicationInitializer;
@@ -28,14 +32,18 @@ import org.springframework.web.context.support.AnnotationConfigWebApplicationCon
 import org.springframework.web.servlet.DispatcherServlet;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
+import javax.servlet.FilterRegistration;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletRegistration;
 
 /**
  * This web application initializer creates the components and wires them together. Then it adds a
- * servlet to handle requests and adds a generic URL mapping.
+ * servlet to handle requests and adds a generic URL mapping. If the system property
+ * {@code zuul.virtualThreads} is {@code true} and the JVM supports it, each request is served on a
+ * virtual thread of its own, see {@link VirtualThreadFilter}.
  */
 public class ZuulInitializer implements WebApplicationInitializer {
+  private static final Logger LOG = LoggerFactory.getLogger(ZuulInitializer.class);
 
   @Override
   public void onStartup(ServletContext container) {
@@ -56,7 +64,27 @@ public class ZuulInitializer implements WebApplicationInitializer {
     ServletRegistration.Dynamic dispatcher =
         container.addServlet("dispatcher", new DispatcherServlet(dispatcherContext));
     dispatcher.setLoadOnStartup(1);
+    dispatcher.setAsyncSupported(true);
     dispatcher.addMapping("/");
+
+    // Serve requests on virtual threads, so that blocked requests do not occupy container threads
+    if ( Boolean.getBoolean("zuul.virtualThreads") ) {
+      if ( VirtualThreads.isAvailable() ) {
+        FilterRegistration.Dynamic virtual = container.addFilter(
+            "virtualThreads", new VirtualThreadFilter(VirtualThreads.newThreadPerTaskExecutor()));
+        virtual.setAsyncSupported(true);
+        virtual.addMappingForServletNames(null, false, "dispatcher");
+      } else {
+        LOG.warn("Virtual threads are not supported by this JVM, using the container threads");
+      }
+    }
+
+    // Emit flight recorder events of slow requests, if the JVM supports it
+    if ( Jfr.isAvailable() ) {
+      FilterRegistration.Dynamic jfr = container.addFilter("jfr", new JfrFilter());
+      jfr.setAsyncSupported(true);
+      jfr.addMappingForServletNames(null, false, "dispatcher");
+    }
   }
 
   /**
@@ -0,0 +1,211 @@
+package org.avidj.zuul.rs;
+
+/*
+ * #%L
+ * zuul-rs
+ * %%
+ * Copyright (C) 2015 David Kensche
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.avidj.zuul.core.Lock.newLock;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.avidj.zuul.client.LeasingLockManager;
+import org.avidj.zuul.client.ZuulRestClient;
+import org.avidj.zuul.core.DefaultEmbeddedLockManager;
+import org.avidj.zuul.core.Lock;
+import org.avidj.zuul.core.LockHolder;
+import org.avidj.zuul.core.LockScope;
+import org.avidj.zuul.core.LockTreeVisitor;
+import org.avidj.zuul.core.LockType;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.client.MockMvcClientHttpRequestFactory;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the REST client against the service, with requests dispatched to the controller by a mock
+ * MVC instead of a server.
+ */
+public class ZuulRestClientTest {
+  private DefaultEmbeddedLockManager embedded;
+  private ZuulRestClient client;
+
+  @Before
+  public void before() {
+    embedded = new DefaultEmbeddedLockManager();
+    embedded.setSessionTimeout(100000000);
+    final Zuul zuul = new Zuul();
+    zuul.setLockManager(embedded);
+    client = new ZuulRestClient("http://localhost/", new RestTemplate(
+        new MockMvcClientHttpRequestFactory(MockMvcBuilders.standaloneSetup(zuul).build())));
+  }
+
+  @Test
+  public void itShallReleaseLocksAndSessions() {
+    assertThat(client.lock("1", key("a"), LockType.WRITE, LockScope.SHALLOW), is(true));
+    assertThat(client.lock("1", key("b"), LockType.READ, LockScope.SHALLOW), is(true));
+    assertThat(client.release("1", key("a")), is(true));
+    assertThat(client.release("1", key("a")), is(false));
+    assertThat(embedded.getLocks("1"), is(equalTo(ImmutableSet.of(
+        newLock("1", key("b"), LockType.READ, LockScope.SHALLOW)))));
+    
+    client.heartbeat("1");
+    client.release("1");
+    assertThat(embedded.getLocks("1"), is(equalTo(Collections.emptySet())));
+  }
+
+  @Test
+  public void itShallExpireLocksAndSessions() throws InterruptedException {
+    assertThat(client.lock("1", key("a"), LockType.WRITE, LockScope.SHALLOW, 50), is(true));
+    client.setSessionTimeout("2", 50);
+    assertThat(client.lock("2", key("b"), LockType.WRITE, LockScope.SHALLOW), is(true));
+    assertThat(embedded.lock("3", key("a"), LockType.READ, LockScope.SHALLOW), is(false));
+
+    Thread.sleep(100);
+    assertThat(embedded.lock("3", key("a"), LockType.READ, LockScope.SHALLOW), is(true));
+    assertThat(embedded.getLocks("2"), is(equalTo(Collections.emptySet())));
+  }
+
+  @Test
+  public void itShallFlushLocksOfRecalledLeaseToService() {
+    final LeasingLockManager lm = new LeasingLockManager(client);
+    assertThat(lm.lease("1", key("a")), is(true));
+    assertThat(lm.lease("2", key("a")), is(false));
+    assertThat(lm.lock("1", key("a", "b"), LockType.WRITE, LockScope.SHALLOW), is(true));
+    assertThat(lm.lock("1", key("c"), LockType.WRITE, LockScope.SHALLOW), is(true));
+    assertThat(embedded.getLocks("1"), is(equalTo(ImmutableSet.of(
+        newLock("1", key("a"), LockType.WRITE, LockScope.DEEP),
+        newLock("1", key("c"), LockType.WRITE, LockScope.SHALLOW)))));
+    assertThat(lm.release("1", key("c")), is(true));
+
+    assertThat(embedded.lock("2", key("a", "c"), LockType.READ, LockScope.SHALLOW), is(false));
+    lm.heartbeat("1");
+    assertThat(embedded.getLocks("1"), is(equalTo(ImmutableSet.of(
+        newLock("1", key("a", "b"), LockType.WRITE, LockScope.SHALLOW)))));
+    assertThat(embedded.lock("2", key("a", "c"), LockType.READ, LockScope.SHALLOW), is(true));
+    
+    // the lock below the former lease is released through the service now
+    assertThat(lm.release("1", key("a", "b")), is(true));
+    assertThat(embedded.getLocks("1"), is(equalTo(Collections.emptySet())));
+    lm.release("1");
+  }
+
+  @Test
+  public void itShallRenewWatchPollsUntilChange() throws Exception {
+    // long polls are not dispatched asynchronously by the mock MVC, so the service is simulated
+    final AtomicInteger polls = new AtomicInteger();
+    final ZuulRestClient watching = new ZuulRestClient("http://localhost/", new RestTemplate() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public <T> ResponseEntity<T> getForEntity(URI url, Class<T> responseType) {
+        assertThat(url.getPath(), is("/w/a"));
+        return ( polls.incrementAndGet() < 3 ) 
+            ? new ResponseEntity<T>(HttpStatus.NO_CONTENT)
+            : new ResponseEntity<T>((T)new String[] { "a", "b" }, HttpStatus.OK);
+      }
+    });
+    final List<String> changed = 
+        watching.watch(key("a"), LockScope.DEEP).get(10, TimeUnit.SECONDS);
+    assertThat(changed, is(key("a", "b")));
+    assertThat(polls.get(), is(3));
+  }
+
+  @Test
+  public void itShallWalkLocksLikeEmbedded() {
+    assertThat(embedded.lock("1", key("a"), LockType.READ, LockScope.SHALLOW), is(true));
+    assertThat(embedded.lock("1", key("a"), LockType.READ, LockScope.SHALLOW), is(true));
+    assertThat(embedded.lock("2", key("a", "b"), LockType.WRITE, LockScope.DEEP), is(true));
+    assertThat(embedded.lock("2", key("a", "c", "d"), LockType.READ, LockScope.SHALLOW), is(true));
+    for ( String session : Arrays.asList(null, "1", "2") ) {
+      for ( LockScope scope : LockScope.values() ) {
+        final List<String> remote = new ArrayList<>();
+        final List<String> local = new ArrayList<>();
+        assertThat(client.walkLocks(session, key("a"), scope, recorder(remote)), is(true));
+        assertThat(embedded.walkLocks(session, key("a"), scope, recorder(local)), is(true));
+        assertThat(remote, is(local));
+      }
+    }
+    assertThat(client.walkLocks(null, key("x"), LockScope.DEEP, recorder(new ArrayList<>())), 
+        is(false));
+  }
+
+  @Test
+  public void itShallListChildrenPageByPage() {
+    for ( String child : Arrays.asList("d", "b", "a c", "e") ) {
+      assertThat(embedded.lock("1", key("x", child), LockType.READ, LockScope.SHALLOW), is(true));
+    }
+    assertThat(client.listChildren(key("x"), null, 2), is(key("a c", "b")));
+    assertThat(client.listChildren(key("x"), "b", 2), is(key("d", "e")));
+    assertThat(client.listChildren(key("x"), "e", 2), is(Collections.<String>emptyList()));
+    assertThat(client.listChildren(key("y"), null, 2), is(Collections.<String>emptyList()));
+  }
+
+  @Test
+  public void itShallReportLongestHolders() throws InterruptedException {
+    assertThat(embedded.lock("1", key("a"), LockType.WRITE, LockScope.DEEP), is(true));
+    Thread.sleep(20);
+    assertThat(embedded.lock("2", key("b", "c"), LockType.READ, LockScope.SHALLOW), is(true));
+    final List<LockHolder> holders = client.getLongestHolders(10);
+    assertThat(holders.size(), is(2));
+    assertThat(holders.get(0).session, is("1"));
+    assertThat(holders.get(0).path, is(key("a")));
+    assertThat(holders.get(0).type, is(LockType.WRITE));
+    assertThat(holders.get(0).scope, is(LockScope.DEEP));
+    assertThat(holders.get(0).heldMillis >= 20, is(true));
+    assertThat(holders.get(1).session, is("2"));
+    assertThat(holders.get(1).path, is(key("b", "c")));
+    assertThat(client.getLongestHolders(1).size(), is(1));
+  }
+
+  private static LockTreeVisitor recorder(List<String> walk) {
+    return new LockTreeVisitor() {
+      @Override
+      public void enter(String key) {
+        walk.add("enter " + key);
+      }
+
+      @Override
+      public void visit(Lock lock) {
+        walk.add(lock + " " + lock.count);
+      }
+
+      @Override
+      public void leave() {
+        walk.add("leave");
+      }
+    };
+  }
+
+  private static List<String> key(String... key) {
+    return Arrays.asList(key);
+  }
+}
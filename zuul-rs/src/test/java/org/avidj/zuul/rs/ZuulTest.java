@@ -22,13 +22,28 @@ package org.avidj.zuul.rs;
 
 import static com.jayway.restassured.module.mockmvc.RestAssuredMockMvc.*;
 import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import org.avidj.zuul.core.DefaultEmbeddedLockManager;
+import org.avidj.zuul.core.LockType;
+import org.avidj.zuul.core.trace.TraceEvent;
+import org.avidj.zuul.core.trace.TraceOp;
+import org.avidj.zuul.core.trace.TraceReader;
 import org.junit.Test;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.util.UriComponentsBuilder;
 
 public class ZuulTest {
 
@@ -202,6 +217,436 @@ public class ZuulTest {
         .then().statusCode(HttpStatus.FORBIDDEN.value());
   }
 
+  @Test
+  public void itShallRecallLeaseOnConflict() {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul)
+        .when().put("/l/1/foo")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul).param("t", "r")
+        .when().put("/s/2/foo/bar")
+        .then().statusCode(HttpStatus.FORBIDDEN.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/l/1")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("", hasItem(Arrays.asList("foo")));
+  }
+
+  @Test
+  public void itShallNotifyWatchOnRelease() {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul).param("t", "w")
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.CREATED.value());
+    
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/w/foo");
+    request.setAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE, "/w/foo");
+    DeferredResult<ResponseEntity<List<String>>> result = zuul.watch("d", 10000, request);
+    assertThat(result.hasResult(), is(false));
+    
+    given()
+        .standaloneSetup(zuul)
+        .when().delete("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.NO_CONTENT.value());
+    assertThat(result.hasResult(), is(true));
+  }
+
+  @Test
+  public void itShallGrantWaitingLockOnRelease() throws InterruptedException {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul).param("t", "w")
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.CREATED.value());
+    
+    MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/s/2/foo/bar");
+    request.setAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE, "/s/2/foo/bar");
+    DeferredResult<ResponseEntity<String>> result = zuul.lockWhenAvailable(
+        "2", "w", "s", null, 10000, true, request, UriComponentsBuilder.newInstance());
+    assertThat(result.hasResult(), is(false));
+    
+    given()
+        .standaloneSetup(zuul)
+        .when().delete("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.NO_CONTENT.value());
+    for ( int i = 0; i < 100 && !result.hasResult(); i++ ) {
+      Thread.sleep(10);
+    }
+    assertThat(result.hasResult(), is(true));
+    final ResponseEntity<?> granted = (ResponseEntity<?>)result.getResult();
+    assertThat(granted.getStatusCode(), is(HttpStatus.CREATED));
+    assertThat(granted.getHeaders().getFirst("Zuul-Lock-Handle"), is(notNullValue()));
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/s/2/foo/bar")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("session", hasItem("2"));
+  }
+
+  @Test
+  public void itShallRejectNegativeTtl() {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul).param("ttl", "-1")
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.BAD_REQUEST.value());
+    MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/s/1/foo/bar");
+    request.setAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE, "/s/1/foo/bar");
+    DeferredResult<ResponseEntity<String>> result = zuul.lockWhenAvailable(
+        "1", "w", "s", -1L, 10000, false, request, UriComponentsBuilder.newInstance());
+    assertThat(((ResponseEntity<?>)result.getResult()).getStatusCode(), 
+        is(HttpStatus.BAD_REQUEST));
+  }
+
+  @Test
+  public void itShallReturnHandleOnlyOnRequest() {
+    final Zuul zuul = createZuul();
+    final String handle = given()
+        .standaloneSetup(zuul)
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.CREATED.value())
+        .extract().header("Zuul-Lock-Handle");
+    assertThat(handle, is(nullValue()));
+  }
+
+  @Test
+  public void itShallReenterAndReleaseByHandle() {
+    final Zuul zuul = createZuul();
+    final String handle = given()
+        .standaloneSetup(zuul).param("t", "r").param("handle", "true")
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.CREATED.value())
+        .extract().header("Zuul-Lock-Handle");
+    assertThat(handle, is(notNullValue()));
+    
+    given()
+        .standaloneSetup(zuul).param("t", "r")
+        .when().put("/h/1/" + handle)
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("count", hasItem(2));
+    given()
+        .standaloneSetup(zuul)
+        .when().delete("/h/2/" + handle)
+        .then().statusCode(HttpStatus.NOT_FOUND.value());
+    for ( int i = 0; i < 2; i++ ) {
+      given()
+          .standaloneSetup(zuul)
+          .when().delete("/h/1/" + handle)
+          .then().statusCode(HttpStatus.NO_CONTENT.value());
+    }
+    given()
+        .standaloneSetup(zuul)
+        .when().delete("/h/1/" + handle)
+        .then().statusCode(HttpStatus.NOT_FOUND.value());
+  }
+
+  @Test
+  public void itShallUpgradeAndDowngradeInPlace() {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul).param("t", "r")
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul).param("to", "w")
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.OK.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("type", hasItem("WRITE"))
+        .and().body("count", hasItem(1));
+    given()
+        .standaloneSetup(zuul).param("t", "r")
+        .when().put("/s/2/foo/bar")
+        .then().statusCode(HttpStatus.FORBIDDEN.value());
+    
+    given()
+        .standaloneSetup(zuul).param("to", "r")
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.OK.value());
+    given()
+        .standaloneSetup(zuul).param("t", "r")
+        .when().put("/s/2/foo/bar")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul).param("to", "w")
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.FORBIDDEN.value());
+  }
+
+  @Test
+  public void itShallApplyBulkOperations() {
+    final DefaultEmbeddedLockManager lm = new DefaultEmbeddedLockManager();
+    final Zuul zuul = new Zuul();
+    zuul.setLockManager(lm);
+    given()
+        .standaloneSetup(zuul).contentType("application/json")
+        .body("[[\"ws\",\"foo\"],[\"rd\",\"bar\",\"baz\"]]")
+        .when().post("/b/1")
+        .then().statusCode(HttpStatus.CREATED.value())
+        .and().body("", equalTo(Arrays.asList(true, true)));
+    
+    // the read lock is obtained, but rolled back because the write lock conflicts
+    given()
+        .standaloneSetup(zuul).contentType("application/json")
+        .body("[[\"rs\",\"qux\"],[\"ws\",\"foo\"]]")
+        .when().post("/b/2")
+        .then().statusCode(HttpStatus.FORBIDDEN.value())
+        .and().body("", equalTo(Arrays.asList(false, false)));
+    assertThat(lm.getLocks("2").isEmpty(), is(true));
+    
+    given()
+        .standaloneSetup(zuul).contentType("application/json").param("atomic", "false")
+        .body("[[\"-\",\"foo\"],[\"-\",\"qux\"],[\"ws\",\"qux\"]]")
+        .when().post("/b/1")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("", equalTo(Arrays.asList(true, false, true)));
+    given()
+        .standaloneSetup(zuul).contentType("application/json")
+        .body("[[\"xx\",\"foo\"]]")
+        .when().post("/b/1")
+        .then().statusCode(HttpStatus.BAD_REQUEST.value());
+  }
+
+  @Test
+  public void itShallReturnLockTreeOfSubtree() {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul).param("t", "r").param("s", "s")
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul).param("t", "w").param("s", "s")
+        .when().put("/s/2/baz")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/t/foo")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("key", equalTo("foo"))
+        .and().body("children.key", hasItem("bar"))
+        .and().body("children[0].locks.session", hasItem("1"))
+        .and().body("children[0].locks.type", hasItem("READ"));
+  }
+
+  @Test
+  public void itShallResolveRootWithoutTrailingSlash() {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul).param("t", "r").param("s", "s")
+        .when().put("/s/1")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul).param("t", "r").param("s", "s")
+        .when().put("/s/1/foo")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/t")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("locks.session", hasItem("1"))
+        .and().body("children.key", hasItem("foo"));
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/c")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("", equalTo(Arrays.asList("foo")));
+  }
+
+  @Test
+  public void itShallNotFindLockTreeOfMissingNode() {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/t/foo")
+        .then().statusCode(HttpStatus.NOT_FOUND.value());
+  }
+
+  @Test
+  public void itShallListChildren() {
+    final Zuul zuul = createZuul();
+    for ( String child : Arrays.asList("c", "a", "b") ) {
+      given()
+          .standaloneSetup(zuul).param("t", "r")
+          .when().put("/s/1/foo/" + child)
+          .then().statusCode(HttpStatus.CREATED.value());
+    }
+    given()
+        .standaloneSetup(zuul).param("after", "a").param("limit", 1)
+        .when().get("/c/foo")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("", equalTo(Arrays.asList("b")));
+  }
+
+  @Test
+  public void itShallRecordLockTrace() throws IOException {
+    final Zuul zuul = createZuul();
+    final File dir = Files.createTempDirectory("zuul-trace").toFile();
+    zuul.setTraceDirectory(dir);
+    given()
+        .standaloneSetup(zuul)
+        .when().delete("/r")
+        .then().statusCode(HttpStatus.NOT_FOUND.value());
+    final String name = given()
+        .standaloneSetup(zuul)
+        .when().put("/r")
+        .then().statusCode(HttpStatus.CREATED.value())
+        .extract().asString();
+    given()
+        .standaloneSetup(zuul)
+        .when().put("/r")
+        .then().statusCode(HttpStatus.CONFLICT.value());
+    given()
+        .standaloneSetup(zuul).param("t", "w").param("s", "s")
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().delete("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.NO_CONTENT.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().delete("/r")
+        .then().statusCode(HttpStatus.OK.value());
+
+    try ( TraceReader trace = new TraceReader(new FileInputStream(new File(dir, name))) ) {
+      TraceEvent lock = trace.read();
+      assertThat(lock.op, is(TraceOp.LOCK));
+      assertThat(lock.session, is("1"));
+      assertThat(lock.path(), is(Arrays.asList("foo", "bar")));
+      assertThat(lock.type, is(LockType.WRITE));
+      assertThat(lock.result, is(1));
+      TraceEvent release = trace.read();
+      assertThat(release.op, is(TraceOp.RELEASE));
+      assertThat(release.result, is(1));
+      assertThat(trace.read(), is(nullValue()));
+    }
+  }
+
+  @Test
+  public void itShallReportStats() {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul).param("t", "w").param("s", "s")
+        .when().put("/s/1/foo/bar")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/stats")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("writeLocks", is(1))
+        .and().body("nodes", is(2))
+        .and().body("sessions", is(1))
+        .and().body("writeLockLatency.count", is(1));
+  }
+
+  @Test
+  public void itShallReportLongestHolders() {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul).param("t", "w").param("s", "s")
+        .when().put("/s/1/foo")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul).param("t", "r").param("s", "s")
+        .when().put("/s/2/bar")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul).param("limit", "1")
+        .when().get("/stats/holders")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("size()", is(1))
+        .and().body("[0].session", is("1"))
+        .and().body("[0].path[0]", is("foo"));
+    given()
+        .standaloneSetup(zuul)
+        .when().delete("/s/1/foo")
+        .then().statusCode(HttpStatus.NO_CONTENT.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/stats")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("holdTimes.'/foo'.count", is(1));
+  }
+
+  @Test
+  public void itShallLogSlowOperations() {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/stats/slow")
+        .then().statusCode(HttpStatus.NOT_FOUND.value());
+    given()
+        .standaloneSetup(zuul).param("threshold", "0")
+        .when().put("/stats/slow")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul).param("t", "w").param("s", "s")
+        .when().put("/s/1/foo")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul).param("t", "w").param("s", "s")
+        .when().put("/s/2/foo")
+        .then().statusCode(HttpStatus.FORBIDDEN.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/stats/slow")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("size()", is(2))
+        .and().body("[0].session", is("2"))
+        .and().body("[0].granted", is(false))
+        .and().body("[0].holder", is("1"));
+    given()
+        .standaloneSetup(zuul)
+        .when().delete("/stats/slow")
+        .then().statusCode(HttpStatus.OK.value());
+  }
+
+  @Test
+  public void itShallProfileContention() {
+    final Zuul zuul = createZuul();
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/stats/contention")
+        .then().statusCode(HttpStatus.NOT_FOUND.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().put("/stats/contention")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul).param("t", "w").param("s", "s")
+        .when().put("/s/1/foo")
+        .then().statusCode(HttpStatus.CREATED.value());
+    given()
+        .standaloneSetup(zuul).param("t", "w").param("s", "s")
+        .when().put("/s/2/foo")
+        .then().statusCode(HttpStatus.FORBIDDEN.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/stats/contention")
+        .then().statusCode(HttpStatus.OK.value())
+        .and().body("conflicts.key", hasItem(Arrays.asList("foo")))
+        .and().body("conflicts.weight", hasItem(1));
+    given()
+        .standaloneSetup(zuul)
+        .when().delete("/stats/contention")
+        .then().statusCode(HttpStatus.OK.value());
+    given()
+        .standaloneSetup(zuul)
+        .when().get("/stats/contention")
+        .then().statusCode(HttpStatus.NOT_FOUND.value());
+  }
+
   private static Zuul createZuul() {
     Zuul zuul = new Zuul();
     zuul.setLockManager(new DefaultEmbeddedLockManager());